@@ -0,0 +1,109 @@
+/**
+ *
+ */
+package wblut.geom;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import wblut.hemesh.HEC_Geodesic;
+import wblut.hemesh.HET_MeshOp;
+import wblut.hemesh.HE_Mesh;
+import wblut.math.WB_MTRandom;
+
+/**
+ * Casting rays at a sphere through an AABB tree and through a BVH. Rays are
+ * reported per batch of 1000.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WB_AABBTreeBenchmark {
+
+	/** Geodesic frequency, the sphere has 20*size*size faces. */
+	@Param({ "8", "32", "96" })
+	int size;
+
+	HE_Mesh mesh;
+	WB_AABBTree tree;
+	WB_BVH bvh;
+	WB_Ray[] rays;
+	double[] origins;
+	double[] directions;
+
+	@Setup
+	public void setup() {
+		mesh = new HE_Mesh(new HEC_Geodesic().setRadius(100).setB(size).setC(0));
+		tree = new WB_AABBTree(mesh, 10);
+		bvh = new WB_BVH(mesh);
+		final WB_MTRandom random = new WB_MTRandom(42);
+		rays = new WB_Ray[1000];
+		origins = new double[3 * rays.length];
+		directions = new double[3 * rays.length];
+		for (int i = 0; i < rays.length; i++) {
+			final WB_Point o = new WB_Point(random.nextDouble() - 0.5, random.nextDouble() - 0.5,
+					random.nextDouble() - 0.5);
+			o.normalizeSelf();
+			o.mulSelf(200);
+			final WB_Vector d = new WB_Vector(random.nextDouble() * 100 - 50, random.nextDouble() * 100 - 50,
+					random.nextDouble() * 100 - 50).subSelf(o);
+			d.normalizeSelf();
+			rays[i] = new WB_Ray(o, d);
+			origins[3 * i] = o.xd();
+			origins[3 * i + 1] = o.yd();
+			origins[3 * i + 2] = o.zd();
+			directions[3 * i] = d.xd();
+			directions[3 * i + 1] = d.yd();
+			directions[3 * i + 2] = d.zd();
+		}
+	}
+
+	@Benchmark
+	public WB_AABBTree build() {
+		return new WB_AABBTree(mesh, 10);
+	}
+
+	@Benchmark
+	public void closestHit(final Blackhole bh) {
+		for (final WB_Ray ray : rays) {
+			bh.consume(HET_MeshOp.getClosestIntersection(tree, ray));
+		}
+	}
+
+	@Benchmark
+	public void allHits(final Blackhole bh) {
+		for (final WB_Ray ray : rays) {
+			bh.consume(HET_MeshOp.getIntersection(tree, ray));
+		}
+	}
+
+	@Benchmark
+	public void closestHitBVH(final Blackhole bh) {
+		for (final WB_Ray ray : rays) {
+			bh.consume(HET_MeshOp.getClosestIntersection(bvh, ray));
+		}
+	}
+
+	@Benchmark
+	public double[] closestHitsBVHBatch() {
+		final double[] t = new double[rays.length];
+		bvh.getClosestHits(origins, directions, 0, Double.POSITIVE_INFINITY, t, null, null);
+		return t;
+	}
+}
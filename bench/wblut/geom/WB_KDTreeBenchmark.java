@@ -0,0 +1,88 @@
+/**
+ *
+ */
+package wblut.geom;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import wblut.math.WB_MTRandom;
+
+/**
+ * Building a KD-tree of random points and querying it for nearest neighbors
+ * and ranges. Queries are reported per batch of 1000.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WB_KDTreeBenchmark {
+
+	/** Number of points in the tree. */
+	@Param({ "10000", "100000", "1000000" })
+	int size;
+
+	WB_Point[] points;
+	WB_Point[] queries;
+	WB_KDTree<WB_Point, Integer> tree;
+
+	@Setup
+	public void setup() {
+		final WB_MTRandom random = new WB_MTRandom(42);
+		points = new WB_Point[size];
+		for (int i = 0; i < size; i++) {
+			points[i] = new WB_Point(random.nextDouble(), random.nextDouble(), random.nextDouble());
+		}
+		queries = new WB_Point[1000];
+		for (int i = 0; i < queries.length; i++) {
+			queries[i] = new WB_Point(random.nextDouble(), random.nextDouble(), random.nextDouble());
+		}
+		tree = build();
+	}
+
+	@Benchmark
+	public WB_KDTree<WB_Point, Integer> build() {
+		final WB_KDTree<WB_Point, Integer> result = new WB_KDTree<WB_Point, Integer>();
+		for (int i = 0; i < size; i++) {
+			result.add(points[i], i);
+		}
+		return result;
+	}
+
+	@Benchmark
+	public void nearestNeighbor(final Blackhole bh) {
+		for (final WB_Point q : queries) {
+			bh.consume(tree.getNearestNeighbors(q, 1));
+		}
+	}
+
+	@Benchmark
+	public void nearestNeighbors16(final Blackhole bh) {
+		for (final WB_Point q : queries) {
+			bh.consume(tree.getNearestNeighbors(q, 16));
+		}
+	}
+
+	@Benchmark
+	public void range(final Blackhole bh) {
+		final double r = Math.cbrt(16.0 / size);
+		for (final WB_Point q : queries) {
+			bh.consume(tree.getRange(q, r));
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ *
+ */
+package wblut.hemesh;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wblut.geom.WB_Coord;
+
+/**
+ * Building a mesh from a face list, with and without welding duplicate
+ * vertices.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HEC_FromFacelistBenchmark {
+
+	/** Geodesic frequency, the sphere has 20*size*size faces. */
+	@Param({ "8", "32", "96" })
+	int size;
+
+	List<WB_Coord> vertices;
+	int[][] faces;
+
+	@Setup
+	public void setup() {
+		final HE_Mesh mesh = new HE_Mesh(new HEC_Geodesic().setRadius(100).setB(size).setC(0));
+		vertices = mesh.getVerticesAsCoord();
+		faces = mesh.getFacesAsInt();
+	}
+
+	@Benchmark
+	public HE_Mesh build() {
+		return new HE_Mesh(new HEC_FromFacelist().setVertices(vertices).setFaces(faces).setDuplicate(false));
+	}
+
+	@Benchmark
+	public HE_Mesh buildWelded() {
+		return new HE_Mesh(new HEC_FromFacelist().setVertices(vertices).setFaces(faces).setDuplicate(true));
+	}
+}
@@ -0,0 +1,63 @@
+/**
+ *
+ */
+package wblut.hemesh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Iso-surface of a sum of spherical blobs sampled on a cubic grid.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HEC_IsoSurfaceBenchmark {
+
+	/** Cells along each side of the grid. */
+	@Param({ "32", "64", "128" })
+	int resolution;
+
+	double[][][] values;
+
+	@Setup
+	public void setup() {
+		values = new double[resolution + 1][resolution + 1][resolution + 1];
+		final double[][] blobs = { { 0.35, 0.4, 0.5 }, { 0.65, 0.6, 0.5 }, { 0.5, 0.5, 0.3 } };
+		for (int i = 0; i <= resolution; i++) {
+			for (int j = 0; j <= resolution; j++) {
+				for (int k = 0; k <= resolution; k++) {
+					double v = 0;
+					for (final double[] b : blobs) {
+						final double dx = (double) i / resolution - b[0];
+						final double dy = (double) j / resolution - b[1];
+						final double dz = (double) k / resolution - b[2];
+						v += 0.01 / (dx * dx + dy * dy + dz * dz + 1e-6);
+					}
+					values[i][j][k] = v;
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public HE_Mesh isoSurface() {
+		return new HE_Mesh(new HEC_IsoSurface().setResolution(resolution, resolution, resolution)
+				.setSize(1.0 / resolution, 1.0 / resolution, 1.0 / resolution).setValues(values).setIsolevel(1.0));
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ *
+ */
+package wblut.hemesh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Extruding all faces of a sphere, straight and with a chamfer.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HEM_ExtrudeBenchmark {
+
+	/** Geodesic frequency, the sphere has 20*size*size faces. */
+	@Param({ "8", "32", "64" })
+	int size;
+
+	HE_Mesh source;
+	HE_Mesh mesh;
+
+	@Setup
+	public void setup() {
+		source = new HE_Mesh(new HEC_Geodesic().setRadius(100).setB(size).setC(0));
+	}
+
+	@Setup(Level.Invocation)
+	public void copy() {
+		mesh = source.get();
+	}
+
+	@Benchmark
+	public HE_Mesh extrude() {
+		return mesh.modify(new HEM_Extrude().setDistance(5));
+	}
+
+	@Benchmark
+	public HE_Mesh extrudeChamfer() {
+		return mesh.modify(new HEM_Extrude().setDistance(5).setChamfer(0.5));
+	}
+}
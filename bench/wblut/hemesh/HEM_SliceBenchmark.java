@@ -0,0 +1,67 @@
+/**
+ *
+ */
+package wblut.hemesh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wblut.geom.WB_Plane;
+
+/**
+ * Cutting a sphere with a single plane and with a stack of planes.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HEM_SliceBenchmark {
+
+	/** Geodesic frequency, the sphere has 20*size*size faces. */
+	@Param({ "8", "32", "64" })
+	int size;
+
+	HE_Mesh source;
+	HE_Mesh mesh;
+	WB_Plane[] planes;
+
+	@Setup
+	public void setup() {
+		source = new HE_Mesh(new HEC_Geodesic().setRadius(100).setB(size).setC(0));
+		planes = new WB_Plane[16];
+		for (int i = 0; i < planes.length; i++) {
+			final double a = 2 * Math.PI * i / planes.length;
+			planes[i] = new WB_Plane(80 * Math.cos(a), 80 * Math.sin(a), 0, -Math.cos(a), -Math.sin(a), 0.2);
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void copy() {
+		mesh = source.get();
+	}
+
+	@Benchmark
+	public HE_Mesh slice() {
+		return mesh.modify(new HEM_Slice().setPlane(10, 20, 30, 1, 1, 1));
+	}
+
+	@Benchmark
+	public HE_Mesh multiSlice() {
+		return mesh.modify(new HEM_MultiSlice().setPlanes(planes));
+	}
+}
@@ -0,0 +1,64 @@
+/**
+ *
+ */
+package wblut.hemesh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One level of Catmull-Clark subdivision of a box and of a triangulated
+ * sphere.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HES_CatmullClarkBenchmark {
+
+	/** Segments of the box and frequency of the sphere. */
+	@Param({ "8", "32", "64" })
+	int size;
+
+	HE_Mesh boxSource;
+	HE_Mesh sphereSource;
+	HE_Mesh box;
+	HE_Mesh sphere;
+
+	@Setup
+	public void setup() {
+		boxSource = new HE_Mesh(new HEC_Box().setWidth(100).setHeight(100).setDepth(100).setSegments(size, size, size));
+		sphereSource = new HE_Mesh(new HEC_Geodesic().setRadius(100).setB(size).setC(0));
+	}
+
+	@Setup(Level.Invocation)
+	public void copy() {
+		box = boxSource.get();
+		sphere = sphereSource.get();
+	}
+
+	@Benchmark
+	public HE_Mesh box() {
+		return box.subdivide(new HES_CatmullClark());
+	}
+
+	@Benchmark
+	public HE_Mesh sphere() {
+		return sphere.subdivide(new HES_CatmullClark());
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ *
+ */
+package wblut.hemesh;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writing a sphere with each of the writers in HET_Export. Files go to a
+ * temporary directory that is removed afterwards.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HET_ExportBenchmark {
+
+	/** Geodesic frequency, the sphere has 20*size*size faces. */
+	@Param({ "8", "32", "96" })
+	int size;
+
+	@Param({ "OBJ", "STL", "PLY", "WRL", "POV", "SimpleMesh", "Hemesh", "BinaryHemesh", "BinaryHemesh2" })
+	String format;
+
+	HE_Mesh mesh;
+	File dir;
+	String path;
+
+	@Setup
+	public void setup() throws Exception {
+		mesh = new HE_Mesh(new HEC_Geodesic().setRadius(100).setB(size).setC(0));
+		dir = File.createTempFile("hemesh", "bench");
+		dir.delete();
+		dir.mkdirs();
+		path = dir.getAbsolutePath();
+	}
+
+	@TearDown
+	public void tearDown() {
+		final File[] files = dir.listFiles();
+		if (files != null) {
+			for (final File f : files) {
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	@Benchmark
+	public void save() {
+		if (format.equals("OBJ")) {
+			HET_Export.saveToOBJ(mesh, path, "mesh");
+		} else if (format.equals("STL")) {
+			HET_Export.saveToSTL(mesh, path, "mesh");
+		} else if (format.equals("PLY")) {
+			HET_Export.saveToPLY(mesh, path, "mesh");
+		} else if (format.equals("WRL")) {
+			HET_Export.saveToWRL(mesh, path, "mesh");
+		} else if (format.equals("POV")) {
+			HET_Export.saveToPOV(mesh, path, "mesh");
+		} else if (format.equals("SimpleMesh")) {
+			HET_Export.saveToSimpleMesh(mesh, path, "mesh");
+		} else if (format.equals("Hemesh")) {
+			HET_Export.saveToHemesh(mesh, path, "mesh");
+		} else if (format.equals("BinaryHemesh")) {
+			HET_Export.saveToBinaryHemesh(mesh, path, "mesh");
+		} else if (format.equals("BinaryHemesh2")) {
+			HET_Export.saveToBinaryHemesh2(mesh, path, "mesh");
+		}
+	}
+}
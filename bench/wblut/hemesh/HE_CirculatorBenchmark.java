@@ -0,0 +1,94 @@
+/**
+ *
+ */
+package wblut.hemesh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Visiting the one-ring of every vertex and the boundary of every face with
+ * the circulators.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HE_CirculatorBenchmark {
+
+	/** Geodesic frequency, the sphere has 20*size*size faces. */
+	@Param({ "8", "32", "96" })
+	int size;
+
+	HE_Vertex[] vertices;
+	HE_Face[] faces;
+
+	@Setup
+	public void setup() {
+		final HE_Mesh mesh = new HE_Mesh(new HEC_Geodesic().setRadius(100).setB(size).setC(0));
+		vertices = mesh.getVerticesAsArray();
+		faces = mesh.getFacesAsArray();
+	}
+
+	@Benchmark
+	public void vertexVertex(final Blackhole bh) {
+		for (final HE_Vertex v : vertices) {
+			final HE_VertexVertexCirculator crc = v.vvCrc();
+			while (crc.hasNext()) {
+				bh.consume(crc.next());
+			}
+		}
+	}
+
+	@Benchmark
+	public void vertexEdge(final Blackhole bh) {
+		for (final HE_Vertex v : vertices) {
+			final HE_VertexEdgeCirculator crc = v.veCrc();
+			while (crc.hasNext()) {
+				bh.consume(crc.next());
+			}
+		}
+	}
+
+	@Benchmark
+	public void faceVertex(final Blackhole bh) {
+		for (final HE_Face f : faces) {
+			final HE_FaceVertexCirculator crc = f.fvCrc();
+			while (crc.hasNext()) {
+				bh.consume(crc.next());
+			}
+		}
+	}
+
+	@Benchmark
+	public void faceEdge(final Blackhole bh) {
+		for (final HE_Face f : faces) {
+			final HE_FaceEdgeCirculator crc = f.feCrc();
+			while (crc.hasNext()) {
+				bh.consume(crc.next());
+			}
+		}
+	}
+
+	@Benchmark
+	public void neighborVertices(final Blackhole bh) {
+		for (final HE_Vertex v : vertices) {
+			bh.consume(v.getNeighborVertices());
+		}
+	}
+}
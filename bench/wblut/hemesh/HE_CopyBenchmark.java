@@ -0,0 +1,72 @@
+/**
+ *
+ */
+package wblut.hemesh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Copying a sphere: HEC_Copy, the index-based HE_Mesh.copy() and the
+ * copy-on-write HE_CompactMesh.copy(), with and without a write.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HE_CopyBenchmark {
+
+	/** Geodesic frequency, the sphere has 20*size*size faces. */
+	@Param({ "8", "32", "64" })
+	int size;
+
+	HE_Mesh source;
+	HE_CompactMesh compact;
+
+	@Setup
+	public void setup() {
+		source = new HE_Mesh(new HEC_Geodesic().setRadius(100).setB(size).setC(0));
+		compact = new HE_CompactMesh(source);
+	}
+
+	@Benchmark
+	public HE_Mesh hecCopy() {
+		return new HE_Mesh(new HEC_Copy(source));
+	}
+
+	@Benchmark
+	public HE_Mesh copy() {
+		return source.copy();
+	}
+
+	@Benchmark
+	public HE_Mesh compactToMesh() {
+		return compact.toMesh();
+	}
+
+	@Benchmark
+	public HE_CompactMesh compactCopy() {
+		return compact.copy();
+	}
+
+	@Benchmark
+	public HE_CompactMesh compactCopyAndWrite() {
+		final HE_CompactMesh copy = compact.copy();
+		copy.setPosition(0, 0, 0, 0);
+		return copy;
+	}
+}
@@ -0,0 +1,284 @@
+/*
+ * This file is part of HE_Mesh, a library for creating and manipulating meshes.
+ * It is dedicated to the public domain. To the extent possible under law,
+ * I , Frederik Vanhoutte, have waived all copyright and related or neighboring
+ * rights.
+ *
+ * This work is published from Belgium. (http://creativecommons.org/publicdomain/zero/1.0/)
+ *
+ */
+package wblut.core;
+
+import java.util.Arrays;
+
+/**
+ * Min-heap of integer items in the range [0, capacity) with double keys. The
+ * position of every item is tracked, so the key of an item can be changed or
+ * the item removed in O(log n) without searching. Keys and positions are
+ * stored in primitive arrays, nothing is allocated after construction.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class WB_IndexedHeap {
+	private final int arity;
+	private final int[] heap;
+	private final int[] positions;
+	private final double[] keys;
+	private int size;
+
+	/**
+	 * Binary heap.
+	 *
+	 * @param capacity
+	 *            items are in the range [0, capacity)
+	 */
+	public WB_IndexedHeap(final int capacity) {
+		this(capacity, 2);
+	}
+
+	/**
+	 *
+	 *
+	 * @param capacity
+	 *            items are in the range [0, capacity)
+	 * @param arity
+	 *            number of children per node, 2 or more
+	 */
+	public WB_IndexedHeap(final int capacity, final int arity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("Capacity should be positive.");
+		}
+		if (arity < 2) {
+			throw new IllegalArgumentException("Arity should be at least 2.");
+		}
+		this.arity = arity;
+		heap = new int[capacity];
+		positions = new int[capacity];
+		keys = new double[capacity];
+		Arrays.fill(positions, -1);
+		size = 0;
+	}
+
+	/**
+	 *
+	 *
+	 * @return number of items in the heap
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 *
+	 *
+	 * @return
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 *
+	 *
+	 * @param item
+	 * @return
+	 */
+	public boolean contains(final int item) {
+		return positions[item] >= 0;
+	}
+
+	/**
+	 * Key of an item, only meaningful if the item is in the heap.
+	 *
+	 * @param item
+	 * @return
+	 */
+	public double getKey(final int item) {
+		return keys[item];
+	}
+
+	/**
+	 * Add an item that is not in the heap.
+	 *
+	 * @param item
+	 * @param key
+	 */
+	public void add(final int item, final double key) {
+		if (positions[item] >= 0) {
+			throw new IllegalArgumentException("Item " + item + " is already in the heap.");
+		}
+		keys[item] = key;
+		heap[size] = item;
+		positions[item] = size;
+		size++;
+		siftUp(size - 1);
+	}
+
+	/**
+	 * Set the key of an item, adding it if it is not in the heap.
+	 *
+	 * @param item
+	 * @param key
+	 */
+	public void update(final int item, final double key) {
+		final int pos = positions[item];
+		if (pos < 0) {
+			add(item, key);
+			return;
+		}
+		final double old = keys[item];
+		keys[item] = key;
+		if (key < old) {
+			siftUp(pos);
+		} else if (key > old) {
+			siftDown(pos);
+		}
+	}
+
+	/**
+	 * Lower the key of an item, adding it if it is not in the heap. Nothing
+	 * changes if the item has a lower or equal key.
+	 *
+	 * @param item
+	 * @param key
+	 * @return true if the key was lowered or the item added
+	 */
+	public boolean decreaseKey(final int item, final double key) {
+		final int pos = positions[item];
+		if (pos < 0) {
+			add(item, key);
+			return true;
+		}
+		if (key >= keys[item]) {
+			return false;
+		}
+		keys[item] = key;
+		siftUp(pos);
+		return true;
+	}
+
+	/**
+	 * Remove an item, if present.
+	 *
+	 * @param item
+	 */
+	public void remove(final int item) {
+		final int pos = positions[item];
+		if (pos < 0) {
+			return;
+		}
+		positions[item] = -1;
+		size--;
+		if (pos == size) {
+			return;
+		}
+		final int last = heap[size];
+		heap[pos] = last;
+		positions[last] = pos;
+		if (pos > 0 && keys[last] < keys[heap[(pos - 1) / arity]]) {
+			siftUp(pos);
+		} else {
+			siftDown(pos);
+		}
+	}
+
+	/**
+	 *
+	 *
+	 * @return item with the lowest key, -1 if the heap is empty
+	 */
+	public int peek() {
+		return size == 0 ? -1 : heap[0];
+	}
+
+	/**
+	 *
+	 *
+	 * @return lowest key, +infinity if the heap is empty
+	 */
+	public double peekKey() {
+		return size == 0 ? Double.POSITIVE_INFINITY : keys[heap[0]];
+	}
+
+	/**
+	 * Remove and return the item with the lowest key.
+	 *
+	 * @return item, -1 if the heap is empty
+	 */
+	public int poll() {
+		if (size == 0) {
+			return -1;
+		}
+		final int top = heap[0];
+		remove(top);
+		return top;
+	}
+
+	/**
+	 *
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			positions[heap[i]] = -1;
+		}
+		size = 0;
+	}
+
+	/**
+	 *
+	 *
+	 * @param pos
+	 */
+	private void siftUp(int pos) {
+		final int item = heap[pos];
+		final double key = keys[item];
+		while (pos > 0) {
+			final int parent = (pos - 1) / arity;
+			final int p = heap[parent];
+			if (keys[p] <= key) {
+				break;
+			}
+			heap[pos] = p;
+			positions[p] = pos;
+			pos = parent;
+		}
+		heap[pos] = item;
+		positions[item] = pos;
+	}
+
+	/**
+	 *
+	 *
+	 * @param pos
+	 */
+	private void siftDown(int pos) {
+		final int item = heap[pos];
+		final double key = keys[item];
+		while (true) {
+			final int first = arity * pos + 1;
+			if (first >= size) {
+				break;
+			}
+			final int last = Math.min(first + arity, size);
+			int best = first;
+			double bestKey = keys[heap[first]];
+			for (int c = first + 1; c < last; c++) {
+				final double k = keys[heap[c]];
+				if (k < bestKey) {
+					best = c;
+					bestKey = k;
+				}
+			}
+			if (bestKey >= key) {
+				break;
+			}
+			final int b = heap[best];
+			heap[pos] = b;
+			positions[b] = pos;
+			pos = best;
+		}
+		heap[pos] = item;
+		positions[item] = pos;
+	}
+}
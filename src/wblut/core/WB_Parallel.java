@@ -0,0 +1,425 @@
+/*
+ * This file is part of HE_Mesh, a library for creating and manipulating meshes.
+ * It is dedicated to the public domain. To the extent possible under law,
+ * I , Frederik Vanhoutte, have waived all copyright and related or neighboring
+ * rights.
+ *
+ * This work is published from Belgium. (http://creativecommons.org/publicdomain/zero/1.0/)
+ *
+ */
+package wblut.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Library-wide execution layer for all multithreaded code. All work runs on a
+ * single shared work-stealing pool. Index ranges are split recursively into
+ * chunks, idle threads steal the larger remaining halves so elements with
+ * uneven cost are balanced automatically.
+ *
+ * With a parallelism of 1 everything runs single-threaded in the calling
+ * thread.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class WB_Parallel {
+	/** Number of chunks per thread a range is split into. */
+	private static int chunksPerThread = 8;
+	private static int parallelism = Runtime.getRuntime().availableProcessors();
+	private static ForkJoinPool pool = null;
+
+	/**
+	 *
+	 */
+	protected WB_Parallel() {
+	}
+
+	/**
+	 * Set the number of threads used by all multithreaded code in the
+	 * library. A value of 1 or less runs everything single-threaded.
+	 *
+	 * The old pool is not shut down, tasks still running in it can keep
+	 * forking subtasks. Its worker threads are daemon threads that terminate
+	 * when idle, the pool is then garbage collected.
+	 *
+	 * @param parallelism
+	 */
+	public static synchronized void setParallelism(final int parallelism) {
+		final int p = Math.max(1, parallelism);
+		if (p != WB_Parallel.parallelism) {
+			pool = null;
+		}
+		WB_Parallel.parallelism = p;
+	}
+
+	/**
+	 *
+	 *
+	 * @return number of threads used
+	 */
+	public static synchronized int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Run everything in the calling thread, or restore the default
+	 * parallelism.
+	 *
+	 * @param b
+	 */
+	public static void setSingleThreaded(final boolean b) {
+		setParallelism(b ? 1 : Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 *
+	 *
+	 * @return
+	 */
+	public static boolean isSingleThreaded() {
+		return getParallelism() == 1;
+	}
+
+	/**
+	 * Set the number of chunks per thread a range is split into. Higher values
+	 * give better load balancing for uneven work at the cost of more tasks.
+	 *
+	 * @param n
+	 */
+	public static synchronized void setChunksPerThread(final int n) {
+		chunksPerThread = Math.max(1, n);
+	}
+
+	/**
+	 * Get the shared pool, created on first use.
+	 *
+	 * @return
+	 */
+	public static synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			pool = new ForkJoinPool(parallelism);
+		}
+		return pool;
+	}
+
+	/**
+	 * Chunk size for a range, never smaller than minimumChunk.
+	 *
+	 * @param n
+	 * @param minimumChunk
+	 * @return
+	 */
+	private static int grain(final int n, final int minimumChunk) {
+		final int p;
+		final int c;
+		synchronized (WB_Parallel.class) {
+			p = parallelism;
+			c = chunksPerThread;
+		}
+		return Math.max(Math.max(1, minimumChunk), (n + p * c - 1) / (p * c));
+	}
+
+	/**
+	 *
+	 *
+	 * @param task
+	 * @return
+	 */
+	private static <T> T invoke(final ForkJoinTask<T> task) {
+		final ForkJoinPool p = getPool();
+		// only run inline when already inside the configured pool, tasks
+		// called from any other pool, e.g. the common pool, are submitted
+		if (ForkJoinTask.getPool() == p) {
+			return task.invoke();
+		}
+		return p.invoke(task);
+	}
+
+	/**
+	 * Run task over the range [start, end).
+	 *
+	 * @param start
+	 *            first index, inclusive
+	 * @param end
+	 *            last index, exclusive
+	 * @param task
+	 */
+	public static void forRange(final int start, final int end, final WB_RangeTask task) {
+		forRange(start, end, 1, task);
+	}
+
+	/**
+	 * Run task over the range [start, end), in chunks of at least
+	 * minimumChunk indices.
+	 *
+	 * @param start
+	 *            first index, inclusive
+	 * @param end
+	 *            last index, exclusive
+	 * @param minimumChunk
+	 * @param task
+	 */
+	public static void forRange(final int start, final int end, final int minimumChunk, final WB_RangeTask task) {
+		if (end <= start) {
+			return;
+		}
+		final int n = end - start;
+		final int grain = grain(n, minimumChunk);
+		if (isSingleThreaded() || n <= grain) {
+			task.run(start, end);
+			return;
+		}
+		invoke(new RangeAction(start, end, grain, task));
+	}
+
+	/**
+	 * Apply function to chunks of the range [start, end). The chunk results
+	 * are returned in index order, independent of the number of threads.
+	 *
+	 * @param start
+	 *            first index, inclusive
+	 * @param end
+	 *            last index, exclusive
+	 * @param function
+	 * @return results of all chunks, in index order
+	 */
+	public static <T> List<T> map(final int start, final int end, final WB_RangeFunction<T> function) {
+		return map(start, end, 1, function);
+	}
+
+	/**
+	 * Apply function to chunks of at least minimumChunk indices of the range
+	 * [start, end). The chunk results are returned in index order,
+	 * independent of the number of threads.
+	 *
+	 * @param start
+	 *            first index, inclusive
+	 * @param end
+	 *            last index, exclusive
+	 * @param minimumChunk
+	 * @param function
+	 * @return results of all chunks, in index order
+	 */
+	public static <T> List<T> map(final int start, final int end, final int minimumChunk,
+			final WB_RangeFunction<T> function) {
+		if (end <= start) {
+			return new ArrayList<T>();
+		}
+		final int n = end - start;
+		final int grain = grain(n, minimumChunk);
+		if (isSingleThreaded() || n <= grain) {
+			final List<T> result = new ArrayList<T>(1);
+			result.add(function.apply(start, end));
+			return result;
+		}
+		return invoke(new RangeMap<T>(start, end, grain, function));
+	}
+
+	/**
+	 * Run a list of independent tasks. Results are returned in the order of
+	 * the tasks.
+	 *
+	 * @param tasks
+	 * @return
+	 */
+	public static <T> List<T> invokeAll(final List<? extends Callable<T>> tasks) {
+		final List<T> result = new ArrayList<T>(tasks.size());
+		for (final List<T> chunk : map(0, tasks.size(), new WB_RangeFunction<List<T>>() {
+			@Override
+			public List<T> apply(final int start, final int end) {
+				final List<T> result = new ArrayList<T>(end - start);
+				for (int i = start; i < end; i++) {
+					try {
+						result.add(tasks.get(i).call());
+					} catch (final RuntimeException e) {
+						throw e;
+					} catch (final Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+				return result;
+			}
+		})) {
+			result.addAll(chunk);
+		}
+		return result;
+	}
+
+	/**
+	 * Sort an array in ascending order. Halves are sorted in parallel and
+	 * merged.
+	 *
+	 * @param a
+	 */
+	public static void sort(final long[] a) {
+		final int grain = grain(a.length, 1 << 13);
+		if (isSingleThreaded() || a.length <= grain) {
+			Arrays.sort(a);
+			return;
+		}
+		invoke(new SortAction(a, new long[a.length], 0, a.length, grain));
+	}
+
+	/**
+	 * Task over a range of indices.
+	 */
+	public interface WB_RangeTask {
+		/**
+		 *
+		 *
+		 * @param start
+		 *            first index, inclusive
+		 * @param end
+		 *            last index, exclusive
+		 */
+		public void run(int start, int end);
+	}
+
+	/**
+	 * Function over a range of indices.
+	 *
+	 * @param <T>
+	 */
+	public interface WB_RangeFunction<T> {
+		/**
+		 *
+		 *
+		 * @param start
+		 *            first index, inclusive
+		 * @param end
+		 *            last index, exclusive
+		 * @return
+		 */
+		public T apply(int start, int end);
+	}
+
+	/**
+	 *
+	 */
+	static class RangeAction extends RecursiveAction {
+		private static final long serialVersionUID = 8061939431393960549L;
+		final int start;
+		final int end;
+		final int grain;
+		final WB_RangeTask task;
+
+		RangeAction(final int start, final int end, final int grain, final WB_RangeTask task) {
+			this.start = start;
+			this.end = end;
+			this.grain = grain;
+			this.task = task;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		@Override
+		protected void compute() {
+			if (end - start <= grain) {
+				task.run(start, end);
+				return;
+			}
+			final int mid = (start + end) >>> 1;
+			invokeAll(new RangeAction(start, mid, grain, task), new RangeAction(mid, end, grain, task));
+		}
+	}
+
+	/**
+	 *
+	 *
+	 * @param <T>
+	 */
+	static class RangeMap<T> extends RecursiveTask<List<T>> {
+		private static final long serialVersionUID = -2441271312549325140L;
+		final int start;
+		final int end;
+		final int grain;
+		final WB_RangeFunction<T> function;
+
+		RangeMap(final int start, final int end, final int grain, final WB_RangeFunction<T> function) {
+			this.start = start;
+			this.end = end;
+			this.grain = grain;
+			this.function = function;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.RecursiveTask#compute()
+		 */
+		@Override
+		protected List<T> compute() {
+			if (end - start <= grain) {
+				final List<T> result = new ArrayList<T>();
+				result.add(function.apply(start, end));
+				return result;
+			}
+			final int mid = (start + end) >>> 1;
+			final RangeMap<T> left = new RangeMap<T>(start, mid, grain, function);
+			final RangeMap<T> right = new RangeMap<T>(mid, end, grain, function);
+			right.fork();
+			final List<T> result = left.compute();
+			result.addAll(right.join());
+			return result;
+		}
+	}
+
+	/**
+	 *
+	 */
+	static class SortAction extends RecursiveAction {
+		private static final long serialVersionUID = -5172950422383553472L;
+		final long[] a;
+		final long[] buffer;
+		final int start;
+		final int end;
+		final int grain;
+
+		SortAction(final long[] a, final long[] buffer, final int start, final int end, final int grain) {
+			this.a = a;
+			this.buffer = buffer;
+			this.start = start;
+			this.end = end;
+			this.grain = grain;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		@Override
+		protected void compute() {
+			if (end - start <= grain) {
+				Arrays.sort(a, start, end);
+				return;
+			}
+			final int mid = (start + end) >>> 1;
+			invokeAll(new SortAction(a, buffer, start, mid, grain), new SortAction(a, buffer, mid, end, grain));
+			if (a[mid - 1] <= a[mid]) {
+				return;
+			}
+			int i = start;
+			int j = mid;
+			int k = start;
+			while (i < mid && j < end) {
+				buffer[k++] = a[i] <= a[j] ? a[i++] : a[j++];
+			}
+			System.arraycopy(a, i, buffer, k, mid - i);
+			k += mid - i;
+			System.arraycopy(a, j, buffer, k, end - j);
+			System.arraycopy(buffer, start, a, start, end - start);
+		}
+	}
+}
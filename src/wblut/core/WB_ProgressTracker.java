@@ -76,7 +76,7 @@ public class WB_ProgressTracker {
 	 * @param status
 	 * @param inc
 	 */
-	public void setStatus(final Object caller, final String status, final int inc) {
+	public synchronized void setStatus(final Object caller, final String status, final int inc) {
 		if (inc < 0) {
 			depth = Math.max(0, depth + inc);
 		}
@@ -0,0 +1,1329 @@
+/*
+ * This file is part of HE_Mesh, a library for creating and manipulating meshes.
+ * It is dedicated to the public domain. To the extent possible under law,
+ * I , Frederik Vanhoutte, have waived all copyright and related or neighboring
+ * rights.
+ *
+ * This work is published from Belgium. (http://creativecommons.org/publicdomain/zero/1.0/)
+ *
+ */
+
+package wblut.geom;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import javolution.util.FastTable;
+import wblut.core.WB_Parallel;
+import wblut.core.WB_Parallel.WB_RangeTask;
+import wblut.core.WB_ProgressTracker;
+import wblut.hemesh.HE_Face;
+import wblut.hemesh.HE_Halfedge;
+import wblut.hemesh.HE_Mesh;
+import wblut.hemesh.HE_Vertex;
+
+/**
+ * Bounding volume hierarchy over the triangulated faces of a mesh. The tree is
+ * built with a binned surface area heuristic and stored in flat arrays: node
+ * bounds, node child/primitive offsets and triangle coordinates in leaf order.
+ * The mesh itself is not modified.
+ *
+ * Node 0 is the root. The first child of an internal node i is node i+1, the
+ * second child is node nodeOffsets[i]. For a leaf, nodeOffsets[i] is the first
+ * triangle and nodeCounts[i] the number of triangles.
+ *
+ * Ray queries use origin, direction and a parameter interval [tmin, tmax];
+ * the direction does not have to be normalized, distances are expressed in
+ * units of the direction length.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class WB_BVH {
+	public static final WB_ProgressTracker tracker = WB_ProgressTracker.instance();
+	/** Number of bins used to evaluate the SAH. */
+	private static final int BINS = 16;
+	/** Subtrees larger than this are built in parallel. */
+	private static final int PARALLEL_BUILD = 4096;
+	/** Cost of traversing a node relative to a triangle test. */
+	private static final double TRAVERSALCOST = 1.0;
+	/** Tolerance on barycentric coordinates, avoids leaks on shared edges. */
+	private static final double BARYCENTRICEPSILON = 1e-9;
+	/** Ray directions used for inside tests, chosen to avoid mesh-aligned rays. */
+	private static final double[] INSIDEDIRECTIONS = new double[] { 0.5812, 0.6418, 0.5003, -0.6907, 0.2716,
+			0.6702, 0.1709, -0.7853, 0.5951 };
+
+	private final int maxPrimitivesInLeaf;
+	/** Faces of the source mesh, in mesh index order. */
+	protected HE_Face[] faces;
+	protected int numberOfTriangles;
+	/** Triangle vertex coordinates, 9 values per triangle, in leaf order. */
+	protected double[] triangleCoords;
+	/** Mesh face index of each triangle, in leaf order. */
+	protected int[] triangleFaces;
+	/** Mesh vertex indices of each triangle, 3 per triangle, in leaf order. */
+	protected int[] triangleVertices;
+	protected int numberOfNodes;
+	/** Node bounds, minx,miny,minz,maxx,maxy,maxz per node. */
+	protected double[] nodeBounds;
+	/** Second child of an internal node, first triangle of a leaf. */
+	protected int[] nodeOffsets;
+	/** Number of triangles in a leaf, 0 for internal nodes. */
+	protected int[] nodeCounts;
+	/** Traversal stack size, depth of the tree plus 2. */
+	protected int stackSize;
+
+	/**
+	 * Build a BVH for a mesh with at most 4 triangles per leaf.
+	 *
+	 * @param mesh
+	 */
+	public WB_BVH(final HE_Mesh mesh) {
+		this(mesh, 4);
+	}
+
+	/**
+	 * Build a BVH for a mesh.
+	 *
+	 * @param mesh
+	 * @param mnop
+	 *            maximum number of triangles per leaf
+	 */
+	public WB_BVH(final HE_Mesh mesh, final int mnop) {
+		maxPrimitivesInLeaf = Math.max(1, mnop);
+		tracker.setStatus(this, "Starting WB_BVH construction. Max. number of triangles per leaf: " + maxPrimitivesInLeaf,
+				+1);
+		collectTriangles(mesh);
+		buildTree();
+		tracker.setStatus(this, "Exiting WB_BVH construction.", -1);
+	}
+
+	/**
+	 * Triangulate all faces into flat arrays, in parallel.
+	 *
+	 * @param mesh
+	 */
+	private void collectTriangles(final HE_Mesh mesh) {
+		tracker.setStatus(this, "Collecting triangles.", 0);
+		faces = mesh.getFacesAsArray();
+		final int nf = faces.length;
+		final int[][] faceTriangles = new int[nf][];
+		final int[] offsets = new int[nf + 1];
+		WB_Parallel.forRange(0, nf, 256, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int i = start; i < end; i++) {
+					faceTriangles[i] = faces[i].getTriangles();
+				}
+			}
+		});
+		for (int i = 0; i < nf; i++) {
+			offsets[i + 1] = offsets[i] + faceTriangles[i].length / 3;
+		}
+		numberOfTriangles = offsets[nf];
+		triangleCoords = new double[9 * numberOfTriangles];
+		triangleFaces = new int[numberOfTriangles];
+		triangleVertices = new int[3 * numberOfTriangles];
+		WB_Parallel.forRange(0, nf, 256, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				final List<HE_Vertex> vertices = new ArrayList<HE_Vertex>();
+				for (int i = start; i < end; i++) {
+					vertices.clear();
+					final HE_Halfedge first = faces[i].getHalfedge();
+					HE_Halfedge he = first;
+					do {
+						vertices.add(he.getVertex());
+						he = he.getNextInFace();
+					} while (he != first);
+					final int[] tris = faceTriangles[i];
+					int t = offsets[i];
+					for (int j = 0; j < tris.length; j += 3, t++) {
+						triangleFaces[t] = i;
+						for (int k = 0; k < 3; k++) {
+							final HE_Vertex p = vertices.get(tris[j + k]);
+							triangleVertices[3 * t + k] = mesh.getIndex(p);
+							triangleCoords[9 * t + 3 * k] = p.xd();
+							triangleCoords[9 * t + 3 * k + 1] = p.yd();
+							triangleCoords[9 * t + 3 * k + 2] = p.zd();
+						}
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Build the tree and flatten it into the node arrays. Triangles are
+	 * reordered so that each leaf refers to a contiguous range.
+	 */
+	private void buildTree() {
+		tracker.setStatus(this, "Building tree for " + numberOfTriangles + " triangles.", 0);
+		final int n = numberOfTriangles;
+		final double[] centroids = new double[3 * n];
+		final double[] bounds = new double[6 * n];
+		WB_Parallel.forRange(0, n, 1024, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int t = start; t < end; t++) {
+					for (int c = 0; c < 3; c++) {
+						final double a = triangleCoords[9 * t + c];
+						final double b = triangleCoords[9 * t + 3 + c];
+						final double d = triangleCoords[9 * t + 6 + c];
+						bounds[6 * t + c] = Math.min(a, Math.min(b, d));
+						bounds[6 * t + 3 + c] = Math.max(a, Math.max(b, d));
+						centroids[3 * t + c] = 0.5 * (bounds[6 * t + c] + bounds[6 * t + 3 + c]);
+					}
+				}
+			}
+		});
+		final int[] primitives = new int[n];
+		for (int i = 0; i < n; i++) {
+			primitives[i] = i;
+		}
+		final BuildNode root = build(primitives, centroids, bounds, 0, n);
+		numberOfNodes = root.size;
+		nodeBounds = new double[6 * numberOfNodes];
+		nodeOffsets = new int[numberOfNodes];
+		nodeCounts = new int[numberOfNodes];
+		stackSize = flatten(root, 0, 0) + 2;
+		final double[] sortedCoords = new double[9 * n];
+		final int[] sortedFaces = new int[n];
+		final int[] sortedVertices = new int[3 * n];
+		for (int i = 0; i < n; i++) {
+			System.arraycopy(triangleCoords, 9 * primitives[i], sortedCoords, 9 * i, 9);
+			System.arraycopy(triangleVertices, 3 * primitives[i], sortedVertices, 3 * i, 3);
+			sortedFaces[i] = triangleFaces[primitives[i]];
+		}
+		triangleCoords = sortedCoords;
+		triangleFaces = sortedFaces;
+		triangleVertices = sortedVertices;
+	}
+
+	/**
+	 * Recursive binned SAH build over primitives[start,end).
+	 *
+	 * @param primitives
+	 * @param centroids
+	 * @param bounds
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	private BuildNode build(final int[] primitives, final double[] centroids, final double[] bounds, final int start,
+			final int end) {
+		final BuildNode node = new BuildNode();
+		node.start = start;
+		node.count = end - start;
+		node.size = 1;
+		final double[] nb = node.bounds;
+		final double[] cb = new double[] { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+				Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+				Double.NEGATIVE_INFINITY };
+		nb[0] = nb[1] = nb[2] = Double.POSITIVE_INFINITY;
+		nb[3] = nb[4] = nb[5] = Double.NEGATIVE_INFINITY;
+		for (int i = start; i < end; i++) {
+			final int t = primitives[i];
+			for (int c = 0; c < 3; c++) {
+				nb[c] = Math.min(nb[c], bounds[6 * t + c]);
+				nb[c + 3] = Math.max(nb[c + 3], bounds[6 * t + 3 + c]);
+				cb[c] = Math.min(cb[c], centroids[3 * t + c]);
+				cb[c + 3] = Math.max(cb[c + 3], centroids[3 * t + c]);
+			}
+		}
+		final int count = end - start;
+		if (count <= maxPrimitivesInLeaf) {
+			return node;
+		}
+		int bestAxis = -1;
+		int bestBin = -1;
+		double bestCost = Double.POSITIVE_INFINITY;
+		final int[] binCounts = new int[BINS];
+		final double[] binBounds = new double[6 * BINS];
+		final double[] rightAreas = new double[BINS];
+		final double[] box = new double[6];
+		for (int axis = 0; axis < 3; axis++) {
+			final double extent = cb[axis + 3] - cb[axis];
+			if (extent <= 0) {
+				continue;
+			}
+			final double scale = BINS / extent;
+			for (int b = 0; b < BINS; b++) {
+				binCounts[b] = 0;
+				resetBounds(binBounds, b);
+			}
+			for (int i = start; i < end; i++) {
+				final int t = primitives[i];
+				final int b = Math.min(BINS - 1, (int) ((centroids[3 * t + axis] - cb[axis]) * scale));
+				binCounts[b]++;
+				for (int c = 0; c < 3; c++) {
+					binBounds[6 * b + c] = Math.min(binBounds[6 * b + c], bounds[6 * t + c]);
+					binBounds[6 * b + 3 + c] = Math.max(binBounds[6 * b + 3 + c], bounds[6 * t + 3 + c]);
+				}
+			}
+			resetBounds(box, 0);
+			for (int b = BINS - 1; b > 0; b--) {
+				growBounds(box, binBounds, b);
+				rightAreas[b] = binCounts[b] == 0 && box[0] > box[3] ? 0 : area(box);
+			}
+			resetBounds(box, 0);
+			int leftCount = 0;
+			for (int b = 0; b < BINS - 1; b++) {
+				growBounds(box, binBounds, b);
+				leftCount += binCounts[b];
+				final int rightCount = count - leftCount;
+				if (leftCount == 0 || rightCount == 0) {
+					continue;
+				}
+				final double cost = leftCount * area(box) + rightCount * rightAreas[b + 1];
+				if (cost < bestCost) {
+					bestCost = cost;
+					bestAxis = axis;
+					bestBin = b;
+				}
+			}
+		}
+		int mid;
+		if (bestAxis < 0) {
+			// all centroids coincide, split by index
+			mid = start + count / 2;
+		} else {
+			final double leafCost = count * area(nb);
+			if (count <= 4 * maxPrimitivesInLeaf && TRAVERSALCOST * area(nb) + bestCost >= leafCost) {
+				return node;
+			}
+			final double extent = cb[bestAxis + 3] - cb[bestAxis];
+			final double scale = BINS / extent;
+			int i = start;
+			int j = end - 1;
+			while (i <= j) {
+				final int t = primitives[i];
+				final int b = Math.min(BINS - 1, (int) ((centroids[3 * t + bestAxis] - cb[bestAxis]) * scale));
+				if (b <= bestBin) {
+					i++;
+				} else {
+					primitives[i] = primitives[j];
+					primitives[j] = t;
+					j--;
+				}
+			}
+			mid = i;
+			if (mid == start || mid == end) {
+				mid = start + count / 2;
+			}
+		}
+		node.count = 0;
+		final int split = mid;
+		if (count > PARALLEL_BUILD && !WB_Parallel.isSingleThreaded()) {
+			final List<Callable<BuildNode>> tasks = new ArrayList<Callable<BuildNode>>(2);
+			tasks.add(new Callable<BuildNode>() {
+				@Override
+				public BuildNode call() {
+					return build(primitives, centroids, bounds, start, split);
+				}
+			});
+			tasks.add(new Callable<BuildNode>() {
+				@Override
+				public BuildNode call() {
+					return build(primitives, centroids, bounds, split, end);
+				}
+			});
+			final List<BuildNode> children = WB_Parallel.invokeAll(tasks);
+			node.left = children.get(0);
+			node.right = children.get(1);
+		} else {
+			node.left = build(primitives, centroids, bounds, start, split);
+			node.right = build(primitives, centroids, bounds, split, end);
+		}
+		node.size = 1 + node.left.size + node.right.size;
+		return node;
+	}
+
+	/**
+	 * Store node in depth-first order.
+	 *
+	 * @param node
+	 * @param index
+	 * @param depth
+	 * @return maximum depth of the subtree
+	 */
+	private int flatten(final BuildNode node, final int index, final int depth) {
+		System.arraycopy(node.bounds, 0, nodeBounds, 6 * index, 6);
+		if (node.left == null) {
+			nodeOffsets[index] = node.start;
+			nodeCounts[index] = node.count;
+			return depth;
+		}
+		nodeCounts[index] = 0;
+		nodeOffsets[index] = index + 1 + node.left.size;
+		return Math.max(flatten(node.left, index + 1, depth + 1), flatten(node.right, nodeOffsets[index], depth + 1));
+	}
+
+	private static void resetBounds(final double[] b, final int i) {
+		b[6 * i] = b[6 * i + 1] = b[6 * i + 2] = Double.POSITIVE_INFINITY;
+		b[6 * i + 3] = b[6 * i + 4] = b[6 * i + 5] = Double.NEGATIVE_INFINITY;
+	}
+
+	private static void growBounds(final double[] b, final double[] other, final int i) {
+		for (int c = 0; c < 3; c++) {
+			b[c] = Math.min(b[c], other[6 * i + c]);
+			b[c + 3] = Math.max(b[c + 3], other[6 * i + 3 + c]);
+		}
+	}
+
+	private static double area(final double[] b) {
+		final double dx = b[3] - b[0];
+		final double dy = b[4] - b[1];
+		final double dz = b[5] - b[2];
+		if (dx < 0 || dy < 0 || dz < 0) {
+			return 0;
+		}
+		return 2.0 * (dx * dy + dy * dz + dz * dx);
+	}
+
+	/**
+	 * Temporary node used during construction.
+	 */
+	static class BuildNode {
+		final double[] bounds = new double[6];
+		BuildNode left;
+		BuildNode right;
+		int start;
+		int count;
+		int size;
+	}
+
+	/**
+	 * Number of triangles.
+	 *
+	 * @return
+	 */
+	public int getNumberOfTriangles() {
+		return numberOfTriangles;
+	}
+
+	/**
+	 * Number of nodes.
+	 *
+	 * @return
+	 */
+	public int getNumberOfNodes() {
+		return numberOfNodes;
+	}
+
+	/**
+	 * Size of the traversal stack buffer needed by queries.
+	 *
+	 * @return
+	 */
+	public int getStackSize() {
+		return stackSize;
+	}
+
+	/**
+	 * Mesh face index of triangle, as in mesh.getFaceWithIndex.
+	 *
+	 * @param triangle
+	 * @return
+	 */
+	public int getFaceIndex(final int triangle) {
+		return triangleFaces[triangle];
+	}
+
+	/**
+	 * Mesh vertex index of a triangle corner, as in mesh.getVertexWithIndex.
+	 * Barycentric coordinates (u,v) of a hit weigh corners 1 and 2, corner 0
+	 * gets 1-u-v.
+	 *
+	 * @param triangle
+	 * @param i
+	 *            corner, 0, 1 or 2
+	 * @return
+	 */
+	public int getVertexIndex(final int triangle, final int i) {
+		return triangleVertices[3 * triangle + i];
+	}
+
+	/**
+	 * Mesh face of triangle.
+	 *
+	 * @param triangle
+	 * @return
+	 */
+	public HE_Face getFace(final int triangle) {
+		return faces[triangleFaces[triangle]];
+	}
+
+	/**
+	 *
+	 *
+	 * @return root bounds
+	 */
+	public WB_AABB getAABB() {
+		if (numberOfNodes == 0) {
+			return new WB_AABB();
+		}
+		return new WB_AABB(nodeBounds[0], nodeBounds[1], nodeBounds[2], nodeBounds[3], nodeBounds[4], nodeBounds[5]);
+	}
+
+	/**
+	 * Ray-box slab test.
+	 *
+	 * @return entry parameter, or POSITIVE_INFINITY if the box is missed
+	 */
+	private double intersectNode(final int node, final double ox, final double oy, final double oz, final double idx,
+			final double idy, final double idz, final double tmin, final double tmax) {
+		final int i = 6 * node;
+		double t0 = (nodeBounds[i] - ox) * idx;
+		double t1 = (nodeBounds[i + 3] - ox) * idx;
+		double near = Math.min(t0, t1);
+		double far = Math.max(t0, t1);
+		t0 = (nodeBounds[i + 1] - oy) * idy;
+		t1 = (nodeBounds[i + 4] - oy) * idy;
+		near = Math.max(near, Math.min(t0, t1));
+		far = Math.min(far, Math.max(t0, t1));
+		t0 = (nodeBounds[i + 2] - oz) * idz;
+		t1 = (nodeBounds[i + 5] - oz) * idz;
+		near = Math.max(near, Math.min(t0, t1));
+		far = Math.min(far, Math.max(t0, t1));
+		near = Math.max(near, tmin);
+		far = Math.min(far, tmax);
+		return near <= far ? near : Double.POSITIVE_INFINITY;
+	}
+
+	private static double inverse(final double d) {
+		return 1.0 / (d == 0.0 ? 1e-300 : d);
+	}
+
+	/**
+	 * Two-sided Moller-Trumbore ray-triangle test.
+	 *
+	 * @param tuv
+	 *            receives t, u and v on a hit
+	 * @return true if hit within [tmin, tmax]
+	 */
+	public boolean intersectTriangle(final int triangle, final double ox, final double oy, final double oz,
+			final double dx, final double dy, final double dz, final double tmin, final double tmax,
+			final double[] tuv) {
+		final int i = 9 * triangle;
+		final double ax = triangleCoords[i], ay = triangleCoords[i + 1], az = triangleCoords[i + 2];
+		final double e1x = triangleCoords[i + 3] - ax, e1y = triangleCoords[i + 4] - ay,
+				e1z = triangleCoords[i + 5] - az;
+		final double e2x = triangleCoords[i + 6] - ax, e2y = triangleCoords[i + 7] - ay,
+				e2z = triangleCoords[i + 8] - az;
+		final double px = dy * e2z - dz * e2y;
+		final double py = dz * e2x - dx * e2z;
+		final double pz = dx * e2y - dy * e2x;
+		final double det = e1x * px + e1y * py + e1z * pz;
+		if (det == 0.0 || Double.isNaN(det)) {
+			return false;
+		}
+		final double idet = 1.0 / det;
+		final double sx = ox - ax, sy = oy - ay, sz = oz - az;
+		final double u = (sx * px + sy * py + sz * pz) * idet;
+		if (u < -BARYCENTRICEPSILON || u > 1.0 + BARYCENTRICEPSILON) {
+			return false;
+		}
+		final double qx = sy * e1z - sz * e1y;
+		final double qy = sz * e1x - sx * e1z;
+		final double qz = sx * e1y - sy * e1x;
+		final double v = (dx * qx + dy * qy + dz * qz) * idet;
+		if (v < -BARYCENTRICEPSILON || u + v > 1.0 + BARYCENTRICEPSILON) {
+			return false;
+		}
+		final double t = (e2x * qx + e2y * qy + e2z * qz) * idet;
+		if (t < tmin || t > tmax) {
+			return false;
+		}
+		tuv[0] = t;
+		tuv[1] = u;
+		tuv[2] = v;
+		return true;
+	}
+
+	/**
+	 * Closest triangle hit by a ray.
+	 *
+	 * @param tuv
+	 *            receives t, u and v of the closest hit
+	 * @return triangle index, -1 if nothing is hit
+	 */
+	public int getClosestHit(final double ox, final double oy, final double oz, final double dx, final double dy,
+			final double dz, final double tmin, final double tmax, final double[] tuv) {
+		return getClosestHit(ox, oy, oz, dx, dy, dz, tmin, tmax, tuv, new int[stackSize], new double[3]);
+	}
+
+	/**
+	 * Closest triangle hit by a ray, using caller supplied work buffers.
+	 *
+	 * @param tuv
+	 *            receives t, u and v of the closest hit
+	 * @param stack
+	 *            work buffer, at least getStackSize() long
+	 * @param work
+	 *            work buffer, at least 3 long
+	 * @return triangle index, -1 if nothing is hit
+	 */
+	public int getClosestHit(final double ox, final double oy, final double oz, final double dx, final double dy,
+			final double dz, final double tmin, final double tmax, final double[] tuv, final int[] stack,
+			final double[] work) {
+		if (numberOfNodes == 0) {
+			return -1;
+		}
+		final double idx = inverse(dx), idy = inverse(dy), idz = inverse(dz);
+		double closest = tmax;
+		int result = -1;
+		int sp = 0;
+		stack[sp++] = 0;
+		while (sp > 0) {
+			final int node = stack[--sp];
+			if (intersectNode(node, ox, oy, oz, idx, idy, idz, tmin, closest) == Double.POSITIVE_INFINITY) {
+				continue;
+			}
+			final int count = nodeCounts[node];
+			if (count > 0) {
+				final int first = nodeOffsets[node];
+				for (int t = first; t < first + count; t++) {
+					if (intersectTriangle(t, ox, oy, oz, dx, dy, dz, tmin, closest, work)) {
+						closest = work[0];
+						tuv[0] = work[0];
+						tuv[1] = work[1];
+						tuv[2] = work[2];
+						result = t;
+					}
+				}
+			} else {
+				final int left = node + 1;
+				final int right = nodeOffsets[node];
+				final double tl = intersectNode(left, ox, oy, oz, idx, idy, idz, tmin, closest);
+				final double tr = intersectNode(right, ox, oy, oz, idx, idy, idz, tmin, closest);
+				// push far child first, near child is processed next
+				if (tl <= tr) {
+					if (tr != Double.POSITIVE_INFINITY) {
+						stack[sp++] = right;
+					}
+					if (tl != Double.POSITIVE_INFINITY) {
+						stack[sp++] = left;
+					}
+				} else {
+					if (tl != Double.POSITIVE_INFINITY) {
+						stack[sp++] = left;
+					}
+					if (tr != Double.POSITIVE_INFINITY) {
+						stack[sp++] = right;
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Furthest triangle hit by a ray.
+	 *
+	 * @param tuv
+	 *            receives t, u and v of the furthest hit
+	 * @return triangle index, -1 if nothing is hit
+	 */
+	public int getFurthestHit(final double ox, final double oy, final double oz, final double dx, final double dy,
+			final double dz, final double tmin, final double tmax, final double[] tuv) {
+		if (numberOfNodes == 0) {
+			return -1;
+		}
+		final double idx = inverse(dx), idy = inverse(dy), idz = inverse(dz);
+		final double[] work = new double[3];
+		final int[] stack = new int[stackSize];
+		double furthest = tmin;
+		int result = -1;
+		int sp = 0;
+		stack[sp++] = 0;
+		while (sp > 0) {
+			final int node = stack[--sp];
+			if (intersectNode(node, ox, oy, oz, idx, idy, idz, furthest, tmax) == Double.POSITIVE_INFINITY) {
+				continue;
+			}
+			final int count = nodeCounts[node];
+			if (count > 0) {
+				final int first = nodeOffsets[node];
+				for (int t = first; t < first + count; t++) {
+					if (intersectTriangle(t, ox, oy, oz, dx, dy, dz, furthest, tmax, work)
+							&& (result < 0 || work[0] > furthest)) {
+						furthest = work[0];
+						tuv[0] = work[0];
+						tuv[1] = work[1];
+						tuv[2] = work[2];
+						result = t;
+					}
+				}
+			} else {
+				stack[sp++] = node + 1;
+				stack[sp++] = nodeOffsets[node];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * All triangles hit by a ray. Triangles and parameters are appended to the
+	 * lists.
+	 *
+	 * @param triangles
+	 * @param ts
+	 * @return number of hits added
+	 */
+	public int getHits(final double ox, final double oy, final double oz, final double dx, final double dy,
+			final double dz, final double tmin, final double tmax, final TIntArrayList triangles,
+			final TDoubleArrayList ts) {
+		if (numberOfNodes == 0) {
+			return 0;
+		}
+		final double idx = inverse(dx), idy = inverse(dy), idz = inverse(dz);
+		final double[] work = new double[3];
+		final int[] stack = new int[stackSize];
+		int hits = 0;
+		int sp = 0;
+		stack[sp++] = 0;
+		while (sp > 0) {
+			final int node = stack[--sp];
+			if (intersectNode(node, ox, oy, oz, idx, idy, idz, tmin, tmax) == Double.POSITIVE_INFINITY) {
+				continue;
+			}
+			final int count = nodeCounts[node];
+			if (count > 0) {
+				final int first = nodeOffsets[node];
+				for (int t = first; t < first + count; t++) {
+					if (intersectTriangle(t, ox, oy, oz, dx, dy, dz, tmin, tmax, work)) {
+						triangles.add(t);
+						ts.add(work[0]);
+						hits++;
+					}
+				}
+			} else {
+				stack[sp++] = node + 1;
+				stack[sp++] = nodeOffsets[node];
+			}
+		}
+		return hits;
+	}
+
+	/**
+	 * Faces in all leaves whose bounds are crossed by a ray.
+	 *
+	 * @return
+	 */
+	public List<HE_Face> getPotentialFaces(final double ox, final double oy, final double oz, final double dx,
+			final double dy, final double dz, final double tmin, final double tmax) {
+		final TIntArrayList leaves = new TIntArrayList();
+		if (numberOfNodes > 0) {
+			final double idx = inverse(dx), idy = inverse(dy), idz = inverse(dz);
+			final int[] stack = new int[stackSize];
+			int sp = 0;
+			stack[sp++] = 0;
+			while (sp > 0) {
+				final int node = stack[--sp];
+				if (intersectNode(node, ox, oy, oz, idx, idy, idz, tmin, tmax) == Double.POSITIVE_INFINITY) {
+					continue;
+				}
+				if (nodeCounts[node] > 0) {
+					leaves.add(node);
+				} else {
+					stack[sp++] = node + 1;
+					stack[sp++] = nodeOffsets[node];
+				}
+			}
+		}
+		return collectFaces(leaves);
+	}
+
+	/**
+	 * Faces in all leaves whose bounds intersect the plane.
+	 *
+	 * @param P
+	 * @return
+	 */
+	public List<HE_Face> getPotentialFaces(final WB_Plane P) {
+		final TIntArrayList leaves = new TIntArrayList();
+		if (numberOfNodes > 0) {
+			final WB_Vector n = P.getNormal();
+			final double nx = n.xd(), ny = n.yd(), nz = n.zd();
+			final double d = P.d();
+			final int[] stack = new int[stackSize];
+			int sp = 0;
+			stack[sp++] = 0;
+			while (sp > 0) {
+				final int node = stack[--sp];
+				final int i = 6 * node;
+				final double cx = 0.5 * (nodeBounds[i] + nodeBounds[i + 3]);
+				final double cy = 0.5 * (nodeBounds[i + 1] + nodeBounds[i + 4]);
+				final double cz = 0.5 * (nodeBounds[i + 2] + nodeBounds[i + 5]);
+				final double r = 0.5 * ((nodeBounds[i + 3] - nodeBounds[i]) * Math.abs(nx)
+						+ (nodeBounds[i + 4] - nodeBounds[i + 1]) * Math.abs(ny)
+						+ (nodeBounds[i + 5] - nodeBounds[i + 2]) * Math.abs(nz));
+				final double s = nx * cx + ny * cy + nz * cz - d;
+				if (Math.abs(s) > r) {
+					continue;
+				}
+				if (nodeCounts[node] > 0) {
+					leaves.add(node);
+				} else {
+					stack[sp++] = node + 1;
+					stack[sp++] = nodeOffsets[node];
+				}
+			}
+		}
+		return collectFaces(leaves);
+	}
+
+	/**
+	 * Faces in all leaves whose bounds overlap the AABB.
+	 *
+	 * @param aabb
+	 * @return
+	 */
+	public List<HE_Face> getPotentialFaces(final WB_AABB aabb) {
+		return getPotentialFaces(aabb.getMinX(), aabb.getMinY(), aabb.getMinZ(), aabb.getMaxX(), aabb.getMaxY(),
+				aabb.getMaxZ());
+	}
+
+	/**
+	 * Faces in all leaves whose bounds overlap the bounds of the triangle.
+	 *
+	 * @param T
+	 * @return
+	 */
+	public List<HE_Face> getPotentialFaces(final WB_Triangle T) {
+		final WB_AABB aabb = new WB_AABB(T.p1());
+		aabb.expandToInclude(T.p2());
+		aabb.expandToInclude(T.p3());
+		return getPotentialFaces(aabb);
+	}
+
+	/**
+	 * Faces in all leaves whose bounds overlap the box.
+	 *
+	 * @return
+	 */
+	private List<HE_Face> getPotentialFaces(final double minx, final double miny, final double minz,
+			final double maxx, final double maxy, final double maxz) {
+		final TIntArrayList leaves = new TIntArrayList();
+		if (numberOfNodes > 0) {
+			final int[] stack = new int[stackSize];
+			int sp = 0;
+			stack[sp++] = 0;
+			while (sp > 0) {
+				final int node = stack[--sp];
+				final int i = 6 * node;
+				if (nodeBounds[i] > maxx || nodeBounds[i + 3] < minx || nodeBounds[i + 1] > maxy
+						|| nodeBounds[i + 4] < miny || nodeBounds[i + 2] > maxz || nodeBounds[i + 5] < minz) {
+					continue;
+				}
+				if (nodeCounts[node] > 0) {
+					leaves.add(node);
+				} else {
+					stack[sp++] = node + 1;
+					stack[sp++] = nodeOffsets[node];
+				}
+			}
+		}
+		return collectFaces(leaves);
+	}
+
+	/**
+	 * Unique faces of the triangles in a set of leaves.
+	 *
+	 * @param leaves
+	 * @return
+	 */
+	private List<HE_Face> collectFaces(final TIntArrayList leaves) {
+		final TIntArrayList faceIndices = new TIntArrayList();
+		for (int l = 0; l < leaves.size(); l++) {
+			final int node = leaves.get(l);
+			final int first = nodeOffsets[node];
+			for (int t = first; t < first + nodeCounts[node]; t++) {
+				faceIndices.add(triangleFaces[t]);
+			}
+		}
+		faceIndices.sort();
+		final List<HE_Face> result = new FastTable<HE_Face>();
+		int previous = -1;
+		for (int i = 0; i < faceIndices.size(); i++) {
+			final int f = faceIndices.get(i);
+			if (f != previous) {
+				result.add(faces[f]);
+				previous = f;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * True if any triangle is hit by a ray with parameter in [tmin, tmax].
+	 * Stops at the first hit.
+	 *
+	 * @param stack
+	 *            work buffer, at least getStackSize() long
+	 * @param work
+	 *            work buffer, at least 3 long
+	 * @return
+	 */
+	public boolean isOccluded(final double ox, final double oy, final double oz, final double dx, final double dy,
+			final double dz, final double tmin, final double tmax, final int[] stack, final double[] work) {
+		if (numberOfNodes == 0) {
+			return false;
+		}
+		final double idx = inverse(dx), idy = inverse(dy), idz = inverse(dz);
+		int sp = 0;
+		stack[sp++] = 0;
+		while (sp > 0) {
+			final int node = stack[--sp];
+			if (intersectNode(node, ox, oy, oz, idx, idy, idz, tmin, tmax) == Double.POSITIVE_INFINITY) {
+				continue;
+			}
+			final int count = nodeCounts[node];
+			if (count > 0) {
+				final int first = nodeOffsets[node];
+				for (int t = first; t < first + count; t++) {
+					if (intersectTriangle(t, ox, oy, oz, dx, dy, dz, tmin, tmax, work)) {
+						return true;
+					}
+				}
+			} else {
+				stack[sp++] = node + 1;
+				stack[sp++] = nodeOffsets[node];
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Number of distinct faces crossed by a ray with parameter in [tmin,
+	 * tmax].
+	 *
+	 * @param faceBuffer
+	 *            work buffer, cleared on entry
+	 * @param stack
+	 *            work buffer, at least getStackSize() long
+	 * @param work
+	 *            work buffer, at least 3 long
+	 * @return
+	 */
+	public int getNumberOfCrossedFaces(final double ox, final double oy, final double oz, final double dx,
+			final double dy, final double dz, final double tmin, final double tmax, final TIntArrayList faceBuffer,
+			final int[] stack, final double[] work) {
+		faceBuffer.resetQuick();
+		if (numberOfNodes == 0) {
+			return 0;
+		}
+		final double idx = inverse(dx), idy = inverse(dy), idz = inverse(dz);
+		int sp = 0;
+		stack[sp++] = 0;
+		while (sp > 0) {
+			final int node = stack[--sp];
+			if (intersectNode(node, ox, oy, oz, idx, idy, idz, tmin, tmax) == Double.POSITIVE_INFINITY) {
+				continue;
+			}
+			final int count = nodeCounts[node];
+			if (count > 0) {
+				final int first = nodeOffsets[node];
+				for (int t = first; t < first + count; t++) {
+					if (intersectTriangle(t, ox, oy, oz, dx, dy, dz, tmin, tmax, work)) {
+						faceBuffer.add(triangleFaces[t]);
+					}
+				}
+			} else {
+				stack[sp++] = node + 1;
+				stack[sp++] = nodeOffsets[node];
+			}
+		}
+		faceBuffer.sort();
+		int crossed = 0;
+		int previous = -1;
+		for (int i = 0; i < faceBuffer.size(); i++) {
+			if (faceBuffer.getQuick(i) != previous) {
+				previous = faceBuffer.getQuick(i);
+				crossed++;
+			}
+		}
+		return crossed;
+	}
+
+	/**
+	 * Closest hits for a batch of rays, traced in parallel. Rays are packed as
+	 * x,y,z triplets in origins and directions. Any output array can be null.
+	 * For a miss, t is POSITIVE_INFINITY, the face index is -1 and the
+	 * barycentric coordinates are 0.
+	 *
+	 * @param origins
+	 *            3 values per ray
+	 * @param directions
+	 *            3 values per ray
+	 * @param tmin
+	 * @param tmax
+	 * @param t
+	 *            receives the hit parameter, 1 value per ray
+	 * @param faceIndices
+	 *            receives the mesh face index, 1 value per ray
+	 * @param barycentrics
+	 *            receives u and v of the hit triangle, 2 values per ray
+	 */
+	public void getClosestHits(final double[] origins, final double[] directions, final double tmin,
+			final double tmax, final double[] t, final int[] faceIndices, final double[] barycentrics) {
+		getClosestHits(origins, directions, tmin, tmax, t, faceIndices, barycentrics, null);
+	}
+
+	/**
+	 * Closest hits for a batch of rays, traced in parallel. Rays are packed as
+	 * x,y,z triplets in origins and directions. Any output array can be null.
+	 * For a miss, t is POSITIVE_INFINITY, the face and triangle indices are -1
+	 * and the barycentric coordinates are 0.
+	 *
+	 * @param origins
+	 *            3 values per ray
+	 * @param directions
+	 *            3 values per ray
+	 * @param tmin
+	 * @param tmax
+	 * @param t
+	 *            receives the hit parameter, 1 value per ray
+	 * @param faceIndices
+	 *            receives the mesh face index, 1 value per ray
+	 * @param barycentrics
+	 *            receives u and v of the hit triangle, 2 values per ray
+	 * @param triangles
+	 *            receives the hit triangle, 1 value per ray
+	 */
+	public void getClosestHits(final double[] origins, final double[] directions, final double tmin,
+			final double tmax, final double[] t, final int[] faceIndices, final double[] barycentrics,
+			final int[] triangles) {
+		final int n = checkRays(origins, directions);
+		checkOutput(t == null ? -1 : t.length, n, "t");
+		checkOutput(faceIndices == null ? -1 : faceIndices.length, n, "faceIndices");
+		checkOutput(barycentrics == null ? -1 : barycentrics.length / 2, n, "barycentrics");
+		checkOutput(triangles == null ? -1 : triangles.length, n, "triangles");
+		WB_Parallel.forRange(0, n, 64, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				final int[] stack = new int[stackSize];
+				final double[] work = new double[3];
+				final double[] tuv = new double[3];
+				for (int i = start; i < end; i++) {
+					final int triangle = getClosestHit(origins[3 * i], origins[3 * i + 1], origins[3 * i + 2],
+							directions[3 * i], directions[3 * i + 1], directions[3 * i + 2], tmin, tmax, tuv, stack,
+							work);
+					if (triangle < 0) {
+						tuv[0] = Double.POSITIVE_INFINITY;
+						tuv[1] = tuv[2] = 0;
+					}
+					if (t != null) {
+						t[i] = tuv[0];
+					}
+					if (faceIndices != null) {
+						faceIndices[i] = triangle < 0 ? -1 : triangleFaces[triangle];
+					}
+					if (barycentrics != null) {
+						barycentrics[2 * i] = tuv[1];
+						barycentrics[2 * i + 1] = tuv[2];
+					}
+					if (triangles != null) {
+						triangles[i] = triangle;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Occlusion test for a batch of rays, traced in parallel. Rays are packed
+	 * as x,y,z triplets in origins and directions.
+	 *
+	 * @param origins
+	 *            3 values per ray
+	 * @param directions
+	 *            3 values per ray
+	 * @param tmin
+	 * @param tmax
+	 * @param occluded
+	 *            receives true if the ray hits anything in [tmin, tmax]
+	 */
+	public void getOcclusion(final double[] origins, final double[] directions, final double tmin, final double tmax,
+			final boolean[] occluded) {
+		final int n = checkRays(origins, directions);
+		checkOutput(occluded.length, n, "occluded");
+		WB_Parallel.forRange(0, n, 64, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				final int[] stack = new int[stackSize];
+				final double[] work = new double[3];
+				for (int i = start; i < end; i++) {
+					occluded[i] = isOccluded(origins[3 * i], origins[3 * i + 1], origins[3 * i + 2], directions[3 * i],
+							directions[3 * i + 1], directions[3 * i + 2], tmin, tmax, stack, work);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Inside test for a batch of points, in parallel. Each point casts three
+	 * rays in fixed, skewed directions and counts the crossed faces; the
+	 * majority decides. The mesh should be closed.
+	 *
+	 * @param points
+	 *            3 values per point
+	 * @param inside
+	 *            receives true if the point is inside the mesh
+	 */
+	public void getInside(final double[] points, final boolean[] inside) {
+		if (points.length % 3 != 0) {
+			throw new IllegalArgumentException("Length of points should be a multiple of 3.");
+		}
+		final int n = points.length / 3;
+		checkOutput(inside.length, n, "inside");
+		WB_Parallel.forRange(0, n, 64, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				final int[] stack = new int[stackSize];
+				final double[] work = new double[3];
+				final TIntArrayList faceBuffer = new TIntArrayList();
+				for (int i = start; i < end; i++) {
+					int votes = 0;
+					for (int r = 0; r < 3; r++) {
+						final int c = getNumberOfCrossedFaces(points[3 * i], points[3 * i + 1], points[3 * i + 2],
+								INSIDEDIRECTIONS[3 * r], INSIDEDIRECTIONS[3 * r + 1], INSIDEDIRECTIONS[3 * r + 2], 0,
+								Double.POSITIVE_INFINITY, faceBuffer, stack, work);
+						votes += c & 1;
+					}
+					inside[i] = votes >= 2;
+				}
+			}
+		});
+	}
+
+	/**
+	 *
+	 *
+	 * @param origins
+	 * @param directions
+	 * @return number of rays
+	 */
+	private static int checkRays(final double[] origins, final double[] directions) {
+		if (origins.length != directions.length || origins.length % 3 != 0) {
+			throw new IllegalArgumentException(
+					"Origins and directions should have the same length, a multiple of 3.");
+		}
+		return origins.length / 3;
+	}
+
+	/**
+	 *
+	 *
+	 * @param size
+	 *            number of entries, -1 for a null array
+	 * @param n
+	 * @param name
+	 */
+	private static void checkOutput(final int size, final int n, final String name) {
+		if (size >= 0 && size < n) {
+			throw new IllegalArgumentException("Output array " + name + " is too small for " + n + " rays.");
+		}
+	}
+
+	/**
+	 * Coordinates of the corners of a triangle.
+	 *
+	 * @param triangle
+	 * @param p0
+	 *            receives x,y,z of corner 0
+	 * @param p1
+	 *            receives x,y,z of corner 1
+	 * @param p2
+	 *            receives x,y,z of corner 2
+	 */
+	public void getTriangle(final int triangle, final double[] p0, final double[] p1, final double[] p2) {
+		System.arraycopy(triangleCoords, 9 * triangle, p0, 0, 3);
+		System.arraycopy(triangleCoords, 9 * triangle + 3, p1, 0, 3);
+		System.arraycopy(triangleCoords, 9 * triangle + 6, p2, 0, 3);
+	}
+
+	/**
+	 * Visit all pairs of distinct triangles with overlapping bounding boxes,
+	 * each pair exactly once. The traversal runs in parallel, so the visitor
+	 * is called concurrently from several threads and should be thread-safe.
+	 * The order of the visits is not defined.
+	 *
+	 * @param visitor
+	 * @return true if the visitor stopped the traversal
+	 */
+	public boolean getSelfOverlaps(final WB_OverlapVisitor visitor) {
+		if (numberOfNodes == 0) {
+			return false;
+		}
+		// split the traversal into independent node pairs, (a,a) is the
+		// subtree a against itself
+		final int target = 8 * WB_Parallel.getParallelism();
+		TIntArrayList tasks = new TIntArrayList();
+		tasks.add(0);
+		tasks.add(0);
+		boolean expanded = true;
+		while (expanded && tasks.size() / 2 < target) {
+			expanded = false;
+			final TIntArrayList next = new TIntArrayList();
+			for (int i = 0; i < tasks.size(); i += 2) {
+				final int a = tasks.getQuick(i);
+				final int b = tasks.getQuick(i + 1);
+				if (nodeCounts[a] > 0 && nodeCounts[b] > 0) {
+					next.add(a);
+					next.add(b);
+				} else {
+					expanded = true;
+					expandPair(a, b, next);
+				}
+			}
+			tasks = next;
+		}
+		final TIntArrayList frontier = tasks;
+		final AtomicBoolean stop = new AtomicBoolean(false);
+		WB_Parallel.forRange(0, frontier.size() / 2, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				final TIntArrayList stack = new TIntArrayList();
+				for (int i = start; i < end && !stop.get(); i++) {
+					stack.resetQuick();
+					stack.add(frontier.getQuick(2 * i));
+					stack.add(frontier.getQuick(2 * i + 1));
+					while (stack.size() > 0 && !stop.get()) {
+						final int b = stack.removeAt(stack.size() - 1);
+						final int a = stack.removeAt(stack.size() - 1);
+						if (nodeCounts[a] > 0 && nodeCounts[b] > 0) {
+							if (!visitLeafPair(a, b, visitor)) {
+								stop.set(true);
+							}
+						} else {
+							expandPair(a, b, stack);
+						}
+					}
+				}
+			}
+		});
+		return stop.get();
+	}
+
+	/**
+	 * Push the child pairs of a node pair that can contain overlaps.
+	 *
+	 * @param a
+	 * @param b
+	 * @param pairs
+	 */
+	private void expandPair(final int a, final int b, final TIntArrayList pairs) {
+		if (a == b) {
+			if (nodeCounts[a] > 0) {
+				return;
+			}
+			final int left = a + 1;
+			final int right = nodeOffsets[a];
+			pairs.add(left);
+			pairs.add(left);
+			pairs.add(right);
+			pairs.add(right);
+			if (overlaps(left, right)) {
+				pairs.add(left);
+				pairs.add(right);
+			}
+			return;
+		}
+		if (nodeCounts[b] > 0 || (nodeCounts[a] == 0 && area(a) >= area(b))) {
+			final int left = a + 1;
+			final int right = nodeOffsets[a];
+			if (overlaps(left, b)) {
+				pairs.add(left);
+				pairs.add(b);
+			}
+			if (overlaps(right, b)) {
+				pairs.add(right);
+				pairs.add(b);
+			}
+		} else {
+			final int left = b + 1;
+			final int right = nodeOffsets[b];
+			if (overlaps(a, left)) {
+				pairs.add(a);
+				pairs.add(left);
+			}
+			if (overlaps(a, right)) {
+				pairs.add(a);
+				pairs.add(right);
+			}
+		}
+	}
+
+	/**
+	 * Visit the triangle pairs of two leaves, or of one leaf with itself.
+	 *
+	 * @param a
+	 * @param b
+	 * @param visitor
+	 * @return false if the visitor stops the traversal
+	 */
+	private boolean visitLeafPair(final int a, final int b, final WB_OverlapVisitor visitor) {
+		final int firstA = nodeOffsets[a];
+		final int endA = firstA + nodeCounts[a];
+		final int firstB = nodeOffsets[b];
+		final int endB = firstB + nodeCounts[b];
+		for (int i = firstA; i < endA; i++) {
+			for (int j = a == b ? i + 1 : firstB; j < endB; j++) {
+				if (trianglesOverlap(i, j) && !visitor.visit(i, j)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private boolean overlaps(final int a, final int b) {
+		final int i = 6 * a;
+		final int j = 6 * b;
+		return nodeBounds[i] <= nodeBounds[j + 3] && nodeBounds[j] <= nodeBounds[i + 3]
+				&& nodeBounds[i + 1] <= nodeBounds[j + 4] && nodeBounds[j + 1] <= nodeBounds[i + 4]
+				&& nodeBounds[i + 2] <= nodeBounds[j + 5] && nodeBounds[j + 2] <= nodeBounds[i + 5];
+	}
+
+	private double area(final int node) {
+		final int i = 6 * node;
+		final double dx = nodeBounds[i + 3] - nodeBounds[i];
+		final double dy = nodeBounds[i + 4] - nodeBounds[i + 1];
+		final double dz = nodeBounds[i + 5] - nodeBounds[i + 2];
+		return dx * dy + dy * dz + dz * dx;
+	}
+
+	private boolean trianglesOverlap(final int s, final int t) {
+		for (int c = 0; c < 3; c++) {
+			final double s0 = triangleCoords[9 * s + c], s1 = triangleCoords[9 * s + 3 + c],
+					s2 = triangleCoords[9 * s + 6 + c];
+			final double t0 = triangleCoords[9 * t + c], t1 = triangleCoords[9 * t + 3 + c],
+					t2 = triangleCoords[9 * t + 6 + c];
+			if (Math.max(s0, Math.max(s1, s2)) < Math.min(t0, Math.min(t1, t2))
+					|| Math.max(t0, Math.max(t1, t2)) < Math.min(s0, Math.min(s1, s2))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Callback for pairs of triangles found by a broad phase.
+	 */
+	public interface WB_OverlapVisitor {
+		/**
+		 *
+		 *
+		 * @param triangle1
+		 * @param triangle2
+		 * @return false to stop the traversal
+		 */
+		public boolean visit(int triangle1, int triangle2);
+	}
+}
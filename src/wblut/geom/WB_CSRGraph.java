@@ -0,0 +1,534 @@
+/*
+ * This file is part of HE_Mesh, a library for creating and manipulating meshes.
+ * It is dedicated to the public domain. To the extent possible under law,
+ * I , Frederik Vanhoutte, have waived all copyright and related or neighboring
+ * rights.
+ *
+ * This work is published from Belgium. (http://creativecommons.org/publicdomain/zero/1.0/)
+ *
+ */
+package wblut.geom;
+
+import java.util.Arrays;
+
+import wblut.core.WB_IndexedHeap;
+import wblut.core.WB_Parallel;
+import wblut.core.WB_Parallel.WB_RangeTask;
+
+/**
+ * Undirected weighted graph in compressed sparse row form, with Dijkstra
+ * shortest paths on an indexed 4-ary heap. The neighbors of vertex v are
+ * stored in [offsets[v], offsets[v+1]) of the target and weight arrays.
+ *
+ * Searches can start from several sources at once, stop early when a target
+ * is settled or a maximum distance is exceeded, and run in parallel for a
+ * subset of sources. A search only resets the vertices it touched, repeated
+ * short queries don't pay for the size of the graph.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class WB_CSRGraph {
+	/** Arity of the heap, 4 is faster than a binary heap for Dijkstra. */
+	private static final int ARITY = 4;
+	private final int numberOfVertices;
+	private final int[] offsets;
+	private final int[] targets;
+	private final double[] weights;
+	/** Workspace for the sequential queries. */
+	private Search search;
+
+	/**
+	 * Build a graph from undirected edges. Every edge is stored in both
+	 * directions, self-loops are ignored.
+	 *
+	 * @param numberOfVertices
+	 * @param edges
+	 *            pairs of vertex indices
+	 * @param edgeWeights
+	 *            non-negative weight of each edge
+	 */
+	public WB_CSRGraph(final int numberOfVertices, final int[][] edges, final double[] edgeWeights) {
+		if (edges.length != edgeWeights.length) {
+			throw new IllegalArgumentException("Number of edges and weights should be equal.");
+		}
+		this.numberOfVertices = numberOfVertices;
+		offsets = new int[numberOfVertices + 1];
+		for (int i = 0; i < edges.length; i++) {
+			final int a = edges[i][0];
+			final int b = edges[i][1];
+			if (a < 0 || b < 0 || a >= numberOfVertices || b >= numberOfVertices) {
+				throw new IllegalArgumentException("Edge " + i + " refers to a non-existing vertex.");
+			}
+			if (edgeWeights[i] < 0) {
+				throw new IllegalArgumentException("Edge " + i + " has a negative weight.");
+			}
+			if (a != b) {
+				offsets[a + 1]++;
+				offsets[b + 1]++;
+			}
+		}
+		for (int v = 0; v < numberOfVertices; v++) {
+			offsets[v + 1] += offsets[v];
+		}
+		targets = new int[offsets[numberOfVertices]];
+		weights = new double[offsets[numberOfVertices]];
+		final int[] fill = Arrays.copyOf(offsets, numberOfVertices);
+		for (int i = 0; i < edges.length; i++) {
+			final int a = edges[i][0];
+			final int b = edges[i][1];
+			if (a != b) {
+				targets[fill[a]] = b;
+				weights[fill[a]++] = edgeWeights[i];
+				targets[fill[b]] = a;
+				weights[fill[b]++] = edgeWeights[i];
+			}
+		}
+	}
+
+	/**
+	 * Graph of the edges of a mesh, weighted by edge length.
+	 *
+	 * @param mesh
+	 */
+	public WB_CSRGraph(final WB_Mesh mesh) {
+		this(mesh.getNumberOfVertices(), mesh.getEdgesAsInt(), getEdgeLengths(mesh));
+	}
+
+	/**
+	 *
+	 *
+	 * @param mesh
+	 * @return
+	 */
+	private static double[] getEdgeLengths(final WB_Mesh mesh) {
+		final int[][] edges = mesh.getEdgesAsInt();
+		final double[] lengths = new double[edges.length];
+		for (int i = 0; i < edges.length; i++) {
+			lengths[i] = WB_GeometryOp.getDistance3D(mesh.getVertex(edges[i][0]), mesh.getVertex(edges[i][1]));
+		}
+		return lengths;
+	}
+
+	/**
+	 *
+	 *
+	 * @return
+	 */
+	public int getNumberOfVertices() {
+		return numberOfVertices;
+	}
+
+	/**
+	 *
+	 *
+	 * @param v
+	 * @return
+	 */
+	public int getNumberOfNeighbors(final int v) {
+		return offsets[v + 1] - offsets[v];
+	}
+
+	/**
+	 *
+	 *
+	 * @param v
+	 * @return
+	 */
+	public int[] getNeighbors(final int v) {
+		return Arrays.copyOfRange(targets, offsets[v], offsets[v + 1]);
+	}
+
+	/**
+	 * Shortest path tree from one source.
+	 *
+	 * @param source
+	 * @return
+	 */
+	public WB_ShortestPathTree getShortestPathTree(final int source) {
+		return getShortestPathTree(new int[] { source }, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Shortest path tree from the nearest of several sources.
+	 *
+	 * @param sources
+	 * @return
+	 */
+	public WB_ShortestPathTree getShortestPathTree(final int[] sources) {
+		return getShortestPathTree(sources, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Shortest path tree from the nearest of several sources, vertices further
+	 * than maxDistance are left unreached.
+	 *
+	 * @param sources
+	 * @param maxDistance
+	 * @return
+	 */
+	public synchronized WB_ShortestPathTree getShortestPathTree(final int[] sources, final double maxDistance) {
+		final Search s = getSearch();
+		s.run(sources, -1, maxDistance);
+		return s.getTree();
+	}
+
+	/**
+	 * Distances from the nearest of several sources, +infinity for unreachable
+	 * vertices.
+	 *
+	 * @param sources
+	 * @return
+	 */
+	public double[] getDistances(final int... sources) {
+		return getShortestPathTree(sources, Double.POSITIVE_INFINITY).distances;
+	}
+
+	/**
+	 * Shortest path between two vertices. The search stops as soon as the
+	 * target is reached.
+	 *
+	 * @param source
+	 * @param target
+	 * @return vertex indices from source to target, empty if the target can't
+	 *         be reached
+	 */
+	public synchronized int[] getShortestPath(final int source, final int target) {
+		final Search s = getSearch();
+		s.run(new int[] { source }, target, Double.POSITIVE_INFINITY);
+		return s.getPath(target);
+	}
+
+	/**
+	 * Shortest path from the nearest of several sources to a target. The
+	 * search stops as soon as the target is reached.
+	 *
+	 * @param sources
+	 * @param target
+	 * @return vertex indices from the nearest source to target, empty if the
+	 *         target can't be reached
+	 */
+	public synchronized int[] getShortestPath(final int[] sources, final int target) {
+		final Search s = getSearch();
+		s.run(sources, target, Double.POSITIVE_INFINITY);
+		return s.getPath(target);
+	}
+
+	/**
+	 * Length of the shortest path between two vertices. The search stops as
+	 * soon as the target is reached.
+	 *
+	 * @param source
+	 * @param target
+	 * @return distance, +infinity if the target can't be reached
+	 */
+	public synchronized double getDistance(final int source, final int target) {
+		final Search s = getSearch();
+		s.run(new int[] { source }, target, Double.POSITIVE_INFINITY);
+		return s.distances[target];
+	}
+
+	/**
+	 * Shortest path trees of each source separately, computed in parallel.
+	 *
+	 * @param sources
+	 * @return one tree per source
+	 */
+	public WB_ShortestPathTree[] getShortestPathTrees(final int[] sources) {
+		final WB_ShortestPathTree[] result = new WB_ShortestPathTree[sources.length];
+		WB_Parallel.forRange(0, sources.length, 1, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				final Search s = new Search();
+				for (int i = start; i < end; i++) {
+					s.run(new int[] { sources[i] }, -1, Double.POSITIVE_INFINITY);
+					result[i] = s.getTree();
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Distances between all pairs of a subset of vertices, computed in
+	 * parallel. Each search stops when all vertices of the subset are settled.
+	 *
+	 * @param subset
+	 * @return result[i][j] is the distance between subset[i] and subset[j]
+	 */
+	public double[][] getDistanceMatrix(final int[] subset) {
+		final double[][] result = new double[subset.length][subset.length];
+		WB_Parallel.forRange(0, subset.length, 1, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				final Search s = new Search();
+				for (int i = start; i < end; i++) {
+					s.run(new int[] { subset[i] }, subset, Double.POSITIVE_INFINITY);
+					for (int j = 0; j < subset.length; j++) {
+						result[i][j] = s.distances[subset[j]];
+					}
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 *
+	 *
+	 * @return
+	 */
+	private Search getSearch() {
+		if (search == null) {
+			search = new Search();
+		}
+		return search;
+	}
+
+	/**
+	 * Dijkstra workspace. Distances and predecessors persist between runs,
+	 * only the touched vertices are reset.
+	 */
+	private class Search {
+		final double[] distances;
+		final int[] previous;
+		final int[] origins;
+		final WB_IndexedHeap heap;
+		final int[] touched;
+		int numberOfTouched;
+		final boolean[] settled;
+		/** Marks the targets of the current run. */
+		final int[] marks;
+		int generation;
+
+		Search() {
+			distances = new double[numberOfVertices];
+			previous = new int[numberOfVertices];
+			origins = new int[numberOfVertices];
+			Arrays.fill(distances, Double.POSITIVE_INFINITY);
+			Arrays.fill(previous, -1);
+			Arrays.fill(origins, -1);
+			heap = new WB_IndexedHeap(numberOfVertices, ARITY);
+			touched = new int[numberOfVertices];
+			settled = new boolean[numberOfVertices];
+			marks = new int[numberOfVertices];
+			generation = 0;
+			numberOfTouched = 0;
+		}
+
+		void reset() {
+			for (int i = 0; i < numberOfTouched; i++) {
+				final int v = touched[i];
+				distances[v] = Double.POSITIVE_INFINITY;
+				previous[v] = -1;
+				origins[v] = -1;
+				settled[v] = false;
+			}
+			numberOfTouched = 0;
+			heap.clear();
+		}
+
+		void start(final int[] sources) {
+			reset();
+			for (final int source : sources) {
+				if (source < 0 || source >= numberOfVertices) {
+					throw new IllegalArgumentException("Vertex " + source + " does not exist.");
+				}
+				if (distances[source] == 0) {
+					continue;
+				}
+				distances[source] = 0;
+				origins[source] = source;
+				touched[numberOfTouched++] = source;
+				heap.add(source, 0);
+			}
+		}
+
+		int settleNext(final double maxDistance) {
+			if (heap.isEmpty() || heap.peekKey() > maxDistance) {
+				return -1;
+			}
+			final int u = heap.poll();
+			settled[u] = true;
+			final double du = distances[u];
+			for (int k = offsets[u]; k < offsets[u + 1]; k++) {
+				final int v = targets[k];
+				final double d = du + weights[k];
+				if (d < distances[v]) {
+					if (distances[v] == Double.POSITIVE_INFINITY) {
+						touched[numberOfTouched++] = v;
+					}
+					distances[v] = d;
+					previous[v] = u;
+					origins[v] = origins[u];
+					heap.decreaseKey(v, d);
+				}
+			}
+			return u;
+		}
+
+		void run(final int[] sources, final int target, final double maxDistance) {
+			start(sources);
+			int u;
+			do {
+				u = settleNext(maxDistance);
+			} while (u >= 0 && u != target);
+			if (u < 0) {
+				unreach(maxDistance);
+			}
+		}
+
+		void run(final int[] sources, final int[] targets, final double maxDistance) {
+			start(sources);
+			generation++;
+			int remaining = 0;
+			for (final int t : targets) {
+				if (marks[t] != generation) {
+					marks[t] = generation;
+					remaining++;
+				}
+			}
+			int u;
+			while (remaining > 0 && (u = settleNext(maxDistance)) >= 0) {
+				if (marks[u] == generation) {
+					remaining--;
+				}
+			}
+			if (remaining > 0) {
+				unreach(maxDistance);
+			}
+		}
+
+		/**
+		 * Vertices still in the heap after a search bounded by maxDistance
+		 * are not reached.
+		 */
+		void unreach(final double maxDistance) {
+			if (maxDistance == Double.POSITIVE_INFINITY) {
+				return;
+			}
+			for (int i = 0; i < numberOfTouched; i++) {
+				final int v = touched[i];
+				if (!settled[v]) {
+					distances[v] = Double.POSITIVE_INFINITY;
+					previous[v] = -1;
+					origins[v] = -1;
+				}
+			}
+		}
+
+		int[] getPath(final int target) {
+			if (distances[target] == Double.POSITIVE_INFINITY) {
+				return new int[0];
+			}
+			int n = 1;
+			for (int v = previous[target]; v >= 0; v = previous[v]) {
+				n++;
+			}
+			final int[] path = new int[n];
+			for (int v = target; v >= 0; v = previous[v]) {
+				path[--n] = v;
+			}
+			return path;
+		}
+
+		WB_ShortestPathTree getTree() {
+			return new WB_ShortestPathTree(distances.clone(), previous.clone(), origins.clone());
+		}
+	}
+
+	/**
+	 * Result of a full search: distance, predecessor and nearest source of
+	 * every vertex.
+	 */
+	public static class WB_ShortestPathTree {
+		private final double[] distances;
+		private final int[] previous;
+		private final int[] sources;
+
+		/**
+		 *
+		 *
+		 * @param distances
+		 * @param previous
+		 * @param sources
+		 */
+		WB_ShortestPathTree(final double[] distances, final int[] previous, final int[] sources) {
+			this.distances = distances;
+			this.previous = previous;
+			this.sources = sources;
+		}
+
+		/**
+		 *
+		 *
+		 * @param v
+		 * @return distance to the nearest source, +infinity if not reached
+		 */
+		public double getDistance(final int v) {
+			return distances[v];
+		}
+
+		/**
+		 *
+		 *
+		 * @return distances of all vertices, the array is not copied
+		 */
+		public double[] getDistances() {
+			return distances;
+		}
+
+		/**
+		 *
+		 *
+		 * @param v
+		 * @return previous vertex on the path, -1 for sources and vertices
+		 *         that were not reached
+		 */
+		public int getPrevious(final int v) {
+			return previous[v];
+		}
+
+		/**
+		 *
+		 *
+		 * @param v
+		 * @return nearest source, -1 if not reached
+		 */
+		public int getSource(final int v) {
+			return sources[v];
+		}
+
+		/**
+		 *
+		 *
+		 * @param v
+		 * @return
+		 */
+		public boolean isReached(final int v) {
+			return sources[v] >= 0;
+		}
+
+		/**
+		 *
+		 *
+		 * @param target
+		 * @return vertex indices from the nearest source to target, empty if
+		 *         the target was not reached
+		 */
+		public int[] getPath(final int target) {
+			if (sources[target] < 0) {
+				return new int[0];
+			}
+			int n = 1;
+			for (int v = previous[target]; v >= 0; v = previous[v]) {
+				n++;
+			}
+			final int[] path = new int[n];
+			for (int v = target; v >= 0; v = previous[v]) {
+				path[--n] = v;
+			}
+			return path;
+		}
+	}
+}
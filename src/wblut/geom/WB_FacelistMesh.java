@@ -12,17 +12,12 @@ package wblut.geom;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
 
 import javolution.util.FastTable;
+import wblut.core.WB_Parallel;
+import wblut.core.WB_Parallel.WB_RangeFunction;
+import wblut.core.WB_Parallel.WB_RangeTask;
 
 
 public class WB_FacelistMesh implements WB_Mesh {
@@ -440,84 +435,43 @@ public class WB_FacelistMesh implements WB_Mesh {
 	 * @return
 	 */
 	private WB_FacelistMesh triangulateMT() {
-		try {
-			int threadCount = Runtime.getRuntime().availableProcessors();
-			int dfaces = faces.length / threadCount;
-			if(dfaces<1024){
-				dfaces=1024;
-				threadCount=(int)Math.ceil(faces.length/1024.0);
-
-			}
-			final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
-			final Set<Future<ArrayList<int[]>>>  set=new HashSet<Future<ArrayList<int[]>>>();
-			int i = 0;
-			for (i = 0; i < (threadCount - 1); i++) {
-				final Callable<ArrayList<int[]>> runner = new TriangulateRunner(dfaces * i, (dfaces * (i + 1)) - 1,i);
-				set.add(executor.submit(runner));
-			}
-			final Callable<ArrayList<int[]>> runner = new TriangulateRunner(dfaces * i, faces.length - 1,i);
-			set.add(executor.submit(runner));
-
-			ArrayList<int[]> tris=new ArrayList<int[]>();
-			for (Future<ArrayList<int[]>> future : set) {
-
-				tris.addAll(future.get());
-
-			}
-			faces = new int[tris.size()][3];
-			i = 0;
-			for (final int[] tri : tris) {
-				faces[i++] = tri;
-			}
-
-			executor.shutdown();
-
-		}catch(final InterruptedException ex) {
-			ex.printStackTrace();
-		} catch(final ExecutionException ex) {
-			ex.printStackTrace();
+		ArrayList<int[]> tris=new ArrayList<int[]>();
+		for (ArrayList<int[]> chunk : WB_Parallel.map(0, faces.length, 256, new TriangulateRunner())) {
+			tris.addAll(chunk);
+		}
+		faces = new int[tris.size()][3];
+		int i = 0;
+		for (final int[] tri : tris) {
+			faces[i++] = tri;
 		}
 		return this;
 	}
 
 
-	class TriangulateRunner implements Callable<ArrayList<int[]>>{
-
-		int start;
-
-		int end;
-
-		int id;
-
-		int[] triangles;
+	class TriangulateRunner implements WB_RangeFunction<ArrayList<int[]>>{
 
 
 
 		/**
 		 *
-		 *
-		 * @param s
-		 * @param e
-		 * @param id
 		 */
-		TriangulateRunner(final int s, final int e,final int id) {
-			start = s;
-			end = e;
-			this.id=id;
+		TriangulateRunner() {
 		}
 
 
 		/* (non-Javadoc)
-		 * @see java.util.concurrent.Callable#call()
+		 * @see wblut.core.WB_Parallel.WB_RangeFunction#apply(int, int)
 		 */
 		@Override
-		public ArrayList<int[]> call() {
+		public ArrayList<int[]> apply(final int start, final int end) {
 
 			int[] face;
 
+			int[] triangles;
+
 			ArrayList<int[]> tris=new ArrayList<int[]>();
 
-			for (int i = start; i <= end; i++) {
+			for (int i = start; i < end; i++) {
 
 				face = faces[i];
 				if (face.length == 3) {
@@ -740,50 +694,26 @@ public class WB_FacelistMesh implements WB_Mesh {
 			return;
 		}
 		faceNormals = new WB_Vector[nf];
-		final int threadCount = Runtime.getRuntime().availableProcessors();
-		final int dfaces = nf / threadCount;
-		final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
-		int i = 0;
-		for (i = 0; i < (threadCount - 1); i++) {
-			final Runnable runner = new FaceNormalRunner(dfaces * i, (dfaces * (i + 1)) - 1);
-			executor.submit(runner);
-		}
-		final Runnable runner = new FaceNormalRunner(dfaces * i, faces.length - 1);
-		executor.submit(runner);
-		executor.shutdown();
-		try {
-			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-		} catch (final InterruptedException e) {
-			e.printStackTrace();
-		}
+		WB_Parallel.forRange(0, nf, 1024, new FaceNormalRunner());
 		fNormalsUpdated = true;
 	}
 
 
-	class FaceNormalRunner implements Runnable {
-
-		int start;
-
-		int end;
+	class FaceNormalRunner implements WB_RangeTask {
 
 
 		/**
 		 *
-		 *
-		 * @param s
-		 * @param e
 		 */
-		FaceNormalRunner(final int s, final int e) {
-			start = s;
-			end = e;
+		FaceNormalRunner() {
 		}
 
 
 		/* (non-Javadoc)
-		 * @see java.lang.Runnable#run()
+		 * @see wblut.core.WB_Parallel.WB_RangeTask#run(int, int)
 		 */
 		@Override
-		public void run() {
+		public void run(final int start, final int end) {
 			WB_Coord p0, p1;
 			for (int i = start; i < end; i++) {
 				final int[] face = faces[i];
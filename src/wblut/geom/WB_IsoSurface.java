@@ -9,17 +9,13 @@
  */
 package wblut.geom;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import javolution.util.FastTable;
+import wblut.core.WB_Parallel;
+import wblut.core.WB_Parallel.WB_RangeFunction;
 import wblut.hemesh.HE_Vertex;
 import wblut.math.WB_Epsilon;
 
@@ -750,35 +746,15 @@ public class WB_IsoSurface {
 
 	private void polygoniseMT() {
 		triangles=new FastTable<WB_Coord>();
-		try {
-			int threadCount = 2*Runtime.getRuntime().availableProcessors();
-			final ExecutorService executor = Executors.newFixedThreadPool(threadCount/2);
-			List<Future<List<WB_Coord>>>  list=new ArrayList<Future<List<WB_Coord>>>();
-			Callable<List<WB_Coord>> runner;
-
-			int i = 0;
-			for (i = 0; i < threadCount ; i+=2) {
-				runner = new PolyRunner(i, threadCount);
-				list.add(executor.submit(runner));
-			}
-			for (Future<List<WB_Coord>> future : list) {
-				triangles.addAll(future.get());
-			}
-			list=new ArrayList<Future<List<WB_Coord>>>();
-			for (i = 1; i < threadCount ; i+=2) {
-				runner = new PolyRunner( i, threadCount);
-				list.add(executor.submit(runner));
+		final int kmin = Double.isNaN(boundary) ? Math.max(zmin, 0) : Math.max(zmin, -1);
+		final int kmax = Double.isNaN(boundary) ? Math.min(zmax, resz) : Math.min(zmax, resz + 1);
+		// Layers of equal parity never share grid edges, even layers first,
+		// then odd layers.
+		for (int parity = 0; parity < 2; parity++) {
+			final int n = Math.max(0, (kmax - kmin - parity + 1) / 2);
+			for (List<WB_Coord> tris : WB_Parallel.map(0, n, new PolyRunner(kmin + parity, 2))) {
+				triangles.addAll(tris);
 			}
-			for (Future<List<WB_Coord>> future : list) {
-				triangles.addAll(future.get());
-			}
-
-			executor.shutdown();
-
-		}catch(final InterruptedException ex) {
-			ex.printStackTrace();
-		} catch(final ExecutionException ex) {
-			ex.printStackTrace();
 		}
 
 
@@ -859,36 +835,37 @@ public class WB_IsoSurface {
 		return triangles;
 	}
 
-	class PolyRunner implements Callable<List<WB_Coord>>{
-		int start;
+	class PolyRunner implements WB_RangeFunction<List<WB_Coord>>{
+		int first;
 
 		int step;
 
 		/**
 		 *
 		 *
-		 * @param s
-		 * @param id
-		 * @param faces
+		 * @param first
+		 *            first layer
+		 * @param step
+		 *            step between layers
 		 */
-		PolyRunner(final int s,final int step) {
-			start = s;
+		PolyRunner(final int first,final int step) {
+			this.first = first;
 
 			this.step=step;
 		}
 
 
 		/* (non-Javadoc)
-		 * @see java.util.concurrent.Callable#call()
+		 * @see wblut.core.WB_Parallel.WB_RangeFunction#apply(int, int)
 		 */
 		@Override
-		public List<WB_Coord> call() {
+		public List<WB_Coord> apply(final int start, final int end) {
 			List<WB_Coord>triangles=new FastTable<WB_Coord>();
 			WB_Coord[] vertlist = new WB_Coord[12];
 			if (Double.isNaN(boundary)) {
 				for (int i =Math.max(xmin, 0); i < Math.min(xmax,resx); i++) {
 					for (int j = Math.max(ymin, 0); j < Math.min(ymax,resy); j++) {
-						for (int k = start+Math.max(zmin, 0); k < Math.min(zmax,resz); k+=step) {
+						for (int k = first + start * step; k < first + end * step; k+=step) {
 							getPolygons(i, j, k, classifyCell(i, j, k),triangles,vertlist);
 						}
 					}
@@ -896,7 +873,7 @@ public class WB_IsoSurface {
 			} else {
 				for (int i =  Math.max(xmin, -1); i < Math.min(xmax,resx+1); i++) {
 					for (int j =  Math.max(ymin, -1); j < Math.min(ymax,resy+1); j++) {
-						for (int k = start+ Math.max(zmin, -1); k < Math.min(zmax,resz+1); k+=step) {
+						for (int k = first + start * step; k < first + end * step; k+=step) {
 							getPolygons(i, j, k, classifyCell(i, j, k),triangles,vertlist);
 						}
 					}
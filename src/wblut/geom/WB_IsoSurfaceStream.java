@@ -0,0 +1,716 @@
+/*
+ * This file is part of HE_Mesh, a library for creating and manipulating meshes.
+ * It is dedicated to the public domain. To the extent possible under law,
+ * I , Frederik Vanhoutte, have waived all copyright and related or neighboring
+ * rights.
+ *
+ * This work is published from Belgium. (http://creativecommons.org/publicdomain/zero/1.0/)
+ *
+ */
+package wblut.geom;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import wblut.core.WB_Parallel;
+import wblut.core.WB_Parallel.WB_RangeFunction;
+import wblut.core.WB_Parallel.WB_RangeTask;
+import wblut.core.WB_ProgressCounter;
+import wblut.core.WB_ProgressTracker;
+import wblut.math.WB_Epsilon;
+
+/**
+ * Out-of-core marching cubes. The volume is read one z-slice at a time from a
+ * WB_SliceSource and only two slices are kept in memory. Vertices are created
+ * once per grid edge and welded by edge index, so the output is a connected
+ * indexed triangle mesh without seams. Vertices and triangles are streamed to
+ * a WB_TriangleSink as soon as a layer of cells is finished.
+ *
+ * Within a layer, edge vertices and cells are processed in parallel. The
+ * output order does not depend on the number of threads. The result is the
+ * same surface as WB_IsoSurface for the same grid.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class WB_IsoSurfaceStream {
+	public static final WB_ProgressTracker tracker = WB_ProgressTracker.instance();
+	/**
+	 *
+	 */
+	private WB_SliceSource source;
+	/**
+	 * Number of cells.
+	 */
+	private int resx, resy, resz;
+	/**
+	 *
+	 */
+	private double cx, cy, cz;
+	/**
+	 *
+	 */
+	private double dx, dy, dz;
+	/**
+	 *
+	 */
+	private double isolevel;
+	/**
+	 *
+	 */
+	private double boundary;
+	/**
+	 *
+	 */
+	private boolean invert;
+	// working state, padded grid when a boundary is set
+	private int nx, ny, pad;
+	private float[] lowerSlice, upperSlice;
+	private int[] lowerX, lowerY, upperX, upperY, middleZ;
+	private double ox, oy, oz;
+	private int vertexCount;
+	private WB_TriangleSink sink;
+
+	/**
+	 *
+	 */
+	public WB_IsoSurfaceStream() {
+		boundary = Double.NaN;
+		dx = dy = dz = 1.0;
+	}
+
+	/**
+	 * Source of the volume. The number of cells is set to the number of grid
+	 * points of the source minus 1.
+	 *
+	 * @param source
+	 * @return self
+	 */
+	public WB_IsoSurfaceStream setSource(final WB_SliceSource source) {
+		this.source = source;
+		resx = source.getSizeX() - 1;
+		resy = source.getSizeY() - 1;
+		resz = source.getSizeZ() - 1;
+		return this;
+	}
+
+	/**
+	 * Size of cell.
+	 *
+	 * @param dx
+	 * @param dy
+	 * @param dz
+	 * @return self
+	 */
+	public WB_IsoSurfaceStream setSize(final double dx, final double dy, final double dz) {
+		this.dx = dx;
+		this.dy = dy;
+		this.dz = dz;
+		return this;
+	}
+
+	/**
+	 * Isolevel to render.
+	 *
+	 * @param v
+	 *            isolevel
+	 * @return self
+	 */
+	public WB_IsoSurfaceStream setIsolevel(final double v) {
+		isolevel = v;
+		return this;
+	}
+
+	/**
+	 * Boundary level, closes the surface at the sides of the volume.
+	 *
+	 * @param v
+	 *            boundary level
+	 * @return self
+	 */
+	public WB_IsoSurfaceStream setBoundary(final double v) {
+		boundary = v;
+		return this;
+	}
+
+	/**
+	 * Clear boundary level.
+	 *
+	 * @return self
+	 */
+	public WB_IsoSurfaceStream clearBoundary() {
+		boundary = Double.NaN;
+		return this;
+	}
+
+	/**
+	 * Invert isosurface.
+	 *
+	 * @param invert
+	 *            true/false
+	 * @return self
+	 */
+	public WB_IsoSurfaceStream setInvert(final boolean invert) {
+		this.invert = invert;
+		return this;
+	}
+
+	/**
+	 *
+	 *
+	 * @param c
+	 * @return self
+	 */
+	public WB_IsoSurfaceStream setCenter(final WB_Coord c) {
+		cx = c.xd();
+		cy = c.yd();
+		cz = c.zd();
+		return this;
+	}
+
+	/**
+	 * Extract the isosurface and stream it to a sink.
+	 *
+	 * @param sink
+	 * @return number of vertices
+	 */
+	public int create(final WB_TriangleSink sink) {
+		if (source == null) {
+			throw new IllegalStateException("No slice source set.");
+		}
+		tracker.setStatus(this, "Starting WB_IsoSurfaceStream.", +1);
+		this.sink = sink;
+		pad = Double.isNaN(boundary) ? 0 : 1;
+		nx = resx + 1 + 2 * pad;
+		ny = resy + 1 + 2 * pad;
+		ox = cx - (0.5 * resx * dx);
+		oy = cy - (0.5 * resy * dy);
+		oz = cz - (0.5 * resz * dz);
+		final int n = nx * ny;
+		lowerSlice = new float[n];
+		upperSlice = new float[n];
+		lowerX = new int[n];
+		lowerY = new int[n];
+		upperX = new int[n];
+		upperY = new int[n];
+		middleZ = new int[n];
+		final float[] buffer = new float[(resx + 1) * (resy + 1)];
+		vertexCount = 0;
+		sink.start();
+		final int kmin = -pad;
+		final int kmax = resz + pad;
+		final WB_ProgressCounter counter = new WB_ProgressCounter(kmax - kmin, 10);
+		tracker.setStatus(this, "Processing layers.", counter);
+		readSlice(kmin, upperSlice, buffer);
+		planeEdges(kmin, upperSlice, upperX, upperY);
+		for (int k = kmin; k < kmax; k++) {
+			float[] tmp = lowerSlice;
+			lowerSlice = upperSlice;
+			upperSlice = tmp;
+			int[] itmp = lowerX;
+			lowerX = upperX;
+			upperX = itmp;
+			itmp = lowerY;
+			lowerY = upperY;
+			upperY = itmp;
+			readSlice(k + 1, upperSlice, buffer);
+			planeEdges(k + 1, upperSlice, upperX, upperY);
+			zEdges(k);
+			cells();
+			counter.increment();
+		}
+		sink.end();
+		this.sink = null;
+		lowerSlice = upperSlice = null;
+		lowerX = lowerY = upperX = upperY = middleZ = null;
+		tracker.setStatus(this, "Exiting WB_IsoSurfaceStream.", -1);
+		return vertexCount;
+	}
+
+	/**
+	 * Read slice k into the padded slice array.
+	 *
+	 * @param k
+	 * @param slice
+	 * @param buffer
+	 */
+	private void readSlice(final int k, final float[] slice, final float[] buffer) {
+		if (pad == 0) {
+			source.getSlice(k, slice);
+			return;
+		}
+		final float b = (float) (invert ? -boundary : boundary);
+		Arrays.fill(slice, b);
+		if (k < 0 || k > resz) {
+			return;
+		}
+		source.getSlice(k, buffer);
+		for (int j = 0; j <= resy; j++) {
+			System.arraycopy(buffer, j * (resx + 1), slice, (j + 1) * nx + 1, resx + 1);
+		}
+	}
+
+	private boolean inside(final double v) {
+		return invert ? v > isolevel : v < isolevel;
+	}
+
+	/**
+	 * Create the vertices on the crossed x- and y-edges of a plane.
+	 *
+	 * @param k
+	 * @param slice
+	 * @param xe
+	 * @param ye
+	 */
+	private void planeEdges(final int k, final float[] slice, final int[] xe, final int[] ye) {
+		final List<RowChunk> rows = WB_Parallel.map(0, ny, 16, new WB_RangeFunction<RowChunk>() {
+			@Override
+			public RowChunk apply(final int start, final int end) {
+				final RowChunk chunk = new RowChunk(start, end);
+				final TDoubleArrayList points = chunk.points;
+				for (int j = start; j < end; j++) {
+					for (int i = 0; i < nx; i++) {
+						final int id = i + nx * j;
+						final double v = slice[id];
+						xe[id] = -1;
+						ye[id] = -1;
+						if (i < nx - 1 && inside(v) != inside(slice[id + 1])) {
+							xe[id] = -2 - points.size() / 3;
+							interpolate(i, j, k, v, i + 1, j, k, slice[id + 1], points);
+						}
+						if (j < ny - 1 && inside(v) != inside(slice[id + nx])) {
+							ye[id] = -2 - points.size() / 3;
+							interpolate(i, j, k, v, i, j + 1, k, slice[id + nx], points);
+						}
+					}
+				}
+				return chunk;
+			}
+		});
+		emitVertices(rows, new int[][] { xe, ye });
+	}
+
+	/**
+	 * Create the vertices on the crossed z-edges between the two resident
+	 * slices.
+	 *
+	 * @param k
+	 */
+	private void zEdges(final int k) {
+		final List<RowChunk> rows = WB_Parallel.map(0, ny, 16, new WB_RangeFunction<RowChunk>() {
+			@Override
+			public RowChunk apply(final int start, final int end) {
+				final RowChunk chunk = new RowChunk(start, end);
+				final TDoubleArrayList points = chunk.points;
+				for (int j = start; j < end; j++) {
+					for (int i = 0; i < nx; i++) {
+						final int id = i + nx * j;
+						middleZ[id] = -1;
+						if (inside(lowerSlice[id]) != inside(upperSlice[id])) {
+							middleZ[id] = -2 - points.size() / 3;
+							interpolate(i, j, k, lowerSlice[id], i, j, k + 1, upperSlice[id], points);
+						}
+					}
+				}
+				return chunk;
+			}
+		});
+		emitVertices(rows, new int[][] { middleZ });
+	}
+
+	/**
+	 * Stream new vertices in chunk order and replace the chunk-local
+	 * references, stored as -2-localIndex, by global indices.
+	 *
+	 * @param chunks
+	 * @param edges
+	 */
+	private void emitVertices(final List<RowChunk> chunks, final int[][] edges) {
+		int offset = vertexCount;
+		for (final RowChunk chunk : chunks) {
+			final TDoubleArrayList points = chunk.points;
+			chunk.offset = offset;
+			offset += points.size() / 3;
+			for (int p = 0; p < points.size(); p += 3) {
+				sink.addVertex(points.getQuick(p), points.getQuick(p + 1), points.getQuick(p + 2));
+			}
+		}
+		vertexCount = offset;
+		WB_Parallel.forRange(0, chunks.size(), new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int c = start; c < end; c++) {
+					final RowChunk chunk = chunks.get(c);
+					for (int id = chunk.start * nx; id < chunk.end * nx; id++) {
+						for (final int[] e : edges) {
+							if (e[id] < -1) {
+								e[id] = chunk.offset - 2 - e[id];
+							}
+						}
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * New vertices of a range of rows.
+	 */
+	static class RowChunk {
+		final int start;
+		final int end;
+		final TDoubleArrayList points;
+		int offset;
+
+		RowChunk(final int start, final int end) {
+			this.start = start;
+			this.end = end;
+			points = new TDoubleArrayList();
+		}
+	}
+
+	/**
+	 * Triangulate all cells of the current layer and stream the triangles.
+	 */
+	private void cells() {
+		final List<TIntArrayList> rows = WB_Parallel.map(0, ny - 1, 16, new WB_RangeFunction<TIntArrayList>() {
+			@Override
+			public TIntArrayList apply(final int start, final int end) {
+				final TIntArrayList tris = new TIntArrayList();
+				final int[] vertlist = new int[12];
+				for (int j = start; j < end; j++) {
+					for (int i = 0; i < nx - 1; i++) {
+						cell(i, j, tris, vertlist);
+					}
+				}
+				return tris;
+			}
+		});
+		for (final TIntArrayList tris : rows) {
+			for (int t = 0; t < tris.size(); t += 3) {
+				sink.addTriangle(tris.getQuick(t), tris.getQuick(t + 1), tris.getQuick(t + 2));
+			}
+		}
+	}
+
+	/**
+	 * Triangulate one cell, corner and edge numbering as in WB_IsoSurface.
+	 *
+	 * @param i
+	 * @param j
+	 * @param tris
+	 * @param vertlist
+	 */
+	private void cell(final int i, final int j, final TIntArrayList tris, final int[] vertlist) {
+		final int id = i + nx * j;
+		int cubeindex = 0;
+		if (inside(lowerSlice[id])) {
+			cubeindex |= 1;
+		}
+		if (inside(lowerSlice[id + 1])) {
+			cubeindex |= 2;
+		}
+		if (inside(lowerSlice[id + 1 + nx])) {
+			cubeindex |= 4;
+		}
+		if (inside(lowerSlice[id + nx])) {
+			cubeindex |= 8;
+		}
+		if (inside(upperSlice[id])) {
+			cubeindex |= 16;
+		}
+		if (inside(upperSlice[id + 1])) {
+			cubeindex |= 32;
+		}
+		if (inside(upperSlice[id + 1 + nx])) {
+			cubeindex |= 64;
+		}
+		if (inside(upperSlice[id + nx])) {
+			cubeindex |= 128;
+		}
+		final int edges = WB_IsoSurface.edgeTable[cubeindex];
+		if (edges == 0) {
+			return;
+		}
+		vertlist[0] = lowerX[id];
+		vertlist[1] = lowerY[id + 1];
+		vertlist[2] = lowerX[id + nx];
+		vertlist[3] = lowerY[id];
+		vertlist[4] = upperX[id];
+		vertlist[5] = upperY[id + 1];
+		vertlist[6] = upperX[id + nx];
+		vertlist[7] = upperY[id];
+		vertlist[8] = middleZ[id];
+		vertlist[9] = middleZ[id + 1];
+		vertlist[10] = middleZ[id + 1 + nx];
+		vertlist[11] = middleZ[id + nx];
+		final int[] table = WB_IsoSurface.triTable[cubeindex];
+		for (int t = 0; table[t] != -1; t++) {
+			tris.add(vertlist[table[t]]);
+		}
+	}
+
+	/**
+	 * Position of the isolevel crossing on a grid edge, padded grid indices.
+	 */
+	private void interpolate(final int i0, final int j0, final int k0, final double v0, final int i1, final int j1,
+			final int k1, final double v1, final TDoubleArrayList points) {
+		final double x0 = ox + (i0 - pad) * dx, y0 = oy + (j0 - pad) * dy, z0 = oz + k0 * dz;
+		final double x1 = ox + (i1 - pad) * dx, y1 = oy + (j1 - pad) * dy, z1 = oz + k1 * dz;
+		double mu;
+		if (WB_Epsilon.isEqualAbs(isolevel, v0) || WB_Epsilon.isEqualAbs(v0, v1)) {
+			mu = 0;
+		} else if (WB_Epsilon.isEqualAbs(isolevel, v1)) {
+			mu = 1;
+		} else {
+			mu = (isolevel - v0) / (v1 - v0);
+		}
+		points.add(x0 + mu * (x1 - x0));
+		points.add(y0 + mu * (y1 - y0));
+		points.add(z0 + mu * (z1 - z0));
+	}
+
+	/**
+	 * Source of a volume, read one z-slice at a time.
+	 */
+	public interface WB_SliceSource {
+		/**
+		 *
+		 *
+		 * @return number of grid points in x
+		 */
+		public int getSizeX();
+
+		/**
+		 *
+		 *
+		 * @return number of grid points in y
+		 */
+		public int getSizeY();
+
+		/**
+		 *
+		 *
+		 * @return number of grid points in z
+		 */
+		public int getSizeZ();
+
+		/**
+		 * Fill slice with the values of grid points (i,j,k), at index
+		 * i+getSizeX()*j. Slices are requested in increasing order of k.
+		 *
+		 * @param k
+		 * @param slice
+		 */
+		public void getSlice(int k, float[] slice);
+	}
+
+	/**
+	 * Receiver of a streamed indexed triangle mesh. Vertices are numbered from
+	 * 0 in the order they are added, a triangle only refers to vertices that
+	 * were already added.
+	 */
+	public interface WB_TriangleSink {
+		/**
+		 *
+		 */
+		public void start();
+
+		/**
+		 *
+		 *
+		 * @param x
+		 * @param y
+		 * @param z
+		 */
+		public void addVertex(double x, double y, double z);
+
+		/**
+		 *
+		 *
+		 * @param v0
+		 * @param v1
+		 * @param v2
+		 */
+		public void addTriangle(int v0, int v1, int v2);
+
+		/**
+		 *
+		 */
+		public void end();
+	}
+
+	/**
+	 * Slice source backed by a 3D array, double[sizex][sizey][sizez].
+	 */
+	public static class WB_ArraySliceSource implements WB_SliceSource {
+		private final double[][][] values;
+
+		/**
+		 *
+		 *
+		 * @param values
+		 */
+		public WB_ArraySliceSource(final double[][][] values) {
+			this.values = values;
+		}
+
+		@Override
+		public int getSizeX() {
+			return values.length;
+		}
+
+		@Override
+		public int getSizeY() {
+			return values[0].length;
+		}
+
+		@Override
+		public int getSizeZ() {
+			return values[0][0].length;
+		}
+
+		@Override
+		public void getSlice(final int k, final float[] slice) {
+			final int sx = getSizeX();
+			for (int j = 0; j < getSizeY(); j++) {
+				for (int i = 0; i < sx; i++) {
+					slice[i + sx * j] = (float) values[i][j][k];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sink that collects the mesh in primitive arrays, for use with
+	 * HEC_FromFacelist.
+	 */
+	public static class WB_TriangleCollector implements WB_TriangleSink {
+		private final TDoubleArrayList vertices = new TDoubleArrayList();
+		private final TIntArrayList triangles = new TIntArrayList();
+
+		@Override
+		public void start() {
+			vertices.resetQuick();
+			triangles.resetQuick();
+		}
+
+		@Override
+		public void addVertex(final double x, final double y, final double z) {
+			vertices.add(x);
+			vertices.add(y);
+			vertices.add(z);
+		}
+
+		@Override
+		public void addTriangle(final int v0, final int v1, final int v2) {
+			triangles.add(v0);
+			triangles.add(v1);
+			triangles.add(v2);
+		}
+
+		@Override
+		public void end() {
+		}
+
+		/**
+		 *
+		 *
+		 * @return vertices
+		 */
+		public WB_Point[] getVertices() {
+			final WB_Point[] points = new WB_Point[vertices.size() / 3];
+			for (int i = 0; i < points.length; i++) {
+				points[i] = new WB_Point(vertices.getQuick(3 * i), vertices.getQuick(3 * i + 1),
+						vertices.getQuick(3 * i + 2));
+			}
+			return points;
+		}
+
+		/**
+		 *
+		 *
+		 * @return faces as vertex index triplets
+		 */
+		public int[][] getFaces() {
+			final int[][] faces = new int[triangles.size() / 3][];
+			for (int i = 0; i < faces.length; i++) {
+				faces[i] = new int[] { triangles.getQuick(3 * i), triangles.getQuick(3 * i + 1),
+						triangles.getQuick(3 * i + 2) };
+			}
+			return faces;
+		}
+
+		/**
+		 *
+		 *
+		 * @return number of vertices
+		 */
+		public int getNumberOfVertices() {
+			return vertices.size() / 3;
+		}
+
+		/**
+		 *
+		 *
+		 * @return number of triangles
+		 */
+		public int getNumberOfTriangles() {
+			return triangles.size() / 3;
+		}
+	}
+
+	/**
+	 * Sink that writes the mesh as Wavefront OBJ while it is generated.
+	 * Errors are rethrown as unchecked exceptions.
+	 */
+	public static class WB_OBJTriangleWriter implements WB_TriangleSink {
+		private final Writer writer;
+
+		/**
+		 *
+		 *
+		 * @param writer
+		 *            preferably buffered, closed at the end
+		 */
+		public WB_OBJTriangleWriter(final Writer writer) {
+			this.writer = writer;
+		}
+
+		@Override
+		public void start() {
+			write("# WB_IsoSurfaceStream\n");
+		}
+
+		@Override
+		public void addVertex(final double x, final double y, final double z) {
+			write("v " + (float) x + " " + (float) y + " " + (float) z + "\n");
+		}
+
+		@Override
+		public void addTriangle(final int v0, final int v1, final int v2) {
+			write("f " + (v0 + 1) + " " + (v1 + 1) + " " + (v2 + 1) + "\n");
+		}
+
+		@Override
+		public void end() {
+			try {
+				writer.close();
+			} catch (final IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		private void write(final String s) {
+			try {
+				writer.write(s);
+			} catch (final IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+}
@@ -9,12 +9,10 @@
  */
 package wblut.geom;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.PriorityQueue;
 
 import javolution.util.FastTable;
+import wblut.geom.WB_CSRGraph.WB_ShortestPathTree;
 import wblut.hemesh.HE_Mesh;
 
 /**
@@ -25,6 +23,14 @@ public class WB_MeshGraph {
 	 *
 	 */
 	private final WB_GraphVertex[] vertices;
+	/**
+	 *
+	 */
+	private final WB_CSRGraph graph;
+	/**
+	 *
+	 */
+	private WB_ShortestPathTree tree;
 	/**
 	 *
 	 */
@@ -40,23 +46,7 @@ public class WB_MeshGraph {
 		for (int i = 0; i < mesh.getNumberOfVertices(); i++) {
 			vertices[i] = new WB_GraphVertex(i, mesh.getVertex(i));
 		}
-		final int[][] meshedges = mesh.getEdgesAsInt();
-		WB_Coord p0;
-		WB_Coord p1;
-		WB_GraphVertex v0;
-		WB_GraphVertex v1;
-		double d;
-		for (int i = 0; i < meshedges.length; i++) {
-			if (meshedges[i][0] != meshedges[i][1]) {
-				p0 = mesh.getVertex(meshedges[i][0]);
-				p1 = mesh.getVertex(meshedges[i][1]);
-				d = WB_GeometryOp.getDistance3D(p0, p1);
-				v0 = vertices[meshedges[i][0]];
-				v1 = vertices[meshedges[i][1]];
-				v0.neighbors.add(new WB_GraphEdge(v1, d));
-				v1.neighbors.add(new WB_GraphEdge(v0, d));
-			}
-		}
+		graph = createGraph(mesh);
 		lastSource = -1;
 	}
 
@@ -72,7 +62,20 @@ public class WB_MeshGraph {
 			vertices[i] = new WB_GraphVertex(i,
 					new WB_Point(mesh.getVertex(i)).addMulSelf(offset, mesh.getVertexNormal(i)));
 		}
+		graph = createGraph(mesh);
+		lastSource = -1;
+	}
+
+	/**
+	 * Build the neighbor lists and the CSR graph, edges are weighted by their
+	 * length in the mesh.
+	 *
+	 * @param mesh
+	 * @return
+	 */
+	private WB_CSRGraph createGraph(final WB_Mesh mesh) {
 		final int[][] meshedges = mesh.getEdgesAsInt();
+		final double[] weights = new double[meshedges.length];
 		WB_Coord p0;
 		WB_Coord p1;
 		WB_GraphVertex v0;
@@ -83,13 +86,23 @@ public class WB_MeshGraph {
 				p0 = mesh.getVertex(meshedges[i][0]);
 				p1 = mesh.getVertex(meshedges[i][1]);
 				d = WB_GeometryOp.getDistance3D(p0, p1);
+				weights[i] = d;
 				v0 = vertices[meshedges[i][0]];
 				v1 = vertices[meshedges[i][1]];
 				v0.neighbors.add(new WB_GraphEdge(v1, d));
 				v1.neighbors.add(new WB_GraphEdge(v0, d));
 			}
 		}
-		lastSource = -1;
+		return new WB_CSRGraph(vertices.length, meshedges, weights);
+	}
+
+	/**
+	 * The primitive graph used for all searches.
+	 *
+	 * @return
+	 */
+	public WB_CSRGraph getGraph() {
+		return graph;
 	}
 
 	/**
@@ -131,29 +144,25 @@ public class WB_MeshGraph {
 	 * @param i
 	 */
 	public void computePathsToVertex(final int i) {
-		final WB_GraphVertex source = vertices[i];
+		computePathsToVertices(new int[] { i });
+		lastSource = i;
+	}
+
+	/**
+	 * Compute the paths from the nearest of several sources to all vertices.
+	 * Afterwards, minWeight and previous of each WB_GraphVertex are set.
+	 *
+	 * @param sources
+	 */
+	public void computePathsToVertices(final int[] sources) {
+		tree = graph.getShortestPathTree(sources);
 		for (int j = 0; j < vertices.length; j++) {
-			vertices[j].reset();
-		}
-		source.minWeight = 0.;
-		final PriorityQueue<WB_GraphVertex> vertexQueue = new PriorityQueue<WB_GraphVertex>();
-		vertexQueue.add(source);
-		while (!vertexQueue.isEmpty()) {
-			final WB_GraphVertex u = vertexQueue.poll();
-			// Visit each edge exiting u
-			for (final WB_GraphEdge e : u.neighbors) {
-				final WB_GraphVertex v = e.target;
-				final double weight = e.weight;
-				final double distanceThroughU = u.minWeight + weight;
-				if (distanceThroughU < v.minWeight) {
-					vertexQueue.remove(v);
-					v.minWeight = distanceThroughU;
-					v.previous = u;
-					vertexQueue.add(v);
-				}
-			}
+			final WB_GraphVertex v = vertices[j];
+			v.minWeight = tree.getDistance(j);
+			final int previous = tree.getPrevious(j);
+			v.previous = previous < 0 ? null : vertices[previous];
 		}
-		lastSource = i;
+		lastSource = -1;
 	}
 
 	/**
@@ -183,16 +192,57 @@ public class WB_MeshGraph {
 		if (source == target) {
 			return new int[] { source };
 		}
-		final List<WB_GraphVertex> path = new ArrayList<WB_GraphVertex>();
-		for (WB_GraphVertex vertex = vertices[target]; vertex != null; vertex = vertex.previous) {
-			path.add(vertex);
+		if (!tree.isReached(target)) {
+			return new int[] { target };
 		}
-		Collections.reverse(path);
-		final int[] result = new int[path.size()];
-		for (int i = 0; i < path.size(); i++) {
-			result[i] = path.get(i).index;
-		}
-		return result;
+		return tree.getPath(target);
+	}
+
+	/**
+	 * Shortest path between two vertices. Unlike
+	 * getShortestPathBetweenVertices, the search stops as soon as the target
+	 * is reached and the stored paths are not changed.
+	 *
+	 * @param source
+	 * @param target
+	 * @return vertex indices from source to target, empty if the target can't
+	 *         be reached
+	 */
+	public int[] findShortestPathBetweenVertices(final int source, final int target) {
+		return graph.getShortestPath(source, target);
+	}
+
+	/**
+	 * Length of the shortest path between two vertices, the search stops as
+	 * soon as the target is reached.
+	 *
+	 * @param source
+	 * @param target
+	 * @return
+	 */
+	public double getDistanceBetweenVertices(final int source, final int target) {
+		return graph.getDistance(source, target);
+	}
+
+	/**
+	 * Shortest path trees of several sources, computed in parallel.
+	 *
+	 * @param sources
+	 * @return
+	 */
+	public WB_ShortestPathTree[] getShortestPathTrees(final int[] sources) {
+		return graph.getShortestPathTrees(sources);
+	}
+
+	/**
+	 * Distances between all pairs of a subset of vertices, computed in
+	 * parallel.
+	 *
+	 * @param subset
+	 * @return
+	 */
+	public double[][] getDistanceMatrix(final int[] subset) {
+		return graph.getDistanceMatrix(subset);
 	}
 
 	/**
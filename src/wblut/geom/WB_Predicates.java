@@ -9945,10 +9945,10 @@ public class WB_Predicates {
 	eindex = findex = 0;
 	if ((fnow > enow) == (fnow > -enow)) {
 	    Q = enow;
-	    enow = e[++eindex];
+	    enow = ++eindex < elen ? e[eindex] : 0;
 	} else {
 	    Q = fnow;
-	    fnow = f[++findex];
+	    fnow = ++findex < flen ? f[findex] : 0;
 	}
 	hindex = 0;
 	if ((eindex < elen) && (findex < flen)) {
@@ -9956,12 +9956,12 @@ public class WB_Predicates {
 		Qnew = (enow + Q);
 		bvirt = Qnew - enow;
 		hh = Q - bvirt;
-		enow = e[++eindex];
+		enow = ++eindex < elen ? e[eindex] : 0;
 	    } else {
 		Qnew = (fnow + Q);
 		bvirt = Qnew - fnow;
 		hh = Q - bvirt;
-		fnow = f[++findex];
+		fnow = ++findex < flen ? f[findex] : 0;
 	    }
 	    Q = Qnew;
 	    if (hh != 0.0) {
@@ -9975,7 +9975,7 @@ public class WB_Predicates {
 		    bround = enow - bvirt;
 		    around = Q - avirt;
 		    hh = around + bround;
-		    enow = e[++eindex];
+		    enow = ++eindex < elen ? e[eindex] : 0;
 		} else {
 		    Qnew = (Q + fnow);
 		    bvirt = (Qnew - Q);
@@ -9983,7 +9983,7 @@ public class WB_Predicates {
 		    bround = fnow - bvirt;
 		    around = Q - avirt;
 		    hh = around + bround;
-		    fnow = f[++findex];
+		    fnow = ++findex < flen ? f[findex] : 0;
 		}
 		Q = Qnew;
 		if (hh != 0.0) {
@@ -9998,7 +9998,7 @@ public class WB_Predicates {
 	    bround = enow - bvirt;
 	    around = Q - avirt;
 	    hh = around + bround;
-	    enow = e[++eindex];
+	    enow = ++eindex < elen ? e[eindex] : 0;
 	    Q = Qnew;
 	    if (hh != 0.0) {
 		h[hindex++] = hh;
@@ -10011,7 +10011,7 @@ public class WB_Predicates {
 	    bround = fnow - bvirt;
 	    around = Q - avirt;
 	    hh = around + bround;
-	    fnow = f[++findex];
+	    fnow = ++findex < flen ? f[findex] : 0;
 	    Q = Qnew;
 	    if (hh != 0.0) {
 		h[hindex++] = hh;
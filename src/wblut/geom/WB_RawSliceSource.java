@@ -0,0 +1,160 @@
+/*
+ * This file is part of HE_Mesh, a library for creating and manipulating meshes.
+ * It is dedicated to the public domain. To the extent possible under law,
+ * I , Frederik Vanhoutte, have waived all copyright and related or neighboring
+ * rights.
+ *
+ * This work is published from Belgium. (http://creativecommons.org/publicdomain/zero/1.0/)
+ *
+ */
+package wblut.geom;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import wblut.geom.WB_IsoSurfaceStream.WB_SliceSource;
+
+/**
+ * Slice source reading a raw volume file, stored x fastest, then y, then z,
+ * without compression. Each slice is memory-mapped when it is requested, so
+ * files larger than the heap, or larger than 2GB, can be used.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class WB_RawSliceSource implements WB_SliceSource {
+	/** Unsigned 8-bit values. */
+	public static final int UBYTE = 0;
+	/** Signed 16-bit values. */
+	public static final int SHORT = 1;
+	/** Unsigned 16-bit values. */
+	public static final int USHORT = 2;
+	/** 32-bit float values. */
+	public static final int FLOAT = 3;
+	/** 64-bit double values. */
+	public static final int DOUBLE = 4;
+	private static final int[] BYTES = new int[] { 1, 2, 2, 4, 8 };
+	private final File file;
+	private final int sizex, sizey, sizez;
+	private final int type;
+	private final ByteOrder order;
+	private final long headerSize;
+
+	/**
+	 * Raw file without header, little-endian.
+	 *
+	 * @param file
+	 * @param sizex
+	 *            number of grid points in x
+	 * @param sizey
+	 *            number of grid points in y
+	 * @param sizez
+	 *            number of grid points in z
+	 * @param type
+	 *            UBYTE, SHORT, USHORT, FLOAT or DOUBLE
+	 */
+	public WB_RawSliceSource(final File file, final int sizex, final int sizey, final int sizez, final int type) {
+		this(file, sizex, sizey, sizez, type, ByteOrder.LITTLE_ENDIAN, 0);
+	}
+
+	/**
+	 *
+	 *
+	 * @param file
+	 * @param sizex
+	 *            number of grid points in x
+	 * @param sizey
+	 *            number of grid points in y
+	 * @param sizez
+	 *            number of grid points in z
+	 * @param type
+	 *            UBYTE, SHORT, USHORT, FLOAT or DOUBLE
+	 * @param order
+	 *            byte order of the values
+	 * @param headerSize
+	 *            number of bytes to skip at the start of the file
+	 */
+	public WB_RawSliceSource(final File file, final int sizex, final int sizey, final int sizez, final int type,
+			final ByteOrder order, final long headerSize) {
+		if (type < UBYTE || type > DOUBLE) {
+			throw new IllegalArgumentException("Unknown value type " + type + ".");
+		}
+		final long expected = headerSize + (long) sizex * sizey * sizez * BYTES[type];
+		if (file.length() < expected) {
+			throw new IllegalArgumentException(
+					"File " + file + " is " + file.length() + " bytes, expected at least " + expected + ".");
+		}
+		this.file = file;
+		this.sizex = sizex;
+		this.sizey = sizey;
+		this.sizez = sizez;
+		this.type = type;
+		this.order = order;
+		this.headerSize = headerSize;
+	}
+
+	@Override
+	public int getSizeX() {
+		return sizex;
+	}
+
+	@Override
+	public int getSizeY() {
+		return sizey;
+	}
+
+	@Override
+	public int getSizeZ() {
+		return sizez;
+	}
+
+	@Override
+	public void getSlice(final int k, final float[] slice) {
+		final int n = sizex * sizey;
+		final long sliceBytes = (long) n * BYTES[type];
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+					headerSize + k * sliceBytes, sliceBytes);
+			buffer.order(order);
+			switch (type) {
+			case UBYTE:
+				for (int i = 0; i < n; i++) {
+					slice[i] = buffer.get(i) & 0xFF;
+				}
+				break;
+			case SHORT:
+				for (int i = 0; i < n; i++) {
+					slice[i] = buffer.getShort(2 * i);
+				}
+				break;
+			case USHORT:
+				for (int i = 0; i < n; i++) {
+					slice[i] = buffer.getShort(2 * i) & 0xFFFF;
+				}
+				break;
+			case FLOAT:
+				buffer.asFloatBuffer().get(slice, 0, n);
+				break;
+			default:
+				for (int i = 0; i < n; i++) {
+					slice[i] = (float) buffer.getDouble(8 * i);
+				}
+			}
+		} catch (final IOException e) {
+			throw new RuntimeException("Error reading slice " + k + " from " + file + ".", e);
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (final IOException e) {
+				}
+			}
+		}
+	}
+}
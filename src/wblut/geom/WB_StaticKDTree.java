@@ -0,0 +1,621 @@
+/*
+ * This file is part of HE_Mesh, a library for creating and manipulating meshes.
+ * It is dedicated to the public domain. To the extent possible under law,
+ * I , Frederik Vanhoutte, have waived all copyright and related or neighboring
+ * rights.
+ *
+ * This work is published from Belgium. (http://creativecommons.org/publicdomain/zero/1.0/)
+ *
+ */
+package wblut.geom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import wblut.core.WB_Parallel;
+import wblut.core.WB_Parallel.WB_RangeTask;
+
+/**
+ * Static 3D KD-tree over a fixed point set, built in one pass by median
+ * splits. The tree is implicit: the points are reordered so that every
+ * subrange [lo,hi) is a subtree with its splitting point at the middle
+ * index. Only the reordered coordinates, the original indices and one split
+ * axis per point are stored, there are no node objects.
+ *
+ * Queries return original point indices. The query methods that take
+ * result buffers do not allocate and can be called from several threads at
+ * once.
+ *
+ * Use WB_KDTree if points need to be added after construction.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class WB_StaticKDTree {
+	private static final int DEFAULTLEAFSIZE = 8;
+	/** Ranges larger than this are built in parallel. */
+	private static final int PARALLELSIZE = 1 << 15;
+	private final int n;
+	private final int leafSize;
+	/** Reordered coordinates, x0,y0,z0,x1,... */
+	private final double[] points;
+	/** Original index of each reordered point. */
+	private final int[] indices;
+	/** Split axis of the subtree with its middle at this position. */
+	private final byte[] axes;
+
+	/**
+	 *
+	 *
+	 * @param coords
+	 *            packed coordinates x0,y0,z0,x1,...
+	 */
+	public WB_StaticKDTree(final double[] coords) {
+		this(coords, coords.length / 3, DEFAULTLEAFSIZE);
+	}
+
+	/**
+	 *
+	 *
+	 * @param coords
+	 *            packed coordinates x0,y0,z0,x1,...
+	 * @param n
+	 *            number of points to use
+	 * @param leafSize
+	 *            subtrees with this many points or less are searched
+	 *            linearly
+	 */
+	public WB_StaticKDTree(final double[] coords, final int n, final int leafSize) {
+		if (n < 0 || 3 * n > coords.length) {
+			throw new IllegalArgumentException("Number of points out of range.");
+		}
+		if (leafSize < 1) {
+			throw new IllegalArgumentException("Leaf size should be at least 1.");
+		}
+		this.n = n;
+		this.leafSize = leafSize;
+		points = Arrays.copyOf(coords, 3 * n);
+		indices = new int[n];
+		for (int i = 0; i < n; i++) {
+			indices[i] = i;
+		}
+		axes = new byte[n];
+		build();
+	}
+
+	/**
+	 *
+	 *
+	 * @param coords
+	 */
+	public WB_StaticKDTree(final List<? extends WB_Coord> coords) {
+		this(toArray(coords), coords.size(), DEFAULTLEAFSIZE);
+	}
+
+	/**
+	 *
+	 *
+	 * @param coords
+	 */
+	public WB_StaticKDTree(final WB_Coord[] coords) {
+		this(toArray(Arrays.asList(coords)), coords.length, DEFAULTLEAFSIZE);
+	}
+
+	/**
+	 *
+	 *
+	 * @param coords
+	 * @return
+	 */
+	private static double[] toArray(final List<? extends WB_Coord> coords) {
+		final double[] result = new double[3 * coords.size()];
+		int i = 0;
+		for (final WB_Coord c : coords) {
+			result[i++] = c.xd();
+			result[i++] = c.yd();
+			result[i++] = c.zd();
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 *
+	 * @return number of points
+	 */
+	public int size() {
+		return n;
+	}
+
+	/**
+	 *
+	 */
+	private void build() {
+		if (n <= leafSize) {
+			return;
+		}
+		final double[] box = new double[] { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+				Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+				Double.NEGATIVE_INFINITY };
+		for (int i = 0; i < n; i++) {
+			for (int c = 0; c < 3; c++) {
+				box[c] = Math.min(box[c], points[3 * i + c]);
+				box[c + 3] = Math.max(box[c + 3], points[3 * i + c]);
+			}
+		}
+		if (WB_Parallel.isSingleThreaded() || n <= PARALLELSIZE) {
+			build(0, n, box);
+			return;
+		}
+		// split serially until there are enough subtrees to keep all threads
+		// busy, then build the subtrees in parallel
+		final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		build(0, n, box, 4 * WB_Parallel.getParallelism(), tasks);
+		WB_Parallel.invokeAll(tasks);
+	}
+
+	/**
+	 *
+	 *
+	 * @param lo
+	 * @param hi
+	 * @param box
+	 * @param parts
+	 *            number of subtrees still to create
+	 * @param tasks
+	 */
+	private void build(final int lo, final int hi, final double[] box, final int parts,
+			final List<Callable<Object>> tasks) {
+		if (parts <= 1 || hi - lo <= PARALLELSIZE) {
+			tasks.add(new Callable<Object>() {
+				@Override
+				public Object call() {
+					build(lo, hi, box);
+					return null;
+				}
+			});
+			return;
+		}
+		final int mid = split(lo, hi, box);
+		final int axis = axes[mid];
+		final double[] left = Arrays.copyOf(box, 6);
+		left[axis + 3] = points[3 * mid + axis];
+		box[axis] = points[3 * mid + axis];
+		build(lo, mid, left, parts / 2, tasks);
+		build(mid + 1, hi, box, parts - parts / 2, tasks);
+	}
+
+	/**
+	 *
+	 *
+	 * @param lo
+	 * @param hi
+	 * @param box
+	 *            bounds of the range, min x,y,z, max x,y,z, restored on
+	 *            return
+	 */
+	private void build(final int lo, final int hi, final double[] box) {
+		if (hi - lo <= leafSize) {
+			return;
+		}
+		final int mid = split(lo, hi, box);
+		final int axis = axes[mid];
+		final double value = points[3 * mid + axis];
+		final double max = box[axis + 3];
+		box[axis + 3] = value;
+		build(lo, mid, box);
+		box[axis + 3] = max;
+		final double min = box[axis];
+		box[axis] = value;
+		build(mid + 1, hi, box);
+		box[axis] = min;
+	}
+
+	/**
+	 * Put the median along the longest side of the box at the middle of the
+	 * range.
+	 *
+	 * @param lo
+	 * @param hi
+	 * @param box
+	 * @return middle index
+	 */
+	private int split(final int lo, final int hi, final double[] box) {
+		int axis = 0;
+		double ext = box[3] - box[0];
+		if (box[4] - box[1] > ext) {
+			axis = 1;
+			ext = box[4] - box[1];
+		}
+		if (box[5] - box[2] > ext) {
+			axis = 2;
+		}
+		final int mid = (lo + hi) >>> 1;
+		select(lo, hi - 1, mid, axis);
+		axes[mid] = (byte) axis;
+		return mid;
+	}
+
+	/**
+	 * Quickselect: reorder [left,right] so that position k holds the point
+	 * that would be there if the range was sorted along axis.
+	 *
+	 * @param left
+	 * @param right
+	 * @param k
+	 * @param axis
+	 */
+	private void select(int left, int right, final int k, final int axis) {
+		while (right > left) {
+			final int m = (left + right) >>> 1;
+			// median of three as pivot
+			if (points[3 * m + axis] < points[3 * left + axis]) {
+				swap(m, left);
+			}
+			if (points[3 * right + axis] < points[3 * left + axis]) {
+				swap(right, left);
+			}
+			if (points[3 * right + axis] < points[3 * m + axis]) {
+				swap(right, m);
+			}
+			final double pivot = points[3 * m + axis];
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (points[3 * i + axis] < pivot) {
+					i++;
+				}
+				while (points[3 * j + axis] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					swap(i, j);
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				right = j;
+			} else if (k >= i) {
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	/**
+	 *
+	 *
+	 * @param i
+	 * @param j
+	 */
+	private void swap(final int i, final int j) {
+		final int ti = indices[i];
+		indices[i] = indices[j];
+		indices[j] = ti;
+		for (int c = 0; c < 3; c++) {
+			final double t = points[3 * i + c];
+			points[3 * i + c] = points[3 * j + c];
+			points[3 * j + c] = t;
+		}
+	}
+
+	/**
+	 *
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return index of the closest point, -1 if the tree is empty
+	 */
+	public int getNearestNeighbor(final double x, final double y, final double z) {
+		final int[] index = new int[1];
+		final double[] d2 = new double[1];
+		return getNearestNeighbors(x, y, z, 1, index, d2, 0) == 0 ? -1 : index[0];
+	}
+
+	/**
+	 *
+	 *
+	 * @param p
+	 * @return index of the closest point, -1 if the tree is empty
+	 */
+	public int getNearestNeighbor(final WB_Coord p) {
+		return getNearestNeighbor(p.xd(), p.yd(), p.zd());
+	}
+
+	/**
+	 * Find the k closest points, sorted by increasing distance.
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param k
+	 * @param resultIndices
+	 *            receives the indices at [offset, offset+k)
+	 * @param resultD2
+	 *            receives the squared distances at [offset, offset+k)
+	 * @param offset
+	 * @return number of points found, min(k, size())
+	 */
+	public int getNearestNeighbors(final double x, final double y, final double z, final int k,
+			final int[] resultIndices, final double[] resultD2, final int offset) {
+		if (k <= 0 || n == 0) {
+			return 0;
+		}
+		final int found = nearest(0, n, x, y, z, k, resultIndices, resultD2, offset, 0);
+		// the results form a max-heap, sort ascending
+		for (int end = found - 1; end > 0; end--) {
+			swapResult(resultIndices, resultD2, offset, 0, end);
+			siftDown(resultIndices, resultD2, offset, 0, end);
+		}
+		return found;
+	}
+
+	/**
+	 *
+	 *
+	 * @param lo
+	 * @param hi
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param k
+	 * @param ri
+	 * @param rd
+	 * @param off
+	 * @param found
+	 *            number of results so far
+	 * @return number of results
+	 */
+	private int nearest(final int lo, final int hi, final double x, final double y, final double z, final int k,
+			final int[] ri, final double[] rd, final int off, int found) {
+		if (hi - lo <= leafSize) {
+			for (int i = lo; i < hi; i++) {
+				found = offer(i, x, y, z, k, ri, rd, off, found);
+			}
+			return found;
+		}
+		final int mid = (lo + hi) >>> 1;
+		final int axis = axes[mid];
+		final double diff = (axis == 0 ? x : axis == 1 ? y : z) - points[3 * mid + axis];
+		found = offer(mid, x, y, z, k, ri, rd, off, found);
+		if (diff < 0) {
+			found = nearest(lo, mid, x, y, z, k, ri, rd, off, found);
+			if (found < k || diff * diff < rd[off]) {
+				found = nearest(mid + 1, hi, x, y, z, k, ri, rd, off, found);
+			}
+		} else {
+			found = nearest(mid + 1, hi, x, y, z, k, ri, rd, off, found);
+			if (found < k || diff * diff < rd[off]) {
+				found = nearest(lo, mid, x, y, z, k, ri, rd, off, found);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Offer a point to the bounded max-heap of results.
+	 *
+	 * @param i
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param k
+	 * @param ri
+	 * @param rd
+	 * @param off
+	 * @param found
+	 * @return
+	 */
+	private int offer(final int i, final double x, final double y, final double z, final int k, final int[] ri,
+			final double[] rd, final int off, final int found) {
+		final double dx = points[3 * i] - x;
+		final double dy = points[3 * i + 1] - y;
+		final double dz = points[3 * i + 2] - z;
+		final double d2 = dx * dx + dy * dy + dz * dz;
+		if (found < k) {
+			int pos = found;
+			while (pos > 0) {
+				final int parent = (pos - 1) >>> 1;
+				if (rd[off + parent] >= d2) {
+					break;
+				}
+				ri[off + pos] = ri[off + parent];
+				rd[off + pos] = rd[off + parent];
+				pos = parent;
+			}
+			ri[off + pos] = indices[i];
+			rd[off + pos] = d2;
+			return found + 1;
+		}
+		if (d2 < rd[off]) {
+			ri[off] = indices[i];
+			rd[off] = d2;
+			siftDown(ri, rd, off, 0, k);
+		}
+		return found;
+	}
+
+	/**
+	 *
+	 *
+	 * @param ri
+	 * @param rd
+	 * @param off
+	 * @param pos
+	 * @param size
+	 */
+	private static void siftDown(final int[] ri, final double[] rd, final int off, int pos, final int size) {
+		while (true) {
+			final int c = 2 * pos + 1;
+			if (c >= size) {
+				return;
+			}
+			final int largest = c + 1 < size && rd[off + c + 1] > rd[off + c] ? c + 1 : c;
+			if (rd[off + largest] <= rd[off + pos]) {
+				return;
+			}
+			swapResult(ri, rd, off, pos, largest);
+			pos = largest;
+		}
+	}
+
+	/**
+	 *
+	 *
+	 * @param ri
+	 * @param rd
+	 * @param off
+	 * @param i
+	 * @param j
+	 */
+	private static void swapResult(final int[] ri, final double[] rd, final int off, final int i, final int j) {
+		final int ti = ri[off + i];
+		ri[off + i] = ri[off + j];
+		ri[off + j] = ti;
+		final double td = rd[off + i];
+		rd[off + i] = rd[off + j];
+		rd[off + j] = td;
+	}
+
+	/**
+	 * Find all points within a distance. If there are more points than fit in
+	 * the buffers, only the first ones found are stored but all are counted.
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param r
+	 * @param resultIndices
+	 * @param resultD2
+	 *            squared distances, can be null
+	 * @return number of points within distance r, unsorted
+	 */
+	public int getRange(final double x, final double y, final double z, final double r, final int[] resultIndices,
+			final double[] resultD2) {
+		if (n == 0 || r < 0) {
+			return 0;
+		}
+		return range(0, n, x, y, z, r * r, resultIndices, resultD2, 0);
+	}
+
+	/**
+	 *
+	 *
+	 * @param lo
+	 * @param hi
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param r2
+	 * @param ri
+	 * @param rd
+	 * @param found
+	 * @return
+	 */
+	private int range(final int lo, final int hi, final double x, final double y, final double z, final double r2,
+			final int[] ri, final double[] rd, int found) {
+		if (hi - lo <= leafSize) {
+			for (int i = lo; i < hi; i++) {
+				found = collect(i, x, y, z, r2, ri, rd, found);
+			}
+			return found;
+		}
+		final int mid = (lo + hi) >>> 1;
+		final int axis = axes[mid];
+		final double diff = (axis == 0 ? x : axis == 1 ? y : z) - points[3 * mid + axis];
+		found = collect(mid, x, y, z, r2, ri, rd, found);
+		if (diff <= 0 || diff * diff <= r2) {
+			found = range(lo, mid, x, y, z, r2, ri, rd, found);
+		}
+		if (diff >= 0 || diff * diff <= r2) {
+			found = range(mid + 1, hi, x, y, z, r2, ri, rd, found);
+		}
+		return found;
+	}
+
+	/**
+	 *
+	 *
+	 * @param i
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param r2
+	 * @param ri
+	 * @param rd
+	 * @param found
+	 * @return
+	 */
+	private int collect(final int i, final double x, final double y, final double z, final double r2,
+			final int[] ri, final double[] rd, final int found) {
+		final double dx = points[3 * i] - x;
+		final double dy = points[3 * i + 1] - y;
+		final double dz = points[3 * i + 2] - z;
+		final double d2 = dx * dx + dy * dy + dz * dz;
+		if (d2 > r2) {
+			return found;
+		}
+		if (found < ri.length) {
+			ri[found] = indices[i];
+			if (rd != null) {
+				rd[found] = d2;
+			}
+		}
+		return found + 1;
+	}
+
+	/**
+	 * Closest point for a batch of query points, in parallel.
+	 *
+	 * @param queries
+	 *            packed coordinates x0,y0,z0,x1,...
+	 * @return index of the closest point for each query
+	 */
+	public int[] getNearestNeighbors(final double[] queries) {
+		final int nq = queries.length / 3;
+		final int[] result = new int[nq];
+		getNearestNeighbors(queries, 1, result, new double[nq]);
+		return result;
+	}
+
+	/**
+	 * The k closest points for a batch of query points, in parallel. The
+	 * results for query q are at [k*q, k*q+k), sorted by increasing
+	 * distance. Missing results, when k is larger than size(), have index -1
+	 * and distance +infinity.
+	 *
+	 * @param queries
+	 *            packed coordinates x0,y0,z0,x1,...
+	 * @param k
+	 * @param resultIndices
+	 *            array of at least k*number of queries
+	 * @param resultD2
+	 *            array of at least k*number of queries
+	 */
+	public void getNearestNeighbors(final double[] queries, final int k, final int[] resultIndices,
+			final double[] resultD2) {
+		final int nq = queries.length / 3;
+		if (resultIndices.length < k * nq || resultD2.length < k * nq) {
+			throw new IllegalArgumentException("Result arrays are too small.");
+		}
+		WB_Parallel.forRange(0, nq, 256, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int q = start; q < end; q++) {
+					final int off = k * q;
+					final int found = getNearestNeighbors(queries[3 * q], queries[3 * q + 1], queries[3 * q + 2], k,
+							resultIndices, resultD2, off);
+					for (int i = found; i < k; i++) {
+						resultIndices[off + i] = -1;
+						resultD2[off + i] = Double.POSITIVE_INFINITY;
+					}
+				}
+			}
+		});
+	}
+}
@@ -160,43 +160,11 @@ public class WB_Voronoi {
 	 */
 	public static List<WB_VoronoiCell3D> getVoronoi3D(final WB_Coord[] points, int nv, final WB_AABB aabb) {
 		nv = Math.min(nv, points.length);
-		if (nv <= 4) {
-			return getVoronoi3DBruteForce(points, nv, aabb);
-		}
-		final int n = points.length;
-		final List<wblut.external.ProGAL.Point> tmppoints = new ArrayList<wblut.external.ProGAL.Point>(n);
-		final WB_KDTree<WB_Coord, Integer> tree = new WB_KDTree<WB_Coord, Integer>();
-		for (int i = 0; i < n; i++) {
-			tmppoints.add(new wblut.external.ProGAL.Point(points[i].xd(), points[i].yd(), points[i].zd()));
-			tree.add(points[i], i);
+		final WB_Voronoi3D voronoi = new WB_Voronoi3D(points);
+		if (aabb != null) {
+			voronoi.setContainer(aabb);
 		}
-		final DelaunayComplex dc = new DelaunayComplex(tmppoints);
-		final List<CVertex> vertices = dc.getVertices();
-		final List<WB_VoronoiCell3D> result = new FastTable<WB_VoronoiCell3D>();
-		for (int i = 0; i < nv; i++) {
-			final CVertex v = vertices.get(i);
-			final Set<CTetrahedron> vertexhull = dc.getVertexHull(v);
-			final List<WB_Point> hullpoints = new ArrayList<WB_Point>();
-			for (final CTetrahedron tetra : vertexhull) {
-				// if (!tetra.containsBigPoint()) {
-				hullpoints.add(toPoint(tetra.circumcenter()));
-				// }
-			}
-			final List<WB_Point> finalpoints = new FastTable<WB_Point>();
-			for (int j = 0; j < hullpoints.size(); j++) {
-				finalpoints.add(geometryfactory.createPoint(hullpoints.get(j)));
-			}
-			final int index = tree.getNearestNeighbor(toPoint(v)).value;
-			final WB_VoronoiCell3D vor = new WB_VoronoiCell3D(finalpoints, geometryfactory.createPoint(points[index]),
-					index);
-			if (aabb != null) {
-				vor.constrain(aabb);
-			}
-			if (vor.cell != null) {
-				result.add(vor);
-			}
-		}
-		return result;
+		return voronoi.compute(nv).getCells();
 	}
 
 	/**
@@ -215,11 +183,14 @@ public class WB_Voronoi {
 			return new int[][] { { 1, 2, 3 }, { 0, 2, 3 }, { 0, 1, 3 }, { 0, 1, 2 } };
 		}
 		final List<wblut.external.ProGAL.Point> tmppoints = new ArrayList<wblut.external.ProGAL.Point>(nv);
-		final WB_KDTree<WB_Coord, Integer> tree = new WB_KDTree<WB_Coord, Integer>();
+		final double[] coords = new double[3 * nv];
 		for (int i = 0; i < nv; i++) {
 			tmppoints.add(new wblut.external.ProGAL.Point(points[i].xd(), points[i].yd(), points[i].zd()));
-			tree.add(points[i], i);
+			coords[3 * i] = points[i].xd();
+			coords[3 * i + 1] = points[i].yd();
+			coords[3 * i + 2] = points[i].zd();
 		}
+		final WB_StaticKDTree tree = new WB_StaticKDTree(coords);
 		final DelaunayComplex dc = new DelaunayComplex(tmppoints);
 		final List<CVertex> vertices = dc.getVertices();
 		final int[][] ns = new int[nv][];
@@ -230,7 +201,7 @@ public class WB_Voronoi {
 			for (final CTetrahedron tetra : vertexhull) {
 				for (int j = 0; j < 4; j++) {
 					if (!tetra.getPoint(j).isBigpoint()) {
-						neighbors.add(tree.getNearestNeighbor(toPoint(tetra.getPoint(j))).value);
+						neighbors.add(tree.getNearestNeighbor(toPoint(tetra.getPoint(j))));
 					}
 				}
 			}
@@ -255,13 +226,16 @@ public class WB_Voronoi {
 			return new int[][] { { 1, 2, 3 }, { 0, 2, 3 }, { 0, 1, 3 }, { 0, 1, 2 } };
 		}
 		final List<wblut.external.ProGAL.Point> tmppoints = new ArrayList<wblut.external.ProGAL.Point>(nv);
-		final WB_KDTree<WB_Coord, Integer> tree = new WB_KDTree<WB_Coord, Integer>();
 		WB_Coord p;
+		final double[] coords = new double[3 * nv];
 		for (int i = 0; i < nv; i++) {
 			p = points.get(i);
 			tmppoints.add(new wblut.external.ProGAL.Point(p.xd(), p.yd(), p.zd()));
-			tree.add(p, i);
+			coords[3 * i] = p.xd();
+			coords[3 * i + 1] = p.yd();
+			coords[3 * i + 2] = p.zd();
 		}
+		final WB_StaticKDTree tree = new WB_StaticKDTree(coords);
 		final DelaunayComplex dc = new DelaunayComplex(tmppoints);
 		final List<CVertex> vertices = dc.getVertices();
 		final int[][] ns = new int[nv][];
@@ -272,7 +246,7 @@ public class WB_Voronoi {
 			for (final CTetrahedron tetra : vertexhull) {
 				for (int j = 0; j < 4; j++) {
 					if (!tetra.getPoint(j).isBigpoint()) {
-						neighbors.add(tree.getNearestNeighbor(toPoint(tetra.getPoint(j))).value);
+						neighbors.add(tree.getNearestNeighbor(toPoint(tetra.getPoint(j))));
 					}
 				}
 			}
@@ -303,45 +277,11 @@ public class WB_Voronoi {
 	public static List<WB_VoronoiCell3D> getVoronoi3D(final List<? extends WB_Coord> points, int nv,
 			final WB_AABB aabb) {
 		nv = Math.min(nv, points.size());
-		if (nv <= 4) {
-			return getVoronoi3DBruteForce(points, nv, aabb);
-		}
-		final int n = points.size();
-		final List<wblut.external.ProGAL.Point> tmppoints = new ArrayList<wblut.external.ProGAL.Point>(n);
-		final WB_KDTree<WB_Coord, Integer> tree = new WB_KDTree<WB_Coord, Integer>();
-		int i = 0;
-		for (final WB_Coord p : points) {
-			tmppoints.add(new wblut.external.ProGAL.Point(p.xd(), p.yd(), p.zd()));
-			tree.add(p, i++);
+		final WB_Voronoi3D voronoi = new WB_Voronoi3D(points);
+		if (aabb != null) {
+			voronoi.setContainer(aabb);
 		}
-		final DelaunayComplex dc = new DelaunayComplex(tmppoints);
-		final List<CVertex> vertices = dc.getVertices();
-		final List<WB_VoronoiCell3D> result = new FastTable<WB_VoronoiCell3D>();
-		for (i = 0; i < nv; i++) {
-			final CVertex v = vertices.get(i);
-			final Set<CTetrahedron> vertexhull = dc.getVertexHull(v);
-			v.getAdjacentTriangles();
-			final List<WB_Point> hullpoints = new ArrayList<WB_Point>();
-			for (final CTetrahedron tetra : vertexhull) {
-				// if (!tetra.containsBigPoint()) {
-				hullpoints.add(toPoint(tetra.circumcenter()));
-				// }
-			}
-			final List<WB_Point> finalpoints = new FastTable<WB_Point>();
-			for (int j = 0; j < hullpoints.size(); j++) {
-				finalpoints.add(geometryfactory.createPoint(hullpoints.get(j)));
-			}
-			final int index = tree.getNearestNeighbor(toPoint(v)).value;
-			final WB_VoronoiCell3D vor = new WB_VoronoiCell3D(finalpoints,
-					geometryfactory.createPoint(points.get(index)), index);
-			if (vor.cell != null) {
-				vor.constrain(aabb);
-			}
-			if (vor.cell != null) {
-				result.add(vor);
-			}
-		}
-		return result;
+		return voronoi.compute(nv).getCells();
 	}
 
 	/**
@@ -0,0 +1,817 @@
+/*
+ * This file is part of HE_Mesh, a library for creating and manipulating meshes.
+ * It is dedicated to the public domain. To the extent possible under law,
+ * I , Frederik Vanhoutte, have waived all copyright and related or neighboring
+ * rights.
+ *
+ * This work is published from Belgium. (http://creativecommons.org/publicdomain/zero/1.0/)
+ *
+ */
+package wblut.geom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.set.hash.TIntHashSet;
+import javolution.util.FastTable;
+import wblut.core.WB_Parallel;
+import wblut.core.WB_Parallel.WB_RangeFunction;
+import wblut.core.WB_Parallel.WB_RangeTask;
+import wblut.math.WB_Epsilon;
+
+/**
+ * 3D Voronoi cells clipped to a convex container, computed in parallel.
+ *
+ * Each cell starts as the container and is cut by the bisector planes of the
+ * other generators in order of increasing distance, found with a
+ * WB_StaticKDTree. Once the next generator is further than twice the
+ * farthest cell vertex, no plane can cut the cell anymore. The remaining
+ * faces of a cell are exactly its Delaunay neighbors inside the container,
+ * no convex hull is needed.
+ *
+ * The cells are stored as packed arrays: the vertices x0,y0,z0,x1,..., the
+ * faces as vertex indices with an offset array, and for each face the index
+ * of the generator on the other side, or CONTAINER. Faces are oriented with
+ * their normal pointing out of the cell.
+ *
+ * Coinciding generators, closer than WB_Epsilon.EPSILON, share one cell. The
+ * generator with the lowest index gets the cell, the cells of the others are
+ * empty and marked with isDuplicate().
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class WB_Voronoi3D {
+	/**
+	 *
+	 */
+	public static final WB_GeometryFactory geometryfactory = WB_GeometryFactory.instance();
+	/** Neighbor of the faces on the container. */
+	public static final int CONTAINER = -1;
+	/** Number of generators retrieved in the first nearest neighbor query. */
+	private static final int INITIALNEIGHBORS = 32;
+	private final int n;
+	/** Generators, x0,y0,z0,x1,... */
+	private final double[] generators;
+	private double[] containerVertices;
+	private int[][] containerFaces;
+	private double[][] cellVertices;
+	private int[][] cellFaceOffsets;
+	private int[][] cellFaces;
+	private int[][] cellFaceNeighbors;
+	/**
+	 * For each generator, the lowest index of a coinciding generator, -1 if
+	 * there is none with a lower index.
+	 */
+	private int[] duplicateOf;
+
+	/**
+	 *
+	 *
+	 * @param points
+	 */
+	public WB_Voronoi3D(final WB_Coord[] points) {
+		this(Arrays.asList(points));
+	}
+
+	/**
+	 *
+	 *
+	 * @param points
+	 */
+	public WB_Voronoi3D(final List<? extends WB_Coord> points) {
+		n = points.size();
+		generators = new double[3 * n];
+		int i = 0;
+		for (final WB_Coord p : points) {
+			generators[i++] = p.xd();
+			generators[i++] = p.yd();
+			generators[i++] = p.zd();
+		}
+	}
+
+	/**
+	 *
+	 *
+	 * @param container
+	 * @return
+	 */
+	public WB_Voronoi3D setContainer(final WB_AABB container) {
+		return setContainer(container.getPoints(), container.getFaces());
+	}
+
+	/**
+	 *
+	 *
+	 * @param container
+	 *            convex mesh
+	 * @return
+	 */
+	public WB_Voronoi3D setContainer(final WB_FacelistMesh container) {
+		return setContainer(container.getPoints().toArray(new WB_Coord[0]), container.getFacesAsInt());
+	}
+
+	/**
+	 *
+	 *
+	 * @param points
+	 * @param faces
+	 * @return
+	 */
+	private WB_Voronoi3D setContainer(final WB_Coord[] points, final int[][] faces) {
+		containerVertices = new double[3 * points.length];
+		for (int i = 0; i < points.length; i++) {
+			containerVertices[3 * i] = points[i].xd();
+			containerVertices[3 * i + 1] = points[i].yd();
+			containerVertices[3 * i + 2] = points[i].zd();
+		}
+		containerFaces = new int[faces.length][];
+		for (int i = 0; i < faces.length; i++) {
+			containerFaces[i] = faces[i].clone();
+		}
+		if (getVolume(containerVertices, containerFaces) < 0) {
+			for (final int[] face : containerFaces) {
+				for (int j = 0, k = face.length - 1; j < k; j++, k--) {
+					final int tmp = face[j];
+					face[j] = face[k];
+					face[k] = tmp;
+				}
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Compute all cells. Without container, the bounding box of the
+	 * generators, grown by 10%, is used.
+	 *
+	 * @return
+	 */
+	public WB_Voronoi3D compute() {
+		return compute(n);
+	}
+
+	/**
+	 * Compute the cells of the first generators. All generators are used as
+	 * sites.
+	 *
+	 * @param nc
+	 *            number of cells
+	 * @return
+	 */
+	public WB_Voronoi3D compute(final int nc) {
+		if (nc < 0 || nc > n) {
+			throw new IllegalArgumentException("Number of cells out of range.");
+		}
+		if (containerVertices == null) {
+			final WB_AABB aabb = new WB_AABB();
+			for (int i = 0; i < n; i++) {
+				aabb.expandToInclude(new WB_Point(generators[3 * i], generators[3 * i + 1], generators[3 * i + 2]));
+			}
+			final double d = 0.1 * Math.max(aabb.getWidth(), Math.max(aabb.getHeight(), aabb.getDepth()));
+			aabb.expandBy(Math.max(d, WB_Epsilon.EPSILON));
+			setContainer(aabb);
+		}
+		cellVertices = new double[nc][];
+		cellFaceOffsets = new int[nc][];
+		cellFaces = new int[nc][];
+		cellFaceNeighbors = new int[nc][];
+		final WB_StaticKDTree tree = new WB_StaticKDTree(generators);
+		findDuplicates(tree);
+		WB_Parallel.forRange(0, nc, 16, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				final WB_CellClipper clipper = new WB_CellClipper();
+				int[] indices = new int[INITIALNEIGHBORS];
+				double[] d2 = new double[INITIALNEIGHBORS];
+				for (int i = start; i < end; i++) {
+					if (duplicateOf[i] >= 0) {
+						clipper.clear();
+						clipper.store(i);
+						continue;
+					}
+					final double gx = generators[3 * i];
+					final double gy = generators[3 * i + 1];
+					final double gz = generators[3 * i + 2];
+					clipper.set(containerVertices, containerFaces);
+					double r2 = clipper.getMaxDistance2(gx, gy, gz);
+					int k = Math.min(INITIALNEIGHBORS, n);
+					int processed = 0;
+					boolean done = false;
+					while (!done) {
+						if (indices.length < k) {
+							indices = new int[k];
+							d2 = new double[k];
+						}
+						final int found = tree.getNearestNeighbors(gx, gy, gz, k, indices, d2, 0);
+						for (int q = processed; q < found; q++) {
+							final int j = indices[q];
+							if (d2[q] > 4 * r2) {
+								done = true;
+								break;
+							}
+							// coinciding generators have no bisector, the
+							// duplicates are represented by their owner
+							if (j == i || d2[q] <= WB_Epsilon.SQEPSILON || duplicateOf[j] >= 0) {
+								continue;
+							}
+							double nx = generators[3 * j] - gx;
+							double ny = generators[3 * j + 1] - gy;
+							double nz = generators[3 * j + 2] - gz;
+							final double l = Math.sqrt(nx * nx + ny * ny + nz * nz);
+							nx /= l;
+							ny /= l;
+							nz /= l;
+							final double d = 0.5 * (nx * (generators[3 * j] + gx) + ny * (generators[3 * j + 1] + gy)
+									+ nz * (generators[3 * j + 2] + gz));
+							if (clipper.clip(nx, ny, nz, d, j)) {
+								if (clipper.isEmpty()) {
+									done = true;
+									break;
+								}
+								r2 = clipper.getMaxDistance2(gx, gy, gz);
+							}
+						}
+						if (found < k || k == n) {
+							done = true;
+						}
+						processed = found;
+						k = Math.min(2 * k, n);
+					}
+					clipper.store(i);
+				}
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * Find the generators that coincide with a generator with a lower index.
+	 *
+	 * @param tree
+	 */
+	private void findDuplicates(final WB_StaticKDTree tree) {
+		duplicateOf = new int[n];
+		WB_Parallel.forRange(0, n, 256, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				int[] indices = new int[4];
+				double[] d2 = new double[4];
+				for (int i = start; i < end; i++) {
+					int k = Math.min(4, n);
+					int owner;
+					while (true) {
+						if (indices.length < k) {
+							indices = new int[k];
+							d2 = new double[k];
+						}
+						final int found = tree.getNearestNeighbors(generators[3 * i], generators[3 * i + 1],
+								generators[3 * i + 2], k, indices, d2, 0);
+						owner = i;
+						int q = 0;
+						while (q < found && d2[q] <= WB_Epsilon.SQEPSILON) {
+							owner = Math.min(owner, indices[q]);
+							q++;
+						}
+						if (q < found || found < k || k == n) {
+							break;
+						}
+						k = Math.min(2 * k, n);
+					}
+					duplicateOf[i] = owner == i ? -1 : owner;
+				}
+			}
+		});
+	}
+
+	/**
+	 *
+	 *
+	 * @param i
+	 * @return true if generator i coincides with a generator with a lower
+	 *         index, its cell is empty
+	 */
+	public boolean isDuplicate(final int i) {
+		return duplicateOf != null && duplicateOf[i] >= 0;
+	}
+
+	/**
+	 *
+	 *
+	 * @param i
+	 * @return index of the generator owning the cell of generator i, i itself
+	 *         if it is not a duplicate
+	 */
+	public int getOwner(final int i) {
+		return isDuplicate(i) ? duplicateOf[i] : i;
+	}
+
+	/**
+	 *
+	 *
+	 * @return number of generators
+	 */
+	public int getNumberOfGenerators() {
+		return n;
+	}
+
+	/**
+	 *
+	 *
+	 * @return number of computed cells
+	 */
+	public int getNumberOfCells() {
+		return cellVertices == null ? 0 : cellVertices.length;
+	}
+
+	/**
+	 *
+	 *
+	 * @param i
+	 * @return true if the cell doesn't intersect the container
+	 */
+	public boolean isEmpty(final int i) {
+		return cellFaceOffsets[i].length < 2;
+	}
+
+	/**
+	 *
+	 *
+	 * @param i
+	 * @return vertices of cell i, x0,y0,z0,x1,...
+	 */
+	public double[] getCellVertices(final int i) {
+		return cellVertices[i];
+	}
+
+	/**
+	 *
+	 *
+	 * @param i
+	 * @return faces of cell i span [offsets[f], offsets[f+1]) in
+	 *         getCellFaces(i)
+	 */
+	public int[] getCellFaceOffsets(final int i) {
+		return cellFaceOffsets[i];
+	}
+
+	/**
+	 *
+	 *
+	 * @param i
+	 * @return vertex indices of the faces of cell i
+	 */
+	public int[] getCellFaces(final int i) {
+		return cellFaces[i];
+	}
+
+	/**
+	 *
+	 *
+	 * @param i
+	 * @return for each face of cell i, the generator on the other side or
+	 *         CONTAINER
+	 */
+	public int[] getCellFaceNeighbors(final int i) {
+		return cellFaceNeighbors[i];
+	}
+
+	/**
+	 *
+	 *
+	 * @param i
+	 * @return sorted indices of the generators sharing a face with cell i
+	 */
+	public int[] getNeighbors(final int i) {
+		final TIntHashSet set = new TIntHashSet();
+		for (final int j : cellFaceNeighbors[i]) {
+			if (j != CONTAINER) {
+				set.add(j);
+			}
+		}
+		final int[] result = set.toArray();
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 *
+	 *
+	 * @param i
+	 * @return
+	 */
+	public double getVolume(final int i) {
+		final int[] offsets = cellFaceOffsets[i];
+		final int[][] faces = new int[Math.max(0, offsets.length - 1)][];
+		for (int f = 0; f < faces.length; f++) {
+			faces[f] = Arrays.copyOfRange(cellFaces[i], offsets[f], offsets[f + 1]);
+		}
+		return getVolume(cellVertices[i], faces);
+	}
+
+	/**
+	 *
+	 *
+	 * @param i
+	 * @return cell i as mesh, null if empty
+	 */
+	public WB_FacelistMesh getMesh(final int i) {
+		if (isEmpty(i)) {
+			return null;
+		}
+		final double[] vertices = cellVertices[i];
+		final WB_Point[] points = new WB_Point[vertices.length / 3];
+		for (int v = 0; v < points.length; v++) {
+			points[v] = geometryfactory.createPoint(vertices[3 * v], vertices[3 * v + 1], vertices[3 * v + 2]);
+		}
+		final int[] offsets = cellFaceOffsets[i];
+		final int[][] faces = new int[offsets.length - 1][];
+		for (int f = 0; f < faces.length; f++) {
+			faces[f] = Arrays.copyOfRange(cellFaces[i], offsets[f], offsets[f + 1]);
+		}
+		return geometryfactory.createMesh(points, faces);
+	}
+
+	/**
+	 *
+	 *
+	 * @return all non-empty cells
+	 */
+	public List<WB_VoronoiCell3D> getCells() {
+		final int nc = getNumberOfCells();
+		final List<List<WB_VoronoiCell3D>> chunks = WB_Parallel.map(0, nc, 64,
+				new WB_RangeFunction<List<WB_VoronoiCell3D>>() {
+					@Override
+					public List<WB_VoronoiCell3D> apply(final int start, final int end) {
+						final List<WB_VoronoiCell3D> result = new ArrayList<WB_VoronoiCell3D>();
+						for (int i = start; i < end; i++) {
+							if (isEmpty(i)) {
+								continue;
+							}
+							final WB_VoronoiCell3D cell = new WB_VoronoiCell3D(getMesh(i), geometryfactory
+									.createPoint(generators[3 * i], generators[3 * i + 1], generators[3 * i + 2]), i);
+							final int[] offsets = cellFaceOffsets[i];
+							for (int f = 0; f < offsets.length - 1; f++) {
+								if (cellFaceNeighbors[i][f] == CONTAINER) {
+									for (int c = offsets[f]; c < offsets[f + 1]; c++) {
+										cell.onBoundary[cellFaces[i][c]] = true;
+									}
+								}
+							}
+							result.add(cell);
+						}
+						return result;
+					}
+				});
+		final List<WB_VoronoiCell3D> result = new FastTable<WB_VoronoiCell3D>();
+		for (final List<WB_VoronoiCell3D> chunk : chunks) {
+			result.addAll(chunk);
+		}
+		return result;
+	}
+
+	/**
+	 * Signed volume of a closed polyhedron.
+	 *
+	 * @param vertices
+	 * @param faces
+	 * @return
+	 */
+	private static double getVolume(final double[] vertices, final int[][] faces) {
+		double volume = 0;
+		for (final int[] face : faces) {
+			final int a = 3 * face[0];
+			for (int k = 1; k < face.length - 1; k++) {
+				final int b = 3 * face[k];
+				final int c = 3 * face[k + 1];
+				volume += vertices[a] * (vertices[b + 1] * vertices[c + 2] - vertices[b + 2] * vertices[c + 1])
+						+ vertices[a + 1] * (vertices[b + 2] * vertices[c] - vertices[b] * vertices[c + 2])
+						+ vertices[a + 2] * (vertices[b] * vertices[c + 1] - vertices[b + 1] * vertices[c]);
+			}
+		}
+		return volume / 6.0;
+	}
+
+	/**
+	 * Convex polyhedron cut by successive planes. One instance per thread,
+	 * all buffers are reused between cells.
+	 */
+	private final class WB_CellClipper {
+		private double[] vertices;
+		private int nv;
+		private final List<int[]> faces;
+		private final TIntArrayList neighbors;
+		private final List<int[]> newFaces;
+		private final TIntArrayList newNeighbors;
+		private double[] distances;
+		/** Index of the intersection point on each cut edge. */
+		private final TLongIntHashMap cuts;
+		private final TIntArrayList cap;
+		private int[] polygon;
+		private int[] remap;
+
+		WB_CellClipper() {
+			vertices = new double[96];
+			faces = new ArrayList<int[]>();
+			neighbors = new TIntArrayList();
+			newFaces = new ArrayList<int[]>();
+			newNeighbors = new TIntArrayList();
+			distances = new double[32];
+			cuts = new TLongIntHashMap();
+			cap = new TIntArrayList();
+			polygon = new int[16];
+			remap = new int[32];
+		}
+
+		/**
+		 *
+		 *
+		 * @param containerVertices
+		 * @param containerFaces
+		 */
+		void set(final double[] containerVertices, final int[][] containerFaces) {
+			nv = containerVertices.length / 3;
+			ensureVertices(nv);
+			System.arraycopy(containerVertices, 0, vertices, 0, 3 * nv);
+			faces.clear();
+			neighbors.clear();
+			for (final int[] face : containerFaces) {
+				faces.add(face.clone());
+				neighbors.add(CONTAINER);
+			}
+		}
+
+		/**
+		 * Empty cell.
+		 */
+		void clear() {
+			nv = 0;
+			faces.clear();
+			neighbors.clear();
+		}
+
+		/**
+		 *
+		 *
+		 * @return
+		 */
+		boolean isEmpty() {
+			return faces.isEmpty();
+		}
+
+		/**
+		 *
+		 *
+		 * @param x
+		 * @param y
+		 * @param z
+		 * @return largest squared distance of a vertex to a point
+		 */
+		double getMaxDistance2(final double x, final double y, final double z) {
+			double max = 0;
+			for (int v = 0; v < nv; v++) {
+				final double dx = vertices[3 * v] - x;
+				final double dy = vertices[3 * v + 1] - y;
+				final double dz = vertices[3 * v + 2] - z;
+				max = Math.max(max, dx * dx + dy * dy + dz * dz);
+			}
+			return max;
+		}
+
+		/**
+		 * Keep the part of the polyhedron with nx*x+ny*y+nz*z <= d.
+		 *
+		 * @param nx
+		 * @param ny
+		 * @param nz
+		 * @param d
+		 * @param neighbor
+		 *            label of the new face
+		 * @return true if the polyhedron changed
+		 */
+		boolean clip(final double nx, final double ny, final double nz, final double d, final int neighbor) {
+			if (distances.length < nv) {
+				distances = new double[2 * nv];
+			}
+			boolean out = false;
+			boolean in = false;
+			for (int v = 0; v < nv; v++) {
+				final double s = nx * vertices[3 * v] + ny * vertices[3 * v + 1] + nz * vertices[3 * v + 2] - d;
+				distances[v] = s;
+				out |= s > WB_Epsilon.EPSILON;
+				in |= s < -WB_Epsilon.EPSILON;
+			}
+			if (!out) {
+				return false;
+			}
+			if (!in) {
+				faces.clear();
+				neighbors.clear();
+				nv = 0;
+				return true;
+			}
+			final int nold = nv;
+			cuts.clear();
+			newFaces.clear();
+			newNeighbors.clear();
+			for (int f = 0; f < faces.size(); f++) {
+				final int[] face = faces.get(f);
+				if (polygon.length < 2 * face.length) {
+					polygon = new int[4 * face.length];
+				}
+				int m = 0;
+				for (int k = 0; k < face.length; k++) {
+					final int a = face[k];
+					final int b = face[(k + 1) % face.length];
+					final double sa = distances[a];
+					final double sb = distances[b];
+					if (sa <= WB_Epsilon.EPSILON) {
+						polygon[m++] = a;
+					}
+					if (sa < -WB_Epsilon.EPSILON && sb > WB_Epsilon.EPSILON
+							|| sa > WB_Epsilon.EPSILON && sb < -WB_Epsilon.EPSILON) {
+						polygon[m++] = cut(a, b);
+					}
+				}
+				if (m > 2) {
+					newFaces.add(Arrays.copyOf(polygon, m));
+					newNeighbors.add(neighbors.get(f));
+				}
+			}
+			// the cap: the new points and the old vertices on the plane
+			cap.clear();
+			for (int v = nold; v < nv; v++) {
+				cap.add(v);
+			}
+			for (int v = 0; v < nold; v++) {
+				if (Math.abs(distances[v]) <= WB_Epsilon.EPSILON) {
+					cap.add(v);
+				}
+			}
+			if (cap.size() > 2) {
+				newFaces.add(sortCap(nx, ny, nz));
+				newNeighbors.add(neighbor);
+			}
+			faces.clear();
+			faces.addAll(newFaces);
+			neighbors.clear();
+			neighbors.addAll(newNeighbors);
+			compact();
+			return true;
+		}
+
+		/**
+		 *
+		 *
+		 * @param a
+		 * @param b
+		 * @return index of the intersection point on edge ab
+		 */
+		private int cut(final int a, final int b) {
+			final long key = a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+			if (cuts.containsKey(key)) {
+				return cuts.get(key);
+			}
+			// interpolate from the lower index, both faces get the same point
+			final int p = Math.min(a, b);
+			final int q = Math.max(a, b);
+			final double t = distances[p] / (distances[p] - distances[q]);
+			ensureVertices(nv + 1);
+			for (int c = 0; c < 3; c++) {
+				vertices[3 * nv + c] = vertices[3 * p + c] + t * (vertices[3 * q + c] - vertices[3 * p + c]);
+			}
+			cuts.put(key, nv);
+			return nv++;
+		}
+
+		/**
+		 * Order the cap vertices counterclockwise around the plane normal.
+		 *
+		 * @param nx
+		 * @param ny
+		 * @param nz
+		 * @return
+		 */
+		private int[] sortCap(final double nx, final double ny, final double nz) {
+			final int m = cap.size();
+			double cx = 0, cy = 0, cz = 0;
+			for (int k = 0; k < m; k++) {
+				final int v = cap.get(k);
+				cx += vertices[3 * v];
+				cy += vertices[3 * v + 1];
+				cz += vertices[3 * v + 2];
+			}
+			cx /= m;
+			cy /= m;
+			cz /= m;
+			// u perpendicular to n, v = n x u
+			double ux, uy, uz;
+			if (Math.abs(nx) < 0.9) {
+				ux = 0;
+				uy = nz;
+				uz = -ny;
+			} else {
+				ux = -nz;
+				uy = 0;
+				uz = nx;
+			}
+			final double l = Math.sqrt(ux * ux + uy * uy + uz * uz);
+			ux /= l;
+			uy /= l;
+			uz /= l;
+			final double vx = ny * uz - nz * uy;
+			final double vy = nz * ux - nx * uz;
+			final double vz = nx * uy - ny * ux;
+			final double[] angles = new double[m];
+			final Integer[] order = new Integer[m];
+			for (int k = 0; k < m; k++) {
+				final int v = cap.get(k);
+				final double dx = vertices[3 * v] - cx;
+				final double dy = vertices[3 * v + 1] - cy;
+				final double dz = vertices[3 * v + 2] - cz;
+				angles[k] = Math.atan2(dx * vx + dy * vy + dz * vz, dx * ux + dy * uy + dz * uz);
+				order[k] = k;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(final Integer o1, final Integer o2) {
+					return Double.compare(angles[o1], angles[o2]);
+				}
+			});
+			final int[] result = new int[m];
+			for (int k = 0; k < m; k++) {
+				result[k] = cap.get(order[k]);
+			}
+			return result;
+		}
+
+		/**
+		 * Remove the vertices no longer used by a face.
+		 */
+		private void compact() {
+			if (remap.length < nv) {
+				remap = new int[2 * nv];
+			}
+			Arrays.fill(remap, 0, nv, -1);
+			for (final int[] face : faces) {
+				for (final int v : face) {
+					remap[v] = 0;
+				}
+			}
+			int count = 0;
+			for (int v = 0; v < nv; v++) {
+				if (remap[v] == 0) {
+					remap[v] = count;
+					if (count != v) {
+						vertices[3 * count] = vertices[3 * v];
+						vertices[3 * count + 1] = vertices[3 * v + 1];
+						vertices[3 * count + 2] = vertices[3 * v + 2];
+					}
+					count++;
+				}
+			}
+			for (final int[] face : faces) {
+				for (int k = 0; k < face.length; k++) {
+					face[k] = remap[face[k]];
+				}
+			}
+			nv = count;
+		}
+
+		/**
+		 *
+		 *
+		 * @param size
+		 */
+		private void ensureVertices(final int size) {
+			if (vertices.length < 3 * size) {
+				vertices = Arrays.copyOf(vertices, 6 * size);
+			}
+		}
+
+		/**
+		 * Store the current polyhedron as cell i.
+		 *
+		 * @param i
+		 */
+		void store(final int i) {
+			cellVertices[i] = Arrays.copyOf(vertices, 3 * nv);
+			final int nf = faces.size();
+			final int[] offsets = new int[nf + 1];
+			for (int f = 0; f < nf; f++) {
+				offsets[f + 1] = offsets[f] + faces.get(f).length;
+			}
+			final int[] flat = new int[offsets[nf]];
+			for (int f = 0; f < nf; f++) {
+				System.arraycopy(faces.get(f), 0, flat, offsets[f], faces.get(f).length);
+			}
+			cellFaceOffsets[i] = nf == 0 ? new int[0] : offsets;
+			cellFaces[i] = flat;
+			cellFaceNeighbors[i] = neighbors.toArray();
+		}
+	}
+}
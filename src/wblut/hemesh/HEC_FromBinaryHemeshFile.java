@@ -12,12 +12,25 @@ package wblut.hemesh;
 import java.io.DataInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
 import javolution.util.FastTable;
+import wblut.core.WB_Parallel;
+import wblut.core.WB_Parallel.WB_RangeTask;
 
 /**
- *
+ * Reads binary hemesh files. Both the original deflated stream format and
+ * version 2, written by HET_WriterBinaryHemesh2, are recognized. Version 2
+ * files are memory-mapped and the blocks are decoded in parallel.
  */
 public class HEC_FromBinaryHemeshFile extends HEC_Creator {
 
@@ -65,6 +78,14 @@ public class HEC_FromBinaryHemeshFile extends HEC_Creator {
 		if (path == null) {
 			return null;
 		}
+		try {
+			if (isVersion2(path)) {
+				return readVersion2(path);
+			}
+		} catch (final IOException ex) {
+			ex.printStackTrace();
+			return null;
+		}
 		final HE_Mesh mesh = new HE_Mesh();
 		try {
 			final FileInputStream fis = new FileInputStream(path);
@@ -155,4 +176,207 @@ public class HEC_FromBinaryHemeshFile extends HEC_Creator {
 		}
 		return mesh;
 	}
-}
\ No newline at end of file
+
+	/**
+	 *
+	 *
+	 * @param path
+	 * @return true if the file starts with the version 2 magic number
+	 * @throws IOException
+	 */
+	private static boolean isVersion2(final String path) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(path, "r");
+		try {
+			if (raf.length() < HET_WriterBinaryHemesh2.HEADERSIZE) {
+				return false;
+			}
+			return Integer.reverseBytes(raf.readInt()) == HET_WriterBinaryHemesh2.MAGIC;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 *
+	 *
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	private HE_Mesh readVersion2(final String path) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(path, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			final ByteBuffer header = channel
+					.map(FileChannel.MapMode.READ_ONLY, 0, HET_WriterBinaryHemesh2.HEADERSIZE)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			header.getInt();
+			final int version = header.getInt();
+			if (version != HET_WriterBinaryHemesh2.VERSION) {
+				throw new IOException("Unsupported binary hemesh version " + version + ".");
+			}
+			final int numVertices = header.getInt();
+			final int numHalfedges = header.getInt();
+			final int numFaces = header.getInt();
+			final int numBlocks = header.getInt();
+			final ByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY,
+					HET_WriterBinaryHemesh2.HEADERSIZE, (long) HET_WriterBinaryHemesh2.ENTRYSIZE * numBlocks)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			final HE_CompactMesh compact = new HE_CompactMesh(numVertices, numHalfedges, numFaces);
+			final double[][] uvw = new double[2][];
+			final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(numBlocks);
+			for (int b = 0; b < numBlocks; b++) {
+				final int type = directory.getInt();
+				final int compression = directory.getInt();
+				final long offset = directory.getLong();
+				final long storedLength = directory.getLong();
+				final long rawLength = directory.getLong();
+				if ((offset + storedLength) > channel.size()) {
+					throw new IOException("Block " + b + " extends beyond the end of file " + path + ".");
+				}
+				final ByteBuffer stored = channel.map(FileChannel.MapMode.READ_ONLY, offset, storedLength);
+				tasks.add(new Callable<Object>() {
+					@Override
+					public Object call() throws IOException {
+						final ByteBuffer data = decode(stored, compression, rawLength).order(ByteOrder.LITTLE_ENDIAN);
+						switch (type) {
+						case HET_WriterBinaryHemesh2.VERTEX_POSITIONS:
+							data.asDoubleBuffer().get(compact.positions);
+							break;
+						case HET_WriterBinaryHemesh2.VERTEX_HALFEDGE:
+							data.asIntBuffer().get(compact.vertexHalfedge);
+							break;
+						case HET_WriterBinaryHemesh2.VERTEX_COLOR:
+							data.asIntBuffer().get(compact.vertexColors);
+							break;
+						case HET_WriterBinaryHemesh2.VERTEX_LABEL:
+							data.asLongBuffer().get(compact.vertexLabels);
+							break;
+						case HET_WriterBinaryHemesh2.VERTEX_UVW:
+							uvw[0] = new double[3 * numVertices];
+							data.asDoubleBuffer().get(uvw[0]);
+							break;
+						case HET_WriterBinaryHemesh2.HALFEDGE_NEXT:
+							data.asIntBuffer().get(compact.halfedgeNext);
+							break;
+						case HET_WriterBinaryHemesh2.HALFEDGE_PAIR:
+							data.asIntBuffer().get(compact.halfedgePair);
+							break;
+						case HET_WriterBinaryHemesh2.HALFEDGE_VERTEX:
+							data.asIntBuffer().get(compact.halfedgeVertex);
+							break;
+						case HET_WriterBinaryHemesh2.HALFEDGE_FACE:
+							data.asIntBuffer().get(compact.halfedgeFace);
+							break;
+						case HET_WriterBinaryHemesh2.HALFEDGE_COLOR:
+							data.asIntBuffer().get(compact.halfedgeColors);
+							break;
+						case HET_WriterBinaryHemesh2.HALFEDGE_LABEL:
+							data.asLongBuffer().get(compact.halfedgeLabels);
+							break;
+						case HET_WriterBinaryHemesh2.HALFEDGE_UVW:
+							uvw[1] = new double[3 * numHalfedges];
+							data.asDoubleBuffer().get(uvw[1]);
+							break;
+						case HET_WriterBinaryHemesh2.FACE_HALFEDGE:
+							data.asIntBuffer().get(compact.faceHalfedge);
+							break;
+						case HET_WriterBinaryHemesh2.FACE_COLOR:
+							data.asIntBuffer().get(compact.faceColors);
+							break;
+						case HET_WriterBinaryHemesh2.FACE_LABEL:
+							data.asLongBuffer().get(compact.faceLabels);
+							break;
+						case HET_WriterBinaryHemesh2.FACE_TEXTURE:
+							data.asIntBuffer().get(compact.faceTextureIds);
+							break;
+						default:
+							// block type from a later revision, skip
+						}
+						return null;
+					}
+				});
+			}
+			try {
+				WB_Parallel.invokeAll(tasks);
+			} catch (final RuntimeException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException("Corrupt binary hemesh file " + path + ".", e);
+			}
+			final HE_Mesh mesh = compact.toMesh();
+			if (uvw[0] != null) {
+				WB_Parallel.forRange(0, numVertices, 1024, new WB_RangeTask() {
+					@Override
+					public void run(final int start, final int end) {
+						for (int i = start; i < end; i++) {
+							if (!Double.isNaN(uvw[0][3 * i])) {
+								mesh.getVertexWithIndex(i).setUVW(uvw[0][3 * i], uvw[0][3 * i + 1], uvw[0][3 * i + 2]);
+							}
+						}
+					}
+				});
+			}
+			if (uvw[1] != null) {
+				WB_Parallel.forRange(0, numHalfedges, 1024, new WB_RangeTask() {
+					@Override
+					public void run(final int start, final int end) {
+						for (int i = start; i < end; i++) {
+							if (!Double.isNaN(uvw[1][3 * i])) {
+								mesh.getHalfedgeWithIndex(i).setUVW(uvw[1][3 * i], uvw[1][3 * i + 1],
+										uvw[1][3 * i + 2]);
+							}
+						}
+					}
+				});
+			}
+			return mesh;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Decompress a block if needed. Stored blocks are returned as is, without
+	 * copying the mapped data.
+	 *
+	 * @param stored
+	 * @param compression
+	 * @param rawLength
+	 * @return
+	 * @throws IOException
+	 */
+	private static ByteBuffer decode(final ByteBuffer stored, final int compression, final long rawLength)
+			throws IOException {
+		if (compression == HET_WriterBinaryHemesh2.STORED) {
+			return stored;
+		}
+		if (compression != HET_WriterBinaryHemesh2.DEFLATED) {
+			throw new IOException("Unknown block compression " + compression + ".");
+		}
+		final byte[] input = new byte[stored.remaining()];
+		stored.get(input);
+		final byte[] output = new byte[(int) rawLength];
+		final Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(input);
+			int n = 0;
+			while (n < output.length && !inflater.finished()) {
+				final int read = inflater.inflate(output, n, output.length - n);
+				if (read == 0 && inflater.needsInput()) {
+					break;
+				}
+				n += read;
+			}
+			if (n != output.length) {
+				throw new IOException("Truncated block, expected " + rawLength + " bytes, got " + n + ".");
+			}
+		} catch (final DataFormatException e) {
+			throw new IOException("Corrupt block.", e);
+		} finally {
+			inflater.end();
+		}
+		return ByteBuffer.wrap(output);
+	}
+}
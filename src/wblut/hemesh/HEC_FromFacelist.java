@@ -15,10 +15,16 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
-import javolution.util.FastMap;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import wblut.core.WB_Parallel;
+import wblut.core.WB_Parallel.WB_RangeFunction;
+import wblut.core.WB_Parallel.WB_RangeTask;
 import wblut.geom.WB_Coord;
-import wblut.geom.WB_KDTree;
-import wblut.geom.WB_KDTree.WB_KDEntry;
 import wblut.geom.WB_Point;
 import wblut.math.WB_Epsilon;
 
@@ -43,6 +49,12 @@ public class HEC_FromFacelist extends HEC_Creator {
 
 	private boolean manifoldcheck;
 	private boolean cleanunused;
+	/** Weld distance, negative to use WB_Epsilon.EPSILON. */
+	private double tolerance;
+	private boolean report;
+	private int numberOfWeldedVertices;
+	private int numberOfUnpairedHalfedges;
+	private int numberOfDuplicateHalfedges;
 
 	/**
 	 * Instantiates a new HEC_Facelist.
@@ -54,6 +66,8 @@ public class HEC_FromFacelist extends HEC_Creator {
 		duplicate = true;
 		normalcheck = false;
 		cleanunused = true;
+		tolerance = -1;
+		report = false;
 	}
 
 	/**
@@ -187,7 +201,7 @@ public class HEC_FromFacelist extends HEC_Creator {
 		final int n = vs.length;
 		vertices = new WB_Point[n / 3];
 		for (int i = 0; i < n; i += 3) {
-			vertices[i] = new WB_Point(vs[i], vs[i + 1], vs[i + 2]);
+			vertices[i / 3] = new WB_Point(vs[i], vs[i + 1], vs[i + 2]);
 		}
 		return this;
 	}
@@ -220,7 +234,7 @@ public class HEC_FromFacelist extends HEC_Creator {
 		final int n = vs.length;
 		vertices = new WB_Point[n / 3];
 		for (int i = 0; i < n; i += 3) {
-			vertices[i] = new WB_Point(vs[i], vs[i + 1], vs[i + 2]);
+			vertices[i / 3] = new WB_Point(vs[i], vs[i + 1], vs[i + 2]);
 		}
 		return this;
 	}
@@ -314,6 +328,65 @@ public class HEC_FromFacelist extends HEC_Creator {
 		return this;
 	}
 
+	/**
+	 * Vertices closer than this distance are welded if duplicate vertices are
+	 * merged, each to the lowest indexed vertex that is kept. Default is
+	 * WB_Epsilon.EPSILON, 0 only welds identical vertices.
+	 *
+	 * @param d
+	 * @return self
+	 */
+	public HEC_FromFacelist setTolerance(final double d) {
+		if (d < 0) {
+			throw new IllegalArgumentException("Tolerance should be positive.");
+		}
+		tolerance = d;
+		return this;
+	}
+
+	/**
+	 * Report the number of welded vertices and unpaired halfedges through the
+	 * progress tracker.
+	 *
+	 * @param b
+	 * @return self
+	 */
+	public HEC_FromFacelist setReport(final boolean b) {
+		report = b;
+		return this;
+	}
+
+	/**
+	 *
+	 *
+	 * @return number of vertices merged into another vertex in the last
+	 *         create()
+	 */
+	public int getNumberOfWeldedVertices() {
+		return numberOfWeldedVertices;
+	}
+
+	/**
+	 *
+	 *
+	 * @return number of halfedges without a pair in the last create(), before
+	 *         boundary halfedges are added
+	 */
+	public int getNumberOfUnpairedHalfedges() {
+		return numberOfUnpairedHalfedges;
+	}
+
+	/**
+	 *
+	 *
+	 * @return number of halfedges in the last create() with the same start
+	 *         and end vertex as another unpaired halfedge, a sign of
+	 *         non-manifold or inconsistently oriented input
+	 */
+	public int getNumberOfDuplicateHalfedges() {
+		return numberOfDuplicateHalfedges;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
@@ -327,54 +400,42 @@ public class HEC_FromFacelist extends HEC_Creator {
 				return mesh;
 			}
 			final boolean useUVW = uvws != null && uvws.length == vertices.length;
+			final int[] weld = duplicate ? weld() : null;
 			final HE_Vertex[] uniqueVertices = new HE_Vertex[vertices.length];
 			final boolean[] duplicated = new boolean[vertices.length];
-			if (duplicate) {
-				final WB_KDTree<WB_Coord, Integer> kdtree = new WB_KDTree<WB_Coord, Integer>();
-				WB_KDEntry<WB_Coord, Integer>[] neighbors;
-				HE_Vertex v = new HE_Vertex(vertices[0]);
-				if (useUVW) {
-					v.setUVW(uvws[0]);
-				}
-				kdtree.add(v, 0);
-				uniqueVertices[0] = v;
-				duplicated[0] = false;
-				mesh.add(v);
-				for (int i = 1; i < vertices.length; i++) {
-					v = new HE_Vertex(vertices[i]);
-					if (useUVW) {
-						v.setUVW(uvws[i]);
-					}
-					neighbors = kdtree.getNearestNeighbors(v, 1);
-					if (neighbors[0].d2 < WB_Epsilon.SQEPSILON) {
-						uniqueVertices[i] = uniqueVertices[neighbors[0].value];
-						duplicated[i] = true;
-					} else {
-						kdtree.add(v, i);
-						uniqueVertices[i] = v;
-						mesh.add(uniqueVertices[i]);
-						duplicated[i] = false;
+			WB_Parallel.forRange(0, vertices.length, 1024, new WB_RangeTask() {
+				@Override
+				public void run(final int start, final int end) {
+					for (int i = start; i < end; i++) {
+						if (weld == null || weld[i] == i) {
+							final HE_Vertex v = new HE_Vertex(vertices[i]);
+							if (useUVW) {
+								v.setUVW(uvws[i]);
+							}
+							if (weld == null) {
+								v.setInternalLabel(i);
+							}
+							uniqueVertices[i] = v;
+						}
 					}
 				}
-			} else {
-				HE_Vertex v;
-				for (int i = 0; i < vertices.length; i++) {
-					v = new HE_Vertex(vertices[i]);
-					if (useUVW) {
-						v.setUVW(uvws[i]);
-					}
-					v.setInternalLabel(i);
-					uniqueVertices[i] = v;
-					duplicated[i] = false;
+			});
+			numberOfWeldedVertices = 0;
+			for (int i = 0; i < vertices.length; i++) {
+				if (weld != null && weld[i] != i) {
+					uniqueVertices[i] = uniqueVertices[weld[i]];
+					duplicated[i] = true;
+					numberOfWeldedVertices++;
+				} else {
 					mesh.add(uniqueVertices[i]);
 				}
 			}
 			int id = 0;
 			HE_Halfedge he;
-			final List<Long> nmedges = new ArrayList<Long>();
+			final TLongArrayList nmedges = new TLongArrayList();
 			if (normalcheck) {
 				// Create adjacency table
-				final FastMap<Long, int[]> edges = new FastMap<Long, int[]>();
+				final TLongObjectMap<int[]> edges = new TLongObjectHashMap<int[]>(1024, 0.5f, -1L);
 				for (int i = 0; i < faces.length; i++) {
 					final int[] face = faces[i];
 					final int fl = face.length;
@@ -403,7 +464,7 @@ public class HEC_FromFacelist extends HEC_Creator {
 					queue.add(starti);
 					int temp;
 					while (!queue.isEmpty()) {
-						final Integer index = queue.poll();
+						final int index = queue.poll();
 						final int[] face = faces[index];
 						final int fl = face.length;
 						visited[index] = true;
@@ -413,7 +474,7 @@ public class HEC_FromFacelist extends HEC_Creator {
 							if (ns != null) {
 								edges.remove(ohash);// no need to revisit
 								// previous edges
-								Integer neighbor;
+								int neighbor;
 								if (ns[0] == index) {
 									neighbor = ns[1];
 								} else {
@@ -448,6 +509,9 @@ public class HEC_FromFacelist extends HEC_Creator {
 				} while (facesleft);
 			}
 			final boolean useFaceTextures = faceTextureIds != null && faceTextureIds.length == faces.length;
+			final List<HE_Halfedge> halfedges = new ArrayList<HE_Halfedge>();
+			final TIntArrayList halfedgeVertices = new TIntArrayList();
+			final TIntArrayList faceStarts = new TIntArrayList();
 			for (final int[] face : faces) {
 				if (face != null) {
 					final ArrayList<HE_Halfedge> faceEdges = new ArrayList<HE_Halfedge>();
@@ -471,6 +535,7 @@ public class HEC_FromFacelist extends HEC_Creator {
 						locface[li++] = face[fl - 1];
 					}
 					if (li > 2) {
+						faceStarts.add(halfedges.size());
 						for (int i = 0; i < li; i++) {
 							he = new HE_Halfedge();
 							faceEdges.add(he);
@@ -490,14 +555,30 @@ public class HEC_FromFacelist extends HEC_Creator {
 								}
 							}
 							mesh.setHalfedge(he.getVertex(), he);
+							halfedgeVertices.add(weld == null ? locface[i] : weld[locface[i]]);
 						}
 						mesh.add(hef);
 						mesh.cycleHalfedges(faceEdges);
-						mesh.addHalfedges(faceEdges);
+						halfedges.addAll(faceEdges);
 					}
 				}
 			}
-			mesh.pairHalfedges();
+			faceStarts.add(halfedges.size());
+			final int[] pairs = pairHalfedges(halfedgeVertices.toArray(), faceStarts.toArray());
+			numberOfUnpairedHalfedges = 0;
+			for (int i = 0; i < pairs.length; i++) {
+				if (pairs[i] >= 0) {
+					halfedges.get(i)._setPair(halfedges.get(pairs[i]));
+				} else {
+					numberOfUnpairedHalfedges++;
+				}
+			}
+			mesh.addHalfedges(halfedges);
+			if (report) {
+				tracker.setStatus(this, "Welded " + numberOfWeldedVertices + " of " + vertices.length
+						+ " vertices, " + numberOfUnpairedHalfedges + " unpaired and " + numberOfDuplicateHalfedges
+						+ " duplicate halfedges.", 0);
+			}
 			if (cleanunused) {
 				mesh.cleanUnusedElementsByFace();
 			}
@@ -527,7 +608,7 @@ public class HEC_FromFacelist extends HEC_Creator {
 		return mesh;
 	}
 
-	private Long ohash(final int u, final int v) {
+	private long ohash(final int u, final int v) {
 		int lu = u;
 		int lv = v;
 		if (u > v) {
@@ -550,4 +631,260 @@ public class HEC_FromFacelist extends HEC_Creator {
 		}
 		return 0;
 	}
+
+	/**
+	 * Find the vertex each vertex is welded to. Vertices are hashed on a grid
+	 * with cells a few times the tolerance, a vertex only has to be compared
+	 * to vertices in its own cell and in the neighboring cells it is closer
+	 * to than the tolerance. Each vertex is welded to the lowest indexed kept
+	 * vertex within tolerance, a vertex is kept if there is none. Welding isn't
+	 * transitive: a vertex within tolerance of a welded vertex, but not of the
+	 * vertex that one is welded to, is kept.
+	 *
+	 * @return index of the vertex each vertex is welded to, equal to its own
+	 *         index for the vertices that are kept
+	 */
+	private int[] weld() {
+		final int n = vertices.length;
+		final double tol = tolerance < 0 ? WB_Epsilon.EPSILON : tolerance;
+		final double cell = 4 * tol;
+		final double[] coords = new double[3 * n];
+		final long[] keys = new long[n];
+		WB_Parallel.forRange(0, n, 1024, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int i = start; i < end; i++) {
+					coords[3 * i] = vertices[i].xd();
+					coords[3 * i + 1] = vertices[i].yd();
+					coords[3 * i + 2] = vertices[i].zd();
+					keys[i] = (long) cellHash(coords, i, cell, 0, 0, 0) << 32 | i;
+				}
+			}
+		});
+		WB_Parallel.sort(keys);
+		final int[] weld = new int[n];
+		WB_Parallel.forRange(0, n, 1024, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int i = start; i < end; i++) {
+					weld[i] = closest(keys, coords, i, tol, cell, null);
+				}
+			}
+		});
+		// the lowest vertex within tolerance can be welded itself, only then
+		// look for the lowest kept one
+		for (int i = 0; i < n; i++) {
+			if (weld[weld[i]] != weld[i]) {
+				weld[i] = closest(keys, coords, i, tol, cell, weld);
+			}
+		}
+		return weld;
+	}
+
+	/**
+	 * Lowest indexed vertex within tolerance of vertex i, searching its own
+	 * cell and the neighboring cells it is closer to than the tolerance.
+	 *
+	 * @param keys
+	 * @param coords
+	 * @param i
+	 * @param tol
+	 * @param cell
+	 * @param weld
+	 *            if not null, only vertices j with weld[j]==j are considered
+	 * @return index of the vertex, i if there is none
+	 */
+	private static int closest(final long[] keys, final double[] coords, final int i, final double tol,
+			final double cell, final int[] weld) {
+		if (cell == 0) {
+			return closest(keys, coords, i, cellHash(coords, i, cell, 0, 0, 0), 0, i, weld);
+		}
+		final int[] lo = new int[3];
+		final int[] hi = new int[3];
+		for (int c = 0; c < 3; c++) {
+			final double x = coords[3 * i + c];
+			final double f = x - Math.floor(x / cell) * cell;
+			lo[c] = f < tol ? -1 : 0;
+			hi[c] = cell - f < tol ? 1 : 0;
+		}
+		int best = i;
+		for (int dx = lo[0]; dx <= hi[0]; dx++) {
+			for (int dy = lo[1]; dy <= hi[1]; dy++) {
+				for (int dz = lo[2]; dz <= hi[2]; dz++) {
+					best = closest(keys, coords, i, cellHash(coords, i, cell, dx, dy, dz), tol * tol, best, weld);
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Hash of the grid cell of a vertex, offset by dx, dy and dz cells. A cell
+	 * size of 0 hashes the exact coordinates.
+	 *
+	 * @param coords
+	 * @param i
+	 * @param cell
+	 * @param dx
+	 * @param dy
+	 * @param dz
+	 * @return
+	 */
+	private static int cellHash(final double[] coords, final int i, final double cell, final int dx, final int dy,
+			final int dz) {
+		long h;
+		if (cell == 0) {
+			h = Double.doubleToLongBits(coords[3 * i] + 0.0) * 0x9E3779B97F4A7C15L;
+			h = (h ^ Double.doubleToLongBits(coords[3 * i + 1] + 0.0)) * 0xC2B2AE3D27D4EB4FL;
+			h = (h ^ Double.doubleToLongBits(coords[3 * i + 2] + 0.0)) * 0x165667B19E3779F9L;
+		} else {
+			h = ((long) Math.floor(coords[3 * i] / cell) + dx) * 0x9E3779B97F4A7C15L;
+			h = (h ^ ((long) Math.floor(coords[3 * i + 1] / cell) + dy)) * 0xC2B2AE3D27D4EB4FL;
+			h = (h ^ ((long) Math.floor(coords[3 * i + 2] / cell) + dz)) * 0x165667B19E3779F9L;
+		}
+		return (int) (h ^ h >>> 29 ^ h >>> 32);
+	}
+
+	/**
+	 * Lowest index below best of the vertices with the given cell hash within
+	 * tolerance of vertex i.
+	 *
+	 * @param keys
+	 *            sorted cell hash and index pairs
+	 * @param coords
+	 * @param i
+	 * @param hash
+	 * @param tol2
+	 * @param best
+	 * @param weld
+	 *            if not null, only vertices j with weld[j]==j are considered
+	 * @return
+	 */
+	private static int closest(final long[] keys, final double[] coords, final int i, final int hash,
+			final double tol2, final int best, final int[] weld) {
+		final long first = (long) hash << 32;
+		int lo = 0;
+		int hi = keys.length;
+		while (lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (keys[mid] < first) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		// indices are sorted within a cell, the first match is the lowest
+		for (int k = lo; k < keys.length && (int) (keys[k] >> 32) == hash; k++) {
+			final int j = (int) keys[k];
+			if (j >= best) {
+				break;
+			}
+			if (weld != null && weld[j] != j) {
+				continue;
+			}
+			final double dx = coords[3 * j] - coords[3 * i];
+			final double dy = coords[3 * j + 1] - coords[3 * i + 1];
+			final double dz = coords[3 * j + 2] - coords[3 * i + 2];
+			final double d2 = dx * dx + dy * dy + dz * dz;
+			if (d2 < tol2 || d2 == 0) {
+				return j;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Pair halfedges by their start and end vertex. Halfedges are distributed
+	 * over buckets by the hash of their undirected edge, each bucket is
+	 * paired independently with its own table.
+	 *
+	 * @param halfedgeVertices
+	 *            start vertex of each halfedge
+	 * @param faceStarts
+	 *            index of the first halfedge of each face, and the total
+	 *            number of halfedges
+	 * @return index of the pair of each halfedge, -1 if unpaired
+	 */
+	private int[] pairHalfedges(final int[] halfedgeVertices, final int[] faceStarts) {
+		final int n = halfedgeVertices.length;
+		final int[] ends = new int[n];
+		WB_Parallel.forRange(0, faceStarts.length - 1, 1024, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int f = start; f < end; f++) {
+					for (int i = faceStarts[f]; i < faceStarts[f + 1] - 1; i++) {
+						ends[i] = halfedgeVertices[i + 1];
+					}
+					ends[faceStarts[f + 1] - 1] = halfedgeVertices[faceStarts[f]];
+				}
+			}
+		});
+		final int numberOfBuckets = Integer
+				.highestOneBit(Math.max(1, Math.min(n / 4096, 16 * WB_Parallel.getParallelism()))) << 1;
+		final int[] buckets = new int[n];
+		WB_Parallel.forRange(0, n, 4096, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int i = start; i < end; i++) {
+					final long h = ohash(halfedgeVertices[i], ends[i]) * 0x9E3779B97F4A7C15L;
+					buckets[i] = (int) (h >>> 40) & (numberOfBuckets - 1);
+				}
+			}
+		});
+		// counting sort of the halfedges by bucket, order within a bucket is
+		// kept
+		final int[] offsets = new int[numberOfBuckets + 1];
+		for (int i = 0; i < n; i++) {
+			offsets[buckets[i] + 1]++;
+		}
+		for (int b = 0; b < numberOfBuckets; b++) {
+			offsets[b + 1] += offsets[b];
+		}
+		final int[] sorted = new int[n];
+		final int[] fill = offsets.clone();
+		for (int i = 0; i < n; i++) {
+			sorted[fill[buckets[i]]++] = i;
+		}
+		final int[] pairs = new int[n];
+		final int[] next = new int[n];
+		numberOfDuplicateHalfedges = 0;
+		for (final Integer duplicates : WB_Parallel.map(0, numberOfBuckets, new WB_RangeFunction<Integer>() {
+			@Override
+			public Integer apply(final int start, final int end) {
+				int duplicates = 0;
+				for (int b = start; b < end; b++) {
+					// open halfedges per directed edge, chained through next
+					final TLongIntMap open = new TLongIntHashMap(2 * (offsets[b + 1] - offsets[b]) + 16, 0.5f, -1L,
+							-1);
+					for (int k = offsets[b]; k < offsets[b + 1]; k++) {
+						final int i = sorted[k];
+						final long opposite = (long) ends[i] << 32 | halfedgeVertices[i] & 0xFFFFFFFFL;
+						final int j = open.get(opposite);
+						if (j >= 0) {
+							if (next[j] < 0) {
+								open.remove(opposite);
+							} else {
+								open.put(opposite, next[j]);
+							}
+							pairs[i] = j;
+							pairs[j] = i;
+						} else {
+							final long key = (long) halfedgeVertices[i] << 32 | ends[i] & 0xFFFFFFFFL;
+							final int head = open.get(key);
+							if (head >= 0) {
+								duplicates++;
+							}
+							next[i] = head;
+							open.put(key, i);
+							pairs[i] = -1;
+						}
+					}
+				}
+				return duplicates;
+			}
+		})) {
+			numberOfDuplicateHalfedges += duplicates;
+		}
+		return pairs;
+	}
 }
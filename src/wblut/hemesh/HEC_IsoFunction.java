@@ -9,6 +9,9 @@
  */
 package wblut.hemesh;
 
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongDoubleHashMap;
+import gnu.trove.set.hash.TLongHashSet;
 import javolution.util.FastMap;
 import wblut.geom.WB_Coord;
 import wblut.geom.WB_Point;
@@ -348,6 +351,26 @@ public class HEC_IsoFunction extends HEC_Creator {
 	 *
 	 */
 	private final HE_Vertex[] vertlist;
+	/**
+	 * Values at the 8 corners of the current cell.
+	 */
+	private final double[] cornervalues;
+	/**
+	 *
+	 */
+	private boolean adaptive;
+	/**
+	 *
+	 */
+	private int blocksize;
+	/**
+	 * Evaluated grid values in adaptive mode, keyed by grid index.
+	 */
+	private TLongDoubleHashMap cache;
+	/**
+	 *
+	 */
+	private long evaluations;
 	/**
 	 *
 	 */
@@ -364,7 +387,9 @@ public class HEC_IsoFunction extends HEC_Creator {
 		super();
 		override = true;
 		vertlist = new HE_Vertex[12];
+		cornervalues = new double[8];
 		boundary = Float.NaN;
+		blocksize = 8;
 	}
 
 	/**
@@ -467,6 +492,45 @@ public class HEC_IsoFunction extends HEC_Creator {
 		return this;
 	}
 
+	/**
+	 * Only sample the function near the surface. The grid is covered with
+	 * blocks of blocksize cells. A block is subdivided only if its corner
+	 * values straddle the isolevel, the surface is then followed from cell to
+	 * cell. Every cell that is reached gives the same triangles as the full
+	 * grid. A separate part of the surface that lies entirely inside one block
+	 * without changing the sign of its corners is not found.
+	 *
+	 * @param b
+	 * @return
+	 */
+	public HEC_IsoFunction setAdaptive(final boolean b) {
+		adaptive = b;
+		return this;
+	}
+
+	/**
+	 * Size of the coarsest blocks in adaptive mode, in cells. Default is 8.
+	 *
+	 * @param n
+	 * @return
+	 */
+	public HEC_IsoFunction setBlockSize(final int n) {
+		if (n < 1) {
+			throw new IllegalArgumentException("Block size should be at least 1.");
+		}
+		blocksize = n;
+		return this;
+	}
+
+	/**
+	 * Number of function evaluations used by the last call to create().
+	 *
+	 * @return
+	 */
+	public long getNumberOfEvaluations() {
+		return evaluations;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
@@ -489,7 +553,7 @@ public class HEC_IsoFunction extends HEC_Creator {
 	 * @return
 	 */
 	private int index(final int i, final int j, final int k) {
-		return (i + (resx * j) + (resx * resy * k));
+		return (i + ((resx + 1) * j) + ((resx + 1) * (resy + 1) * k));
 	}
 
 	/**
@@ -502,11 +566,13 @@ public class HEC_IsoFunction extends HEC_Creator {
 	 */
 	private double value(final int i, final int j, final int k) {
 		if (boundary == Float.NaN) {
+			evaluations++;
 			return function.evaluate(fxi + (i * dfx), fyi + (j * dfy), fzi + (k * dfz));
 		}
 		if ((i == 0) || (j == 0) || (k == 0) || (i == resx) || (j == resy) || (k == resz)) {
 			return (invert) ? -boundary : boundary;
 		}
+		evaluations++;
 		return function.evaluate(fxi + (i * dfx), fyi + (j * dfy), fzi + (k * dfz));
 	}
 
@@ -639,7 +705,15 @@ public class HEC_IsoFunction extends HEC_Creator {
 			}
 			for (int i = 0; i < resx; i++) {
 				for (int j = 0; j < resy; j++) {
-					getPolygons(i, j, k, values);
+					cornervalues[0] = values[i][j][0];
+					cornervalues[1] = values[i + 1][j][0];
+					cornervalues[2] = values[i + 1][j + 1][0];
+					cornervalues[3] = values[i][j + 1][0];
+					cornervalues[4] = values[i][j][1];
+					cornervalues[5] = values[i + 1][j][1];
+					cornervalues[6] = values[i + 1][j + 1][1];
+					cornervalues[7] = values[i][j + 1][1];
+					getPolygons(i, j, k, cornervalues);
 				}
 			}
 		}
@@ -652,98 +726,48 @@ public class HEC_IsoFunction extends HEC_Creator {
 	 * @param i
 	 * @param j
 	 * @param k
-	 * @param values
+	 * @param corners
+	 *            values at the 8 corners of the cell, in marching cubes order
 	 */
-	private void getPolygons(final int i, final int j, final int k, final double[][][] values) {
-		int cubeindex = 0;
-		if (invert) {
-			if (values[i][j][0] > isolevel) {
-				cubeindex |= 1;
-			}
-			if (values[i + 1][j][0] > isolevel) {
-				cubeindex |= 2;
-			}
-			if (values[i + 1][j + 1][0] > isolevel) {
-				cubeindex |= 4;
-			}
-			if (values[i][j + 1][0] > isolevel) {
-				cubeindex |= 8;
-			}
-			if (values[i][j][1] > isolevel) {
-				cubeindex |= 16;
-			}
-			if (values[i + 1][j][1] > isolevel) {
-				cubeindex |= 32;
-			}
-			if (values[i + 1][j + 1][1] > isolevel) {
-				cubeindex |= 64;
-			}
-			if (values[i][j + 1][1] > isolevel) {
-				cubeindex |= 128;
-			}
-		} else {
-			if (values[i][j][0] < isolevel) {
-				cubeindex |= 1;
-			}
-			if (values[i + 1][j][0] < isolevel) {
-				cubeindex |= 2;
-			}
-			if (values[i + 1][j + 1][0] < isolevel) {
-				cubeindex |= 4;
-			}
-			if (values[i][j + 1][0] < isolevel) {
-				cubeindex |= 8;
-			}
-			if (values[i][j][1] < isolevel) {
-				cubeindex |= 16;
-			}
-			if (values[i + 1][j][1] < isolevel) {
-				cubeindex |= 32;
-			}
-			if (values[i + 1][j + 1][1] < isolevel) {
-				cubeindex |= 64;
-			}
-			if (values[i][j + 1][1] < isolevel) {
-				cubeindex |= 128;
-			}
-		}
+	private void getPolygons(final int i, final int j, final int k, final double[] corners) {
+		final int cubeindex = cubeIndex(corners);
 		if (edgeTable[cubeindex] > 0) {
 			/* Find the vertices where the surface intersects the cube */
 			if ((edgeTable[cubeindex] & 1) == 1) {
-				vertlist[0] = xedge(i, j, k, values[i][j][0], values[i + 1][j][0]);
+				vertlist[0] = xedge(i, j, k, corners[0], corners[1]);
 			}
 			if ((edgeTable[cubeindex] & 2) == 2) {
-				vertlist[1] = yedge(i + 1, j, k, values[i + 1][j][0], values[i + 1][j + 1][0]);
+				vertlist[1] = yedge(i + 1, j, k, corners[1], corners[2]);
 			}
 			if ((edgeTable[cubeindex] & 4) == 4) {
-				vertlist[2] = xedge(i, j + 1, k, values[i][j + 1][0], values[i + 1][j + 1][0]);
+				vertlist[2] = xedge(i, j + 1, k, corners[3], corners[2]);
 			}
 			if ((edgeTable[cubeindex] & 8) == 8) {
-				vertlist[3] = yedge(i, j, k, values[i][j][0], values[i][j + 1][0]);
+				vertlist[3] = yedge(i, j, k, corners[0], corners[3]);
 			}
 			if ((edgeTable[cubeindex] & 16) == 16) {
-				vertlist[4] = xedge(i, j, k + 1, values[i][j][1], values[i + 1][j][1]);
+				vertlist[4] = xedge(i, j, k + 1, corners[4], corners[5]);
 			}
 			if ((edgeTable[cubeindex] & 32) == 32) {
-				vertlist[5] = yedge(i + 1, j, k + 1, values[i + 1][j][1], values[i + 1][j + 1][1]);
+				vertlist[5] = yedge(i + 1, j, k + 1, corners[5], corners[6]);
 			}
 			if ((edgeTable[cubeindex] & 64) == 64) {
-				vertlist[6] = xedge(i, j + 1, k + 1, values[i][j + 1][1], values[i + 1][j + 1][1]);
+				vertlist[6] = xedge(i, j + 1, k + 1, corners[7], corners[6]);
 			}
 			if ((edgeTable[cubeindex] & 128) == 128) {
-				vertlist[7] = yedge(i, j, k + 1, values[i][j][1], values[i][j + 1][1]);
+				vertlist[7] = yedge(i, j, k + 1, corners[4], corners[7]);
 			}
 			if ((edgeTable[cubeindex] & 256) == 256) {
-				vertlist[8] = zedge(i, j, k, values[i][j][0], values[i][j][1]);
+				vertlist[8] = zedge(i, j, k, corners[0], corners[4]);
 			}
 			if ((edgeTable[cubeindex] & 512) == 512) {
-				vertlist[9] = zedge(i + 1, j, k, values[i + 1][j][0], values[i + 1][j][1]);
+				vertlist[9] = zedge(i + 1, j, k, corners[1], corners[5]);
 			}
 			if ((edgeTable[cubeindex] & 1024) == 1024) {
-				vertlist[10] = zedge(i + 1, j + 1, k, values[i + 1][j + 1][0], values[i + 1][j + 1][1]);
+				vertlist[10] = zedge(i + 1, j + 1, k, corners[2], corners[6]);
 			}
 			if ((edgeTable[cubeindex] & 2048) == 2048) {
-				vertlist[11] = zedge(i, j + 1, k, values[i][j + 1][0], values[i][j + 1][1]);
+				vertlist[11] = zedge(i, j + 1, k, corners[3], corners[7]);
 			}
 			/* Create the triangles */
 			for (int t = 0; triTable[cubeindex][t] != -1; t += 3) {
@@ -772,6 +796,192 @@ public class HEC_IsoFunction extends HEC_Creator {
 		}
 	}
 
+	/**
+	 *
+	 *
+	 * @param corners
+	 * @return
+	 */
+	private int cubeIndex(final double[] corners) {
+		int cubeindex = 0;
+		for (int c = 0; c < 8; c++) {
+			if ((invert) ? (corners[c] > isolevel) : (corners[c] < isolevel)) {
+				cubeindex |= 1 << c;
+			}
+		}
+		return cubeindex;
+	}
+
+	/**
+	 *
+	 *
+	 * @param i
+	 * @param j
+	 * @param k
+	 * @return
+	 */
+	private double cachedValue(final int i, final int j, final int k) {
+		final long key = i + ((resx + 1L) * (j + ((resy + 1L) * k)));
+		double v = cache.get(key);
+		if (Double.isNaN(v)) {
+			v = value(i, j, k);
+			cache.put(key, v);
+		}
+		return v;
+	}
+
+	/**
+	 * Get the values at the corners of a block of cells, in marching cubes
+	 * order.
+	 *
+	 * @param i
+	 * @param j
+	 * @param k
+	 * @param si
+	 * @param sj
+	 * @param sk
+	 */
+	private void getCornerValues(final int i, final int j, final int k, final int si, final int sj, final int sk) {
+		cornervalues[0] = cachedValue(i, j, k);
+		cornervalues[1] = cachedValue(i + si, j, k);
+		cornervalues[2] = cachedValue(i + si, j + sj, k);
+		cornervalues[3] = cachedValue(i, j + sj, k);
+		cornervalues[4] = cachedValue(i, j, k + sk);
+		cornervalues[5] = cachedValue(i + si, j, k + sk);
+		cornervalues[6] = cachedValue(i + si, j + sj, k + sk);
+		cornervalues[7] = cachedValue(i, j + sj, k + sk);
+	}
+
+	/**
+	 * Cell key, sorting in the same order as the cells of the full grid are
+	 * visited.
+	 *
+	 * @param i
+	 * @param j
+	 * @param k
+	 * @return
+	 */
+	private long cellKey(final int i, final int j, final int k) {
+		return j + (resy * (i + ((long) resx * k)));
+	}
+
+	/**
+	 * Descend into a block of cells, collecting the cells whose corners
+	 * straddle the isolevel.
+	 *
+	 * @param i
+	 * @param j
+	 * @param k
+	 * @param si
+	 * @param sj
+	 * @param sk
+	 * @param cells
+	 */
+	private void refine(final int i, final int j, final int k, final int si, final int sj, final int sk,
+			final TLongArrayList cells) {
+		getCornerValues(i, j, k, si, sj, sk);
+		final int cubeindex = cubeIndex(cornervalues);
+		if ((cubeindex == 0) || (cubeindex == 255)) {
+			return;
+		}
+		if ((si == 1) && (sj == 1) && (sk == 1)) {
+			cells.add(cellKey(i, j, k));
+			return;
+		}
+		final int hi = (si + 1) / 2;
+		final int hj = (sj + 1) / 2;
+		final int hk = (sk + 1) / 2;
+		for (int ck = 0; ck < sk; ck += hk) {
+			for (int ci = 0; ci < si; ci += hi) {
+				for (int cj = 0; cj < sj; cj += hj) {
+					refine(i + ci, j + cj, k + ck, Math.min(hi, si - ci), Math.min(hj, sj - cj), Math.min(hk, sk - ck),
+							cells);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sparse version of polygonise(). The coarse blocks only provide the seed
+	 * cells, the surface is then followed across all cell faces it crosses so
+	 * no part of a connected surface is left open.
+	 */
+	private void polygoniseAdaptive() {
+		xedges = new FastMap<Integer, HE_Vertex>();
+		yedges = new FastMap<Integer, HE_Vertex>();
+		zedges = new FastMap<Integer, HE_Vertex>();
+		cache = new TLongDoubleHashMap(1024, 0.5f, -1L, Double.NaN);
+		final TLongArrayList queue = new TLongArrayList();
+		for (int k = 0; k < resz; k += blocksize) {
+			for (int i = 0; i < resx; i += blocksize) {
+				for (int j = 0; j < resy; j += blocksize) {
+					refine(i, j, k, Math.min(blocksize, resx - i), Math.min(blocksize, resy - j),
+							Math.min(blocksize, resz - k), queue);
+				}
+			}
+		}
+		final TLongHashSet visited = new TLongHashSet();
+		final TLongArrayList cells = new TLongArrayList();
+		final long slice = (long) resx * resy;
+		while (!queue.isEmpty()) {
+			final long key = queue.removeAt(queue.size() - 1);
+			if (!visited.add(key)) {
+				continue;
+			}
+			final int j = (int) (key % resy);
+			final int i = (int) ((key / resy) % resx);
+			final int k = (int) (key / slice);
+			getCornerValues(i, j, k, 1, 1, 1);
+			final int cubeindex = cubeIndex(cornervalues);
+			if ((cubeindex == 0) || (cubeindex == 255)) {
+				continue;
+			}
+			cells.add(key);
+			// corners 0,3,4,7 form the face at i, 1,2,5,6 the face at i+1,...
+			if ((i > 0) && crosses(cubeindex, 0x99)) {
+				queue.add(cellKey(i - 1, j, k));
+			}
+			if ((i < (resx - 1)) && crosses(cubeindex, 0x66)) {
+				queue.add(cellKey(i + 1, j, k));
+			}
+			if ((j > 0) && crosses(cubeindex, 0x33)) {
+				queue.add(cellKey(i, j - 1, k));
+			}
+			if ((j < (resy - 1)) && crosses(cubeindex, 0xcc)) {
+				queue.add(cellKey(i, j + 1, k));
+			}
+			if ((k > 0) && crosses(cubeindex, 0x0f)) {
+				queue.add(cellKey(i, j, k - 1));
+			}
+			if ((k < (resz - 1)) && crosses(cubeindex, 0xf0)) {
+				queue.add(cellKey(i, j, k + 1));
+			}
+		}
+		cells.sort();
+		for (int c = 0; c < cells.size(); c++) {
+			final long key = cells.get(c);
+			final int j = (int) (key % resy);
+			final int i = (int) ((key / resy) % resx);
+			final int k = (int) (key / slice);
+			getCornerValues(i, j, k, 1, 1, 1);
+			getPolygons(i, j, k, cornervalues);
+		}
+		cache = null;
+		mesh.pairHalfedges();
+	}
+
+	/**
+	 * Does the surface cross the cell face given by the corner mask?
+	 *
+	 * @param cubeindex
+	 * @param face
+	 * @return
+	 */
+	private boolean crosses(final int cubeindex, final int face) {
+		final int inside = cubeindex & face;
+		return (inside != 0) && (inside != face);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
@@ -783,7 +993,12 @@ public class HEC_IsoFunction extends HEC_Creator {
 		fxi = cfxi - (dfx * hresx);
 		fyi = cfyi - (dfy * hresy);
 		fzi = cfzi - (dfz * hresz);
-		polygonise();
+		evaluations = 0;
+		if (adaptive) {
+			polygoniseAdaptive();
+		} else {
+			polygonise();
+		}
 		return mesh;
 	}
 }
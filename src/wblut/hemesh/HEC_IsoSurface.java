@@ -9,16 +9,10 @@
  */
 package wblut.hemesh;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
+import wblut.core.WB_Parallel;
+import wblut.core.WB_Parallel.WB_RangeFunction;
 import wblut.geom.WB_Coord;
 import wblut.geom.WB_Point;
 import wblut.math.WB_Epsilon;
@@ -759,38 +753,15 @@ public class HEC_IsoSurface extends HEC_Creator {
 
 	private void polygoniseMT() {
 		mesh=new HE_Mesh();
-		try {
-			int threadCount = 2*Runtime.getRuntime().availableProcessors();
-			final ExecutorService executor = Executors.newFixedThreadPool(threadCount/2);
-			List<HE_Mesh> meshes=new ArrayList<HE_Mesh>(threadCount);
-			List<Future<HE_Mesh>>  list=new ArrayList<Future<HE_Mesh>>();
-			Callable<HE_Mesh> runner;
-
-			int i = 0;
-			for (i = 0; i < threadCount ; i+=2) {
-				runner = new PolyRunner(i, threadCount);
-				list.add(executor.submit(runner));
-			}
-			for (Future<HE_Mesh> future : list) {
-				meshes.add(future.get());
-			}
-			list=new ArrayList<Future<HE_Mesh>>();
-			for (i = 1; i < threadCount ; i+=2) {
-				runner = new PolyRunner( i, threadCount);
-				list.add(executor.submit(runner));
-			}
-			for (Future<HE_Mesh> future : list) {
-				meshes.add(future.get());
-			}
-
-			executor.shutdown();
-			for(HE_Mesh m:meshes) {
+		final int kmin = Double.isNaN(boundary) ? Math.max(zmin, 0) : Math.max(zmin, -1);
+		final int kmax = Double.isNaN(boundary) ? Math.min(zmax, resz) : Math.min(zmax, resz + 1);
+		// Layers of equal parity never share grid edges, even layers first,
+		// then odd layers.
+		for (int parity = 0; parity < 2; parity++) {
+			final int n = Math.max(0, (kmax - kmin - parity + 1) / 2);
+			for (HE_Mesh m : WB_Parallel.map(0, n, new PolyRunner(kmin + parity, 2))) {
 				mesh.add(m);
 			}
-		}catch(final InterruptedException ex) {
-			ex.printStackTrace();
-		} catch(final ExecutionException ex) {
-			ex.printStackTrace();
 		}
 
 
@@ -909,36 +880,37 @@ public class HEC_IsoSurface extends HEC_Creator {
 		return mesh;
 	}
 
-	class PolyRunner implements Callable<HE_Mesh>{
-		int start;
+	class PolyRunner implements WB_RangeFunction<HE_Mesh>{
+		int first;
 
 		int step;
 
 		/**
 		 *
 		 *
-		 * @param s
-		 * @param id
-		 * @param faces
+		 * @param first
+		 *            first layer
+		 * @param step
+		 *            step between layers
 		 */
-		PolyRunner(final int s,final int step) {
-			start = s;
+		PolyRunner(final int first,final int step) {
+			this.first = first;
 
 			this.step=step;
 		}
 
 
 		/* (non-Javadoc)
-		 * @see java.util.concurrent.Callable#call()
+		 * @see wblut.core.WB_Parallel.WB_RangeFunction#apply(int, int)
 		 */
 		@Override
-		public HE_Mesh call() {
+		public HE_Mesh apply(final int start, final int end) {
 			HE_Mesh mesh=new HE_Mesh();
 			HE_Vertex[] vertlist = new HE_Vertex[12];
 			if (Double.isNaN(boundary)) {
 				for (int i =Math.max(xmin, 0); i < Math.min(xmax,resx); i++) {
 					for (int j = Math.max(ymin, 0); j < Math.min(ymax,resy); j++) {
-						for (int k = start+Math.max(zmin, 0); k < Math.min(zmax,resz); k+=step) {
+						for (int k = first + start * step; k < first + end * step; k+=step) {
 							getPolygons(i, j, k, classifyCell(i, j, k),mesh,vertlist);
 						}
 					}
@@ -946,7 +918,7 @@ public class HEC_IsoSurface extends HEC_Creator {
 			} else {
 				for (int i =  Math.max(xmin, -1); i < Math.min(xmax,resx+1); i++) {
 					for (int j =  Math.max(ymin, -1); j < Math.min(ymax,resy+1); j++) {
-						for (int k = start+ Math.max(zmin, -1); k < Math.min(zmax,resz+1); k+=step) {
+						for (int k = first + start * step; k < first + end * step; k+=step) {
 							getPolygons(i, j, k, classifyCell(i, j, k),mesh,vertlist);
 						}
 					}
@@ -9,11 +9,14 @@
  */
 package wblut.hemesh;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.BitSet;
 
+import wblut.core.WB_Parallel;
+import wblut.core.WB_Parallel.WB_RangeTask;
 import wblut.geom.WB_AABB;
 import wblut.geom.WB_AABBTree;
+import wblut.geom.WB_BVH;
 import wblut.geom.WB_GeometryOp;
 import wblut.geom.WB_Point;
 import wblut.geom.WB_Ray;
@@ -40,6 +43,10 @@ public class HEC_ShrinkWrap extends HEC_Creator {
 	 *
 	 */
 	private WB_AABBTree tree;
+	/**
+	 *
+	 */
+	private WB_BVH bvh;
 
 	/**
 	 *
@@ -59,6 +66,8 @@ public class HEC_ShrinkWrap extends HEC_Creator {
 	 */
 	public HEC_ShrinkWrap setSource(final HE_Mesh mesh) {
 		source = mesh;
+		tree = null;
+		bvh = null;
 		return this;
 	}
 
@@ -72,6 +81,21 @@ public class HEC_ShrinkWrap extends HEC_Creator {
 	public HEC_ShrinkWrap setSource(final HE_Mesh mesh, final WB_AABBTree tree) {
 		source = mesh;
 		this.tree = tree;
+		bvh = null;
+		return this;
+	}
+
+	/**
+	 *
+	 *
+	 * @param mesh
+	 * @param bvh
+	 * @return
+	 */
+	public HEC_ShrinkWrap setSource(final HE_Mesh mesh, final WB_BVH bvh) {
+		source = mesh;
+		this.bvh = bvh;
+		tree = null;
 		return this;
 	}
 
@@ -126,60 +150,167 @@ public class HEC_ShrinkWrap extends HEC_Creator {
 			wcenter = aabb.getCenter();
 		}
 		final double radius = WB_GeometryOp.getDistance3D(center, aabb.getMax()) + WB_Epsilon.EPSILON;
-		final HE_Mesh sphere = new HE_Mesh(new HEC_Geodesic().setB(level).setC(0).setRadius(radius).setCenter(wcenter));
-		result = sphere.get();
-		final Iterator<HE_Vertex> vItr = sphere.vItr();
-		final Iterator<HE_Vertex> vmodItr = result.vItr();
-		HE_Vertex v, vmod;
-		WB_Ray R;
-		if (tree == null) {
-			tree = new WB_AABBTree(source, 4);
+		tracker.setStatus(this, "Starting HEC_ShrinkWrap.", +1);
+		result = new HE_Mesh(new HEC_Geodesic().setB(level).setC(0).setRadius(radius).setCenter(wcenter));
+		if (tree == null && bvh == null) {
+			bvh = new WB_BVH(source);
 		}
-		ArrayList<HE_Vertex> undecided = new ArrayList<HE_Vertex>();
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			vmod = vmodItr.next();
-			R = new WB_Ray(v, WB_Vector.mul(v.getVertexNormal(), -1));
-			final WB_Point p = HET_MeshOp.getClosestIntersection(tree, R).point;
-			if (p != null) {
-				if (WB_GeometryOp.getDistance3D(v, p) < radius) {
-					vmod.set(p);
-				} else {
-					undecided.add(vmod);
+		final HE_Vertex[] vertices = result.getVerticesAsArray();
+		final int n = vertices.length;
+		final double[] origins = new double[3 * n];
+		final double[] directions = new double[3 * n];
+		WB_Parallel.forRange(0, n, 256, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int i = start; i < end; i++) {
+					final HE_Vertex v = vertices[i];
+					final WB_Vector d = WB_Vector.mul(v.getVertexNormal(), -1);
+					d.normalizeSelf();
+					origins[3 * i] = v.xd();
+					origins[3 * i + 1] = v.yd();
+					origins[3 * i + 2] = v.zd();
+					directions[3 * i] = d.xd();
+					directions[3 * i + 1] = d.yd();
+					directions[3 * i + 2] = d.zd();
 				}
+			}
+		});
+		long time = System.nanoTime();
+		final double[] t = new double[n];
+		if (tree == null) {
+			bvh.getClosestHits(origins, directions, 0, Double.POSITIVE_INFINITY, t, null, null);
+		} else {
+			WB_Parallel.forRange(0, n, 64, new WB_RangeTask() {
+				@Override
+				public void run(final int start, final int end) {
+					for (int i = start; i < end; i++) {
+						final HE_FaceIntersection fi = HET_MeshOp.getClosestIntersection(tree,
+								new WB_Ray(new WB_Point(origins[3 * i], origins[3 * i + 1], origins[3 * i + 2]),
+										new WB_Vector(directions[3 * i], directions[3 * i + 1],
+												directions[3 * i + 2])));
+						t[i] = fi == null ? Double.POSITIVE_INFINITY
+								: WB_GeometryOp.getDistance3D(vertices[i], fi.point);
+					}
+				}
+			});
+		}
+		// a vertex is decided if its ray hits the source within the radius
+		final HE_CompactMesh wrap = new HE_CompactMesh(result);
+		final double[] positions = wrap.positions;
+		final BitSet undecided = new BitSet(n);
+		for (int i = 0; i < n; i++) {
+			if (t[i] < radius) {
+				positions[3 * i] = origins[3 * i] + t[i] * directions[3 * i];
+				positions[3 * i + 1] = origins[3 * i + 1] + t[i] * directions[3 * i + 1];
+				positions[3 * i + 2] = origins[3 * i + 2] + t[i] * directions[3 * i + 2];
 			} else {
-				undecided.add(vmod);
+				undecided.set(i);
 			}
 		}
-		ArrayList<HE_Vertex> newundecided;
-		while (undecided.size() > 0) {
-			newundecided = new ArrayList<HE_Vertex>();
-			for (int i = 0; i < undecided.size(); i++) {
-				v = undecided.get(i);
-				boolean lost = true;
-				int decNeighbors = 0;
-				double dist = 0;
-				for (final HE_Vertex n : v.getNeighborVertices()) {
-					if (!undecided.contains(n)) {
-						lost = false;
-						dist += WB_GeometryOp.getDistance3D(wcenter, n);
-						decNeighbors++;
+		final int misses = undecided.cardinality();
+		tracker.setStatus(this,
+				"Cast " + n + " rays in " + (System.nanoTime() - time) / 1000000 + " ms, " + misses + " missed.", 0);
+		time = System.nanoTime();
+		// undecided vertices take the average distance to the wrap center of
+		// their decided neighbors, front by front
+		final int[] neighbors = new int[Math.max(16, n == 0 ? 0 : maxVertexOrder(wrap))];
+		int[] front = new int[16];
+		int size = 0;
+		for (int i = undecided.nextSetBit(0); i >= 0; i = undecided.nextSetBit(i + 1)) {
+			final int nn = wrap.getNeighborVertices(i, neighbors);
+			for (int j = 0; j < nn; j++) {
+				if (!undecided.get(neighbors[j])) {
+					if (size == front.length) {
+						front = Arrays.copyOf(front, 2 * size);
 					}
+					front[size++] = i;
+					break;
 				}
-				if (lost) {
-					newundecided.add(v);
-				} else {
-					dist /= decNeighbors;
-					final WB_Vector dv = v.subToVector3D(wcenter);
-					dv.normalizeSelf();
-					v.set(wcenter.addMul(dist, dv));
+			}
+		}
+		final int[] queued = new int[n];
+		int rounds = 0;
+		double[] distances = new double[size];
+		while (size > 0) {
+			rounds++;
+			if (distances.length < size) {
+				distances = new double[front.length];
+			}
+			for (int f = 0; f < size; f++) {
+				final int i = front[f];
+				final int nn = wrap.getNeighborVertices(i, neighbors);
+				double dist = 0;
+				int decided = 0;
+				for (int j = 0; j < nn; j++) {
+					final int k = neighbors[j];
+					if (!undecided.get(k)) {
+						dist += distanceToCenter(positions, k);
+						decided++;
+					}
 				}
+				distances[f] = dist / decided;
 			}
-			if (undecided.size() == newundecided.size()) {
-				break;
+			for (int f = 0; f < size; f++) {
+				final int i = front[f];
+				final double dx = origins[3 * i] - wcenter.xd();
+				final double dy = origins[3 * i + 1] - wcenter.yd();
+				final double dz = origins[3 * i + 2] - wcenter.zd();
+				final double s = distances[f] / Math.sqrt(dx * dx + dy * dy + dz * dz);
+				positions[3 * i] = wcenter.xd() + s * dx;
+				positions[3 * i + 1] = wcenter.yd() + s * dy;
+				positions[3 * i + 2] = wcenter.zd() + s * dz;
+				undecided.clear(i);
+			}
+			int next = 0;
+			int[] nextFront = new int[Math.max(16, size)];
+			for (int f = 0; f < size; f++) {
+				final int nn = wrap.getNeighborVertices(front[f], neighbors);
+				for (int j = 0; j < nn; j++) {
+					final int k = neighbors[j];
+					if (undecided.get(k) && queued[k] != rounds) {
+						queued[k] = rounds;
+						if (next == nextFront.length) {
+							nextFront = Arrays.copyOf(nextFront, 2 * next);
+						}
+						nextFront[next++] = k;
+					}
+				}
 			}
-			undecided = newundecided;
+			front = nextFront;
+			size = next;
 		}
+		tracker.setStatus(this, "Relaxed " + (misses - undecided.cardinality()) + " vertices in " + rounds
+				+ " rounds, " + (System.nanoTime() - time) / 1000000 + " ms.", 0);
+		wrap.setPositions(result);
+		tracker.setStatus(this, "Exiting HEC_ShrinkWrap.", -1);
 		return result;
 	}
+
+	/**
+	 *
+	 *
+	 * @param wrap
+	 * @return
+	 */
+	private static int maxVertexOrder(final HE_CompactMesh wrap) {
+		int max = 0;
+		for (int i = 0; i < wrap.getNumberOfVertices(); i++) {
+			max = Math.max(max, wrap.getVertexOrder(i));
+		}
+		return max;
+	}
+
+	/**
+	 *
+	 *
+	 * @param positions
+	 * @param i
+	 * @return
+	 */
+	private double distanceToCenter(final double[] positions, final int i) {
+		final double dx = positions[3 * i] - wcenter.xd();
+		final double dy = positions[3 * i + 1] - wcenter.yd();
+		final double dz = positions[3 * i + 2] - wcenter.zd();
+		return Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
 }
@@ -9,14 +9,18 @@
  */
 package wblut.hemesh;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
 import javolution.util.FastTable;
+import wblut.core.WB_Parallel;
+import wblut.core.WB_Parallel.WB_RangeTask;
+import wblut.core.WB_ProgressCounter;
+import wblut.geom.WB_AABB;
 import wblut.geom.WB_Coord;
 import wblut.geom.WB_Point;
-import wblut.geom.WB_Voronoi;
+import wblut.geom.WB_Voronoi3D;
+import wblut.math.WB_Epsilon;
 
 /**
  * Creates the Voronoi cells of a collection of points, constrained by a mesh.
@@ -47,6 +51,8 @@ public class HEMC_VoronoiCells extends HEMC_MultiCreator {
 	public HE_Selection[] outer;
 	/** Create divided skin of container. */
 	private boolean createSkin;
+	/** Create cells in parallel. */
+	private boolean parallel;
 
 	/**
 	 * Instantiates a new HEMC_VoronoiCells.
@@ -222,6 +228,20 @@ public class HEMC_VoronoiCells extends HEMC_MultiCreator {
 		return this;
 	}
 
+	/**
+	 * Create the cells in parallel. Each task uses its own cell creator, the
+	 * points and container are shared read-only. The result doesn't depend
+	 * on the number of threads.
+	 *
+	 * @param b
+	 *            true, false
+	 * @return self
+	 */
+	public HEMC_VoronoiCells setParallel(final boolean b) {
+		parallel = b;
+		return this;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
@@ -229,72 +249,125 @@ public class HEMC_VoronoiCells extends HEMC_MultiCreator {
 	 */
 	@Override
 	public HE_MeshCollection create() {
-
 		tracker.setStatus(this, "Starting HEMC_VoronoiCells", +1);
-		HE_MeshCollection result = new HE_MeshCollection();
+		final HE_MeshCollection result = new HE_MeshCollection();
 		if (container == null) {
 			_numberOfMeshes = 0;
+			tracker.setStatus(this, "Exiting HEMC_VoronoiCells.", -1);
 			return result;
 		}
 		if (points == null) {
 			result.add(container.get());
 			_numberOfMeshes = 1;
+			tracker.setStatus(this, "Exiting HEMC_VoronoiCells.", -1);
 			return result;
 		}
 		if (numberOfPoints == 0) {
 			numberOfPoints = points.size();
 		}
-		final ArrayList<HE_Selection> linnersel = new ArrayList<HE_Selection>();
-		final ArrayList<HE_Selection> loutersel = new ArrayList<HE_Selection>();
-		final HEC_VoronoiCell cvc = new HEC_VoronoiCell();
-		if (bruteForce || numberOfPoints < 10) {
-			cvc.setPoints(points).setN(numberOfPoints).setContainer(container).setSurface(surface).setOffset(offset)
-					.setSimpleCap(simpleCap);
-			for (int i = 0; i < numberOfPoints; i++) {
-				tracker.setStatus(this, "Creating cell " + i + " (" + numberOfPoints + " slices).", 0);
-				cvc.setCellIndex(i);
-				final HE_Mesh mesh = cvc.createBase();
-				linnersel.add(cvc.inner);
-				loutersel.add(cvc.outer);
-				result.add(mesh);
-			}
+		final int n = numberOfPoints;
+		final WB_Coord[] lpoints = points.toArray(new WB_Coord[points.size()]);
+		final int[][] voronoiIndices = bruteForce || n < 10 ? null : getNeighbors(lpoints);
+		final HE_Mesh[] meshes = new HE_Mesh[n];
+		final HE_Selection[] linner = new HE_Selection[n];
+		final HE_Selection[] louter = new HE_Selection[n];
+		if (parallel) {
+			final WB_ProgressCounter counter = new WB_ProgressCounter(n, 10);
+			tracker.setStatus(this, "Creating cells.", counter);
+			WB_Parallel.forRange(0, n, 1, new WB_RangeTask() {
+				@Override
+				public void run(final int start, final int end) {
+					final HEC_VoronoiCell cvc = getCellCreator(lpoints, voronoiIndices != null);
+					for (int i = start; i < end; i++) {
+						createCell(cvc, i, voronoiIndices, meshes, linner, louter);
+						synchronized (counter) {
+							counter.increment();
+						}
+					}
+				}
+			});
 		} else {
-			final int[][] voronoiIndices = WB_Voronoi.getVoronoi3DNeighbors(points);
-			cvc.setPoints(points).setN(numberOfPoints).setContainer(container).setSurface(surface).setOffset(offset)
-					.setSimpleCap(simpleCap).setLimitPoints(true);
-			for (int i = 0; i < numberOfPoints; i++) {
-				tracker.setStatus(this, "Creating cell " + i + " (" + voronoiIndices[i].length + " slices).", 0);
-				cvc.setCellIndex(i);
-				cvc.setPointsToUse(voronoiIndices[i]);
-
-				final HE_Mesh mesh = cvc.createBase();
-				linnersel.add(cvc.inner);
-				loutersel.add(cvc.outer);
-				result.add(mesh);
+			final HEC_VoronoiCell cvc = getCellCreator(lpoints, voronoiIndices != null);
+			for (int i = 0; i < n; i++) {
+				tracker.setStatus(this, "Creating cell " + i + " ("
+						+ (voronoiIndices == null ? n : voronoiIndices[i].length) + " slices).", 0);
+				createCell(cvc, i, voronoiIndices, meshes, linner, louter);
 			}
 		}
-		inner = new HE_Selection[result.size()];
-		outer = new HE_Selection[result.size()];
-
-		for (int i = 0; i < _numberOfMeshes; i++) {
-
-			inner[i] = linnersel.get(i);
-			outer[i] = loutersel.get(i);
+		for (int i = 0; i < n; i++) {
+			result.add(meshes[i]);
 		}
+		inner = linner;
+		outer = louter;
 		if (createSkin) {
 			tracker.setStatus(this, "Creating skin.", 0);
-			final boolean[] on = new boolean[_numberOfMeshes];
-			for (int i = 0; i < _numberOfMeshes; i++) {
+			final boolean[] on = new boolean[n];
+			for (int i = 0; i < n; i++) {
 				on[i] = true;
 			}
 			result.add(new HE_Mesh(new HEC_FromVoronoiCells().setActive(on).setCells(result.meshes)));
 		}
 		_numberOfMeshes = result.size();
 		tracker.setStatus(this, "Exiting HEMC_VoronoiCells.", -1);
+		return result;
+	}
 
+	/**
+	 * Voronoi neighbors of the cells inside the bounding box of the container.
+	 * Other points can't cut the part of a cell inside the container.
+	 *
+	 * @param lpoints
+	 * @return
+	 */
+	private int[][] getNeighbors(final WB_Coord[] lpoints) {
+		final WB_AABB aabb = container.getAABB();
+		final double size = Math.max(aabb.getWidth(), Math.max(aabb.getHeight(), aabb.getDepth()));
+		aabb.expandBy(Math.abs(offset) + 0.01 * size + WB_Epsilon.EPSILON);
+		final WB_Voronoi3D voronoi = new WB_Voronoi3D(lpoints).setContainer(aabb).compute(numberOfPoints);
+		final int[][] result = new int[numberOfPoints][];
+		for (int i = 0; i < numberOfPoints; i++) {
+			// a duplicate point has an empty cell, it is cut by the neighbors
+			// of the coinciding point instead
+			result[i] = voronoi.getNeighbors(voronoi.getOwner(i));
+		}
 		return result;
 	}
 
+	/**
+	 *
+	 *
+	 * @param lpoints
+	 * @param limitPoints
+	 * @return
+	 */
+	private HEC_VoronoiCell getCellCreator(final WB_Coord[] lpoints, final boolean limitPoints) {
+		final HEC_VoronoiCell cvc = new HEC_VoronoiCell();
+		cvc.setPoints(lpoints).setN(numberOfPoints).setContainer(container).setSurface(surface).setOffset(offset)
+				.setSimpleCap(simpleCap).setLimitPoints(limitPoints);
+		return cvc;
+	}
+
+	/**
+	 *
+	 *
+	 * @param cvc
+	 * @param i
+	 * @param voronoiIndices
+	 * @param meshes
+	 * @param linner
+	 * @param louter
+	 */
+	private void createCell(final HEC_VoronoiCell cvc, final int i, final int[][] voronoiIndices,
+			final HE_Mesh[] meshes, final HE_Selection[] linner, final HE_Selection[] louter) {
+		cvc.setCellIndex(i);
+		if (voronoiIndices != null) {
+			cvc.setPointsToUse(voronoiIndices[i]);
+		}
+		meshes[i] = cvc.createBase();
+		linner[i] = cvc.inner;
+		louter[i] = cvc.outer;
+	}
+
 	public static void main(final String[] args) {
 		HEC_Torus creator = new HEC_Torus(80, 200, 16, 64);
 		HE_Mesh container = new HE_Mesh(creator);
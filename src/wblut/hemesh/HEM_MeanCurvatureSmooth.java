@@ -16,7 +16,6 @@ import wblut.core.WB_ProgressCounter;
 import wblut.geom.WB_AABB;
 import wblut.geom.WB_Coord;
 import wblut.geom.WB_Point;
-import wblut.geom.WB_Vector;
 
 /**
  *
@@ -106,48 +105,22 @@ public class HEM_MeanCurvatureSmooth extends HEM_Modifier {
 		if (autoRescale) {
 			box = mesh.getAABB();
 		}
-		final WB_Coord[] newPositions = new WB_Coord[mesh.getNumberOfVertices()];
 		if (iter < 1) {
 			iter = 1;
 		}
-		WB_ProgressCounter counter = new WB_ProgressCounter(iter * mesh.getNumberOfVertices(), 10);
-
+		final HE_VertexAdjacency adjacency = new HE_VertexAdjacency(mesh);
+		double[] positions = adjacency.getPositions();
+		double[] newPositions = new double[positions.length];
+		final WB_ProgressCounter counter = new WB_ProgressCounter(iter, 10);
 		tracker.setStatus(this, "Smoothing vertices.", counter);
 		for (int r = 0; r < iter; r++) {
-			Iterator<HE_Vertex> vItr = mesh.vItr();
-			HE_Vertex v;
-			int id = 0;
-			WB_Point p;
-			while (vItr.hasNext()) {
-				v = vItr.next();
-				if (v.isBoundary() && keepBoundary) {
-					newPositions[id] = v;
-				} else {
-					p = new WB_Point();
-					double factor = 0;
-					HE_Halfedge he = v.getHalfedge();
-					do {
-						double cotana = he.getPrevInFace().getCotan();
-						double cotanb = he.getPair().getPrevInFace().getCotan();
-						p.addMulSelf(cotana + cotanb, WB_Vector.sub(he.getEndVertex(), v));
-						factor += cotana + cotanb;
-
-						he = he.getNextInVertex();
-					} while (he != v.getHalfedge());
-					newPositions[id] = p.mulSelf(lambda / factor).addSelf(v);
-
-				}
-				id++;
-				System.out.println();
-			}
-			vItr = mesh.vItr();
-			id = 0;
-			while (vItr.hasNext()) {
-				vItr.next().set(newPositions[id]);
-				id++;
-				counter.increment();
-			}
+			adjacency.cotanLaplacian(positions, newPositions, lambda, keepBoundary);
+			final double[] tmp = positions;
+			positions = newPositions;
+			newPositions = tmp;
+			counter.increment();
 		}
+		adjacency.setPositions(mesh, positions);
 
 		if (autoRescale) {
 			mesh.fitInAABB(box);
@@ -10,18 +10,40 @@
 package wblut.hemesh;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.set.hash.TIntHashSet;
+import gnu.trove.set.hash.TLongHashSet;
+import javolution.util.FastTable;
+import wblut.core.WB_Parallel;
+import wblut.core.WB_Parallel.WB_RangeTask;
+import wblut.core.WB_ProgressCounter;
+import wblut.geom.WB_Coord;
 import wblut.geom.WB_GeometryOp;
+import wblut.geom.WB_KDTree;
+import wblut.geom.WB_KDTree.WB_KDEntry;
 import wblut.geom.WB_Plane;
 import wblut.geom.WB_Point;
+import wblut.geom.WB_Vector;
+import wblut.math.WB_Epsilon;
 
 /**
  * Multiple planar cuts of a mesh. Faces on positive side of cut plane are
  * removed.
  *
+ * The result is that of applying HEM_Slice for each plane in turn, but the
+ * mesh is only updated once. Each vertex is classified by the first plane it
+ * lies behind, a plane only splits the faces around the vertices in its class.
+ *
  * @author Frederik Vanhoutte (W:Blut)
  *
  */
@@ -173,9 +195,15 @@ public class HEM_MultiSlice extends HEM_Modifier {
 	 */
 	@Override
 	public HE_Mesh apply(final HE_Mesh mesh) {
+		tracker.setStatus(this, "Starting HEM_MultiSlice.", +1);
 		origFaces = new HE_Selection(mesh);
 		newFaces = new HE_Selection(mesh);
 		if (planes == null) {
+			tracker.setStatus(this, "No cutplanes defined. Exiting HEM_MultiSlice.", -1);
+			return mesh;
+		}
+		if (mesh.getNumberOfFaces() == 0) {
+			tracker.setStatus(this, "Empty mesh. Exiting HEM_MultiSlice.", -1);
 			return mesh;
 		}
 		if (labels == null) {
@@ -184,60 +212,44 @@ public class HEM_MultiSlice extends HEM_Modifier {
 				labels[i] = i;
 			}
 		}
-		Iterator<HE_Face> fItr = mesh.fItr();
 		mesh.resetFaceInternalLabels();
-		final HEM_Slice slice = new HEM_Slice();
-		slice.setReverse(reverse).setCap(capHoles).setOffset(offset).setSimpleCap(simpleCap);
-		if (center != null) {
-			final double[] r = new double[planes.size()];
-			for (int i = 0; i < planes.size(); i++) {
-				final WB_Plane P = planes.get(i);
-				r[i] = WB_GeometryOp.getSqDistance3D(P.getOrigin(), center);
-			}
-			for (int i = planes.size(); --i >= 0;) {
-				for (int m = 0; m < i; m++) {
-					if (r[m] > r[m + 1]) {
-						Collections.swap(planes, m, m + 1);
-						final double tmp = r[m];
-						r[m] = r[m + 1];
-						r[m + 1] = tmp;
-						final int tmpid = labels[m];
-						labels[m] = labels[m + 1];
-						labels[m + 1] = tmpid;
-					}
-				}
+		final int[] order = getOrder();
+		final boolean[] unique = getUnique(order);
+		int n = 0;
+		for (int i = 0; i < order.length; i++) {
+			if (unique[i]) {
+				order[n++] = order[i];
 			}
 		}
-		boolean unique = false;
-		WB_Plane Pi;
-		WB_Plane Pj;
-		final int stop = planes.size();
-		for (int i = 0; i < stop; i++) {
-			Pi = planes.get(i);
-			unique = true;
-			for (int j = 0; j < i; j++) {
-				Pj = planes.get(j);
-				if (WB_Plane.isEqual(Pi, Pj)) {
-					unique = false;
-					break;
-				}
+		int[] applied = Arrays.copyOf(order, n);
+		boolean open = hasBoundary(mesh);
+		boolean modified = false;
+		if (capHoles && open && n > 0) {
+			// HEM_Slice caps all holes, not only the ones it cuts. The first
+			// plane is applied as before.
+			final HEM_Slice slice = new HEM_Slice();
+			slice.setReverse(reverse).setCap(capHoles).setOffset(offset).setSimpleCap(simpleCap);
+			slice.setPlane(planes.get(applied[0]));
+			slice.apply(mesh);
+			final Iterator<HE_Face> fItr = slice.cap.fItr();
+			while (fItr.hasNext()) {
+				fItr.next().setInternalLabel(labels[applied[0]]);
 			}
-			if (unique) {
-				slice.setPlane(Pi);
-				slice.apply(mesh);
-				fItr = slice.cap.fItr();
-				// System.out.println(slice.cap.getNumberOfFaces());
-				HE_Face f;
-				while (fItr.hasNext()) {
-					f = fItr.next();
-					f.setInternalLabel(labels[i]);
-				}
-				if (triangulate) {
-					mesh.triangulateConcaveFaces();
-				}
+			applied = Arrays.copyOfRange(applied, 1, n);
+			open = hasBoundary(mesh);
+			modified = true;
+		}
+		if (applied.length > 0) {
+			final int[] cutLabels = new int[applied.length];
+			for (int i = 0; i < applied.length; i++) {
+				cutLabels[i] = labels[applied[i]];
 			}
+			modified |= new Slicer(mesh, getCutPlanes(applied), cutLabels, open).apply();
 		}
-		fItr = mesh.fItr();
+		if (triangulate && modified) {
+			mesh.triangulateConcaveFaces();
+		}
+		final Iterator<HE_Face> fItr = mesh.fItr();
 		HE_Face f;
 		while (fItr.hasNext()) {
 			f = fItr.next();
@@ -247,10 +259,1290 @@ public class HEM_MultiSlice extends HEM_Modifier {
 				newFaces.add(f);
 			}
 		}
-
+		tracker.setStatus(this, "Exiting HEM_MultiSlice.", -1);
 		return mesh;
 	}
 
+
+	/**
+	 * Order in which the planes are applied, sorted by distance to the center
+	 * if set. The sort is stable, planes at equal distance keep their order.
+	 *
+	 * @return indices of the planes
+	 */
+	private int[] getOrder() {
+		final int n = planes.size();
+		final int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		if (center == null) {
+			return order;
+		}
+		final double[] r = new double[n];
+		final Integer[] sorted = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			r[i] = WB_GeometryOp.getSqDistance3D(planes.get(i).getOrigin(), center);
+			sorted[i] = i;
+		}
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			@Override
+			public int compare(final Integer a, final Integer b) {
+				return Double.compare(r[a], r[b]);
+			}
+		});
+		for (int i = 0; i < n; i++) {
+			order[i] = sorted[i];
+		}
+		return order;
+	}
+
+	/**
+	 * A plane is skipped if it equals a plane applied before it. Equal planes
+	 * have nearly the same distance to the origin, so each plane is only
+	 * compared with the planes in a small window of the planes sorted by that
+	 * distance.
+	 *
+	 * @param order
+	 * @return
+	 */
+	private boolean[] getUnique(final int[] order) {
+		final int n = order.length;
+		final boolean[] unique = new boolean[n];
+		final int[] rank = new int[n];
+		final double[] d = new double[n];
+		final Integer[] sorted = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			rank[order[i]] = i;
+			d[i] = planes.get(i).d();
+			sorted[i] = i;
+		}
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			@Override
+			public int compare(final Integer a, final Integer b) {
+				return Double.compare(d[a], d[b]);
+			}
+		});
+		final double[] sortedD = new double[n];
+		for (int i = 0; i < n; i++) {
+			sortedD[i] = d[sorted[i]];
+		}
+		final double e = WB_Epsilon.EPSILON;
+		final double se = Math.sqrt(2.0 * e);
+		for (int i = 0; i < n; i++) {
+			final WB_Plane Pi = planes.get(order[i]);
+			// |d(Pi)-d(Pj)| is at most e + |n(Pi)-n(Pj)|.|o(Pi)| for equal
+			// planes
+			final double window = 2.0 * e + se * Pi.getOrigin().getLength3D();
+			int j = lowerBound(sortedD, d[order[i]] - window);
+			unique[i] = true;
+			while (j < n && sortedD[j] <= d[order[i]] + window) {
+				final int Pj = sorted[j];
+				if (rank[Pj] < i && WB_Plane.isEqual(Pi, planes.get(Pj))) {
+					unique[i] = false;
+					break;
+				}
+				j++;
+			}
+		}
+		return unique;
+	}
+
+	/**
+	 *
+	 *
+	 * @param a
+	 *            sorted values
+	 * @param value
+	 * @return index of the first value not less than value
+	 */
+	private static int lowerBound(final double[] a, final double value) {
+		int lo = 0;
+		int hi = a.length;
+		while (lo < hi) {
+			final int mid = lo + hi >>> 1;
+			if (a[mid] < value) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Planes as applied by HEM_Slice, reversed and offset.
+	 *
+	 * @param applied
+	 *            indices of the planes in the order they are applied
+	 * @return normal and d of each plane
+	 */
+	private double[] getCutPlanes(final int[] applied) {
+		final int n = applied.length;
+		final double[] cutPlanes = new double[4 * n];
+		final double sign = reverse ? -1.0 : 1.0;
+		for (int i = 0; i < n; i++) {
+			final WB_Plane P = planes.get(applied[i]);
+			final WB_Vector normal = P.getNormal();
+			cutPlanes[4 * i] = sign * normal.xd();
+			cutPlanes[4 * i + 1] = sign * normal.yd();
+			cutPlanes[4 * i + 2] = sign * normal.zd();
+			cutPlanes[4 * i + 3] = sign * P.d() + offset;
+		}
+		return cutPlanes;
+	}
+
+	/**
+	 *
+	 *
+	 * @param mesh
+	 * @return true if the mesh has halfedges without face
+	 */
+	private static boolean hasBoundary(final HE_Mesh mesh) {
+		final Iterator<HE_Halfedge> heItr = mesh.heItr();
+		while (heItr.hasNext()) {
+			if (heItr.next().getFace() == null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 *
+	 *
+	 * @param a
+	 * @param b
+	 * @return key of the directed edge from vertex a to vertex b
+	 */
+	private static long getEdgeKey(final int a, final int b) {
+		// Trove hashes a long as high^low, the key is scrambled first.
+		// Multiplying by an odd number is a bijection.
+		return ((long) a << 32 | b & 0xffffffffL) * 0x9E3779B97F4A7C15L;
+	}
+
+	/**
+	 * Cuts the faces as loops of vertex indices. Each vertex is classified once
+	 * by the first plane it lies behind. A plane only visits the faces around
+	 * the vertices in its class, faces without a vertex behind the plane are
+	 * not touched. Caps are traced from the edges a plane leaves open and are
+	 * clipped by the next planes like the other faces. The mesh itself is
+	 * updated once, after the last plane.
+	 */
+	private class Slicer {
+		/**
+		 *
+		 */
+		final HE_Mesh mesh;
+		/**
+		 * Normal and d of each plane, a point is behind a plane if n.p-d is
+		 * less than -epsilon.
+		 */
+		final double[] cutPlanes;
+		/**
+		 *
+		 */
+		final int[] cutLabels;
+		/**
+		 *
+		 */
+		final int numberOfPlanes;
+		/**
+		 * Mesh has a boundary that is not capped.
+		 */
+		final boolean open;
+		/**
+		 *
+		 */
+		final HE_Vertex[] originalVertices;
+		/**
+		 *
+		 */
+		final int numberOfOriginalVertices;
+		/**
+		 *
+		 */
+		int numberOfVertices;
+		/**
+		 *
+		 */
+		double[] positions;
+		/**
+		 * First plane each vertex is behind, numberOfPlanes if none.
+		 */
+		int[] first;
+		/**
+		 * Vertices by first plane, as linked lists.
+		 */
+		final int[] bucketHead;
+		/**
+		 *
+		 */
+		int[] bucketNext;
+		/**
+		 * Faces of each vertex, as linked lists of entries. Entries of removed
+		 * faces are skipped.
+		 */
+		int[] entryHead;
+		/**
+		 *
+		 */
+		int[] entryFace;
+		/**
+		 *
+		 */
+		int[] entryNext;
+		/**
+		 *
+		 */
+		int numberOfEntries;
+		/**
+		 *
+		 */
+		final int numberOfOriginalFaces;
+		/**
+		 *
+		 */
+		int numberOfFaces;
+		/**
+		 *
+		 */
+		int[][] faceVertices;
+		/**
+		 * Texture coordinates of the face corners, null if none.
+		 */
+		HE_TextureCoordinate[][] faceUVW;
+		/**
+		 * Face the properties are copied from, null for caps.
+		 */
+		HE_Face[] faceSource;
+		/**
+		 *
+		 */
+		int[] faceLabel;
+		/**
+		 *
+		 */
+		boolean[] alive;
+		/**
+		 *
+		 */
+		int[] faceMark;
+		/**
+		 * Directed edges of the faces that are alive.
+		 */
+		final TLongIntHashMap edges;
+
+		/**
+		 *
+		 *
+		 * @param mesh
+		 * @param cutPlanes
+		 * @param cutLabels
+		 * @param open
+		 */
+		Slicer(final HE_Mesh mesh, final double[] cutPlanes, final int[] cutLabels, final boolean open) {
+			this.mesh = mesh;
+			this.cutPlanes = cutPlanes;
+			this.cutLabels = cutLabels;
+			this.open = open;
+			numberOfPlanes = cutLabels.length;
+			bucketHead = new int[numberOfPlanes];
+			Arrays.fill(bucketHead, -1);
+			originalVertices = mesh.getVerticesAsArray();
+			numberOfOriginalVertices = originalVertices.length;
+			final int vertexCapacity = numberOfOriginalVertices + numberOfOriginalVertices / 4 + 16;
+			positions = new double[3 * vertexCapacity];
+			first = new int[vertexCapacity];
+			bucketNext = new int[vertexCapacity];
+			entryHead = new int[vertexCapacity];
+			Arrays.fill(entryHead, -1);
+			for (int v = 0; v < numberOfOriginalVertices; v++) {
+				positions[3 * v] = originalVertices[v].xd();
+				positions[3 * v + 1] = originalVertices[v].yd();
+				positions[3 * v + 2] = originalVertices[v].zd();
+			}
+			numberOfVertices = numberOfOriginalVertices;
+			final HE_Face[] faces = mesh.getFacesAsArray();
+			numberOfOriginalFaces = faces.length;
+			final int faceCapacity = numberOfOriginalFaces + numberOfOriginalFaces / 4 + 16;
+			faceVertices = new int[faceCapacity][];
+			faceUVW = new HE_TextureCoordinate[faceCapacity][];
+			faceSource = new HE_Face[faceCapacity];
+			faceLabel = new int[faceCapacity];
+			alive = new boolean[faceCapacity];
+			faceMark = new int[faceCapacity];
+			final int entryCapacity = mesh.getNumberOfHalfedges() + 16;
+			entryFace = new int[entryCapacity];
+			entryNext = new int[entryCapacity];
+			edges = new TLongIntHashMap(entryCapacity, 0.5f, -1L, -1);
+			HE_Halfedge he;
+			for (final HE_Face face : faces) {
+				final int n = face.getFaceOrder();
+				final int[] vertices = new int[n];
+				HE_TextureCoordinate[] uvw = null;
+				he = face.getHalfedge();
+				int j = 0;
+				do {
+					vertices[j] = mesh.getIndex(he.getVertex());
+					if (he.hasUVW()) {
+						if (uvw == null) {
+							uvw = new HE_TextureCoordinate[n];
+						}
+						uvw[j] = he.getUVW();
+					}
+					j++;
+					he = he.getNextInFace();
+				} while (he != face.getHalfedge());
+				addFace(vertices, uvw, face, -1);
+			}
+		}
+
+		/**
+		 *
+		 *
+		 * @return true if the mesh was cut
+		 */
+		boolean apply() {
+			tracker.setStatus(HEM_MultiSlice.this, "Classifying vertices.", 0);
+			WB_Parallel.forRange(0, numberOfOriginalVertices, 1024, new WB_RangeTask() {
+				@Override
+				public void run(final int start, final int end) {
+					for (int v = start; v < end; v++) {
+						first[v] = getFirstPlaneBehind(v, 0);
+					}
+				}
+			});
+			for (int v = numberOfOriginalVertices - 1; v >= 0; v--) {
+				addToBucket(v);
+			}
+			boolean cut = false;
+			final TIntArrayList candidates = new TIntArrayList();
+			final WB_ProgressCounter counter = new WB_ProgressCounter(numberOfPlanes, 10);
+			tracker.setStatus(HEM_MultiSlice.this, "Slicing mesh.", counter);
+			for (int i = 0; i < numberOfPlanes; i++) {
+				// Any vertex behind plane i that is still used has it as its
+				// first plane, the vertices behind earlier planes are gone.
+				candidates.resetQuick();
+				for (int v = bucketHead[i]; v != -1; v = bucketNext[v]) {
+					for (int e = entryHead[v]; e != -1; e = entryNext[e]) {
+						final int f = entryFace[e];
+						if (alive[f] && faceMark[f] != i + 1) {
+							faceMark[f] = i + 1;
+							candidates.add(f);
+						}
+					}
+				}
+				if (!candidates.isEmpty()) {
+					cut(i, candidates);
+					cut = true;
+				}
+				counter.increment();
+			}
+			if (cut) {
+				if (triangulate) {
+					triangulateFaces();
+				}
+				update();
+			}
+			return cut;
+		}
+
+		/**
+		 *
+		 *
+		 * @param i
+		 * @param v
+		 * @return signed distance of vertex v to plane i
+		 */
+		double getDistance(final int i, final int v) {
+			return cutPlanes[4 * i] * positions[3 * v] + cutPlanes[4 * i + 1] * positions[3 * v + 1]
+					+ cutPlanes[4 * i + 2] * positions[3 * v + 2] - cutPlanes[4 * i + 3];
+		}
+
+		/**
+		 *
+		 *
+		 * @param v
+		 * @param from
+		 * @return first plane from index from on that vertex v is behind
+		 */
+		int getFirstPlaneBehind(final int v, final int from) {
+			for (int i = from; i < numberOfPlanes; i++) {
+				if (getDistance(i, v) < -WB_Epsilon.EPSILON) {
+					return i;
+				}
+			}
+			return numberOfPlanes;
+		}
+
+		/**
+		 *
+		 *
+		 * @param v
+		 */
+		void addToBucket(final int v) {
+			if (first[v] < numberOfPlanes) {
+				bucketNext[v] = bucketHead[first[v]];
+				bucketHead[first[v]] = v;
+			}
+		}
+
+		/**
+		 *
+		 *
+		 * @param x
+		 * @param y
+		 * @param z
+		 * @param from
+		 *            first plane the vertex can be behind
+		 * @return index of the new vertex
+		 */
+		int addVertex(final double x, final double y, final double z, final int from) {
+			if (numberOfVertices == first.length) {
+				final int capacity = 2 * first.length;
+				positions = Arrays.copyOf(positions, 3 * capacity);
+				first = Arrays.copyOf(first, capacity);
+				bucketNext = Arrays.copyOf(bucketNext, capacity);
+				entryHead = Arrays.copyOf(entryHead, capacity);
+				Arrays.fill(entryHead, numberOfVertices, capacity, -1);
+			}
+			final int v = numberOfVertices++;
+			positions[3 * v] = x;
+			positions[3 * v + 1] = y;
+			positions[3 * v + 2] = z;
+			first[v] = getFirstPlaneBehind(v, from);
+			addToBucket(v);
+			return v;
+		}
+
+		/**
+		 *
+		 *
+		 * @param vertices
+		 * @param uvw
+		 * @param source
+		 * @param label
+		 * @return index of the new face
+		 */
+		int addFace(final int[] vertices, final HE_TextureCoordinate[] uvw, final HE_Face source, final int label) {
+			if (numberOfFaces == alive.length) {
+				final int capacity = 2 * alive.length;
+				faceVertices = Arrays.copyOf(faceVertices, capacity);
+				faceUVW = Arrays.copyOf(faceUVW, capacity);
+				faceSource = Arrays.copyOf(faceSource, capacity);
+				faceLabel = Arrays.copyOf(faceLabel, capacity);
+				alive = Arrays.copyOf(alive, capacity);
+				faceMark = Arrays.copyOf(faceMark, capacity);
+			}
+			if (numberOfEntries + vertices.length > entryFace.length) {
+				final int capacity = 2 * (numberOfEntries + vertices.length);
+				entryFace = Arrays.copyOf(entryFace, capacity);
+				entryNext = Arrays.copyOf(entryNext, capacity);
+			}
+			final int f = numberOfFaces++;
+			faceVertices[f] = vertices;
+			faceUVW[f] = uvw;
+			faceSource[f] = source;
+			faceLabel[f] = label;
+			alive[f] = true;
+			final int n = vertices.length;
+			for (int j = 0; j < n; j++) {
+				entryFace[numberOfEntries] = f;
+				entryNext[numberOfEntries] = entryHead[vertices[j]];
+				entryHead[vertices[j]] = numberOfEntries++;
+				edges.put(getEdgeKey(vertices[j], vertices[(j + 1) % n]), f);
+			}
+			return f;
+		}
+
+		/**
+		 *
+		 *
+		 * @param f
+		 * @param removed
+		 *            collects the directed edges of the face, as pairs of
+		 *            vertices
+		 */
+		void removeFace(final int f, final TIntArrayList removed) {
+			alive[f] = false;
+			final int[] vertices = faceVertices[f];
+			final int n = vertices.length;
+			for (int j = 0; j < n; j++) {
+				final long key = getEdgeKey(vertices[j], vertices[(j + 1) % n]);
+				if (edges.get(key) == f) {
+					edges.remove(key);
+				}
+				removed.add(vertices[j]);
+				removed.add(vertices[(j + 1) % n]);
+			}
+		}
+
+		/**
+		 *
+		 *
+		 * @param v
+		 * @return true if vertex v belongs to a face that is alive
+		 */
+		boolean isUsed(final int v) {
+			for (int e = entryHead[v]; e != -1; e = entryNext[e]) {
+				if (alive[entryFace[e]]) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Cut all faces with a vertex behind plane i.
+		 *
+		 * @param i
+		 * @param candidates
+		 */
+		void cut(final int i, final TIntArrayList candidates) {
+			final TLongIntHashMap splits = new TLongIntHashMap(16, 0.5f, -1L, -1);
+			final WB_KDTree<WB_Point, Integer> splitPoints = new WB_KDTree<WB_Point, Integer>();
+			final TIntArrayList removed = new TIntArrayList();
+			final TIntArrayList created = new TIntArrayList();
+			for (int c = 0; c < candidates.size(); c++) {
+				clip(candidates.get(c), i, splits, splitPoints, removed, created);
+			}
+			if (capHoles) {
+				cap(i, removed, created);
+			}
+		}
+
+		/**
+		 * Replace face f by its parts in front of plane i. Walking the face
+		 * from a vertex behind the plane, each run of vertices that are not
+		 * behind the plane and include a vertex in front is a chain. A convex
+		 * face leaves one chain. The chains of a concave face are joined along
+		 * the cut line: the part of the line inside the face runs from where
+		 * a chain leaves the plane's front to where the next one returns.
+		 *
+		 * @param f
+		 * @param i
+		 * @param splits
+		 *            vertices inserted in the edges crossing the plane
+		 * @param splitPoints
+		 *            the same vertices by position
+		 * @param removed
+		 * @param created
+		 */
+		void clip(final int f, final int i, final TLongIntHashMap splits, final WB_KDTree<WB_Point, Integer> splitPoints,
+				final TIntArrayList removed, final TIntArrayList created) {
+			final int[] vertices = faceVertices[f];
+			final HE_TextureCoordinate[] uvw = faceUVW[f];
+			final int n = vertices.length;
+			final double[] d = new double[n];
+			final int[] side = new int[n];
+			int start = -1;
+			boolean front = false;
+			for (int j = 0; j < n; j++) {
+				d[j] = getDistance(i, vertices[j]);
+				if (d[j] < -WB_Epsilon.EPSILON) {
+					side[j] = -1;
+					start = j;
+				} else if (d[j] > WB_Epsilon.EPSILON) {
+					side[j] = 1;
+					front = true;
+				}
+			}
+			if (start == -1) {
+				return;
+			}
+			removeFace(f, removed);
+			if (!front) {
+				return;
+			}
+			final List<int[]> chains = new ArrayList<int[]>();
+			final List<HE_TextureCoordinate[]> chainUVW = new ArrayList<HE_TextureCoordinate[]>();
+			final TIntArrayList run = new TIntArrayList();
+			final List<HE_TextureCoordinate> runUVW = new ArrayList<HE_TextureCoordinate>();
+			boolean inFront = false;
+			for (int k = 0; k < n; k++) {
+				final int a = (start + k) % n;
+				final int b = (a + 1) % n;
+				if (side[a] >= 0) {
+					run.add(vertices[a]);
+					runUVW.add(uvw == null ? null : uvw[a]);
+					inFront |= side[a] > 0;
+				}
+				if (side[a] * side[b] == -1) {
+					final int m = split(vertices[a], vertices[b], d[a], d[b], i, splits, splitPoints);
+					HE_TextureCoordinate t = null;
+					if (uvw != null && uvw[a] != null && uvw[b] != null) {
+						t = new HE_TextureCoordinate(d[b] / (d[b] - d[a]), uvw[a], uvw[b]);
+					}
+					if (side[a] < 0) {
+						run.resetQuick();
+						runUVW.clear();
+						inFront = false;
+					}
+					run.add(m);
+					runUVW.add(t);
+				}
+				if (side[a] >= 0 && side[b] < 0) {
+					if (inFront && run.size() > 2) {
+						chains.add(run.toArray());
+						chainUVW.add(runUVW.toArray(new HE_TextureCoordinate[runUVW.size()]));
+					}
+				} else if (side[a] < 0 && side[b] == 0) {
+					run.resetQuick();
+					runUVW.clear();
+					inFront = false;
+				}
+			}
+			final int[] next = chains.size() > 1 ? getNextChains(i, vertices, chains) : null;
+			if (next == null) {
+				for (int c = 0; c < chains.size(); c++) {
+					addClippedFace(f, chains.get(c), uvw == null ? null : chainUVW.get(c), created);
+				}
+				return;
+			}
+			final boolean[] used = new boolean[chains.size()];
+			for (int c = 0; c < chains.size(); c++) {
+				if (used[c]) {
+					continue;
+				}
+				run.resetQuick();
+				runUVW.clear();
+				int current = c;
+				do {
+					used[current] = true;
+					run.add(chains.get(current));
+					runUVW.addAll(Arrays.asList(chainUVW.get(current)));
+					current = next[current];
+				} while (!used[current]);
+				addClippedFace(f, run.toArray(),
+						uvw == null ? null : runUVW.toArray(new HE_TextureCoordinate[runUVW.size()]), created);
+			}
+		}
+
+		/**
+		 * Add a part of face f. Edges of f that lie on one line can cross the
+		 * plane in the same vertex, the repeats are left out.
+		 *
+		 * @param f
+		 * @param vertices
+		 * @param uvw
+		 * @param created
+		 */
+		void addClippedFace(final int f, final int[] vertices, final HE_TextureCoordinate[] uvw,
+				final TIntArrayList created) {
+			final int n = vertices.length;
+			int m = 0;
+			for (int j = 0; j < n; j++) {
+				if (vertices[j] != vertices[(j + 1) % n]) {
+					vertices[m] = vertices[j];
+					if (uvw != null) {
+						uvw[m] = uvw[j];
+					}
+					m++;
+				}
+			}
+			if (m < 3) {
+				return;
+			}
+			created.add(addFace(m == n ? vertices : Arrays.copyOf(vertices, m),
+					uvw == null || m == n ? uvw : Arrays.copyOf(uvw, m), faceSource[f], faceLabel[f]));
+		}
+
+		/**
+		 * Pair the chains of a face cut by plane i. The boundary of each part
+		 * follows the cut line from the end of a chain to the start of the
+		 * chain next in the direction of the plane normal crossed with the
+		 * face normal.
+		 *
+		 * @param i
+		 * @param vertices
+		 *            vertices of the face
+		 * @param chains
+		 * @return for each chain the chain that follows it, null if the ends
+		 *         of the chains do not alternate along the cut line
+		 */
+		int[] getNextChains(final int i, final int[] vertices, final List<int[]> chains) {
+			final int n = vertices.length;
+			double nx = 0;
+			double ny = 0;
+			double nz = 0;
+			for (int j = 0; j < n; j++) {
+				final int a = 3 * vertices[j];
+				final int b = 3 * vertices[(j + 1) % n];
+				nx += (positions[a + 1] - positions[b + 1]) * (positions[a + 2] + positions[b + 2]);
+				ny += (positions[a + 2] - positions[b + 2]) * (positions[a] + positions[b]);
+				nz += (positions[a] - positions[b]) * (positions[a + 1] + positions[b + 1]);
+			}
+			final double dx = cutPlanes[4 * i + 1] * nz - cutPlanes[4 * i + 2] * ny;
+			final double dy = cutPlanes[4 * i + 2] * nx - cutPlanes[4 * i] * nz;
+			final double dz = cutPlanes[4 * i] * ny - cutPlanes[4 * i + 1] * nx;
+			final int m = chains.size();
+			// ends of the chains as 2*chain for the end, 2*chain+1 for the start
+			final Integer[] ends = new Integer[2 * m];
+			final double[] t = new double[2 * m];
+			for (int c = 0; c < m; c++) {
+				final int[] chain = chains.get(c);
+				ends[2 * c] = 2 * c;
+				ends[2 * c + 1] = 2 * c + 1;
+				final int last = 3 * chain[chain.length - 1];
+				final int first = 3 * chain[0];
+				t[2 * c] = dx * positions[last] + dy * positions[last + 1] + dz * positions[last + 2];
+				t[2 * c + 1] = dx * positions[first] + dy * positions[first + 1] + dz * positions[first + 2];
+			}
+			Arrays.sort(ends, new Comparator<Integer>() {
+				@Override
+				public int compare(final Integer a, final Integer b) {
+					final int result = Double.compare(t[a], t[b]);
+					return result == 0 ? a - b : result;
+				}
+			});
+			final int[] next = new int[m];
+			for (int k = 0; k < 2 * m; k += 2) {
+				if ((ends[k] & 1) != 0 || (ends[k + 1] & 1) == 0) {
+					return null;
+				}
+				next[ends[k] >> 1] = ends[k + 1] >> 1;
+			}
+			return next;
+		}
+
+		/**
+		 *
+		 *
+		 * @param a
+		 * @param b
+		 * @param da
+		 * @param db
+		 * @param i
+		 * @param splits
+		 * @param splitPoints
+		 * @return vertex where edge ab crosses plane i
+		 */
+		int split(final int a, final int b, final double da, final double db, final int i,
+				final TLongIntHashMap splits, final WB_KDTree<WB_Point, Integer> splitPoints) {
+			final long key = a < b ? getEdgeKey(a, b) : getEdgeKey(b, a);
+			int m = splits.get(key);
+			if (m == -1) {
+				// Interpolate from the lowest index, both faces of the edge
+				// get the same point.
+				final int p = Math.min(a, b);
+				final int q = Math.max(a, b);
+				final double u = p == a ? da / (da - db) : db / (db - da);
+				final WB_Point point = new WB_Point(positions[3 * p] + u * (positions[3 * q] - positions[3 * p]),
+						positions[3 * p + 1] + u * (positions[3 * q + 1] - positions[3 * p + 1]),
+						positions[3 * p + 2] + u * (positions[3 * q + 2] - positions[3 * p + 2]));
+				// Edges on one line, left by earlier cuts, cross the plane in
+				// the same point.
+				final WB_KDEntry<WB_Point, Integer> nearest = splitPoints.getNearestNeighbor(point);
+				if (nearest == null || nearest.d2 > WB_Epsilon.SQEPSILON) {
+					m = addVertex(point.xd(), point.yd(), point.zd(), i + 1);
+					splitPoints.add(point, m);
+				} else {
+					m = nearest.value;
+				}
+				splits.put(key, m);
+			}
+			return m;
+		}
+
+		/**
+		 * Close the holes left by plane i. The open edges are the edges of the
+		 * new faces and the edges opposite to the removed faces that have no
+		 * opposite edge anymore.
+		 *
+		 * @param i
+		 * @param removed
+		 * @param created
+		 */
+		void cap(final int i, final TIntArrayList removed, final TIntArrayList created) {
+			final TLongHashSet found = new TLongHashSet();
+			final TIntArrayList from = new TIntArrayList();
+			final TIntArrayList to = new TIntArrayList();
+			for (int c = 0; c < created.size(); c++) {
+				final int[] vertices = faceVertices[created.get(c)];
+				final int n = vertices.length;
+				for (int j = 0; j < n; j++) {
+					addCapEdge(i, vertices[j], vertices[(j + 1) % n], found, from, to);
+				}
+			}
+			for (int r = 0; r < removed.size(); r += 2) {
+				addCapEdge(i, removed.get(r + 1), removed.get(r), found, from, to);
+			}
+			final int n = from.size();
+			if (n == 0) {
+				return;
+			}
+			final TIntObjectMap<TIntArrayList> outgoing = new TIntObjectHashMap<TIntArrayList>();
+			for (int e = 0; e < n; e++) {
+				TIntArrayList list = outgoing.get(from.get(e));
+				if (list == null) {
+					list = new TIntArrayList(2);
+					outgoing.put(from.get(e), list);
+				}
+				list.add(e);
+			}
+			// Each connected set of edges is walked as one loop, like
+			// HEM_CapHoles a loop can touch itself in a vertex.
+			final boolean[] used = new boolean[n];
+			final List<int[]> loops = new ArrayList<int[]>();
+			final TIntArrayList stack = new TIntArrayList();
+			final TIntArrayList loop = new TIntArrayList();
+			for (int e = 0; e < n; e++) {
+				if (used[e]) {
+					continue;
+				}
+				stack.resetQuick();
+				loop.resetQuick();
+				stack.add(from.get(e));
+				while (!stack.isEmpty()) {
+					final int v = stack.get(stack.size() - 1);
+					final int next = getUnused(outgoing.get(v), used);
+					if (next == -1) {
+						loop.add(stack.removeAt(stack.size() - 1));
+					} else {
+						used[next] = true;
+						stack.add(to.get(next));
+					}
+				}
+				// the walk is recorded backwards and ends where it started
+				if (loop.size() > 3 && loop.get(0) == loop.get(loop.size() - 1)) {
+					loop.removeAt(loop.size() - 1);
+					loop.reverse();
+					loops.add(loop.toArray());
+				}
+			}
+			if (simpleCap || loops.size() == 1) {
+				for (final int[] vertices : loops) {
+					addFace(vertices, null, null, cutLabels[i]);
+				}
+			} else if (loops.size() > 1) {
+				triangulateCaps(i, loops);
+			}
+		}
+
+		/**
+		 * Edge ab is open if it belongs to a face and ba doesn't. The cap gets
+		 * edge ba.
+		 *
+		 * @param i
+		 * @param a
+		 * @param b
+		 * @param found
+		 * @param from
+		 * @param to
+		 */
+		void addCapEdge(final int i, final int a, final int b, final TLongHashSet found, final TIntArrayList from,
+				final TIntArrayList to) {
+			final long key = getEdgeKey(a, b);
+			if (edges.containsKey(key) && !edges.containsKey(getEdgeKey(b, a)) && found.add(key)
+					&& Math.abs(getDistance(i, a)) <= WB_Epsilon.EPSILON
+					&& Math.abs(getDistance(i, b)) <= WB_Epsilon.EPSILON) {
+				from.add(b);
+				to.add(a);
+			}
+		}
+
+		/**
+		 *
+		 *
+		 * @param edges
+		 * @param used
+		 * @return first unused edge in the list, -1 if none
+		 */
+		int getUnused(final TIntArrayList edges, final boolean[] used) {
+			if (edges != null) {
+				for (int k = 0; k < edges.size(); k++) {
+					if (!used[edges.get(k)]) {
+						return edges.get(k);
+					}
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Cap several loops in plane i at once, inner loops are holes. If the
+		 * triangles don't close the loops, each loop gets its own face.
+		 *
+		 * @param i
+		 * @param loops
+		 */
+		void triangulateCaps(final int i, final List<int[]> loops) {
+			final int[] triangles = getTriangles(loops, cutPlanes[4 * i], cutPlanes[4 * i + 1], cutPlanes[4 * i + 2],
+					cutPlanes[4 * i + 3], false);
+			if (triangles == null) {
+				for (final int[] vertices : loops) {
+					addFace(vertices, null, null, cutLabels[i]);
+				}
+				return;
+			}
+			for (int t = 0; t < triangles.length; t += 3) {
+				addFace(new int[] { triangles[t], triangles[t + 1], triangles[t + 2] }, null, null, cutLabels[i]);
+			}
+		}
+
+		/**
+		 * Triangulate the caps, the faces that touch themselves in a vertex and
+		 * the faces without area. HE_Face.getTriangles() can't handle the
+		 * latter two, the other faces are left to
+		 * HE_Mesh.triangulateConcaveFaces().
+		 */
+		void triangulateFaces() {
+			tracker.setStatus(HEM_MultiSlice.this, "Triangulating caps.", 0);
+			final TIntArrayList removed = new TIntArrayList();
+			final int end = numberOfFaces;
+			for (int f = numberOfOriginalFaces; f < end; f++) {
+				final int[] vertices = faceVertices[f];
+				final int n = vertices.length;
+				if (!alive[f] || n < 4) {
+					continue;
+				}
+				final boolean repeated = hasRepeatedVertex(vertices);
+				double nx = 0;
+				double ny = 0;
+				double nz = 0;
+				for (int j = 0; j < n; j++) {
+					final int a = 3 * vertices[j];
+					final int b = 3 * vertices[(j + 1) % n];
+					nx += (positions[a + 1] - positions[b + 1]) * (positions[a + 2] + positions[b + 2]);
+					ny += (positions[a + 2] - positions[b + 2]) * (positions[a] + positions[b]);
+					nz += (positions[a] - positions[b]) * (positions[a + 1] + positions[b + 1]);
+				}
+				final double l = Math.sqrt(nx * nx + ny * ny + nz * nz);
+				final int[] triangles;
+				if (l <= WB_Epsilon.EPSILON) {
+					if (repeated) {
+						continue;
+					}
+					// a face without area, a fan keeps the edges
+					triangles = new int[3 * (n - 2)];
+					for (int j = 1; j < n - 1; j++) {
+						triangles[3 * j - 3] = vertices[0];
+						triangles[3 * j - 2] = vertices[j];
+						triangles[3 * j - 1] = vertices[j + 1];
+					}
+				} else {
+					if (faceSource[f] != null && !repeated) {
+						continue;
+					}
+					final int p = 3 * vertices[0];
+					final List<int[]> loops = new ArrayList<int[]>();
+					loops.add(vertices);
+					triangles = getTriangles(loops, nx / l, ny / l, nz / l,
+							(nx * positions[p] + ny * positions[p + 1] + nz * positions[p + 2]) / l, true);
+					if (triangles == null) {
+						continue;
+					}
+				}
+				final HE_TextureCoordinate[] uvw = faceUVW[f];
+				final TIntIntHashMap corners = new TIntIntHashMap();
+				for (int j = 0; j < n; j++) {
+					corners.putIfAbsent(vertices[j], j);
+				}
+				removeFace(f, removed);
+				for (int t = 0; t < triangles.length; t += 3) {
+					final int[] triangle = new int[] { triangles[t], triangles[t + 1], triangles[t + 2] };
+					HE_TextureCoordinate[] triangleUVW = null;
+					if (uvw != null) {
+						triangleUVW = new HE_TextureCoordinate[3];
+						for (int j = 0; j < 3; j++) {
+							triangleUVW[j] = uvw[corners.get(triangle[j])];
+						}
+					}
+					addFace(triangle, triangleUVW, faceSource[f], faceLabel[f]);
+				}
+			}
+		}
+
+		/**
+		 *
+		 *
+		 * @param vertices
+		 * @return true if a vertex occurs more than once
+		 */
+		boolean hasRepeatedVertex(final int[] vertices) {
+			final TIntHashSet set = new TIntHashSet(2 * vertices.length);
+			for (final int v : vertices) {
+				if (!set.add(v)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Triangulate loops of vertices in the plane n.p=d. Loops that touch
+		 * themselves in a vertex are split in simple loops first, loops inside
+		 * other loops are holes. The result is checked: every edge of the
+		 * loops is used once by the triangles, in the same direction, and
+		 * every other edge is shared by two triangles.
+		 *
+		 * @param loops
+		 * @param nx
+		 * @param ny
+		 * @param nz
+		 * @param d
+		 * @param counterclockwise
+		 *            true if the triangles turn counterclockwise around the
+		 *            normal
+		 * @return vertex indices of the triangles, null if they don't fill the
+		 *         loops exactly
+		 */
+		int[] getTriangles(final List<int[]> loops, final double nx, final double ny, final double nz,
+				final double d, final boolean counterclockwise) {
+			final List<WB_Coord[]> points = new ArrayList<WB_Coord[]>();
+			final TIntArrayList indices = new TIntArrayList();
+			for (final int[] loop : getSimpleLoops(loops)) {
+				final WB_Coord[] coords = new WB_Coord[loop.length];
+				for (int j = 0; j < loop.length; j++) {
+					coords[j] = new WB_Point(positions[3 * loop[j]], positions[3 * loop[j] + 1],
+							positions[3 * loop[j] + 2]);
+					indices.add(loop[j]);
+				}
+				points.add(coords);
+			}
+			if (points.isEmpty()) {
+				return null;
+			}
+			// the triangulator only fills loops that turn clockwise around the
+			// plane normal, try both sides of the plane
+			int[] triangles = getTriangles(loops, points, indices, nx, ny, nz, d, counterclockwise);
+			if (triangles == null) {
+				triangles = getTriangles(loops, points, indices, -nx, -ny, -nz, -d, !counterclockwise);
+			}
+			return triangles;
+		}
+
+		/**
+		 *
+		 *
+		 * @param loops
+		 * @param points
+		 *            the simple loops
+		 * @param indices
+		 *            vertex indices of the points
+		 * @param nx
+		 * @param ny
+		 * @param nz
+		 * @param d
+		 * @param counterclockwise
+		 * @return vertex indices of the triangles, null if they don't fill the
+		 *         loops exactly
+		 */
+		int[] getTriangles(final List<int[]> loops, final List<WB_Coord[]> points, final TIntArrayList indices,
+				final double nx, final double ny, final double nz, final double d, final boolean counterclockwise) {
+			final int[] triangles;
+			try {
+				triangles = HET_PlanarPathTriangulator.getTriangles(points,
+						new WB_Plane(new WB_Vector(nx, ny, nz), d));
+			} catch (final RuntimeException e) {
+				return null;
+			}
+			if (triangles.length == 0) {
+				return null;
+			}
+			final TLongIntHashMap count = new TLongIntHashMap();
+			for (int t = 0; t < triangles.length; t += 3) {
+				final int a = indices.get(triangles[t]);
+				int b = indices.get(triangles[t + 1]);
+				int c = indices.get(triangles[t + 2]);
+				if (a == b || b == c || c == a) {
+					return null;
+				}
+				final double abx = positions[3 * b] - positions[3 * a];
+				final double aby = positions[3 * b + 1] - positions[3 * a + 1];
+				final double abz = positions[3 * b + 2] - positions[3 * a + 2];
+				final double acx = positions[3 * c] - positions[3 * a];
+				final double acy = positions[3 * c + 1] - positions[3 * a + 1];
+				final double acz = positions[3 * c + 2] - positions[3 * a + 2];
+				final double dot = (aby * acz - abz * acy) * nx + (abz * acx - abx * acz) * ny
+						+ (abx * acy - aby * acx) * nz;
+				if (dot > 0 != counterclockwise) {
+					final int tmp = b;
+					b = c;
+					c = tmp;
+				}
+				triangles[t] = a;
+				triangles[t + 1] = b;
+				triangles[t + 2] = c;
+				count.adjustOrPutValue(getEdgeKey(a, b), 1, 1);
+				count.adjustOrPutValue(getEdgeKey(b, c), 1, 1);
+				count.adjustOrPutValue(getEdgeKey(c, a), 1, 1);
+			}
+			for (final int[] loop : loops) {
+				for (int j = 0; j < loop.length; j++) {
+					if (count.adjustOrPutValue(getEdgeKey(loop[j], loop[(j + 1) % loop.length]), -1, -1) < 0) {
+						return null;
+					}
+				}
+			}
+			for (int t = 0; t < triangles.length; t++) {
+				final int a = triangles[t];
+				final int b = triangles[t % 3 == 2 ? t - 2 : t + 1];
+				final int k = count.get(getEdgeKey(a, b));
+				if (k > 1 || k == 1 && count.get(getEdgeKey(b, a)) != 1) {
+					return null;
+				}
+			}
+			return triangles;
+		}
+
+		/**
+		 *
+		 *
+		 * @param loops
+		 * @return the loops split in loops without repeated vertices, parts
+		 *         with less than three vertices are dropped
+		 */
+		List<int[]> getSimpleLoops(final List<int[]> loops) {
+			final List<int[]> result = new ArrayList<int[]>();
+			final TIntArrayList stack = new TIntArrayList();
+			final TIntIntHashMap position = new TIntIntHashMap(16, 0.5f, -1, -1);
+			for (final int[] loop : loops) {
+				stack.resetQuick();
+				position.clear();
+				for (final int v : loop) {
+					final int p = position.get(v);
+					if (p == -1) {
+						position.put(v, stack.size());
+						stack.add(v);
+						continue;
+					}
+					if (stack.size() - p > 2) {
+						result.add(stack.toArray(p, stack.size() - p));
+					}
+					for (int j = stack.size() - 1; j > p; j--) {
+						position.remove(stack.removeAt(j));
+					}
+				}
+				if (stack.size() > 2) {
+					result.add(stack.toArray());
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Replace the removed faces of the mesh by the new faces.
+		 */
+		void update() {
+			tracker.setStatus(HEM_MultiSlice.this, "Updating mesh.", 0);
+			final List<HE_Halfedge> removedHalfedges = new FastTable<HE_Halfedge>();
+			final List<HE_Halfedge> pairs = new FastTable<HE_Halfedge>();
+			final TIntArrayList touched = new TIntArrayList();
+			HE_Halfedge he;
+			for (int f = 0; f < numberOfOriginalFaces; f++) {
+				if (!alive[f]) {
+					final HE_Face face = faceSource[f];
+					he = face.getHalfedge();
+					do {
+						if (he.getPair() != null) {
+							pairs.add(he.getPair());
+							mesh.clearPair(he);
+						}
+						removedHalfedges.add(he);
+						he = he.getNextInFace();
+					} while (he != face.getHalfedge());
+					mesh.remove(face);
+					touched.addAll(faceVertices[f]);
+				}
+			}
+			for (final HE_Halfedge rhe : removedHalfedges) {
+				mesh.remove(rhe);
+			}
+			final List<HE_Halfedge> unpaired = new FastTable<HE_Halfedge>();
+			for (final HE_Halfedge phe : pairs) {
+				if (mesh.contains(phe)) {
+					if (phe.getFace() == null) {
+						mesh.remove(phe);
+					} else {
+						unpaired.add(phe);
+					}
+				}
+			}
+			final HE_Vertex[] vertices = Arrays.copyOf(originalVertices, numberOfVertices);
+			for (int v = numberOfOriginalVertices; v < numberOfVertices; v++) {
+				if (isUsed(v)) {
+					vertices[v] = new HE_Vertex(positions[3 * v], positions[3 * v + 1], positions[3 * v + 2]);
+					mesh.add(vertices[v]);
+				}
+			}
+			for (int f = numberOfOriginalFaces; f < numberOfFaces; f++) {
+				if (!alive[f]) {
+					continue;
+				}
+				final HE_Face face = new HE_Face();
+				if (faceSource[f] == null) {
+					face.setInternalLabel(faceLabel[f]);
+				} else {
+					face.copyProperties(faceSource[f]);
+				}
+				final int[] fv = faceVertices[f];
+				final HE_TextureCoordinate[] uvw = faceUVW[f];
+				final int n = fv.length;
+				final HE_Halfedge[] halfedges = new HE_Halfedge[n];
+				for (int j = 0; j < n; j++) {
+					halfedges[j] = new HE_Halfedge();
+					mesh.setVertex(halfedges[j], vertices[fv[j]]);
+					mesh.setHalfedge(vertices[fv[j]], halfedges[j]);
+					mesh.setFace(halfedges[j], face);
+					if (uvw != null && uvw[j] != null) {
+						halfedges[j].setUVW(uvw[j]);
+					}
+				}
+				for (int j = 0; j < n; j++) {
+					mesh.setNext(halfedges[j], halfedges[(j + 1) % n]);
+				}
+				mesh.setHalfedge(face, halfedges[0]);
+				mesh.add(face);
+				for (final HE_Halfedge nhe : halfedges) {
+					mesh.add(nhe);
+					unpaired.add(nhe);
+				}
+			}
+			for (int t = 0; t < touched.size(); t++) {
+				final int v = touched.get(t);
+				final HE_Vertex vertex = originalVertices[v];
+				if (!isUsed(v)) {
+					if (mesh.contains(vertex)) {
+						mesh.remove(vertex);
+					}
+				} else if (vertex.getHalfedge() == null || !mesh.contains(vertex.getHalfedge())) {
+					mesh.setHalfedge(vertex, getHalfedge(v));
+				}
+			}
+			mesh.pairHalfedges(unpaired);
+			if (open) {
+				mesh.cleanUnusedElementsByFace();
+				mesh.capHalfedges();
+			} else if (!mesh.getUnpairedHalfedges().isEmpty()) {
+				mesh.capHalfedges();
+			}
+		}
+
+		/**
+		 *
+		 *
+		 * @param v
+		 * @return outgoing halfedge of an original vertex in an original face
+		 */
+		HE_Halfedge getHalfedge(final int v) {
+			for (int e = entryHead[v]; e != -1; e = entryNext[e]) {
+				final int f = entryFace[e];
+				if (alive[f] && f < numberOfOriginalFaces) {
+					HE_Halfedge he = faceSource[f].getHalfedge();
+					do {
+						if (he.getVertex() == originalVertices[v]) {
+							return he;
+						}
+						he = he.getNextInFace();
+					} while (he != faceSource[f].getHalfedge());
+				}
+			}
+			return null;
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
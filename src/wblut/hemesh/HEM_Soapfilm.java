@@ -74,29 +74,19 @@ public class HEM_Soapfilm extends HEM_Modifier {
 		if (autoRescale) {
 			box = mesh.getAABB();
 		}
-		final TLongObjectMap<WB_Coord> newPositions = new TLongObjectHashMap<WB_Coord>(10, 0.5f, 0L);
 		if (iter < 1) {
 			iter = 1;
 		}
+		final HE_VertexAdjacency adjacency = new HE_VertexAdjacency(mesh);
+		double[] positions = adjacency.getPositions();
+		double[] newPositions = new double[positions.length];
 		for (int r = 0; r < iter; r++) {
-			Iterator<HE_Vertex> vItr = mesh.vItr();
-			HE_Vertex v;
-			final HE_Selection sel = HE_Selection.selectAllFaces(mesh);
-			final List<HE_Vertex> outer = sel.getOuterVertices();
-			while (vItr.hasNext()) {
-				v = vItr.next();
-				if (outer.contains(v)) {
-					newPositions.put(v.getKey(), v);
-				} else {
-					newPositions.put(v.getKey(), minDirichletEnergy(v));
-				}
-			}
-			vItr = mesh.vItr();
-			while (vItr.hasNext()) {
-				v = vItr.next();
-				v.set(newPositions.get(v.getKey()));
-			}
+			adjacency.cotanAverage(positions, newPositions);
+			final double[] tmp = positions;
+			positions = newPositions;
+			newPositions = tmp;
 		}
+		adjacency.setPositions(mesh, positions);
 		if (autoRescale) {
 			mesh.fitInAABB(box);
 		}
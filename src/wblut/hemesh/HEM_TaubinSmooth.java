@@ -118,44 +118,22 @@ public class HEM_TaubinSmooth extends HEM_Modifier {
 		if (autoRescale) {
 			box = mesh.getAABB();
 		}
-		final WB_Coord[] newPositions = new WB_Coord[mesh.getNumberOfVertices()];
 		if (iter < 1) {
 			iter = 1;
 		}
-		WB_ProgressCounter counter = new WB_ProgressCounter(iter * mesh.getNumberOfVertices(), 10);
-
+		final HE_VertexAdjacency adjacency = new HE_VertexAdjacency(mesh);
+		double[] positions = adjacency.getPositions();
+		double[] newPositions = new double[positions.length];
+		final WB_ProgressCounter counter = new WB_ProgressCounter(iter, 10);
 		tracker.setStatus(this, "Smoothing vertices.", counter);
 		for (int r = 0; r < iter; r++) {
-			double f = r % 2 == 0 ? lambda : mu;
-			Iterator<HE_Vertex> vItr = mesh.vItr();
-			HE_Vertex v;
-			List<HE_Vertex> neighbors;
-			int id = 0;
-			WB_Point p;
-
-			while (vItr.hasNext()) {
-				v = vItr.next();
-				if (v.isBoundary() && keepBoundary) {
-					newPositions[id] = v;
-				} else {
-					p = new WB_Point(v).mulSelf(1.0 - f);
-					neighbors = v.getNeighborVertices();
-
-					for (int i = 0; i < neighbors.size(); i++) {
-						p.addMulSelf(f / neighbors.size(), neighbors.get(i));
-					}
-					newPositions[id] = p;
-				}
-				id++;
-			}
-			vItr = mesh.vItr();
-			id = 0;
-			while (vItr.hasNext()) {
-				vItr.next().set(newPositions[id]);
-				id++;
-				counter.increment();
-			}
+			adjacency.laplacian(positions, newPositions, r % 2 == 0 ? lambda : mu, keepBoundary);
+			final double[] tmp = positions;
+			positions = newPositions;
+			newPositions = tmp;
+			counter.increment();
 		}
+		adjacency.setPositions(mesh, positions);
 
 		if (autoRescale) {
 			mesh.fitInAABB(box);
@@ -13,13 +13,10 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 
 import javolution.util.FastTable;
+import wblut.core.WB_Parallel;
+import wblut.core.WB_Parallel.WB_RangeFunction;
 import wblut.core.WB_ProgressCounter;
 
 /**
@@ -164,37 +161,8 @@ public class HEM_TriangulateMT extends HEM_Modifier {
 	private List<int[]> triangulate(final List<HE_Face> faces){
 
 		List<int[]> tris=new FastTable<int[]>();
-		try {
-			int threadCount = Runtime.getRuntime().availableProcessors();
-			int dfaces = faces.size() / threadCount;
-			if(dfaces<1024){
-				dfaces=1024;
-				threadCount=(int)Math.ceil(faces.size()/1024.0);
-
-			}
-			final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
-			final List<Future<ArrayList<int[]>>>  list=new ArrayList<Future<ArrayList<int[]>>>();
-			int i = 0;
-			for (i = 0; i < (threadCount - 1); i++) {
-				final Callable<ArrayList<int[]>> runner = new TriangulateRunner(dfaces * i, (dfaces * (i + 1)) - 1,i,faces);
-				list.add(executor.submit(runner));
-			}
-			final Callable<ArrayList<int[]>> runner = new TriangulateRunner(dfaces * i, faces.size() - 1,i,faces);
-			list.add(executor.submit(runner));
-
-
-			for (Future<ArrayList<int[]>> future : list) {
-				tris.addAll(future.get());
-			}
-
-
-
-			executor.shutdown();
-
-		}catch(final InterruptedException ex) {
-			ex.printStackTrace();
-		} catch(final ExecutionException ex) {
-			ex.printStackTrace();
+		for (ArrayList<int[]> chunk : WB_Parallel.map(0, faces.size(), 256, new TriangulateRunner(faces))) {
+			tris.addAll(chunk);
 		}
 		return tris;
 	}
@@ -202,37 +170,27 @@ public class HEM_TriangulateMT extends HEM_Modifier {
 	/**
 	 *
 	 */
-	class TriangulateRunner implements Callable<ArrayList<int[]>>{
-		int start;
-		int end;
-		int id;
-		int[] triangles;
+	class TriangulateRunner implements WB_RangeFunction<ArrayList<int[]>>{
 		List<HE_Face> faces;
 
 		/**
 		 *
 		 *
-		 * @param s
-		 * @param e
-		 * @param id
 		 * @param faces
 		 */
-		TriangulateRunner(final int s, final int e,final int id,final List<HE_Face> faces) {
-			start = s;
-			end = e;
-			this.id=id;
+		TriangulateRunner(final List<HE_Face> faces) {
 			this.faces=faces;
 		}
 
 
 		/* (non-Javadoc)
-		 * @see java.util.concurrent.Callable#call()
+		 * @see wblut.core.WB_Parallel.WB_RangeFunction#apply(int, int)
 		 */
 		@Override
-		public ArrayList<int[]> call() {
-			ArrayList<int[]> tris=new ArrayList<int[]>();
+		public ArrayList<int[]> apply(final int start, final int end) {
+			ArrayList<int[]> tris=new ArrayList<int[]>(end-start);
 			ListIterator<HE_Face> itr=faces.listIterator(start);
-			for (int i = start; i <= end; i++) {
+			for (int i = start; i < end; i++) {
 				tris.add(itr.next().getTriangles());
 
 			}
@@ -10,12 +10,16 @@
 package wblut.hemesh;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import javolution.util.FastMap;
-import wblut.core.WB_ProgressCounter;
+import wblut.core.WB_Parallel;
+import wblut.core.WB_Parallel.WB_RangeTask;
 import wblut.geom.WB_Coord;
 import wblut.geom.WB_GeometryFactory;
 import wblut.geom.WB_GeometryOp;
@@ -106,116 +110,340 @@ public class HES_CatmullClark extends HES_Subdividor {
 	 */
 	@Override
 	public HE_Mesh apply(final HE_Mesh mesh) {
-		tracker.setStatus(this, "Starting HES_CatmullClark", +1);
-		mesh.resetVertexInternalLabels();
-		final HashMap<Long, WB_Point> avgFC = new HashMap<Long, WB_Point>();
-		HE_Vertex v;
-		Iterator<HE_Vertex> vItr = mesh.vItr();
-		HE_Halfedge he;
-		WB_Point p;
-		WB_ProgressCounter counter = new WB_ProgressCounter(mesh.getNumberOfVertices(), 10);
-		tracker.setStatus(this, "Creating averaged face center points.", counter);
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			he = v.getHalfedge();
-			final WB_Point afc = new WB_Point();
-			int c = 0;
-			do {
-				if (he.getFace() != null) {
-					afc.addSelf(he.getFace().getFaceCenter());
-					c++;
-				}
-				he = he.getNextInVertex();
-			} while (he != v.getHalfedge());
-			afc.divSelf(c);
-			avgFC.put(v.key(), afc);
-			counter.increment();
-		}
-		HET_MeshOp.splitFacesQuad(mesh);
-		final FastMap<Long, WB_Coord> newPositions = new FastMap<Long, WB_Coord>();
-		final HE_Selection all = HE_Selection.selectAllFaces(mesh);
-		final List<HE_Vertex> boundary = all.getOuterVertices();
-		final List<HE_Vertex> inner = all.getInnerVertices();
-		counter = new WB_ProgressCounter(inner.size(), 10);
-		tracker.setStatus(this, "Creating new positions for inner vertices.", counter);
-		HE_Vertex n;
-		List<HE_Vertex> neighbors;
-		vItr = inner.iterator();
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			if (v.getInternalLabel() == -1) {
-				p = avgFC.get(v.key());
-				neighbors = v.getNeighborVertices();
-				final int order = neighbors.size();
-				final double io = 1.0 / order;
-				for (int i = 0; i < order; i++) {
-					n = neighbors.get(i);
-					p.addSelf(2.0 * io * n.xd(), 2.0 * io * n.yd(), 2.0 * io * n.zd());
-				}
-				p.addMulSelf(order - 3, v);
-				p.divSelf(order);
-				newPositions.put(v.key(),
-						gf.createInterpolatedPoint(v, p, blendFactor.evaluate(v.xd(), v.yd(), v.zd())));
+		tracker.setStatus(this, "Starting HES_CatmullClark.", +1);
+		final HE_CompactMesh source = new HE_CompactMesh(mesh);
+		final int nv = source.numberOfVertices;
+		final int nh = source.numberOfHalfedges;
+		final int nf = source.numberOfFaces;
+		final double[] positions = source.positions;
+		final int[] next = source.halfedgeNext;
+		final int[] pair = source.halfedgePair;
+		final int[] halfedgeVertex = source.halfedgeVertex;
+		final int[] halfedgeFace = source.halfedgeFace;
+		tracker.setStatus(this, "Indexing edges and corners.", 0);
+		// one edge point for every pair of halfedges
+		final int[] halfedgeEdge = new int[nh];
+		final int[] edgeHalfedge = new int[nh];
+		int numberOfEdges = 0;
+		for (int h = 0; h < nh; h++) {
+			final int p = pair[h];
+			if (p < 0 || h < p) {
+				halfedgeEdge[h] = numberOfEdges;
+				edgeHalfedge[numberOfEdges++] = h;
 			} else {
-				p = new WB_Point();
-				neighbors = v.getNeighborVertices();
-				final int order = neighbors.size();
-				boolean edgePoint = false;
-				for (int i = 0; i < order; i++) {
-					n = neighbors.get(i);
-					p.addSelf(n);
-					if (n.getInternalLabel() == -1) {
-						edgePoint = true;
+				halfedgeEdge[h] = halfedgeEdge[p];
+			}
+		}
+		final int ne = numberOfEdges;
+		// every halfedge of a face is a corner, each corner becomes a quad
+		final int[] cornerOffsets = new int[nf + 1];
+		final int[] quadOffsets = new int[nf + 1];
+		for (int f = 0; f < nf; f++) {
+			final int order = source.getFaceOrder(f);
+			cornerOffsets[f + 1] = cornerOffsets[f] + order;
+			quadOffsets[f + 1] = quadOffsets[f] + Math.max(order - 1, 0);
+		}
+		final int nc = cornerOffsets[nf];
+		final int[] halfedgeCorner = new int[nh];
+		final int[] cornerQuad = new int[nc];
+		Arrays.fill(halfedgeCorner, -1);
+		final double[] centers = new double[3 * nf];
+		WB_Parallel.forRange(0, nf, 256, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int f = start; f < end; f++) {
+					final int first = source.faceHalfedge[f];
+					if (first < 0) {
+						continue;
 					}
+					int he = first;
+					int c = cornerOffsets[f];
+					double x = 0, y = 0, z = 0;
+					do {
+						final int v = 3 * halfedgeVertex[he];
+						x += positions[v];
+						y += positions[v + 1];
+						z += positions[v + 2];
+						// the first quad keeps the index of the face
+						cornerQuad[c] = c == cornerOffsets[f] ? f : nf + quadOffsets[f] + c - cornerOffsets[f] - 1;
+						halfedgeCorner[he] = c++;
+						he = next[he];
+					} while (he != first && he >= 0);
+					final int n = c - cornerOffsets[f];
+					centers[3 * f] = x / n;
+					centers[3 * f + 1] = y / n;
+					centers[3 * f + 2] = z / n;
 				}
-				p.divSelf(order);
-				if (edgePoint) {
-					newPositions.put(v.key(),
-							gf.createInterpolatedPoint(v, p, blendFactor.evaluate(v.xd(), v.yd(), v.zd())));
-				} else {
-					newPositions.put(v.key(), v);
+			}
+		});
+		final HE_CompactMesh result = new HE_CompactMesh(nv + ne + nf, 2 * nh + 2 * nc, nf + quadOffsets[nf]);
+		tracker.setStatus(this, "Creating refined topology.", 0);
+		// halfedge h is split into h and nh+h, corner c adds the inner
+		// halfedges 2nh+2c (edge point to face point) and 2nh+2c+1 (face point
+		// to edge point)
+		WB_Parallel.forRange(0, nh, 1024, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int h = start; h < end; h++) {
+					final int p = pair[h];
+					final int b = nh + h;
+					final int edgePoint = nv + halfedgeEdge[h];
+					result.halfedgeVertex[h] = halfedgeVertex[h];
+					result.halfedgeVertex[b] = edgePoint;
+					result.halfedgePair[h] = p < 0 ? -1 : nh + p;
+					result.halfedgePair[b] = p;
+					result.halfedgeNext[b] = next[h];
+					result.halfedgeLabels[h] = result.halfedgeLabels[b] = source.halfedgeLabels[h];
+					result.halfedgeColors[h] = result.halfedgeColors[b] = source.halfedgeColors[h];
+					final int c = halfedgeCorner[h];
+					if (c < 0) {
+						result.halfedgeNext[h] = b;
+						continue;
+					}
+					final int f = halfedgeFace[h];
+					final int cn = halfedgeCorner[next[h]];
+					final int in = 2 * nh + 2 * c;
+					final int out = in + 1;
+					final int outNext = 2 * nh + 2 * cn + 1;
+					final int quad = cornerQuad[c];
+					result.halfedgeNext[h] = in;
+					result.halfedgeNext[in] = out;
+					result.halfedgeNext[outNext] = b;
+					result.halfedgeVertex[in] = edgePoint;
+					result.halfedgeVertex[out] = nv + ne + f;
+					result.halfedgePair[in] = outNext;
+					result.halfedgePair[outNext] = in;
+					result.halfedgeFace[h] = result.halfedgeFace[in] = result.halfedgeFace[out] = quad;
+					result.halfedgeFace[b] = cornerQuad[cn];
+					result.faceHalfedge[quad] = h;
+					result.faceLabels[quad] = source.faceLabels[f];
+					result.faceColors[quad] = source.faceColors[f];
+					result.faceTextureIds[quad] = source.faceTextureIds[f];
 				}
 			}
-			counter.increment();
+		});
+		final long edgeLabels = 1L << 32 | 0xffffffffL;
+		final long faceLabels = 2L << 32 | 0xffffffffL;
+		for (int v = 0; v < nv; v++) {
+			result.vertexHalfedge[v] = source.vertexHalfedge[v];
+			result.vertexLabels[v] = -1L << 32 | source.vertexLabels[v] & 0xffffffffL;
+			result.vertexColors[v] = source.vertexColors[v];
 		}
-		counter = new WB_ProgressCounter(boundary.size(), 10);
-		tracker.setStatus(this, "Creating new positions for boundary vertices.", counter);
-		vItr = boundary.iterator();
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			if (keepBoundary) {
-				newPositions.put(v.key(), v);
-			} else {
-				p = new WB_Point(v);
-				neighbors = v.getNeighborVertices();
-				double c = 1;
-				int nc = 0;
-				for (int i = 0; i < neighbors.size(); i++) {
-					n = neighbors.get(i);
-					if (boundary.contains(n)) {
-						p.addSelf(n);
-						nc++;
-						c++;
+		for (int e = 0; e < ne; e++) {
+			result.vertexHalfedge[nv + e] = nh + edgeHalfedge[e];
+			result.vertexLabels[nv + e] = edgeLabels;
+		}
+		for (int f = 0; f < nf; f++) {
+			result.vertexHalfedge[nv + ne + f] = cornerOffsets[f] < cornerOffsets[f + 1]
+					? 2 * nh + 2 * cornerOffsets[f] + 1 : -1;
+			result.vertexLabels[nv + ne + f] = faceLabels;
+		}
+		tracker.setStatus(this, "Creating new positions.", 0);
+		final double[] rpositions = result.positions;
+		System.arraycopy(centers, 0, rpositions, 3 * (nv + ne), 3 * nf);
+		final double[] midpoints = new double[3 * ne];
+		WB_Parallel.forRange(0, ne, 1024, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int e = start; e < end; e++) {
+					final int h = edgeHalfedge[e];
+					final int a = 3 * halfedgeVertex[h];
+					final int b = 3 * (pair[h] >= 0 ? halfedgeVertex[pair[h]] : halfedgeVertex[next[h]]);
+					midpoints[3 * e] = 0.5 * (positions[a] + positions[b]);
+					midpoints[3 * e + 1] = 0.5 * (positions[a + 1] + positions[b + 1]);
+					midpoints[3 * e + 2] = 0.5 * (positions[a + 2] + positions[b + 2]);
+				}
+			}
+		});
+		WB_Parallel.forRange(0, ne, 1024, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				final double[] p = new double[3];
+				for (int e = start; e < end; e++) {
+					final int h = edgeHalfedge[e];
+					final int ph = pair[h];
+					final int a = 3 * halfedgeVertex[h];
+					final int b = 3 * (ph >= 0 ? halfedgeVertex[ph] : halfedgeVertex[next[h]]);
+					final int m = 3 * e;
+					if (ph < 0 || halfedgeFace[h] < 0 || halfedgeFace[ph] < 0) {
+						if (keepBoundary) {
+							p[0] = midpoints[m];
+							p[1] = midpoints[m + 1];
+							p[2] = midpoints[m + 2];
+						} else {
+							for (int i = 0; i < 3; i++) {
+								p[i] = (midpoints[m + i] + positions[a + i] + positions[b + i]) / 3.0;
+							}
+						}
+					} else {
+						final int f0 = 3 * halfedgeFace[h];
+						final int f1 = 3 * halfedgeFace[ph];
+						for (int i = 0; i < 3; i++) {
+							p[i] = 0.25 * (positions[a + i] + positions[b + i] + centers[f0 + i] + centers[f1 + i]);
+						}
 					}
+					blend(midpoints, m, p, rpositions, 3 * (nv + e));
 				}
-				newPositions.put(v.key(), nc > 1 ? gf.createInterpolatedPoint(v, p.scaleSelf(1.0 / c),
-						blendFactor.evaluate(v.xd(), v.yd(), v.zd())) : v);
 			}
-			counter.increment();
+		});
+		WB_Parallel.forRange(0, nv, 1024, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				final double[] p = new double[3];
+				final double[] faceSum = new double[3];
+				final double[] edgeSum = new double[3];
+				final double[] boundarySum = new double[3];
+				for (int v = start; v < end; v++) {
+					final int first = source.vertexHalfedge[v];
+					if (first < 0 || keepBoundary && source.isBoundaryVertex(v)) {
+						System.arraycopy(positions, 3 * v, rpositions, 3 * v, 3);
+						continue;
+					}
+					Arrays.fill(faceSum, 0);
+					Arrays.fill(edgeSum, 0);
+					Arrays.fill(boundarySum, 0);
+					int order = 0;
+					int faces = 0;
+					int boundary = 0;
+					int he = first;
+					do {
+						final int m = 3 * halfedgeEdge[he];
+						final int f = halfedgeFace[he];
+						final int ph = pair[he];
+						order++;
+						for (int i = 0; i < 3; i++) {
+							edgeSum[i] += midpoints[m + i];
+						}
+						if (f >= 0) {
+							faces++;
+							for (int i = 0; i < 3; i++) {
+								faceSum[i] += centers[3 * f + i];
+							}
+						}
+						if (f < 0 || ph < 0 || halfedgeFace[ph] < 0) {
+							boundary++;
+							for (int i = 0; i < 3; i++) {
+								boundarySum[i] += midpoints[m + i];
+							}
+						}
+						he = ph < 0 ? -1 : next[ph];
+					} while (he != first && he >= 0);
+					final int vi = 3 * v;
+					if (boundary == 0) {
+						// (F + 2R + (n-3)P)/n
+						for (int i = 0; i < 3; i++) {
+							p[i] = (faceSum[i] / faces + 2.0 * edgeSum[i] / order + (order - 3) * positions[vi + i])
+									/ order;
+						}
+					} else if (boundary > 1) {
+						for (int i = 0; i < 3; i++) {
+							p[i] = (positions[vi + i] + boundarySum[i]) / (boundary + 1);
+						}
+					} else {
+						System.arraycopy(positions, vi, rpositions, vi, 3);
+						continue;
+					}
+					blend(positions, vi, p, rpositions, vi);
+				}
+			}
+		});
+		final HE_Mesh subdivided = result.toMesh();
+		copyTextureCoordinates(mesh, source, subdivided, halfedgeCorner, cornerQuad);
+		mesh.setNoCopy(subdivided);
+		tracker.setStatus(this, "Exiting HES_CatmullClark.", -1);
+		return mesh;
+	}
+
+	/**
+	 * Interpolate between an old position and a new position with the blend
+	 * factor evaluated at the old position.
+	 *
+	 * @param from
+	 * @param i
+	 * @param p
+	 * @param to
+	 * @param j
+	 */
+	private void blend(final double[] from, final int i, final double[] p, final double[] to, final int j) {
+		final double t = blendFactor.evaluate(from[i], from[i + 1], from[i + 2]);
+		to[j] = (1.0 - t) * from[i] + t * p[0];
+		to[j + 1] = (1.0 - t) * from[i + 1] + t * p[1];
+		to[j + 2] = (1.0 - t) * from[i + 2] + t * p[2];
+	}
+
+	/**
+	 * Carry vertex and halfedge texture coordinates over to the subdivided
+	 * mesh. New halfedges get the average of the halfedges they split, face
+	 * points the average of their face.
+	 *
+	 * @param mesh
+	 * @param source
+	 * @param subdivided
+	 * @param halfedgeCorner
+	 * @param cornerQuad
+	 */
+	private void copyTextureCoordinates(final HE_Mesh mesh, final HE_CompactMesh source, final HE_Mesh subdivided,
+			final int[] halfedgeCorner, final int[] cornerQuad) {
+		boolean hasTexture = false;
+		final HE_Vertex[] vertices = mesh.getVerticesAsArray();
+		for (int i = 0; i < vertices.length && !hasTexture; i++) {
+			hasTexture = vertices[i].hasVertexUVW();
 		}
-		tracker.setStatus(this, "Setting new positions.", 0);
-		vItr = inner.iterator();
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			v.set(newPositions.get(v.key()));
+		final HE_HalfedgeIterator heItr = mesh.heItr();
+		while (heItr.hasNext() && !hasTexture) {
+			hasTexture = heItr.next().hasHalfedgeUVW();
 		}
-		vItr = boundary.iterator();
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			v.set(newPositions.get(v.key()));
+		if (!hasTexture) {
+			return;
+		}
+		tracker.setStatus(this, "Copying texture coordinates.", 0);
+		for (int v = 0; v < vertices.length; v++) {
+			if (vertices[v].hasVertexUVW()) {
+				subdivided.getVertexWithIndex(v).setUVW(vertices[v].getVertexUVW());
+			}
+		}
+		final int offset = subdivided.getNumberOfVertices() - source.numberOfFaces;
+		for (int f = 0; f < source.numberOfFaces; f++) {
+			final HE_Face face = mesh.getFaceWithIndex(f);
+			final HE_Halfedge first = face.getHalfedge();
+			if (first == null) {
+				continue;
+			}
+			HE_Halfedge he = first;
+			boolean faceTexture = true;
+			double u = 0, v = 0, w = 0;
+			int n = 0;
+			do {
+				final HE_Halfedge prev = he.getPrevInFace();
+				final HE_Halfedge next = he.getNextInFace();
+				final HE_Halfedge a = subdivided.getFaceWithIndex(cornerQuad[halfedgeCorner[mesh.getIndex(he)]])
+						.getHalfedge();
+				final HE_Halfedge in = a.getNextInFace();
+				final HE_Halfedge bPrev = in.getNextInFace().getNextInFace();
+				if (he.hasHalfedgeUVW()) {
+					a.setUVW(he.getHalfedgeUVW());
+				}
+				if (he.hasUVW() && next.hasUVW()) {
+					in.setUVW(new HE_TextureCoordinate(0.5, he.getUVW(), next.getUVW()));
+				}
+				if (prev.hasUVW() && he.hasUVW()) {
+					bPrev.setUVW(new HE_TextureCoordinate(0.5, prev.getUVW(), he.getUVW()));
+				}
+				if (faceTexture && he.getVertex().hasUVW(face)) {
+					final HE_TextureCoordinate uvw = he.getVertex().getUVW(face);
+					u += uvw.ud();
+					v += uvw.vd();
+					w += uvw.wd();
+					n++;
+				} else {
+					faceTexture = false;
+				}
+				he = next;
+			} while (he != first);
+			if (faceTexture) {
+				subdivided.getVertexWithIndex(offset + f).setUVW(u / n, v / n, w / n);
+			}
 		}
-		tracker.setStatus(this, "Exiting HEM_CatmullClark.", -1);
-		return mesh;
 	}
 
 	/*
@@ -256,14 +484,16 @@ public class HES_CatmullClark extends HES_Subdividor {
 		final List<HE_Vertex> boundary = selection.getBoundaryVertices();
 		final List<HE_Vertex> outer = selection.getOuterVertices();
 		final List<HE_Vertex> inner = selection.getInnerVertices();
+		final Set<HE_Vertex> boundarySet = new HashSet<HE_Vertex>(boundary);
 		List<HE_Face> sharedFaces;
 		vItr = outer.iterator();
 		while (vItr.hasNext()) {
 			v = vItr.next();
-			if (boundary.contains(v)) {
+			if (boundarySet.contains(v)) {
 				vItr.remove();
 			}
 		}
+		final Set<HE_Vertex> outerSet = new HashSet<HE_Vertex>(outer);
 		HE_Vertex n;
 		List<HE_Vertex> neighbors;
 		vItr = inner.iterator();
@@ -315,7 +545,7 @@ public class HES_CatmullClark extends HES_Subdividor {
 				int nc = 0;
 				for (int i = 0; i < neighbors.size(); i++) {
 					n = neighbors.get(i);
-					if (boundary.contains(n) && selection.contains(n)) {
+					if (boundarySet.contains(n) && selection.contains(n)) {
 						p.addSelf(n);
 						nc++;
 						c++;
@@ -359,7 +589,7 @@ public class HES_CatmullClark extends HES_Subdividor {
 				int nc = 0;
 				for (int i = 0; i < neighbors.size(); i++) {
 					n = neighbors.get(i);
-					if (outer.contains(n)) {
+					if (outerSet.contains(n)) {
 						sharedFaces = selection.parent.getSharedFaces(v, n);
 						boolean singleFaceGap = true;
 						for (int j = 0; j < sharedFaces.size(); j++) {
@@ -0,0 +1,811 @@
+/*
+ * This file is part of HE_Mesh, a library for creating and manipulating meshes.
+ * It is dedicated to the public domain. To the extent possible under law,
+ * I , Frederik Vanhoutte, have waived all copyright and related or neighboring
+ * rights.
+ *
+ * This work is published from Belgium. (http://creativecommons.org/publicdomain/zero/1.0/)
+ *
+ */
+package wblut.hemesh;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import wblut.core.WB_IndexedHeap;
+import wblut.core.WB_ProgressCounter;
+
+/**
+ * Edge collapse simplification with quadric error metrics (Garland and
+ * Heckbert, 1997). The mesh is triangulated and converted to index arrays,
+ * all collapses are done on these arrays and the mesh is rebuilt once at the
+ * end. Quadrics are area weighted. Collapses are ordered in an indexed heap
+ * keyed by edge. A collapse is rejected if it violates the link condition,
+ * pinches the boundary or flips a triangle.
+ *
+ * Boundaries are either locked or kept in place by constraint quadrics.
+ * Edges with a dihedral angle above the feature angle get the same
+ * constraint quadrics.
+ *
+ * Vertex and face colors, labels and texture ids of the remaining elements
+ * are kept, halfedge data is lost.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class HES_QEM extends HES_Simplifier {
+	private static final double INF = Double.POSITIVE_INFINITY;
+	private int goal;
+	private double fraction;
+	private boolean preserveBoundary;
+	private double boundaryWeight;
+	private double featureAngle;
+	private int numberOfVertices;
+	private int liveVertices;
+	/** Vertex positions, x0,y0,z0,x1,... */
+	private double[] positions;
+	/**
+	 * Vertex quadrics, 10 values per vertex: a11, a12, a13, a22, a23, a33,
+	 * b1, b2, b3, c.
+	 */
+	private double[] quadrics;
+	/** Triangle vertices, -1 for removed triangles. */
+	private int[] triangles;
+	/** Edge vertices, -1 for removed edges. */
+	private int[] edges;
+	private boolean[] locked;
+	private boolean[] boundary;
+	private boolean[] removed;
+	private Adjacency vertexTriangles;
+	private Adjacency vertexEdges;
+	private int[] marks;
+	private int mark;
+	private int[] buffer;
+	private WB_IndexedHeap heap;
+	private final double[] q;
+	private final double[] target;
+
+	/**
+	 *
+	 */
+	public HES_QEM() {
+		goal = -1;
+		fraction = 0.5;
+		preserveBoundary = false;
+		boundaryWeight = 1000;
+		featureAngle = -1;
+		q = new double[10];
+		target = new double[3];
+	}
+
+	/**
+	 * Number of vertices to keep.
+	 *
+	 * @param r
+	 * @return
+	 */
+	public HES_QEM setGoal(final int r) {
+		goal = r;
+		return this;
+	}
+
+	/**
+	 * Fraction of vertices to keep.
+	 *
+	 * @param f
+	 * @return
+	 */
+	public HES_QEM setGoal(final double f) {
+		fraction = f;
+		goal = -1;
+		return this;
+	}
+
+	/**
+	 * Never move or remove boundary vertices. Default is false, boundaries
+	 * are simplified but kept in place by constraint quadrics.
+	 *
+	 * @param b
+	 * @return
+	 */
+	public HES_QEM setPreserveBoundary(final boolean b) {
+		preserveBoundary = b;
+		return this;
+	}
+
+	/**
+	 * Weight of the constraint quadrics of boundary and feature edges,
+	 * relative to the face quadrics. Default is 1000.
+	 *
+	 * @param w
+	 * @return
+	 */
+	public HES_QEM setBoundaryWeight(final double w) {
+		boundaryWeight = w;
+		return this;
+	}
+
+	/**
+	 * Edges with a dihedral angle larger than this are treated as features
+	 * and constrained like boundary edges. A negative angle, the default,
+	 * disables feature detection.
+	 *
+	 * @param a
+	 *            angle in degrees
+	 * @return
+	 */
+	public HES_QEM setFeatureAngle(final double a) {
+		featureAngle = a;
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see wblut.hemesh.HES_Simplifier#apply(wblut.hemesh.HE_Mesh)
+	 */
+	@Override
+	public HE_Mesh apply(final HE_Mesh mesh) {
+		tracker.setStatus(this, "Starting HES_QEM.", +1);
+		final int target = goal == -1 ? (int) (mesh.getNumberOfVertices() * fraction) : goal;
+		if (mesh.getNumberOfVertices() <= target || mesh.getNumberOfVertices() <= 4) {
+			tracker.setStatus(this, "Mesh has less vertices than goal. Exiting HES_QEM.", -1);
+			return mesh;
+		}
+		mesh.triangulate();
+		simplify(mesh, null, target);
+		tracker.setStatus(this, "Exiting HES_QEM.", -1);
+		return mesh;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see wblut.hemesh.HES_Simplifier#apply(wblut.hemesh.HE_Selection)
+	 */
+	@Override
+	public HE_Mesh apply(final HE_Selection selection) {
+		tracker.setStatus(this, "Starting HES_QEM.", +1);
+		selection.collectVertices();
+		final HE_Mesh mesh = selection.parent;
+		final int fixed = mesh.getNumberOfVertices() - selection.getNumberOfVertices();
+		final int target = goal == -1 ? (int) (fixed + selection.getNumberOfVertices() * fraction) : fixed + goal;
+		if (mesh.getNumberOfVertices() <= target || mesh.getNumberOfVertices() <= 4) {
+			tracker.setStatus(this, "Mesh has less vertices than goal. Exiting HES_QEM.", -1);
+			return mesh;
+		}
+		mesh.triangulate();
+		simplify(mesh, selection, target);
+		selection.clear();
+		tracker.setStatus(this, "Exiting HES_QEM.", -1);
+		return mesh;
+	}
+
+	/**
+	 *
+	 *
+	 * @param mesh
+	 * @param selection
+	 *            only vertices in the selection are removed, null for all
+	 * @param goal
+	 */
+	private void simplify(final HE_Mesh mesh, final HE_Selection selection, final int goal) {
+		final HE_CompactMesh compact = new HE_CompactMesh(mesh);
+		tracker.setStatus(this, "Building quadrics.", 0);
+		initialize(compact, selection);
+		tracker.setStatus(this, "Building edge heap.", 0);
+		heap = new WB_IndexedHeap(edges.length / 2);
+		for (int e = 0; e < edges.length / 2; e++) {
+			if (edges[2 * e] >= 0) {
+				heap.add(e, cost(e));
+			}
+		}
+		final WB_ProgressCounter counter = new WB_ProgressCounter(liveVertices - goal, 10);
+		tracker.setStatus(this, "Collapsing edges.", counter);
+		while (liveVertices > goal && liveVertices > 4 && heap.peekKey() < INF) {
+			final int e = heap.poll();
+			int u = edges[2 * e];
+			int v = edges[2 * e + 1];
+			if (locked[v]) {
+				u = v;
+				v = edges[2 * e];
+			}
+			if (!isCollapsible(u, v)) {
+				heap.add(e, INF);
+				continue;
+			}
+			cost(e);
+			if (flips(u, v) || flips(v, u)) {
+				heap.add(e, INF);
+				continue;
+			}
+			collapse(e, u, v);
+			counter.increment();
+		}
+		tracker.setStatus(this, "Rebuilding mesh.", 0);
+		mesh.setNoCopy(rebuild(compact));
+		heap = null;
+		vertexTriangles = null;
+		vertexEdges = null;
+	}
+
+	/**
+	 *
+	 *
+	 * @param compact
+	 * @param selection
+	 */
+	private void initialize(final HE_CompactMesh compact, final HE_Selection selection) {
+		numberOfVertices = compact.getNumberOfVertices();
+		liveVertices = numberOfVertices;
+		final int numberOfFaces = compact.getNumberOfFaces();
+		positions = Arrays.copyOf(compact.positions, 3 * numberOfVertices);
+		quadrics = new double[10 * numberOfVertices];
+		triangles = new int[3 * numberOfFaces];
+		for (int f = 0; f < numberOfFaces; f++) {
+			final int he = compact.faceHalfedge[f];
+			triangles[3 * f] = compact.getStartVertex(he);
+			triangles[3 * f + 1] = compact.getEndVertex(he);
+			triangles[3 * f + 2] = compact.getEndVertex(compact.getNextInFace(he));
+		}
+		final double[] normals = new double[3 * numberOfFaces];
+		for (int f = 0; f < numberOfFaces; f++) {
+			final int a = triangles[3 * f];
+			final int b = triangles[3 * f + 1];
+			final int c = triangles[3 * f + 2];
+			double nx = (positions[3 * b + 1] - positions[3 * a + 1]) * (positions[3 * c + 2] - positions[3 * a + 2])
+					- (positions[3 * b + 2] - positions[3 * a + 2]) * (positions[3 * c + 1] - positions[3 * a + 1]);
+			double ny = (positions[3 * b + 2] - positions[3 * a + 2]) * (positions[3 * c] - positions[3 * a])
+					- (positions[3 * b] - positions[3 * a]) * (positions[3 * c + 2] - positions[3 * a + 2]);
+			double nz = (positions[3 * b] - positions[3 * a]) * (positions[3 * c + 1] - positions[3 * a + 1])
+					- (positions[3 * b + 1] - positions[3 * a + 1]) * (positions[3 * c] - positions[3 * a]);
+			final double l = Math.sqrt(nx * nx + ny * ny + nz * nz);
+			if (l > 0) {
+				nx /= l;
+				ny /= l;
+				nz /= l;
+				final double area = 0.5 * l;
+				final double d = -(nx * positions[3 * a] + ny * positions[3 * a + 1] + nz * positions[3 * a + 2]);
+				for (int i = 0; i < 3; i++) {
+					addPlane(triangles[3 * f + i], nx, ny, nz, d, area);
+				}
+			}
+			normals[3 * f] = nx;
+			normals[3 * f + 1] = ny;
+			normals[3 * f + 2] = nz;
+		}
+		int numberOfEdges = 0;
+		for (int he = 0; he < compact.getNumberOfHalfedges(); he++) {
+			if (compact.isEdge(he)) {
+				numberOfEdges++;
+			}
+		}
+		edges = new int[2 * numberOfEdges];
+		boundary = new boolean[numberOfVertices];
+		final double cosFeature = featureAngle < 0 ? -2 : Math.cos(Math.toRadians(featureAngle));
+		int e = 0;
+		for (int he = 0; he < compact.getNumberOfHalfedges(); he++) {
+			if (!compact.isEdge(he)) {
+				continue;
+			}
+			final int a = compact.getStartVertex(he);
+			final int b = compact.getEndVertex(he);
+			edges[2 * e] = a;
+			edges[2 * e + 1] = b;
+			e++;
+			final int pair = compact.getPair(he);
+			final int f1 = compact.getHalfedgeFace(he);
+			final int f2 = compact.getHalfedgeFace(pair);
+			if (f1 < 0 || f2 < 0) {
+				boundary[a] = true;
+				boundary[b] = true;
+				if (!preserveBoundary) {
+					addConstraint(a, b, f1 < 0 ? f2 : f1, normals);
+				}
+			} else if (cosFeature > -2) {
+				final double cos = normals[3 * f1] * normals[3 * f2] + normals[3 * f1 + 1] * normals[3 * f2 + 1]
+						+ normals[3 * f1 + 2] * normals[3 * f2 + 2];
+				if (cos < cosFeature) {
+					addConstraint(a, b, f1, normals);
+					addConstraint(a, b, f2, normals);
+				}
+			}
+		}
+		locked = new boolean[numberOfVertices];
+		removed = new boolean[numberOfVertices];
+		if (preserveBoundary) {
+			System.arraycopy(boundary, 0, locked, 0, numberOfVertices);
+		}
+		if (selection != null) {
+			final Iterator<HE_Vertex> vItr = compact.getSource().vItr();
+			int i = 0;
+			while (vItr.hasNext()) {
+				if (!selection.contains(vItr.next())) {
+					locked[i] = true;
+				}
+				i++;
+			}
+		}
+		vertexTriangles = new Adjacency(numberOfVertices, triangles, 3);
+		vertexEdges = new Adjacency(numberOfVertices, edges, 2);
+		marks = new int[numberOfVertices];
+		mark = 0;
+		buffer = new int[64];
+	}
+
+	/**
+	 * Add the quadric of the plane n.x+d=0 to a vertex.
+	 *
+	 * @param v
+	 * @param nx
+	 * @param ny
+	 * @param nz
+	 * @param d
+	 * @param w
+	 */
+	private void addPlane(final int v, final double nx, final double ny, final double nz, final double d,
+			final double w) {
+		final int i = 10 * v;
+		quadrics[i] += w * nx * nx;
+		quadrics[i + 1] += w * nx * ny;
+		quadrics[i + 2] += w * nx * nz;
+		quadrics[i + 3] += w * ny * ny;
+		quadrics[i + 4] += w * ny * nz;
+		quadrics[i + 5] += w * nz * nz;
+		quadrics[i + 6] += w * nx * d;
+		quadrics[i + 7] += w * ny * d;
+		quadrics[i + 8] += w * nz * d;
+		quadrics[i + 9] += w * d * d;
+	}
+
+	/**
+	 * Add the plane through edge ab perpendicular to face f to both
+	 * vertices.
+	 *
+	 * @param a
+	 * @param b
+	 * @param f
+	 * @param normals
+	 */
+	private void addConstraint(final int a, final int b, final int f, final double[] normals) {
+		final double ex = positions[3 * b] - positions[3 * a];
+		final double ey = positions[3 * b + 1] - positions[3 * a + 1];
+		final double ez = positions[3 * b + 2] - positions[3 * a + 2];
+		double nx = ey * normals[3 * f + 2] - ez * normals[3 * f + 1];
+		double ny = ez * normals[3 * f] - ex * normals[3 * f + 2];
+		double nz = ex * normals[3 * f + 1] - ey * normals[3 * f];
+		final double l = Math.sqrt(nx * nx + ny * ny + nz * nz);
+		if (l == 0) {
+			return;
+		}
+		nx /= l;
+		ny /= l;
+		nz /= l;
+		final double d = -(nx * positions[3 * a] + ny * positions[3 * a + 1] + nz * positions[3 * a + 2]);
+		final double w = boundaryWeight * (ex * ex + ey * ey + ez * ez);
+		addPlane(a, nx, ny, nz, d, w);
+		addPlane(b, nx, ny, nz, d, w);
+	}
+
+	/**
+	 * Error of collapsing edge e, the optimal position is stored in target.
+	 *
+	 * @param e
+	 * @return
+	 */
+	private double cost(final int e) {
+		final int u = edges[2 * e];
+		final int v = edges[2 * e + 1];
+		if (locked[u] && locked[v]) {
+			return INF;
+		}
+		for (int i = 0; i < 10; i++) {
+			q[i] = quadrics[10 * u + i] + quadrics[10 * v + i];
+		}
+		if (locked[u]) {
+			setTarget(u);
+		} else if (locked[v]) {
+			setTarget(v);
+		} else if (!solve()) {
+			setTarget(u);
+			double best = error();
+			setTarget(v);
+			final double ev = error();
+			target[0] = 0.5 * (positions[3 * u] + positions[3 * v]);
+			target[1] = 0.5 * (positions[3 * u + 1] + positions[3 * v + 1]);
+			target[2] = 0.5 * (positions[3 * u + 2] + positions[3 * v + 2]);
+			final double em = error();
+			if (ev < best && ev <= em) {
+				setTarget(v);
+				best = ev;
+			} else if (best <= em) {
+				setTarget(u);
+			}
+		}
+		return Math.max(0, error());
+	}
+
+	/**
+	 *
+	 *
+	 * @param v
+	 */
+	private void setTarget(final int v) {
+		target[0] = positions[3 * v];
+		target[1] = positions[3 * v + 1];
+		target[2] = positions[3 * v + 2];
+	}
+
+	/**
+	 *
+	 *
+	 * @return error of q at target
+	 */
+	private double error() {
+		final double x = target[0];
+		final double y = target[1];
+		final double z = target[2];
+		return q[0] * x * x + 2 * q[1] * x * y + 2 * q[2] * x * z + q[3] * y * y + 2 * q[4] * y * z + q[5] * z * z
+				+ 2 * (q[6] * x + q[7] * y + q[8] * z) + q[9];
+	}
+
+	/**
+	 * Minimize q, stores the solution in target.
+	 *
+	 * @return false if the system is singular
+	 */
+	private boolean solve() {
+		final double a11 = q[0], a12 = q[1], a13 = q[2], a22 = q[3], a23 = q[4], a33 = q[5];
+		final double c11 = a22 * a33 - a23 * a23;
+		final double c12 = a13 * a23 - a12 * a33;
+		final double c13 = a12 * a23 - a13 * a22;
+		final double det = a11 * c11 + a12 * c12 + a13 * c13;
+		final double scale = Math.max(Math.abs(a11), Math.max(Math.abs(a22), Math.abs(a33)));
+		if (Math.abs(det) <= 1e-10 * scale * scale * scale) {
+			return false;
+		}
+		final double c22 = a11 * a33 - a13 * a13;
+		final double c23 = a12 * a13 - a11 * a23;
+		final double c33 = a11 * a22 - a12 * a12;
+		final double b1 = -q[6], b2 = -q[7], b3 = -q[8];
+		target[0] = (c11 * b1 + c12 * b2 + c13 * b3) / det;
+		target[1] = (c12 * b1 + c22 * b2 + c23 * b3) / det;
+		target[2] = (c13 * b1 + c23 * b2 + c33 * b3) / det;
+		return true;
+	}
+
+	/**
+	 *
+	 *
+	 * @param t
+	 * @param v
+	 * @return
+	 */
+	private boolean contains(final int t, final int v) {
+		return triangles[3 * t] == v || triangles[3 * t + 1] == v || triangles[3 * t + 2] == v;
+	}
+
+	/**
+	 *
+	 *
+	 * @param e
+	 * @param v
+	 * @return
+	 */
+	private int other(final int e, final int v) {
+		return edges[2 * e] == v ? edges[2 * e + 1] : edges[2 * e];
+	}
+
+	/**
+	 * Link condition: the common neighbors of u and v are exactly the
+	 * vertices opposite to edge uv.
+	 *
+	 * @param u
+	 * @param v
+	 * @return
+	 */
+	private boolean isCollapsible(final int u, final int v) {
+		int shared = 0;
+		for (int i = vertexTriangles.offset[u], end = i + vertexTriangles.count[u]; i < end; i++) {
+			final int t = vertexTriangles.pool[i];
+			if (triangles[3 * t] >= 0 && contains(t, v)) {
+				shared++;
+			}
+		}
+		if (shared == 0 || shared > 2) {
+			return false;
+		}
+		if (shared == 2 && boundary[u] && boundary[v]) {
+			return false;
+		}
+		mark++;
+		for (int i = vertexEdges.offset[u], end = i + vertexEdges.count[u]; i < end; i++) {
+			final int e = vertexEdges.pool[i];
+			if (edges[2 * e] >= 0) {
+				marks[other(e, u)] = mark;
+			}
+		}
+		int common = 0;
+		for (int i = vertexEdges.offset[v], end = i + vertexEdges.count[v]; i < end; i++) {
+			final int e = vertexEdges.pool[i];
+			if (edges[2 * e] >= 0) {
+				final int w = other(e, v);
+				if (w != u && marks[w] == mark) {
+					common++;
+				}
+			}
+		}
+		return common == shared;
+	}
+
+	/**
+	 * Does moving v to target flip a triangle of v that does not contain u?
+	 *
+	 * @param v
+	 * @param u
+	 * @return
+	 */
+	private boolean flips(final int v, final int u) {
+		for (int i = vertexTriangles.offset[v], end = i + vertexTriangles.count[v]; i < end; i++) {
+			final int t = vertexTriangles.pool[i];
+			if (triangles[3 * t] < 0 || contains(t, u)) {
+				continue;
+			}
+			final int c = triangles[3 * t] == v ? 0 : (triangles[3 * t + 1] == v ? 1 : 2);
+			final int a = triangles[3 * t + (c + 1) % 3];
+			final int b = triangles[3 * t + (c + 2) % 3];
+			final double ax = positions[3 * a], ay = positions[3 * a + 1], az = positions[3 * a + 2];
+			final double e1x = positions[3 * b] - ax, e1y = positions[3 * b + 1] - ay, e1z = positions[3 * b + 2] - az;
+			final double e2x = positions[3 * v] - ax, e2y = positions[3 * v + 1] - ay, e2z = positions[3 * v + 2] - az;
+			final double e3x = target[0] - ax, e3y = target[1] - ay, e3z = target[2] - az;
+			final double n0x = e1y * e2z - e1z * e2y, n0y = e1z * e2x - e1x * e2z, n0z = e1x * e2y - e1y * e2x;
+			final double n1x = e1y * e3z - e1z * e3y, n1y = e1z * e3x - e1x * e3z, n1z = e1x * e3y - e1y * e3x;
+			if (n0x * n1x + n0y * n1y + n0z * n1z <= 0 && (n0x != 0 || n0y != 0 || n0z != 0)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Collapse edge e, removing v and moving u to target.
+	 *
+	 * @param e
+	 * @param u
+	 * @param v
+	 */
+	private void collapse(final int e, final int u, final int v) {
+		positions[3 * u] = target[0];
+		positions[3 * u + 1] = target[1];
+		positions[3 * u + 2] = target[2];
+		for (int i = 0; i < 10; i++) {
+			quadrics[10 * u + i] += quadrics[10 * v + i];
+		}
+		boundary[u] |= boundary[v];
+		removed[v] = true;
+		liveVertices--;
+		edges[2 * e] = -1;
+		edges[2 * e + 1] = -1;
+		// triangles: remove those containing uv, relink those of v to u
+		int n = 0;
+		for (int i = vertexTriangles.offset[u], end = i + vertexTriangles.count[u]; i < end; i++) {
+			final int t = vertexTriangles.pool[i];
+			if (triangles[3 * t] < 0) {
+				continue;
+			}
+			if (contains(t, v)) {
+				triangles[3 * t] = -1;
+			} else {
+				n = append(n, t);
+			}
+		}
+		for (int i = vertexTriangles.offset[v], end = i + vertexTriangles.count[v]; i < end; i++) {
+			final int t = vertexTriangles.pool[i];
+			if (triangles[3 * t] < 0) {
+				continue;
+			}
+			for (int c = 0; c < 3; c++) {
+				if (triangles[3 * t + c] == v) {
+					triangles[3 * t + c] = u;
+				}
+			}
+			n = append(n, t);
+		}
+		vertexTriangles.set(u, buffer, n);
+		vertexTriangles.set(v, buffer, 0);
+		// edges: relink those of v to u, remove duplicates
+		mark++;
+		n = 0;
+		for (int i = vertexEdges.offset[u], end = i + vertexEdges.count[u]; i < end; i++) {
+			final int f = vertexEdges.pool[i];
+			if (edges[2 * f] < 0) {
+				continue;
+			}
+			marks[other(f, u)] = mark;
+			n = append(n, f);
+		}
+		for (int i = vertexEdges.offset[v], end = i + vertexEdges.count[v]; i < end; i++) {
+			final int f = vertexEdges.pool[i];
+			if (edges[2 * f] < 0) {
+				continue;
+			}
+			final int w = other(f, v);
+			if (marks[w] == mark) {
+				edges[2 * f] = -1;
+				edges[2 * f + 1] = -1;
+				heap.remove(f);
+			} else {
+				if (edges[2 * f] == v) {
+					edges[2 * f] = u;
+				} else {
+					edges[2 * f + 1] = u;
+				}
+				marks[w] = mark;
+				n = append(n, f);
+			}
+		}
+		vertexEdges.set(u, buffer, n);
+		vertexEdges.set(v, buffer, 0);
+		for (int i = vertexEdges.offset[u], end = i + vertexEdges.count[u]; i < end; i++) {
+			final int f = vertexEdges.pool[i];
+			heap.update(f, cost(f));
+		}
+	}
+
+	/**
+	 *
+	 *
+	 * @param n
+	 * @param value
+	 * @return
+	 */
+	private int append(final int n, final int value) {
+		if (n == buffer.length) {
+			buffer = Arrays.copyOf(buffer, 2 * n);
+		}
+		buffer[n] = value;
+		return n + 1;
+	}
+
+	/**
+	 *
+	 *
+	 * @param compact
+	 * @return
+	 */
+	private HE_Mesh rebuild(final HE_CompactMesh compact) {
+		final int[] newIndex = new int[numberOfVertices];
+		Arrays.fill(newIndex, -1);
+		int nt = 0;
+		for (int t = 0; t < triangles.length / 3; t++) {
+			if (triangles[3 * t] >= 0) {
+				nt++;
+				for (int c = 0; c < 3; c++) {
+					newIndex[triangles[3 * t + c]] = 0;
+				}
+			}
+		}
+		int nv = 0;
+		for (int v = 0; v < numberOfVertices; v++) {
+			if (!removed[v] && newIndex[v] == 0) {
+				newIndex[v] = nv++;
+			}
+		}
+		final double[] vertices = new double[3 * nv];
+		final int[] vertexColors = new int[nv];
+		final long[] vertexLabels = new long[nv];
+		for (int v = 0; v < numberOfVertices; v++) {
+			final int i = newIndex[v];
+			if (i >= 0) {
+				vertices[3 * i] = positions[3 * v];
+				vertices[3 * i + 1] = positions[3 * v + 1];
+				vertices[3 * i + 2] = positions[3 * v + 2];
+				vertexColors[i] = compact.vertexColors[v];
+				vertexLabels[i] = compact.vertexLabels[v];
+			}
+		}
+		final int[][] faces = new int[nt][];
+		final int[] faceIndex = new int[nt];
+		nt = 0;
+		for (int t = 0; t < triangles.length / 3; t++) {
+			if (triangles[3 * t] >= 0) {
+				faces[nt] = new int[] { newIndex[triangles[3 * t]], newIndex[triangles[3 * t + 1]],
+						newIndex[triangles[3 * t + 2]] };
+				faceIndex[nt++] = t;
+			}
+		}
+		final HE_Mesh result = new HE_Mesh(new HEC_FromFacelist().setVertices(vertices).setFaces(faces)
+				.setDuplicate(false).setCheckNormals(false));
+		for (int i = 0; i < result.getNumberOfVertices() && i < nv; i++) {
+			final HE_Vertex v = result.getVertexWithIndex(i);
+			v.setColor(vertexColors[i]);
+			v._labels = vertexLabels[i];
+		}
+		for (int i = 0; i < result.getNumberOfFaces() && i < nt; i++) {
+			final HE_Face f = result.getFaceWithIndex(i);
+			f.setColor(compact.faceColors[faceIndex[i]]);
+			f._labels = compact.faceLabels[faceIndex[i]];
+			f.setTextureId(compact.faceTextureIds[faceIndex[i]]);
+		}
+		return result;
+	}
+
+	/**
+	 * Growable vertex to element lists. A changed list is appended at the end
+	 * of the pool, the pool is compacted when more than half of it is unused.
+	 */
+	static class Adjacency {
+		final int[] offset;
+		final int[] count;
+		int[] pool;
+		int size;
+		int live;
+
+		/**
+		 *
+		 *
+		 * @param numberOfVertices
+		 * @param elements
+		 *            vertex indices of the elements
+		 * @param stride
+		 *            number of vertices per element
+		 */
+		Adjacency(final int numberOfVertices, final int[] elements, final int stride) {
+			offset = new int[numberOfVertices];
+			count = new int[numberOfVertices];
+			for (final int v : elements) {
+				count[v]++;
+			}
+			for (int v = 1; v < numberOfVertices; v++) {
+				offset[v] = offset[v - 1] + count[v - 1];
+			}
+			pool = new int[elements.length];
+			final int[] fill = Arrays.copyOf(offset, numberOfVertices);
+			for (int i = 0; i < elements.length; i++) {
+				pool[fill[elements[i]]++] = i / stride;
+			}
+			size = elements.length;
+			live = size;
+		}
+
+		/**
+		 *
+		 *
+		 * @param v
+		 * @param values
+		 * @param n
+		 */
+		void set(final int v, final int[] values, final int n) {
+			live -= count[v];
+			count[v] = 0;
+			if (size + n > pool.length) {
+				if (2 * live < size) {
+					compact();
+				}
+				if (size + n > pool.length) {
+					pool = Arrays.copyOf(pool, Math.max(size + n, 2 * pool.length));
+				}
+			}
+			System.arraycopy(values, 0, pool, size, n);
+			offset[v] = size;
+			count[v] = n;
+			size += n;
+			live += n;
+		}
+
+		/**
+		 *
+		 */
+		private void compact() {
+			final int[] compacted = new int[Math.max(16, 2 * live)];
+			int s = 0;
+			for (int v = 0; v < offset.length; v++) {
+				System.arraycopy(pool, offset[v], compacted, s, count[v]);
+				offset[v] = s;
+				s += count[v];
+			}
+			pool = compacted;
+			size = s;
+		}
+	}
+}
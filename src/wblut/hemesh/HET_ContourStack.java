@@ -0,0 +1,795 @@
+/*
+ * This file is part of HE_Mesh, a library for creating and manipulating meshes.
+ * It is dedicated to the public domain. To the extent possible under law,
+ * I , Frederik Vanhoutte, have waived all copyright and related or neighboring
+ * rights.
+ *
+ * This work is published from Belgium. (http://creativecommons.org/publicdomain/zero/1.0/)
+ *
+ */
+package wblut.hemesh;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import wblut.core.WB_Parallel;
+import wblut.core.WB_Parallel.WB_RangeFunction;
+import wblut.core.WB_Parallel.WB_RangeTask;
+import wblut.geom.WB_Coord;
+import wblut.geom.WB_GeometryFactory;
+import wblut.geom.WB_Plane;
+import wblut.geom.WB_Point;
+import wblut.geom.WB_PolyLine;
+import wblut.geom.WB_Polygon;
+import wblut.geom.WB_Vector;
+
+/**
+ * Contours of a mesh with a stack of equally spaced parallel planes. The
+ * triangles of the mesh are sorted by the first layer they cross, each layer
+ * is swept with the set of triangles spanning it, so every triangle is only
+ * intersected with the layers it crosses. Segments are stitched into loops by
+ * the mesh edges they start and end on. Closed loops are returned as
+ * polygons, counterclockwise loops seen from the slicing direction are
+ * outlines and clockwise loops are holes. Open chains, from open or
+ * non-manifold meshes, are returned as polylines.
+ *
+ * A vertex lying on a plane is counted as above the plane, this avoids
+ * degenerate segments and keeps the loops closed.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class HET_ContourStack {
+	/**
+	 *
+	 */
+	private static final WB_GeometryFactory gf = WB_GeometryFactory.instance();
+	/**
+	 *
+	 */
+	private final int numberOfVertices;
+	/**
+	 *
+	 */
+	private final double[] positions;
+	/**
+	 *
+	 */
+	private final int[] triangles;
+	/**
+	 * Per triangle, bit i is set if edge i is an edge of the mesh and not a
+	 * diagonal of a triangulated face.
+	 */
+	private final byte[] meshEdges;
+	/**
+	 *
+	 */
+	private WB_Vector normal;
+	/**
+	 *
+	 */
+	private WB_Vector u;
+	/**
+	 *
+	 */
+	private WB_Vector v;
+	/**
+	 *
+	 */
+	private double[] heights;
+	/**
+	 *
+	 */
+	private double start;
+	/**
+	 *
+	 */
+	private double spacing;
+	/**
+	 *
+	 */
+	private int numberOfLayers;
+
+	/**
+	 *
+	 *
+	 * @param mesh
+	 */
+	public HET_ContourStack(final HE_Mesh mesh) {
+		final HE_Vertex[] vertices = mesh.getVerticesAsArray();
+		numberOfVertices = vertices.length;
+		positions = new double[3 * numberOfVertices];
+		for (int i = 0; i < numberOfVertices; i++) {
+			positions[3 * i] = vertices[i].xd();
+			positions[3 * i + 1] = vertices[i].yd();
+			positions[3 * i + 2] = vertices[i].zd();
+		}
+		final int[][] faces = mesh.getFacesAsInt();
+		final HE_Face[] faceArray = mesh.getFacesAsArray();
+		// HE_Face.getTriangles() can give less than order-2 triangles, each
+		// face keeps its own array
+		final List<int[][]> faceTriangles = WB_Parallel.map(0, faceArray.length, 64,
+				new WB_RangeFunction<int[][]>() {
+					@Override
+					public int[][] apply(final int start, final int end) {
+						final int[][] local = new int[end - start][];
+						for (int f = start; f < end; f++) {
+							local[f - start] = faceArray[f].getTriangles();
+						}
+						return local;
+					}
+				});
+		int n = 0;
+		for (final int[][] chunk : faceTriangles) {
+			for (final int[] tris : chunk) {
+				n += tris.length;
+			}
+		}
+		triangles = new int[n];
+		meshEdges = new byte[n / 3];
+		int t = 0;
+		int f = 0;
+		for (final int[][] chunk : faceTriangles) {
+			for (final int[] tris : chunk) {
+				final int[] face = faces[f];
+				final int fo = face.length;
+				for (int i = 0; i < tris.length; i += 3, t++) {
+					byte mask = 0;
+					for (int k = 0; k < 3; k++) {
+						final int a = tris[i + k];
+						final int b = tris[i + (k + 1) % 3];
+						triangles[3 * t + k] = face[a];
+						if ((a + 1) % fo == b || (b + 1) % fo == a) {
+							mask |= 1 << k;
+						}
+					}
+					meshEdges[t] = mask;
+				}
+				f++;
+			}
+		}
+		setDirection(new WB_Vector(0, 0, 1));
+	}
+
+	/**
+	 * Set the slicing direction, the normal of all planes. Default is the Z
+	 * axis.
+	 *
+	 * @param direction
+	 * @return self
+	 */
+	public HET_ContourStack setDirection(final WB_Coord direction) {
+		normal = new WB_Vector(direction);
+		if (normal.normalizeSelf() == 0) {
+			throw new IllegalArgumentException("Slicing direction should not be zero.");
+		}
+		final WB_Vector axis = Math.abs(normal.xd()) < 0.9 ? new WB_Vector(1, 0, 0) : new WB_Vector(0, 1, 0);
+		u = normal.cross(axis);
+		u.normalizeSelf();
+		v = normal.cross(u);
+		final double nx = normal.xd();
+		final double ny = normal.yd();
+		final double nz = normal.zd();
+		heights = new double[numberOfVertices];
+		WB_Parallel.forRange(0, numberOfVertices, 4096, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int i = start; i < end; i++) {
+					heights[i] = nx * positions[3 * i] + ny * positions[3 * i + 1] + nz * positions[3 * i + 2];
+				}
+			}
+		});
+		if (spacing == 0) {
+			setLayers(1.0);
+		}
+		return this;
+	}
+
+	/**
+	 * Set the layers. Layer i lies at distance start+i*spacing from the origin
+	 * along the slicing direction.
+	 *
+	 * @param start
+	 * @param spacing
+	 * @param numberOfLayers
+	 * @return self
+	 */
+	public HET_ContourStack setLayers(final double start, final double spacing, final int numberOfLayers) {
+		if (spacing <= 0) {
+			throw new IllegalArgumentException("Layer spacing should be positive.");
+		}
+		if (numberOfLayers < 0) {
+			throw new IllegalArgumentException("Number of layers should be positive.");
+		}
+		this.start = start;
+		this.spacing = spacing;
+		this.numberOfLayers = numberOfLayers;
+		return this;
+	}
+
+	/**
+	 * Set layers covering the extent of the mesh along the slicing direction,
+	 * the first layer lies half a spacing above the lowest vertex.
+	 *
+	 * @param spacing
+	 * @return self
+	 */
+	public HET_ContourStack setLayers(final double spacing) {
+		if (spacing <= 0) {
+			throw new IllegalArgumentException("Layer spacing should be positive.");
+		}
+		if (numberOfVertices == 0) {
+			return setLayers(0, spacing, 0);
+		}
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for (final double h : heights) {
+			min = Math.min(min, h);
+			max = Math.max(max, h);
+		}
+		return setLayers(min + 0.5 * spacing, spacing, (int) Math.floor((max - min) / spacing + 0.5));
+	}
+
+	/**
+	 *
+	 *
+	 * @return
+	 */
+	public int getNumberOfLayers() {
+		return numberOfLayers;
+	}
+
+	/**
+	 *
+	 *
+	 * @param layer
+	 * @return distance of the layer to the origin along the slicing direction
+	 */
+	public double getLayerHeight(final int layer) {
+		return start + layer * spacing;
+	}
+
+	/**
+	 *
+	 *
+	 * @param layer
+	 * @return
+	 */
+	public HET_Layer getLayer(final int layer) {
+		if (layer < 0 || layer >= numberOfLayers) {
+			throw new IllegalArgumentException("Layer " + layer + " out of range.");
+		}
+		return slice(layer, layer + 1).get(0);
+	}
+
+	/**
+	 * Contours of all layers, computed in parallel.
+	 *
+	 * @return
+	 */
+	public List<HET_Layer> getLayers() {
+		return slice(0, numberOfLayers);
+	}
+
+	/**
+	 * Pass the contours of all layers to a consumer, in order of the layers.
+	 * Layers are computed in parallel batches, only one batch is kept in
+	 * memory.
+	 *
+	 * @param consumer
+	 */
+	public void stream(final HET_LayerConsumer consumer) {
+		final int batch = Math.max(16, 4 * WB_Parallel.getParallelism());
+		for (int i = 0; i < numberOfLayers; i += batch) {
+			for (final HET_Layer layer : slice(i, Math.min(numberOfLayers, i + batch))) {
+				consumer.accept(layer);
+			}
+		}
+	}
+
+	/**
+	 *
+	 *
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	private List<HET_Layer> slice(final int from, final int to) {
+		final List<HET_Layer> result = new ArrayList<HET_Layer>(to - from);
+		if (to <= from) {
+			return result;
+		}
+		final int nt = triangles.length / 3;
+		final int nl = to - from;
+		// first and last layer crossed by each triangle, relative to from
+		final int[] firstLayer = new int[nt];
+		final int[] lastLayer = new int[nt];
+		WB_Parallel.forRange(0, nt, 4096, new WB_RangeTask() {
+			@Override
+			public void run(final int s, final int e) {
+				for (int t = s; t < e; t++) {
+					final double h0 = heights[triangles[3 * t]];
+					final double h1 = heights[triangles[3 * t + 1]];
+					final double h2 = heights[triangles[3 * t + 2]];
+					final int first = Math.max(from, firstAbove(Math.min(h0, Math.min(h1, h2))));
+					final int last = Math.min(to - 1, firstAbove(Math.max(h0, Math.max(h1, h2))) - 1);
+					firstLayer[t] = first - from;
+					lastLayer[t] = last - from;
+				}
+			}
+		});
+		// counting sort of the triangles by first layer
+		final int[] offsets = new int[nl + 1];
+		for (int t = 0; t < nt; t++) {
+			if (firstLayer[t] <= lastLayer[t]) {
+				offsets[firstLayer[t] + 1]++;
+			}
+		}
+		for (int l = 0; l < nl; l++) {
+			offsets[l + 1] += offsets[l];
+		}
+		final int[] sorted = new int[offsets[nl]];
+		final int[] fill = new int[nl];
+		for (int t = 0; t < nt; t++) {
+			if (firstLayer[t] <= lastLayer[t]) {
+				final int l = firstLayer[t];
+				sorted[offsets[l] + fill[l]++] = t;
+			}
+		}
+		final HET_Layer[] layers = new HET_Layer[nl];
+		WB_Parallel.forRange(0, nl, 1, new WB_RangeTask() {
+			@Override
+			public void run(final int s, final int e) {
+				// sweep: triangles crossing the first layer of the range, then
+				// add and drop triangles layer by layer
+				int[] active = new int[64];
+				int size = 0;
+				for (int i = 0; i < offsets[s]; i++) {
+					final int t = sorted[i];
+					if (lastLayer[t] >= s) {
+						if (size == active.length) {
+							active = grow(active);
+						}
+						active[size++] = t;
+					}
+				}
+				final Segments segments = new Segments();
+				for (int l = s; l < e; l++) {
+					int n = 0;
+					for (int i = 0; i < size; i++) {
+						if (lastLayer[active[i]] >= l) {
+							active[n++] = active[i];
+						}
+					}
+					size = n;
+					for (int i = offsets[l]; i < offsets[l + 1]; i++) {
+						if (size == active.length) {
+							active = grow(active);
+						}
+						active[size++] = sorted[i];
+					}
+					final double d = getLayerHeight(from + l);
+					segments.clear();
+					for (int i = 0; i < size; i++) {
+						intersect(active[i], d, segments);
+					}
+					layers[l] = stitch(from + l, d, segments);
+				}
+			}
+		});
+		for (final HET_Layer layer : layers) {
+			result.add(layer);
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 *
+	 * @param h
+	 * @return first layer strictly above h
+	 */
+	private int firstAbove(final double h) {
+		if (h < start) {
+			return 0;
+		}
+		final double l = Math.floor((h - start) / spacing) + 1;
+		if (l > numberOfLayers) {
+			return numberOfLayers;
+		}
+		int layer = (int) l;
+		while (layer > 0 && getLayerHeight(layer - 1) > h) {
+			layer--;
+		}
+		while (layer < numberOfLayers && getLayerHeight(layer) <= h) {
+			layer++;
+		}
+		return layer;
+	}
+
+	/**
+	 *
+	 *
+	 * @param a
+	 * @return
+	 */
+	private static int[] grow(final int[] a) {
+		final int[] result = new int[2 * a.length];
+		System.arraycopy(a, 0, result, 0, a.length);
+		return result;
+	}
+
+	/**
+	 * Intersect a triangle that crosses the plane. The segment runs from the
+	 * edge going down to the edge going up, this orients outlines
+	 * counterclockwise seen from the slicing direction.
+	 *
+	 * @param t
+	 * @param d
+	 * @param segments
+	 */
+	private void intersect(final int t, final double d, final Segments segments) {
+		int down = -1;
+		int up = -1;
+		for (int k = 0; k < 3; k++) {
+			final boolean a = heights[triangles[3 * t + k]] >= d;
+			final boolean b = heights[triangles[3 * t + (k + 1) % 3]] >= d;
+			if (a && !b) {
+				down = k;
+			} else if (b && !a) {
+				up = k;
+			}
+		}
+		segments.add(edgeKey(t, down), edgeKey(t, up), (meshEdges[t] & 1 << down) != 0);
+		// the point is computed from the edge, not the triangle, so both
+		// triangles sharing the edge give the same point
+		final int i = triangles[3 * t + down];
+		final int j = triangles[3 * t + (down + 1) % 3];
+		final int lo = Math.min(i, j);
+		final int hi = Math.max(i, j);
+		final double f = (d - heights[lo]) / (heights[hi] - heights[lo]);
+		segments.setPoint(positions[3 * lo] + f * (positions[3 * hi] - positions[3 * lo]),
+				positions[3 * lo + 1] + f * (positions[3 * hi + 1] - positions[3 * lo + 1]),
+				positions[3 * lo + 2] + f * (positions[3 * hi + 2] - positions[3 * lo + 2]));
+	}
+
+	/**
+	 *
+	 *
+	 * @param t
+	 * @param k
+	 * @return
+	 */
+	private long edgeKey(final int t, final int k) {
+		final int i = triangles[3 * t + k];
+		final int j = triangles[3 * t + (k + 1) % 3];
+		return i < j ? (long) i * numberOfVertices + j : (long) j * numberOfVertices + i;
+	}
+
+	/**
+	 * Join the segments of one layer into loops and chains.
+	 *
+	 * @param layer
+	 * @param d
+	 * @param segments
+	 * @return
+	 */
+	private HET_Layer stitch(final int layer, final double d, final Segments segments) {
+		final int n = segments.size;
+		final TLongIntMap byStart = new TLongIntHashMap(Math.max(10, 2 * n), 0.5f, -1L, -1);
+		final TLongSet ends = new TLongHashSet(Math.max(10, 2 * n));
+		for (int s = 0; s < n; s++) {
+			byStart.put(segments.start[s], s);
+			ends.add(segments.end[s]);
+		}
+		final boolean[] visited = new boolean[n];
+		final List<WB_PolyLine> polylines = new ArrayList<WB_PolyLine>();
+		final List<double[]> loops = new ArrayList<double[]>();
+		for (int s = 0; s < n; s++) {
+			if (!visited[s] && !ends.contains(segments.start[s])) {
+				final List<WB_Point> chain = new ArrayList<WB_Point>();
+				int c = s;
+				int last = s;
+				while (c >= 0 && !visited[c]) {
+					visited[c] = true;
+					if (c == s || segments.meshEdge[c]) {
+						chain.add(segments.getPoint(c));
+					}
+					last = c;
+					c = byStart.get(segments.end[c]);
+				}
+				if (c >= 0) {
+					chain.add(segments.getPoint(c));
+				} else {
+					chain.add(endPoint(segments, last, d));
+				}
+				polylines.add(gf.createPolyLine(chain));
+			}
+		}
+		for (int s = 0; s < n; s++) {
+			if (!visited[s]) {
+				double[] loop = new double[48];
+				int size = 0;
+				int count = 0;
+				int c = s;
+				while (c >= 0 && !visited[c]) {
+					visited[c] = true;
+					count++;
+					if (segments.meshEdge[c]) {
+						if (size + 3 > loop.length) {
+							loop = Arrays.copyOf(loop, 2 * loop.length);
+						}
+						loop[size++] = segments.points[3 * c];
+						loop[size++] = segments.points[3 * c + 1];
+						loop[size++] = segments.points[3 * c + 2];
+					}
+					c = byStart.get(segments.end[c]);
+				}
+				if (size < 9 && count >= 3) {
+					// all points on face diagonals, keep them all
+					size = 0;
+					loop = new double[3 * count];
+					c = s;
+					for (int i = 0; i < count; i++) {
+						loop[size++] = segments.points[3 * c];
+						loop[size++] = segments.points[3 * c + 1];
+						loop[size++] = segments.points[3 * c + 2];
+						c = byStart.get(segments.end[c]);
+					}
+				}
+				if (size >= 9) {
+					loops.add(Arrays.copyOf(loop, size));
+				}
+			}
+		}
+		return new HET_Layer(layer, new WB_Plane(normal.mul(d), normal), toPolygons(loops), polylines);
+	}
+
+	/**
+	 * End point of the last segment of an open chain.
+	 *
+	 * @param segments
+	 * @param s
+	 * @param d
+	 * @return
+	 */
+	private WB_Point endPoint(final Segments segments, final int s, final double d) {
+		final long key = segments.end[s];
+		final int lo = (int) (key / numberOfVertices);
+		final int hi = (int) (key % numberOfVertices);
+		final double f = (d - heights[lo]) / (heights[hi] - heights[lo]);
+		return new WB_Point(positions[3 * lo] + f * (positions[3 * hi] - positions[3 * lo]),
+				positions[3 * lo + 1] + f * (positions[3 * hi + 1] - positions[3 * lo + 1]),
+				positions[3 * lo + 2] + f * (positions[3 * hi + 2] - positions[3 * lo + 2]));
+	}
+
+	/**
+	 * Classify loops as outlines or holes by their orientation and put every
+	 * hole in the smallest outline containing it.
+	 *
+	 * @param loops
+	 * @return
+	 */
+	private List<WB_Polygon> toPolygons(final List<double[]> loops) {
+		final int n = loops.size();
+		final double[][] loops2D = new double[n][];
+		final double[] areas = new double[n];
+		for (int i = 0; i < n; i++) {
+			final double[] loop = loops.get(i);
+			final int np = loop.length / 3;
+			final double[] loop2D = new double[2 * np];
+			for (int j = 0; j < np; j++) {
+				loop2D[2 * j] = u.xd() * loop[3 * j] + u.yd() * loop[3 * j + 1] + u.zd() * loop[3 * j + 2];
+				loop2D[2 * j + 1] = v.xd() * loop[3 * j] + v.yd() * loop[3 * j + 1] + v.zd() * loop[3 * j + 2];
+			}
+			double area = 0;
+			for (int j = 0, k = np - 1; j < np; k = j++) {
+				area += loop2D[2 * k] * loop2D[2 * j + 1] - loop2D[2 * j] * loop2D[2 * k + 1];
+			}
+			loops2D[i] = loop2D;
+			areas[i] = 0.5 * area;
+		}
+		final List<List<WB_Point[]>> holes = new ArrayList<List<WB_Point[]>>(n);
+		for (int i = 0; i < n; i++) {
+			holes.add(areas[i] > 0 ? new ArrayList<WB_Point[]>() : null);
+		}
+		final boolean[] orphan = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			if (areas[i] <= 0) {
+				int best = -1;
+				for (int j = 0; j < n; j++) {
+					if (areas[j] > 0 && (best < 0 || areas[j] < areas[best]) && areas[j] >= -areas[i]
+							&& contains(loops2D[j], loops2D[i][0], loops2D[i][1])) {
+						best = j;
+					}
+				}
+				if (best >= 0) {
+					holes.get(best).add(toPoints(loops.get(i)));
+				} else {
+					orphan[i] = true;
+				}
+			}
+		}
+		final List<WB_Polygon> polygons = new ArrayList<WB_Polygon>();
+		for (int i = 0; i < n; i++) {
+			if (areas[i] > 0) {
+				final List<WB_Point[]> inner = holes.get(i);
+				if (inner.isEmpty()) {
+					polygons.add(gf.createSimplePolygon(toPoints(loops.get(i))));
+				} else {
+					polygons.add(gf.createPolygonWithHoles(toPoints(loops.get(i)),
+							inner.toArray(new WB_Point[inner.size()][])));
+				}
+			} else if (orphan[i]) {
+				polygons.add(gf.createSimplePolygon(toPoints(loops.get(i))));
+			}
+		}
+		return polygons;
+	}
+
+	/**
+	 *
+	 *
+	 * @param loop
+	 * @return
+	 */
+	private static WB_Point[] toPoints(final double[] loop) {
+		final WB_Point[] points = new WB_Point[loop.length / 3];
+		for (int i = 0; i < points.length; i++) {
+			points[i] = new WB_Point(loop[3 * i], loop[3 * i + 1], loop[3 * i + 2]);
+		}
+		return points;
+	}
+
+	/**
+	 * Crossing number test.
+	 *
+	 * @param loop2D
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	private static boolean contains(final double[] loop2D, final double x, final double y) {
+		final int np = loop2D.length / 2;
+		boolean inside = false;
+		for (int j = 0, k = np - 1; j < np; k = j++) {
+			final double xj = loop2D[2 * j];
+			final double yj = loop2D[2 * j + 1];
+			final double xk = loop2D[2 * k];
+			final double yk = loop2D[2 * k + 1];
+			if (yj > y != yk > y && x < (xk - xj) * (y - yj) / (yk - yj) + xj) {
+				inside = !inside;
+			}
+		}
+		return inside;
+	}
+
+	/**
+	 * Segments of one layer, reused from layer to layer.
+	 */
+	private static class Segments {
+		long[] start = new long[64];
+		long[] end = new long[64];
+		boolean[] meshEdge = new boolean[64];
+		double[] points = new double[192];
+		int size;
+
+		void clear() {
+			size = 0;
+		}
+
+		void add(final long s, final long e, final boolean m) {
+			if (size == start.length) {
+				start = Arrays.copyOf(start, 2 * size);
+				end = Arrays.copyOf(end, 2 * size);
+				meshEdge = Arrays.copyOf(meshEdge, 2 * size);
+				points = Arrays.copyOf(points, 6 * size);
+			}
+			start[size] = s;
+			end[size] = e;
+			meshEdge[size] = m;
+			size++;
+		}
+
+		void setPoint(final double x, final double y, final double z) {
+			points[3 * size - 3] = x;
+			points[3 * size - 2] = y;
+			points[3 * size - 1] = z;
+		}
+
+		WB_Point getPoint(final int s) {
+			return new WB_Point(points[3 * s], points[3 * s + 1], points[3 * s + 2]);
+		}
+	}
+
+	/**
+	 * Contours of one layer.
+	 */
+	public static class HET_Layer {
+		/**
+		 *
+		 */
+		private final int index;
+		/**
+		 *
+		 */
+		private final WB_Plane plane;
+		/**
+		 *
+		 */
+		private final List<WB_Polygon> polygons;
+		/**
+		 *
+		 */
+		private final List<WB_PolyLine> polylines;
+
+		/**
+		 *
+		 *
+		 * @param index
+		 * @param plane
+		 * @param polygons
+		 * @param polylines
+		 */
+		HET_Layer(final int index, final WB_Plane plane, final List<WB_Polygon> polygons,
+				final List<WB_PolyLine> polylines) {
+			this.index = index;
+			this.plane = plane;
+			this.polygons = polygons;
+			this.polylines = polylines;
+		}
+
+		/**
+		 *
+		 *
+		 * @return
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 *
+		 *
+		 * @return
+		 */
+		public WB_Plane getPlane() {
+			return plane;
+		}
+
+		/**
+		 * Closed contours, outlines with their holes.
+		 *
+		 * @return
+		 */
+		public List<WB_Polygon> getPolygons() {
+			return polygons;
+		}
+
+		/**
+		 * Open contours.
+		 *
+		 * @return
+		 */
+		public List<WB_PolyLine> getPolyLines() {
+			return polylines;
+		}
+	}
+
+	/**
+	 * Receives layers in order.
+	 */
+	public interface HET_LayerConsumer {
+		/**
+		 *
+		 *
+		 * @param layer
+		 */
+		public void accept(HET_Layer layer);
+	}
+}
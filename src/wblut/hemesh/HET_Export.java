@@ -436,6 +436,37 @@ public class HET_Export {
 		hem.endSave();
 	}
 
+	/**
+	 * Saves the mesh in version 2 of the binary hemesh format, with
+	 * compressed blocks. Existing files will be overwritten. All data is
+	 * stored as contiguous arrays that are memory-mapped on loading.
+	 *
+	 * @param mesh
+	 *            the mesh
+	 * @param path
+	 *            the path
+	 * @param name
+	 */
+	public static void saveToBinaryHemesh2(final HE_Mesh mesh, final String path, final String name) {
+		saveToBinaryHemesh2(mesh, path, name, true);
+	}
+
+	/**
+	 * Saves the mesh in version 2 of the binary hemesh format. Uncompressed
+	 * files are larger but load fastest.
+	 *
+	 * @param mesh
+	 *            the mesh
+	 * @param path
+	 *            the path
+	 * @param name
+	 * @param compress
+	 */
+	public static void saveToBinaryHemesh2(final HE_Mesh mesh, final String path, final String name,
+			final boolean compress) {
+		new HET_WriterBinaryHemesh2().setCompression(compress).save(mesh, path, name);
+	}
+
 	/**
 	 *
 	 *
@@ -1,591 +1,922 @@
-/**
- *
- */
-package wblut.hemesh;
-
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-import java.util.ListIterator;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-
-import gnu.trove.map.TLongObjectMap;
-import gnu.trove.map.hash.TLongObjectHashMap;
-import javolution.util.FastTable;
-import wblut.core.WB_ProgressCounter;
-import wblut.core.WB_ProgressTracker;
-import wblut.geom.WB_AABB;
-import wblut.geom.WB_AABBTree;
-import wblut.geom.WB_AABBTree.WB_AABBNode;
-import wblut.geom.WB_GeometryOp;
-import wblut.geom.WB_IntersectionResult;
-import wblut.geom.WB_Segment;
-import wblut.geom.WB_Vector;
-import wblut.math.WB_Epsilon;
-
-/**
- * @author FVH
- *
- */
-public class HET_Fixer {
-	public static final WB_ProgressTracker tracker = WB_ProgressTracker.instance();
-
-	/**
-	 * Remove a face if it has only two vertices and stitch the mesh together.
-	 *
-	 * @param f
-	 *            face to check
-	 */
-	public static void deleteTwoEdgeFace(final HE_Mesh mesh, final HE_Face f) {
-		if (mesh.contains(f)) {
-			final HE_Halfedge he = f.getHalfedge();
-			final HE_Halfedge hen = he.getNextInFace();
-			if (he == he.getNextInFace(2)) {
-				final HE_Halfedge hePair = he.getPair();
-				final HE_Halfedge henPair = hen.getPair();
-				mesh.remove(f);
-				mesh.remove(he);
-				mesh.setHalfedge(he.getVertex(), he.getNextInVertex());
-				mesh.remove(hen);
-				mesh.setHalfedge(hen.getVertex(), hen.getNextInVertex());
-				mesh.setPair(hePair, henPair);
-
-			}
-		}
-	}
-
-	/**
-	 *
-	 */
-	public static void deleteTwoEdgeFaces(final HE_Mesh mesh) {
-		HE_FaceIterator fItr = mesh.fItr();
-		HE_Face f;
-		while (fItr.hasNext()) {
-			f = fItr.next();
-			final HE_Halfedge he = f.getHalfedge();
-			final HE_Halfedge hen = he.getNextInFace();
-			if (he == hen.getNextInFace()) {
-				final HE_Halfedge hePair = he.getPair();
-				final HE_Halfedge henPair = hen.getPair();
-				mesh.remove(f);
-				mesh.remove(he);
-				mesh.setHalfedge(he.getVertex(), he.getNextInVertex());
-				mesh.remove(hen);
-				mesh.setHalfedge(hen.getVertex(), hen.getNextInVertex());
-				mesh.setPair(hePair, henPair);
-
-			}
-		}
-	}
-
-	/**
-	 *
-	 *
-	 * @param v
-	 */
-	public static void deleteTwoEdgeVertex(final HE_Mesh mesh, final HE_Vertex v) {
-		if (mesh.contains(v) && v.getVertexOrder() == 2) {
-			final HE_Halfedge he0 = v.getHalfedge();
-			final HE_Halfedge he1 = he0.getNextInVertex();
-			final HE_Halfedge he0n = he0.getNextInFace();
-			final HE_Halfedge he1n = he1.getNextInFace();
-			final HE_Halfedge he0p = he0.getPair();
-			final HE_Halfedge he1p = he1.getPair();
-			mesh.setNext(he0p, he1n);
-			mesh.setNext(he1p, he0n);
-			if (he0.getFace() != null) {
-				mesh.setHalfedge(he0.getFace(), he1p);
-			}
-			if (he1.getFace() != null) {
-				mesh.setHalfedge(he1.getFace(), he0p);
-			}
-			mesh.setHalfedge(he0n.getVertex(), he0n);
-			mesh.setHalfedge(he1n.getVertex(), he1n);
-			mesh.setPair(he0p, he1p);
-			mesh.remove(he0);
-			mesh.remove(he1);
-			mesh.remove(v);
-		}
-	}
-
-	/**
-	 *
-	 */
-	public static void deleteTwoEdgeVertices(final HE_Mesh mesh) {
-		final HE_VertexIterator vitr = mesh.vItr();
-		HE_Vertex v;
-		final List<HE_Vertex> toremove = new FastTable<HE_Vertex>();
-		while (vitr.hasNext()) {
-			v = vitr.next();
-			if (v.getVertexOrder() == 2) {
-				toremove.add(v);
-			}
-		}
-		for (final HE_Vertex vtr : toremove) {
-			deleteTwoEdgeVertex(mesh, vtr);
-		}
-	}
-
-	/**
-	 * Collapse all zero-length edges.
-	 *
-	 */
-	public static void collapseDegenerateEdges(final HE_Mesh mesh) {
-		final FastTable<HE_Halfedge> edgesToRemove = new FastTable<HE_Halfedge>();
-		final Iterator<HE_Halfedge> eItr = mesh.eItr();
-		HE_Halfedge e;
-		while (eItr.hasNext()) {
-			e = eItr.next();
-			if (WB_Epsilon.isZeroSq(WB_GeometryOp.getSqDistance3D(e.getVertex(), e.getEndVertex()))) {
-				edgesToRemove.add(e);
-			}
-		}
-		for (int i = 0; i < edgesToRemove.size(); i++) {
-			HET_MeshOp.collapseEdge(mesh, edgesToRemove.get(i));
-		}
-	}
-
-	/**
-	 *
-	 *
-	 * @param d
-	 */
-	public static void collapseDegenerateEdges(final HE_Mesh mesh, final double d) {
-		final FastTable<HE_Halfedge> edgesToRemove = new FastTable<HE_Halfedge>();
-		final Iterator<HE_Halfedge> eItr = mesh.eItr();
-		HE_Halfedge e;
-		final double d2 = d * d;
-		while (eItr.hasNext()) {
-			e = eItr.next();
-			if (WB_GeometryOp.getSqDistance3D(e.getVertex(), e.getEndVertex()) < d2) {
-				edgesToRemove.add(e);
-			}
-		}
-		for (int i = 0; i < edgesToRemove.size(); i++) {
-			HET_MeshOp.collapseEdge(mesh, edgesToRemove.get(i));
-		}
-	}
-
-	/**
-	 *
-	 *
-	 * @return
-	 */
-	public static boolean fixNonManifoldVerticesOnePass(final HE_Mesh mesh) {
-		class VertexInfo {
-			FastTable<HE_Halfedge> out;
-
-			VertexInfo() {
-				out = new FastTable<HE_Halfedge>();
-			}
-		}
-		final TLongObjectMap<VertexInfo> vertexLists = new TLongObjectHashMap<VertexInfo>(1024, 0.5f, -1L);
-		HE_Vertex v;
-		VertexInfo vi;
-		WB_ProgressCounter counter = new WB_ProgressCounter(mesh.getNumberOfHalfedges(), 10);
-		tracker.setStatus("HET_Fixer", "Classifying halfedges per vertex.", counter);
-		HE_HalfedgeIterator heItr = mesh.heItr();
-		HE_Halfedge he;
-		while (heItr.hasNext()) {
-			he = heItr.next();
-			v = he.getVertex();
-			vi = vertexLists.get(v.key());
-			if (vi == null) {
-				vi = new VertexInfo();
-				vertexLists.put(v.key(), vi);
-			}
-			vi.out.add(he);
-			counter.increment();
-		}
-		final List<HE_Vertex> toUnweld = new FastTable<HE_Vertex>();
-		counter = new WB_ProgressCounter(mesh.getNumberOfVertices(), 10);
-		tracker.setStatus("HET_Fixer", "Checking vertex umbrellas.", counter);
-		Iterator<HE_Vertex> vItr = mesh.vItr();
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			final List<HE_Halfedge> outgoing = vertexLists.get(v.key()).out;
-			final List<HE_Halfedge> vStar = v.getHalfedgeStar();
-			if (outgoing.size() != vStar.size()) {
-				toUnweld.add(v);
-			}
-		}
-		vItr = toUnweld.iterator();
-		counter = new WB_ProgressCounter(toUnweld.size(), 10);
-		tracker.setStatus("HET_Fixer", "Splitting vertex umbrellas. ", counter);
-
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			final List<HE_Halfedge> vHalfedges = vertexLists.get(v.key()).out;
-			final List<HE_Halfedge> vStar = v.getHalfedgeStar();
-			final HE_Vertex vc = new HE_Vertex(v);
-			mesh.add(vc);
-			for (int i = 0; i < vStar.size(); i++) {
-				mesh.setVertex(vStar.get(i), vc);
-			}
-			mesh.setHalfedge(vc, vStar.get(0));
-			for (int i = 0; i < vHalfedges.size(); i++) {
-				he = vHalfedges.get(i);
-				if (he.getVertex() == v) {
-					mesh.setHalfedge(v, he);
-					break;
-				}
-			}
-			counter.increment();
-		}
-		return toUnweld.size() > 0;
-	}
-
-	public static void fixDegenerateTriangles(final HE_Mesh mesh) {
-		HE_FaceIterator fItr = mesh.fItr();
-		HE_Face f;
-		while (fItr.hasNext()) {
-			f = fItr.next();
-			if (f.isDegenerate() && f.getFaceOrder() == 3 && mesh.contains(f)) {
-				double d = f.getHalfedge().getLength();
-				double dmax = d;
-				HE_Halfedge he = f.getHalfedge();
-				HE_Halfedge longesthe = he;
-				if (d > WB_Epsilon.EPSILON) {
-					do {
-						he = he.getNextInFace();
-						d = he.getLength();
-						if (WB_Epsilon.isZero(d)) {
-							longesthe = he;
-							break;
-						}
-
-						if (d > dmax) {
-							longesthe = he;
-							dmax = d;
-						}
-					} while (he != f.getHalfedge());
-				}
-				mesh.deleteEdge(longesthe);
-			}
-
-		}
-	}
-
-	/**
-	 *
-	 */
-	public static void fixNonManifoldVertices(final HE_Mesh mesh) {
-		int counter = 0;
-		do {
-			counter++;
-		} while (fixNonManifoldVerticesOnePass(mesh) || counter < 10);// Normally
-		// this should
-		// run at most
-		// 3 or 4
-		// times
-	}
-
-	/**
-	 * Remove all redundant vertices in straight edges.
-	 *
-	 */
-	public static void deleteCollinearVertices(final HE_Mesh mesh) {
-		final Iterator<HE_Vertex> vItr = mesh.vItr();
-		HE_Vertex v;
-		HE_Halfedge he;
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			if (v.getVertexOrder() == 2) {
-				he = v.getHalfedge();
-				if (WB_Vector.isParallel(he.getHalfedgeTangent(), he.getNextInVertex().getHalfedgeTangent())) {
-					mesh.setNext(he.getPrevInFace(), he.getNextInFace());
-					mesh.setNext(he.getPair().getPrevInFace(), he.getPair().getNextInFace());
-					mesh.setVertex(he.getPair().getNextInFace(), he.getNextInFace().getVertex());
-					if (he.getFace() != null) {
-						if (he.getFace().getHalfedge() == he) {
-							mesh.setHalfedge(he.getFace(), he.getNextInFace());
-						}
-					}
-					if (he.getPair().getFace() != null) {
-						if (he.getPair().getFace().getHalfedge() == he.getPair()) {
-							mesh.setHalfedge(he.getPair().getFace(), he.getPair().getNextInFace());
-						}
-					}
-					vItr.remove();
-					mesh.remove(he);
-					mesh.remove(he.getPair());
-				}
-			}
-		}
-	}
-
-	/**
-	 *
-	 */
-	public static void deleteDegenerateTriangles(final HE_Mesh mesh) {
-		final List<HE_Face> faces = mesh.getFaces();
-		HE_Halfedge he;
-		for (final HE_Face face : faces) {
-			if (!mesh.contains(face)) {
-				continue; // face already removed by a previous change
-			}
-			if (face.isDegenerate()) {
-				final int fo = face.getFaceOrder();
-				if (fo == 3) {
-					HE_Halfedge degeneratehe = null;
-					he = face.getHalfedge();
-					do {
-						if (WB_Epsilon.isZero(he.getLength())) {
-							degeneratehe = he;
-							break;
-						}
-						he = he.getNextInFace();
-					} while (he != face.getHalfedge());
-					if (degeneratehe != null) {
-						// System.out.println("Zero length change!");
-						HET_MeshOp.collapseHalfedge(mesh, he);
-						continue;
-					}
-					he = face.getHalfedge();
-					double d;
-					double dmax = 0;
-					do {
-						d = he.getLength();
-						if (d > dmax) {
-							degeneratehe = he;
-							dmax = d;
-						}
-						he = he.getNextInFace();
-					} while (he != face.getHalfedge());
-					// System.out.println("Deleting longest edge: " + he);
-					mesh.deleteEdge(degeneratehe);
-				}
-			}
-		}
-	}
-
-	public static void clean(final HE_Mesh mesh) {
-		mesh.modify(new HEM_Clean());
-	}
-
-	/**
-	 * Fix loops.
-	 */
-	public static void fixLoops(final HE_Mesh mesh) {
-		for (final HE_Halfedge he : mesh.getHalfedges()) {
-			if (he.getPrevInFace() == null) {
-				HE_Halfedge hen = he.getNextInFace();
-				while (hen.getNextInFace() != he) {
-					hen = hen.getNextInFace();
-				}
-				mesh.setNext(hen, he);
-			}
-		}
-	}
-
-	/**
-	 *
-	 *
-	 * @param tri
-	 * @param tree
-	 * @return
-	 */
-	static List<HET_SelfIntersectionResult> checkSelfIntersection(final HE_Face tri, final WB_AABBTree tree) {
-		final List<HET_SelfIntersectionResult> selfints = new FastTable<HET_SelfIntersectionResult>();
-		final HE_RASTrove<HE_Face> candidates = new HE_RASTrove<HE_Face>();
-		final WB_AABB aabb = tri.toAABB();
-		final List<WB_AABBNode> nodes = WB_GeometryOp.getIntersection3D(aabb, tree);
-		for (final WB_AABBNode n : nodes) {
-			candidates.addAll(n.getFaces());
-		}
-		for (final HE_Vertex v : tri.getFaceVertices()) {
-			candidates.removeAll(v.getFaceStar());
-		}
-		for (final HE_Face candidate : candidates) {
-			if (candidate.getKey() > tri.getKey()) {// Check each face pair only
-				// once
-				final WB_IntersectionResult ir = WB_GeometryOp.getIntersection3D(tri.getHalfedge().getVertex(),
-						tri.getHalfedge().getEndVertex(), tri.getHalfedge().getNextInFace().getEndVertex(),
-						candidate.getHalfedge().getVertex(), candidate.getHalfedge().getEndVertex(),
-						candidate.getHalfedge().getNextInFace().getEndVertex());
-				if (ir.intersection && ir.object != null && !WB_Epsilon.isZero(((WB_Segment) ir.object).getLength())) {
-					candidate.setInternalLabel(1);
-					selfints.add(new HET_SelfIntersectionResult(tri, candidate, (WB_Segment) ir.object));
-				}
-			}
-		}
-		return selfints;
-	}
-
-	/**
-	 *
-	 *
-	 * @param mesh
-	 * @return
-	 */
-	public static List<HET_SelfIntersectionResult> checkSelfIntersection(final HE_Mesh mesh) {
-		mesh.triangulate();
-		mesh.resetFaceInternalLabels();
-		final WB_AABBTree tree = new WB_AABBTree(mesh, 1);
-		/*
-		 * final HE_FaceIterator fitr = mesh.fItr(); final
-		 * List<HET_SelfIntersectionResult> result = new
-		 * FastTable<HET_SelfIntersectionResult>();
-		 * List<HET_SelfIntersectionResult> selfints; HE_Face f; while
-		 * (fitr.hasNext()) { f = fitr.next(); selfints =
-		 * checkSelfIntersection(f, tree); if (selfints.size() > 0) {
-		 * f.setInternalLabel(1); } result.addAll(selfints); }
-		 */
-		return checkSelfIntersection(mesh.faces.getObjects(), tree);
-	}
-
-	/**
-	 *
-	 *
-	 * @param faces
-	 * @param tree
-	 * @return
-	 */
-	private static List<HET_SelfIntersectionResult> checkSelfIntersection(final List<HE_Face> faces,
-			final WB_AABBTree tree) {
-
-		List<HET_SelfIntersectionResult> selfints = new FastTable<HET_SelfIntersectionResult>();
-		try {
-			int threadCount = Runtime.getRuntime().availableProcessors();
-			int dfaces = faces.size() / threadCount;
-			if (dfaces < 1024) {
-				dfaces = 1024;
-				threadCount = (int) Math.ceil(faces.size() / 1024.0);
-
-			}
-			final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
-			final List<Future<List<HET_SelfIntersectionResult>>> list = new ArrayList<Future<List<HET_SelfIntersectionResult>>>();
-			int i = 0;
-			for (i = 0; i < threadCount - 1; i++) {
-				final Callable<List<HET_SelfIntersectionResult>> runner = new SelfIntersectionChecker(dfaces * i,
-						dfaces * (i + 1) - 1, i, faces, tree);
-
-				list.add(executor.submit(runner));
-			}
-			final Callable<List<HET_SelfIntersectionResult>> runner = new SelfIntersectionChecker(dfaces * i,
-					faces.size() - 1, i, faces, tree);
-			list.add(executor.submit(runner));
-
-			for (Future<List<HET_SelfIntersectionResult>> future : list) {
-				selfints.addAll(future.get());
-			}
-
-			executor.shutdown();
-
-		} catch (final InterruptedException ex) {
-			ex.printStackTrace();
-		} catch (final ExecutionException ex) {
-			ex.printStackTrace();
-		}
-		return selfints;
-	}
-
-	/**
-	 *
-	 */
-	static class SelfIntersectionChecker implements Callable<List<HET_SelfIntersectionResult>> {
-		int start;
-		int end;
-		int id;
-		int[] triangles;
-		List<HE_Face> faces;
-		WB_AABBTree tree;
-
-		/**
-		 *
-		 *
-		 * @param s
-		 * @param e
-		 * @param id
-		 * @param faces
-		 * @param tree
-		 */
-		public SelfIntersectionChecker(final int s, final int e, final int id, final List<HE_Face> faces,
-				final WB_AABBTree tree) {
-			start = s;
-			end = e;
-			this.id = id;
-			this.faces = faces;
-			this.tree = tree;
-		}
-
-		/*
-		 * (non-Javadoc)
-		 *
-		 * @see java.util.concurrent.Callable#call()
-		 */
-		@Override
-		public List<HET_SelfIntersectionResult> call() {
-			ArrayList<HET_SelfIntersectionResult> selfints = new ArrayList<HET_SelfIntersectionResult>();
-			ListIterator<HE_Face> itr = faces.listIterator(start);
-			for (int i = start; i <= end; i++) {
-				selfints.addAll(checkSelfIntersection(itr.next(), tree));
-
-			}
-			return selfints;
-		}
-	}
-
-	/**
-	 *
-	 */
-	public static class HET_SelfIntersectionResult {
-		/**
-		 *
-		 */
-		HE_Face f1;
-		/**
-		 *
-		 */
-		HE_Face f2;
-		/**
-		 *
-		 */
-		WB_Segment segment;
-
-		/**
-		 *
-		 *
-		 * @param f1
-		 * @param f2
-		 * @param seg
-		 */
-		public HET_SelfIntersectionResult(final HE_Face f1, final HE_Face f2, final WB_Segment seg) {
-			this.f1 = f1;
-			this.f2 = f2;
-			segment = seg;
-		}
-
-		/**
-		 *
-		 *
-		 * @return
-		 */
-		public HE_Face getFace1() {
-			return f1;
-		}
-
-		/**
-		 *
-		 *
-		 * @return
-		 */
-		public HE_Face getFace2() {
-			return f2;
-		}
-
-		/**
-		 *
-		 *
-		 * @return
-		 */
-		public WB_Segment getSegment() {
-			return segment;
-		}
-	}
-
+/**
+ *
+ */
+package wblut.hemesh;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import javolution.util.FastTable;
+import wblut.core.WB_ProgressCounter;
+import wblut.core.WB_ProgressTracker;
+import wblut.geom.WB_AABBTree;
+import wblut.geom.WB_AABBTree.WB_AABBNode;
+import wblut.geom.WB_BVH;
+import wblut.geom.WB_BVH.WB_OverlapVisitor;
+import wblut.geom.WB_GeometryOp;
+import wblut.geom.WB_Predicates;
+import wblut.geom.WB_Segment;
+import wblut.geom.WB_Vector;
+import wblut.math.WB_Epsilon;
+
+/**
+ * @author FVH
+ *
+ */
+public class HET_Fixer {
+	public static final WB_ProgressTracker tracker = WB_ProgressTracker.instance();
+
+	/**
+	 * Remove a face if it has only two vertices and stitch the mesh together.
+	 *
+	 * @param f
+	 *            face to check
+	 */
+	public static void deleteTwoEdgeFace(final HE_Mesh mesh, final HE_Face f) {
+		if (mesh.contains(f)) {
+			final HE_Halfedge he = f.getHalfedge();
+			final HE_Halfedge hen = he.getNextInFace();
+			if (he == he.getNextInFace(2)) {
+				final HE_Halfedge hePair = he.getPair();
+				final HE_Halfedge henPair = hen.getPair();
+				mesh.remove(f);
+				mesh.remove(he);
+				mesh.setHalfedge(he.getVertex(), he.getNextInVertex());
+				mesh.remove(hen);
+				mesh.setHalfedge(hen.getVertex(), hen.getNextInVertex());
+				mesh.setPair(hePair, henPair);
+
+			}
+		}
+	}
+
+	/**
+	 *
+	 */
+	public static void deleteTwoEdgeFaces(final HE_Mesh mesh) {
+		HE_FaceIterator fItr = mesh.fItr();
+		HE_Face f;
+		while (fItr.hasNext()) {
+			f = fItr.next();
+			final HE_Halfedge he = f.getHalfedge();
+			final HE_Halfedge hen = he.getNextInFace();
+			if (he == hen.getNextInFace()) {
+				final HE_Halfedge hePair = he.getPair();
+				final HE_Halfedge henPair = hen.getPair();
+				mesh.remove(f);
+				mesh.remove(he);
+				mesh.setHalfedge(he.getVertex(), he.getNextInVertex());
+				mesh.remove(hen);
+				mesh.setHalfedge(hen.getVertex(), hen.getNextInVertex());
+				mesh.setPair(hePair, henPair);
+
+			}
+		}
+	}
+
+	/**
+	 *
+	 *
+	 * @param v
+	 */
+	public static void deleteTwoEdgeVertex(final HE_Mesh mesh, final HE_Vertex v) {
+		if (mesh.contains(v) && v.getVertexOrder() == 2) {
+			final HE_Halfedge he0 = v.getHalfedge();
+			final HE_Halfedge he1 = he0.getNextInVertex();
+			final HE_Halfedge he0n = he0.getNextInFace();
+			final HE_Halfedge he1n = he1.getNextInFace();
+			final HE_Halfedge he0p = he0.getPair();
+			final HE_Halfedge he1p = he1.getPair();
+			mesh.setNext(he0p, he1n);
+			mesh.setNext(he1p, he0n);
+			if (he0.getFace() != null) {
+				mesh.setHalfedge(he0.getFace(), he1p);
+			}
+			if (he1.getFace() != null) {
+				mesh.setHalfedge(he1.getFace(), he0p);
+			}
+			mesh.setHalfedge(he0n.getVertex(), he0n);
+			mesh.setHalfedge(he1n.getVertex(), he1n);
+			mesh.setPair(he0p, he1p);
+			mesh.remove(he0);
+			mesh.remove(he1);
+			mesh.remove(v);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public static void deleteTwoEdgeVertices(final HE_Mesh mesh) {
+		final HE_VertexIterator vitr = mesh.vItr();
+		HE_Vertex v;
+		final List<HE_Vertex> toremove = new FastTable<HE_Vertex>();
+		while (vitr.hasNext()) {
+			v = vitr.next();
+			if (v.getVertexOrder() == 2) {
+				toremove.add(v);
+			}
+		}
+		for (final HE_Vertex vtr : toremove) {
+			deleteTwoEdgeVertex(mesh, vtr);
+		}
+	}
+
+	/**
+	 * Collapse all zero-length edges.
+	 *
+	 */
+	public static void collapseDegenerateEdges(final HE_Mesh mesh) {
+		final FastTable<HE_Halfedge> edgesToRemove = new FastTable<HE_Halfedge>();
+		final Iterator<HE_Halfedge> eItr = mesh.eItr();
+		HE_Halfedge e;
+		while (eItr.hasNext()) {
+			e = eItr.next();
+			if (WB_Epsilon.isZeroSq(WB_GeometryOp.getSqDistance3D(e.getVertex(), e.getEndVertex()))) {
+				edgesToRemove.add(e);
+			}
+		}
+		for (int i = 0; i < edgesToRemove.size(); i++) {
+			HET_MeshOp.collapseEdge(mesh, edgesToRemove.get(i));
+		}
+	}
+
+	/**
+	 *
+	 *
+	 * @param d
+	 */
+	public static void collapseDegenerateEdges(final HE_Mesh mesh, final double d) {
+		final FastTable<HE_Halfedge> edgesToRemove = new FastTable<HE_Halfedge>();
+		final Iterator<HE_Halfedge> eItr = mesh.eItr();
+		HE_Halfedge e;
+		final double d2 = d * d;
+		while (eItr.hasNext()) {
+			e = eItr.next();
+			if (WB_GeometryOp.getSqDistance3D(e.getVertex(), e.getEndVertex()) < d2) {
+				edgesToRemove.add(e);
+			}
+		}
+		for (int i = 0; i < edgesToRemove.size(); i++) {
+			HET_MeshOp.collapseEdge(mesh, edgesToRemove.get(i));
+		}
+	}
+
+	/**
+	 *
+	 *
+	 * @return
+	 */
+	public static boolean fixNonManifoldVerticesOnePass(final HE_Mesh mesh) {
+		class VertexInfo {
+			FastTable<HE_Halfedge> out;
+
+			VertexInfo() {
+				out = new FastTable<HE_Halfedge>();
+			}
+		}
+		final TLongObjectMap<VertexInfo> vertexLists = new TLongObjectHashMap<VertexInfo>(1024, 0.5f, -1L);
+		HE_Vertex v;
+		VertexInfo vi;
+		WB_ProgressCounter counter = new WB_ProgressCounter(mesh.getNumberOfHalfedges(), 10);
+		tracker.setStatus("HET_Fixer", "Classifying halfedges per vertex.", counter);
+		HE_HalfedgeIterator heItr = mesh.heItr();
+		HE_Halfedge he;
+		while (heItr.hasNext()) {
+			he = heItr.next();
+			v = he.getVertex();
+			vi = vertexLists.get(v.key());
+			if (vi == null) {
+				vi = new VertexInfo();
+				vertexLists.put(v.key(), vi);
+			}
+			vi.out.add(he);
+			counter.increment();
+		}
+		final List<HE_Vertex> toUnweld = new FastTable<HE_Vertex>();
+		counter = new WB_ProgressCounter(mesh.getNumberOfVertices(), 10);
+		tracker.setStatus("HET_Fixer", "Checking vertex umbrellas.", counter);
+		Iterator<HE_Vertex> vItr = mesh.vItr();
+		while (vItr.hasNext()) {
+			v = vItr.next();
+			final List<HE_Halfedge> outgoing = vertexLists.get(v.key()).out;
+			final List<HE_Halfedge> vStar = v.getHalfedgeStar();
+			if (outgoing.size() != vStar.size()) {
+				toUnweld.add(v);
+			}
+		}
+		vItr = toUnweld.iterator();
+		counter = new WB_ProgressCounter(toUnweld.size(), 10);
+		tracker.setStatus("HET_Fixer", "Splitting vertex umbrellas. ", counter);
+
+		while (vItr.hasNext()) {
+			v = vItr.next();
+			final List<HE_Halfedge> vHalfedges = vertexLists.get(v.key()).out;
+			final List<HE_Halfedge> vStar = v.getHalfedgeStar();
+			final HE_Vertex vc = new HE_Vertex(v);
+			mesh.add(vc);
+			for (int i = 0; i < vStar.size(); i++) {
+				mesh.setVertex(vStar.get(i), vc);
+			}
+			mesh.setHalfedge(vc, vStar.get(0));
+			for (int i = 0; i < vHalfedges.size(); i++) {
+				he = vHalfedges.get(i);
+				if (he.getVertex() == v) {
+					mesh.setHalfedge(v, he);
+					break;
+				}
+			}
+			counter.increment();
+		}
+		return toUnweld.size() > 0;
+	}
+
+	public static void fixDegenerateTriangles(final HE_Mesh mesh) {
+		HE_FaceIterator fItr = mesh.fItr();
+		HE_Face f;
+		while (fItr.hasNext()) {
+			f = fItr.next();
+			if (f.isDegenerate() && f.getFaceOrder() == 3 && mesh.contains(f)) {
+				double d = f.getHalfedge().getLength();
+				double dmax = d;
+				HE_Halfedge he = f.getHalfedge();
+				HE_Halfedge longesthe = he;
+				if (d > WB_Epsilon.EPSILON) {
+					do {
+						he = he.getNextInFace();
+						d = he.getLength();
+						if (WB_Epsilon.isZero(d)) {
+							longesthe = he;
+							break;
+						}
+
+						if (d > dmax) {
+							longesthe = he;
+							dmax = d;
+						}
+					} while (he != f.getHalfedge());
+				}
+				mesh.deleteEdge(longesthe);
+			}
+
+		}
+	}
+
+	/**
+	 *
+	 */
+	public static void fixNonManifoldVertices(final HE_Mesh mesh) {
+		int counter = 0;
+		do {
+			counter++;
+		} while (fixNonManifoldVerticesOnePass(mesh) || counter < 10);// Normally
+		// this should
+		// run at most
+		// 3 or 4
+		// times
+	}
+
+	/**
+	 * Remove all redundant vertices in straight edges.
+	 *
+	 */
+	public static void deleteCollinearVertices(final HE_Mesh mesh) {
+		final Iterator<HE_Vertex> vItr = mesh.vItr();
+		HE_Vertex v;
+		HE_Halfedge he;
+		while (vItr.hasNext()) {
+			v = vItr.next();
+			if (v.getVertexOrder() == 2) {
+				he = v.getHalfedge();
+				if (WB_Vector.isParallel(he.getHalfedgeTangent(), he.getNextInVertex().getHalfedgeTangent())) {
+					mesh.setNext(he.getPrevInFace(), he.getNextInFace());
+					mesh.setNext(he.getPair().getPrevInFace(), he.getPair().getNextInFace());
+					mesh.setVertex(he.getPair().getNextInFace(), he.getNextInFace().getVertex());
+					if (he.getFace() != null) {
+						if (he.getFace().getHalfedge() == he) {
+							mesh.setHalfedge(he.getFace(), he.getNextInFace());
+						}
+					}
+					if (he.getPair().getFace() != null) {
+						if (he.getPair().getFace().getHalfedge() == he.getPair()) {
+							mesh.setHalfedge(he.getPair().getFace(), he.getPair().getNextInFace());
+						}
+					}
+					vItr.remove();
+					mesh.remove(he);
+					mesh.remove(he.getPair());
+				}
+			}
+		}
+	}
+
+	/**
+	 *
+	 */
+	public static void deleteDegenerateTriangles(final HE_Mesh mesh) {
+		final List<HE_Face> faces = mesh.getFaces();
+		HE_Halfedge he;
+		for (final HE_Face face : faces) {
+			if (!mesh.contains(face)) {
+				continue; // face already removed by a previous change
+			}
+			if (face.isDegenerate()) {
+				final int fo = face.getFaceOrder();
+				if (fo == 3) {
+					HE_Halfedge degeneratehe = null;
+					he = face.getHalfedge();
+					do {
+						if (WB_Epsilon.isZero(he.getLength())) {
+							degeneratehe = he;
+							break;
+						}
+						he = he.getNextInFace();
+					} while (he != face.getHalfedge());
+					if (degeneratehe != null) {
+						// System.out.println("Zero length change!");
+						HET_MeshOp.collapseHalfedge(mesh, he);
+						continue;
+					}
+					he = face.getHalfedge();
+					double d;
+					double dmax = 0;
+					do {
+						d = he.getLength();
+						if (d > dmax) {
+							degeneratehe = he;
+							dmax = d;
+						}
+						he = he.getNextInFace();
+					} while (he != face.getHalfedge());
+					// System.out.println("Deleting longest edge: " + he);
+					mesh.deleteEdge(degeneratehe);
+				}
+			}
+		}
+	}
+
+	public static void clean(final HE_Mesh mesh) {
+		mesh.modify(new HEM_Clean());
+	}
+
+	/**
+	 * Fix loops.
+	 */
+	public static void fixLoops(final HE_Mesh mesh) {
+		for (final HE_Halfedge he : mesh.getHalfedges()) {
+			if (he.getPrevInFace() == null) {
+				HE_Halfedge hen = he.getNextInFace();
+				while (hen.getNextInFace() != he) {
+					hen = hen.getNextInFace();
+				}
+				mesh.setNext(hen, he);
+			}
+		}
+	}
+
+	/**
+	 * Find all pairs of faces that intersect, excluding faces that share a
+	 * vertex. The mesh geometry is not modified, polygonal faces are
+	 * triangulated internally. Intersecting faces get internal label 1, all
+	 * other faces are reset to 0. There is one result per pair of intersecting
+	 * faces, its segment spans the intersections of all their triangles.
+	 * Faces that only touch, with a zero-length intersection, are not
+	 * reported. The results are sorted in a fixed order independent of the
+	 * number of threads.
+	 *
+	 * @param mesh
+	 * @return
+	 */
+	public static List<HET_SelfIntersectionResult> checkSelfIntersection(final HE_Mesh mesh) {
+		return checkSelfIntersection(mesh, new WB_BVH(mesh));
+	}
+
+	/**
+	 * Find all pairs of faces that intersect, using an existing WB_BVH of the
+	 * mesh. See checkSelfIntersection(HE_Mesh).
+	 *
+	 * @param mesh
+	 * @param bvh
+	 * @return
+	 */
+	public static List<HET_SelfIntersectionResult> checkSelfIntersection(final HE_Mesh mesh, final WB_BVH bvh) {
+		tracker.setStatus("HET_Fixer", "Starting self-intersection check.", +1);
+		final SelfIntersectionVisitor visitor = new SelfIntersectionVisitor(bvh, false);
+		bvh.getSelfOverlaps(visitor);
+		final List<SelfIntersection> found = new ArrayList<SelfIntersection>(visitor.intersections);
+		Collections.sort(found);
+		mesh.resetFaceInternalLabels();
+		final List<HET_SelfIntersectionResult> selfints = new FastTable<HET_SelfIntersectionResult>();
+		final TDoubleArrayList points = new TDoubleArrayList();
+		int i = 0;
+		while (i < found.size()) {
+			// one result per face pair, the pairs are consecutive after sorting
+			final SelfIntersection si = found.get(i);
+			points.resetQuick();
+			int j = i;
+			while (j < found.size() && found.get(j).face1 == si.face1 && found.get(j).face2 == si.face2) {
+				addEndpoints(found.get(j).segment, points);
+				j++;
+			}
+			final HE_Face f1 = bvh.getFace(si.triangle1);
+			final HE_Face f2 = bvh.getFace(si.triangle2);
+			f1.setInternalLabel(1);
+			f2.setInternalLabel(1);
+			selfints.add(new HET_SelfIntersectionResult(f1, f2, getLongestSpan(points)));
+			i = j;
+		}
+		tracker.setStatus("HET_Fixer", "Exiting self-intersection check.", -1);
+		return selfints;
+	}
+
+	/**
+	 * Intersections of one face with the faces in an WB_AABBTree. Only
+	 * candidates with a higher key are checked, so every pair is found once
+	 * when all faces are checked. Faces sharing a vertex and faces that only
+	 * touch are skipped. Intersecting candidates get internal label 1.
+	 *
+	 * @param tri
+	 * @param tree
+	 * @return
+	 */
+	static List<HET_SelfIntersectionResult> checkSelfIntersection(final HE_Face tri, final WB_AABBTree tree) {
+		final List<HET_SelfIntersectionResult> selfints = new FastTable<HET_SelfIntersectionResult>();
+		final HE_RASTrove<HE_Face> candidates = new HE_RASTrove<HE_Face>();
+		final List<WB_AABBNode> nodes = WB_GeometryOp.getIntersection3D(tri.toAABB(), tree);
+		for (final WB_AABBNode n : nodes) {
+			candidates.addAll(n.getFaces());
+		}
+		for (final HE_Vertex v : tri.getFaceVertices()) {
+			candidates.removeAll(v.getFaceStar());
+		}
+		final WB_Predicates predicates = new WB_Predicates();
+		final double[][] triangles = getTriangles(tri);
+		final TDoubleArrayList points = new TDoubleArrayList();
+		for (final HE_Face candidate : candidates) {
+			if (candidate.getKey() > tri.getKey()) {
+				final double[][] ctriangles = getTriangles(candidate);
+				points.resetQuick();
+				for (int i = 0; i < triangles.length; i += 3) {
+					for (int j = 0; j < ctriangles.length; j += 3) {
+						final WB_Segment segment = getIntersection(predicates, triangles[i], triangles[i + 1],
+								triangles[i + 2], ctriangles[j], ctriangles[j + 1], ctriangles[j + 2]);
+						if (segment != null && !WB_Epsilon.isZero(segment.getLength())) {
+							addEndpoints(segment, points);
+						}
+					}
+				}
+				if (points.size() > 0) {
+					candidate.setInternalLabel(1);
+					selfints.add(new HET_SelfIntersectionResult(tri, candidate, getLongestSpan(points)));
+				}
+			}
+		}
+		return selfints;
+	}
+
+	/**
+	 *
+	 *
+	 * @param face
+	 * @return corners of the triangles of a face, three per triangle
+	 */
+	private static double[][] getTriangles(final HE_Face face) {
+		final HE_Vertex[] vertices = face.getFaceVertices().toArray(new HE_Vertex[0]);
+		final int[] triangles = vertices.length == 3 ? new int[] { 0, 1, 2 } : face.getTriangles();
+		final double[][] result = new double[triangles.length][];
+		for (int i = 0; i < triangles.length; i++) {
+			final HE_Vertex v = vertices[triangles[i]];
+			result[i] = new double[] { v.xd(), v.yd(), v.zd() };
+		}
+		return result;
+	}
+
+	/**
+	 * Check if any two faces intersect, excluding faces that share a vertex.
+	 * Stops at the first intersection found. The mesh is not modified.
+	 *
+	 * @param mesh
+	 * @return
+	 */
+	public static boolean hasSelfIntersection(final HE_Mesh mesh) {
+		return hasSelfIntersection(new WB_BVH(mesh));
+	}
+
+	/**
+	 * Check if any two faces intersect, using an existing WB_BVH of the mesh.
+	 *
+	 * @param bvh
+	 * @return
+	 */
+	public static boolean hasSelfIntersection(final WB_BVH bvh) {
+		return bvh.getSelfOverlaps(new SelfIntersectionVisitor(bvh, true));
+	}
+
+	/**
+	 * Narrow phase for the triangle pairs reported by the WB_BVH broad phase.
+	 * Pairs that share a vertex, directly or through their faces, are skipped.
+	 */
+	static class SelfIntersectionVisitor implements WB_OverlapVisitor {
+		final WB_BVH bvh;
+		final boolean stopAtFirst;
+		final WB_Predicates predicates;
+		final ConcurrentLinkedQueue<SelfIntersection> intersections;
+
+		/**
+		 *
+		 *
+		 * @param bvh
+		 * @param stopAtFirst
+		 */
+		SelfIntersectionVisitor(final WB_BVH bvh, final boolean stopAtFirst) {
+			this.bvh = bvh;
+			this.stopAtFirst = stopAtFirst;
+			predicates = new WB_Predicates();
+			intersections = new ConcurrentLinkedQueue<SelfIntersection>();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see wblut.geom.WB_BVH.WB_OverlapVisitor#visit(int, int)
+		 */
+		@Override
+		public boolean visit(final int triangle1, final int triangle2) {
+			if (shareVertex(triangle1, triangle2)) {
+				return true;
+			}
+			final double[] a0 = new double[3], a1 = new double[3], a2 = new double[3];
+			final double[] b0 = new double[3], b1 = new double[3], b2 = new double[3];
+			bvh.getTriangle(triangle1, a0, a1, a2);
+			bvh.getTriangle(triangle2, b0, b1, b2);
+			final WB_Segment segment = getIntersection(predicates, a0, a1, a2, b0, b1, b2);
+			if (segment == null || WB_Epsilon.isZero(segment.getLength())) {
+				return true;
+			}
+			final int f1 = bvh.getFaceIndex(triangle1);
+			final int f2 = bvh.getFaceIndex(triangle2);
+			intersections.add(f1 < f2 ? new SelfIntersection(f1, f2, triangle1, triangle2, segment)
+					: new SelfIntersection(f2, f1, triangle2, triangle1, segment));
+			return !stopAtFirst;
+		}
+
+		/**
+		 *
+		 *
+		 * @param triangle1
+		 * @param triangle2
+		 * @return
+		 */
+		boolean shareVertex(final int triangle1, final int triangle2) {
+			final int f1 = bvh.getFaceIndex(triangle1);
+			final int f2 = bvh.getFaceIndex(triangle2);
+			if (f1 == f2) {
+				return true;
+			}
+			for (int i = 0; i < 3; i++) {
+				for (int j = 0; j < 3; j++) {
+					if (bvh.getVertexIndex(triangle1, i) == bvh.getVertexIndex(triangle2, j)) {
+						return true;
+					}
+				}
+			}
+			final HE_Face face1 = bvh.getFace(triangle1);
+			final HE_Face face2 = bvh.getFace(triangle2);
+			if (face1.getFaceOrder() == 3 && face2.getFaceOrder() == 3) {
+				return false;
+			}
+			HE_Halfedge he1 = face1.getHalfedge();
+			do {
+				HE_Halfedge he2 = face2.getHalfedge();
+				do {
+					if (he1.getVertex() == he2.getVertex()) {
+						return true;
+					}
+					he2 = he2.getNextInFace();
+				} while (he2 != face2.getHalfedge());
+				he1 = he1.getNextInFace();
+			} while (he1 != face1.getHalfedge());
+			return false;
+		}
+	}
+
+	/**
+	 * Intersection of two triangles. Whether the triangles intersect is
+	 * decided with the filtered exact orientation predicates, only the
+	 * returned segment is approximate. Triangles that only touch give a
+	 * degenerate segment.
+	 *
+	 * @param predicates
+	 * @param a0
+	 * @param a1
+	 * @param a2
+	 * @param b0
+	 * @param b1
+	 * @param b2
+	 * @return intersection segment, null if the triangles don't intersect
+	 */
+	static WB_Segment getIntersection(final WB_Predicates predicates, final double[] a0, final double[] a1,
+			final double[] a2, final double[] b0, final double[] b1, final double[] b2) {
+		final double sb0 = predicates.orientTetra(a0, a1, a2, b0);
+		final double sb1 = predicates.orientTetra(a0, a1, a2, b1);
+		final double sb2 = predicates.orientTetra(a0, a1, a2, b2);
+		if ((sb0 > 0 && sb1 > 0 && sb2 > 0) || (sb0 < 0 && sb1 < 0 && sb2 < 0)) {
+			return null;
+		}
+		final double sa0 = predicates.orientTetra(b0, b1, b2, a0);
+		final double sa1 = predicates.orientTetra(b0, b1, b2, a1);
+		final double sa2 = predicates.orientTetra(b0, b1, b2, a2);
+		if ((sa0 > 0 && sa1 > 0 && sa2 > 0) || (sa0 < 0 && sa1 < 0 && sa2 < 0)) {
+			return null;
+		}
+		final TDoubleArrayList points = new TDoubleArrayList();
+		if (sb0 == 0 && sb1 == 0 && sb2 == 0) {
+			getCoplanarIntersection(predicates, a0, a1, a2, b0, b1, b2, points);
+		} else {
+			getEdgeIntersection(predicates, a0, a1, sa0, sa1, b0, b1, b2, points);
+			getEdgeIntersection(predicates, a1, a2, sa1, sa2, b0, b1, b2, points);
+			getEdgeIntersection(predicates, a2, a0, sa2, sa0, b0, b1, b2, points);
+			getEdgeIntersection(predicates, b0, b1, sb0, sb1, a0, a1, a2, points);
+			getEdgeIntersection(predicates, b1, b2, sb1, sb2, a0, a1, a2, points);
+			getEdgeIntersection(predicates, b2, b0, sb2, sb0, a0, a1, a2, points);
+		}
+		return getLongestSpan(points);
+	}
+
+	/**
+	 *
+	 *
+	 * @param segment
+	 * @param points
+	 */
+	private static void addEndpoints(final WB_Segment segment, final TDoubleArrayList points) {
+		points.add(segment.getOrigin().xd());
+		points.add(segment.getOrigin().yd());
+		points.add(segment.getOrigin().zd());
+		points.add(segment.getEndpoint().xd());
+		points.add(segment.getEndpoint().yd());
+		points.add(segment.getEndpoint().zd());
+	}
+
+	/**
+	 * Segment between the two points furthest apart.
+	 *
+	 * @param points
+	 *            x0,y0,z0,x1,...
+	 * @return segment, null if there are no points
+	 */
+	private static WB_Segment getLongestSpan(final TDoubleArrayList points) {
+		final int n = points.size() / 3;
+		if (n == 0) {
+			return null;
+		}
+		int first = 0, second = 0;
+		double max = -1;
+		for (int i = 0; i < n; i++) {
+			for (int j = i; j < n; j++) {
+				final double dx = points.get(3 * i) - points.get(3 * j);
+				final double dy = points.get(3 * i + 1) - points.get(3 * j + 1);
+				final double dz = points.get(3 * i + 2) - points.get(3 * j + 2);
+				final double d2 = dx * dx + dy * dy + dz * dz;
+				if (d2 > max) {
+					max = d2;
+					first = i;
+					second = j;
+				}
+			}
+		}
+		return new WB_Segment(points.get(3 * first), points.get(3 * first + 1), points.get(3 * first + 2),
+				points.get(3 * second), points.get(3 * second + 1), points.get(3 * second + 2));
+	}
+
+	/**
+	 * Add the point where the edge pq crosses triangle b0b1b2, if it does. sp
+	 * and sq are the orientations of p and q with respect to the triangle.
+	 * Edges lying in the plane of the triangle are skipped, their contact is
+	 * found through the other edges.
+	 *
+	 * @param predicates
+	 * @param p
+	 * @param q
+	 * @param sp
+	 * @param sq
+	 * @param b0
+	 * @param b1
+	 * @param b2
+	 * @param points
+	 */
+	private static void getEdgeIntersection(final WB_Predicates predicates, final double[] p, final double[] q,
+			final double sp, final double sq, final double[] b0, final double[] b1, final double[] b2,
+			final TDoubleArrayList points) {
+		if ((sp > 0 && sq > 0) || (sp < 0 && sq < 0) || (sp == 0 && sq == 0)) {
+			return;
+		}
+		final double o1 = predicates.orientTetra(p, q, b0, b1);
+		final double o2 = predicates.orientTetra(p, q, b1, b2);
+		final double o3 = predicates.orientTetra(p, q, b2, b0);
+		if ((o1 > 0 || o2 > 0 || o3 > 0) && (o1 < 0 || o2 < 0 || o3 < 0)) {
+			return;
+		}
+		final double nx = (b1[1] - b0[1]) * (b2[2] - b0[2]) - (b1[2] - b0[2]) * (b2[1] - b0[1]);
+		final double ny = (b1[2] - b0[2]) * (b2[0] - b0[0]) - (b1[0] - b0[0]) * (b2[2] - b0[2]);
+		final double nz = (b1[0] - b0[0]) * (b2[1] - b0[1]) - (b1[1] - b0[1]) * (b2[0] - b0[0]);
+		final double dp = nx * (p[0] - b0[0]) + ny * (p[1] - b0[1]) + nz * (p[2] - b0[2]);
+		final double dq = nx * (q[0] - b0[0]) + ny * (q[1] - b0[1]) + nz * (q[2] - b0[2]);
+		double t = sp == 0 ? 0 : sq == 0 ? 1 : dp / (dp - dq);
+		t = Double.isNaN(t) ? 0 : Math.max(0, Math.min(1, t));
+		points.add(p[0] + t * (q[0] - p[0]));
+		points.add(p[1] + t * (q[1] - p[1]));
+		points.add(p[2] + t * (q[2] - p[2]));
+	}
+
+	/**
+	 * Collect the corners of the overlap of two coplanar triangles: corners
+	 * inside the other triangle and crossings of the edges.
+	 *
+	 * @param predicates
+	 * @param a0
+	 * @param a1
+	 * @param a2
+	 * @param b0
+	 * @param b1
+	 * @param b2
+	 * @param points
+	 */
+	private static void getCoplanarIntersection(final WB_Predicates predicates, final double[] a0,
+			final double[] a1, final double[] a2, final double[] b0, final double[] b1, final double[] b2,
+			final TDoubleArrayList points) {
+		final double nx = Math.abs((a1[1] - a0[1]) * (a2[2] - a0[2]) - (a1[2] - a0[2]) * (a2[1] - a0[1]));
+		final double ny = Math.abs((a1[2] - a0[2]) * (a2[0] - a0[0]) - (a1[0] - a0[0]) * (a2[2] - a0[2]));
+		final double nz = Math.abs((a1[0] - a0[0]) * (a2[1] - a0[1]) - (a1[1] - a0[1]) * (a2[0] - a0[0]));
+		// project on the coordinate plane most parallel to the triangles
+		final int u = nx >= ny && nx >= nz ? 1 : 0;
+		final int v = nx >= ny && nx >= nz ? 2 : ny >= nz ? 2 : 1;
+		final double[][] a = new double[][] { a0, a1, a2 };
+		final double[][] b = new double[][] { b0, b1, b2 };
+		final double[][] pa = new double[3][];
+		final double[][] pb = new double[3][];
+		for (int i = 0; i < 3; i++) {
+			pa[i] = new double[] { a[i][u], a[i][v] };
+			pb[i] = new double[] { b[i][u], b[i][v] };
+		}
+		for (int i = 0; i < 3; i++) {
+			if (isInside2D(predicates, pa[i], pb)) {
+				points.add(a[i]);
+			}
+			if (isInside2D(predicates, pb[i], pa)) {
+				points.add(b[i]);
+			}
+		}
+		for (int i = 0; i < 3; i++) {
+			final int ni = (i + 1) % 3;
+			for (int j = 0; j < 3; j++) {
+				final int nj = (j + 1) % 3;
+				final double o1 = predicates.orientTri(pa[i], pa[ni], pb[j]);
+				final double o2 = predicates.orientTri(pa[i], pa[ni], pb[nj]);
+				final double o3 = predicates.orientTri(pb[j], pb[nj], pa[i]);
+				final double o4 = predicates.orientTri(pb[j], pb[nj], pa[ni]);
+				if (o1 * o2 < 0 && o3 * o4 < 0) {
+					final double d1x = pa[ni][0] - pa[i][0], d1y = pa[ni][1] - pa[i][1];
+					final double d2x = pb[nj][0] - pb[j][0], d2y = pb[nj][1] - pb[j][1];
+					final double den = d1x * d2y - d1y * d2x;
+					double t = ((pb[j][0] - pa[i][0]) * d2y - (pb[j][1] - pa[i][1]) * d2x) / den;
+					t = Double.isNaN(t) ? 0 : Math.max(0, Math.min(1, t));
+					for (int c = 0; c < 3; c++) {
+						points.add(a[i][c] + t * (a[ni][c] - a[i][c]));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Point in triangle test in 2D, points on the boundary are inside.
+	 *
+	 * @param predicates
+	 * @param p
+	 * @param t
+	 * @return
+	 */
+	private static boolean isInside2D(final WB_Predicates predicates, final double[] p, final double[][] t) {
+		final double o1 = predicates.orientTri(t[0], t[1], p);
+		final double o2 = predicates.orientTri(t[1], t[2], p);
+		final double o3 = predicates.orientTri(t[2], t[0], p);
+		return !((o1 > 0 || o2 > 0 || o3 > 0) && (o1 < 0 || o2 < 0 || o3 < 0));
+	}
+
+	/**
+	 * Intersecting pair of triangles, ordered by face index and triangle
+	 * index. face1 is lower than face2.
+	 */
+	static class SelfIntersection implements Comparable<SelfIntersection> {
+		final int face1;
+		final int face2;
+		final int triangle1;
+		final int triangle2;
+		final WB_Segment segment;
+
+		/**
+		 *
+		 *
+		 * @param face1
+		 * @param face2
+		 * @param triangle1
+		 *            triangle of face1
+		 * @param triangle2
+		 *            triangle of face2
+		 * @param segment
+		 */
+		SelfIntersection(final int face1, final int face2, final int triangle1, final int triangle2,
+				final WB_Segment segment) {
+			this.face1 = face1;
+			this.face2 = face2;
+			this.triangle1 = triangle1;
+			this.triangle2 = triangle2;
+			this.segment = segment;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Comparable#compareTo(java.lang.Object)
+		 */
+		@Override
+		public int compareTo(final SelfIntersection o) {
+			if (face1 != o.face1) {
+				return face1 < o.face1 ? -1 : 1;
+			}
+			if (face2 != o.face2) {
+				return face2 < o.face2 ? -1 : 1;
+			}
+			if (triangle1 != o.triangle1) {
+				return triangle1 < o.triangle1 ? -1 : 1;
+			}
+			return triangle2 < o.triangle2 ? -1 : triangle2 == o.triangle2 ? 0 : 1;
+		}
+	}
+
+	/**
+	 *
+	 */
+	public static class HET_SelfIntersectionResult {
+		/**
+		 *
+		 */
+		HE_Face f1;
+		/**
+		 *
+		 */
+		HE_Face f2;
+		/**
+		 *
+		 */
+		WB_Segment segment;
+
+		/**
+		 *
+		 *
+		 * @param f1
+		 * @param f2
+		 * @param seg
+		 */
+		public HET_SelfIntersectionResult(final HE_Face f1, final HE_Face f2, final WB_Segment seg) {
+			this.f1 = f1;
+			this.f2 = f2;
+			segment = seg;
+		}
+
+		/**
+		 *
+		 *
+		 * @return
+		 */
+		public HE_Face getFace1() {
+			return f1;
+		}
+
+		/**
+		 *
+		 *
+		 * @return
+		 */
+		public HE_Face getFace2() {
+			return f2;
+		}
+
+		/**
+		 *
+		 *
+		 * @return
+		 */
+		public WB_Segment getSegment() {
+			return segment;
+		}
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,314 @@
+/*
+ * This file is part of HE_Mesh, a library for creating and manipulating meshes.
+ * It is dedicated to the public domain. To the extent possible under law,
+ * I , Frederik Vanhoutte, have waived all copyright and related or neighboring
+ * rights.
+ *
+ * This work is published from Belgium. (http://creativecommons.org/publicdomain/zero/1.0/)
+ *
+ */
+package wblut.hemesh;
+
+import java.util.Arrays;
+
+import wblut.core.WB_IndexedHeap;
+import wblut.core.WB_Parallel;
+import wblut.core.WB_Parallel.WB_RangeTask;
+
+/**
+ * Approximate geodesic distances over the surface of a mesh by fast marching
+ * on the triangulated faces. Unlike shortest paths along the edges, the
+ * distance front can cross faces: a vertex is updated from two settled
+ * vertices of a triangle by unfolding the triangle and placing a virtual
+ * source at the known distances. If the unfolded front does not pass through
+ * the opposite edge, the update falls back to the edge lengths.
+ *
+ * The result is exact for a single source on a flat mesh and converges to
+ * the geodesic distance when the mesh is refined. Vertex indices are those of
+ * getVertexWithIndex().
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class HET_GeodesicDistance {
+	/**
+	 *
+	 */
+	private static final int ARITY = 4;
+	/**
+	 *
+	 */
+	private final HE_Mesh mesh;
+	/**
+	 *
+	 */
+	private final int numberOfVertices;
+	/**
+	 *
+	 */
+	private final double[] positions;
+	/**
+	 * Triangles of the faces, three vertex indices each.
+	 */
+	private final int[] triangles;
+	/**
+	 * Triangles around vertex v are in [triangleOffsets[v],
+	 * triangleOffsets[v+1]) of vertexTriangles.
+	 */
+	private final int[] triangleOffsets;
+	/**
+	 *
+	 */
+	private final int[] vertexTriangles;
+
+	/**
+	 *
+	 *
+	 * @param mesh
+	 */
+	public HET_GeodesicDistance(final HE_Mesh mesh) {
+		this.mesh = mesh;
+		final HE_Vertex[] vertices = mesh.getVerticesAsArray();
+		numberOfVertices = vertices.length;
+		positions = new double[3 * numberOfVertices];
+		for (int i = 0; i < numberOfVertices; i++) {
+			positions[3 * i] = vertices[i].xd();
+			positions[3 * i + 1] = vertices[i].yd();
+			positions[3 * i + 2] = vertices[i].zd();
+		}
+		final int[][] faces = mesh.getFacesAsInt();
+		final HE_Face[] faceArray = mesh.getFacesAsArray();
+		final int[][] faceTriangles = new int[faceArray.length][];
+		WB_Parallel.forRange(0, faceArray.length, 64, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int f = start; f < end; f++) {
+					faceTriangles[f] = faces[f].length < 3 ? new int[0] : faceArray[f].getTriangles();
+				}
+			}
+		});
+		int n = 0;
+		for (final int[] tris : faceTriangles) {
+			n += tris.length;
+		}
+		triangles = new int[n];
+		n = 0;
+		for (int f = 0; f < faces.length; f++) {
+			for (final int i : faceTriangles[f]) {
+				triangles[n++] = faces[f][i];
+			}
+		}
+		triangleOffsets = new int[numberOfVertices + 1];
+		for (final int v : triangles) {
+			triangleOffsets[v + 1]++;
+		}
+		for (int v = 0; v < numberOfVertices; v++) {
+			triangleOffsets[v + 1] += triangleOffsets[v];
+		}
+		vertexTriangles = new int[triangles.length];
+		final int[] fill = Arrays.copyOf(triangleOffsets, numberOfVertices);
+		for (int i = 0; i < triangles.length; i++) {
+			vertexTriangles[fill[triangles[i]]++] = i / 3;
+		}
+	}
+
+	/**
+	 * Distance of every vertex to the nearest source.
+	 *
+	 * @param sources
+	 *            vertex indices
+	 * @return distance per vertex index, +infinity if not reachable
+	 */
+	public double[] getDistances(final int... sources) {
+		return getDistances(sources, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Distance of every vertex to the nearest source.
+	 *
+	 * @param sources
+	 * @return distance per vertex index, +infinity if not reachable
+	 */
+	public double[] getDistances(final HE_Vertex... sources) {
+		final int[] indices = new int[sources.length];
+		for (int i = 0; i < sources.length; i++) {
+			indices[i] = mesh.getIndex(sources[i]);
+		}
+		return getDistances(indices, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Distance of every vertex to the nearest source, the front stops at
+	 * maxDistance.
+	 *
+	 * @param sources
+	 *            vertex indices
+	 * @param maxDistance
+	 * @return distance per vertex index, +infinity if further than maxDistance
+	 */
+	public double[] getDistances(final int[] sources, final double maxDistance) {
+		return new March().run(sources, maxDistance);
+	}
+
+	/**
+	 * Distance fields of several sources separately, computed in parallel.
+	 *
+	 * @param sources
+	 *            vertex indices
+	 * @return one distance field per source
+	 */
+	public double[][] getDistanceFields(final int[] sources) {
+		final double[][] result = new double[sources.length][];
+		WB_Parallel.forRange(0, sources.length, 1, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				final March march = new March();
+				for (int i = start; i < end; i++) {
+					result[i] = march.run(new int[] { sources[i] }, Double.POSITIVE_INFINITY);
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 *
+	 *
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private double distance(final int a, final int b) {
+		final double dx = positions[3 * b] - positions[3 * a];
+		final double dy = positions[3 * b + 1] - positions[3 * a + 1];
+		final double dz = positions[3 * b + 2] - positions[3 * a + 2];
+		return Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+
+	/**
+	 * Distance of c from a and b with known distances da and db. The triangle
+	 * is unfolded with a at the origin and b on the positive x-axis, c above
+	 * the x-axis. The virtual source lies below the x-axis at distance da
+	 * from a and db from b.
+	 *
+	 * @param a
+	 * @param b
+	 * @param c
+	 * @param da
+	 * @param db
+	 * @return
+	 */
+	private double update(final int a, final int b, final int c, final double da, final double db) {
+		final double ac = distance(a, c);
+		final double fallback = Math.min(da + ac, db + distance(b, c));
+		final double abx = positions[3 * b] - positions[3 * a];
+		final double aby = positions[3 * b + 1] - positions[3 * a + 1];
+		final double abz = positions[3 * b + 2] - positions[3 * a + 2];
+		final double ab = Math.sqrt(abx * abx + aby * aby + abz * abz);
+		if (ab == 0) {
+			return fallback;
+		}
+		final double acx = positions[3 * c] - positions[3 * a];
+		final double acy = positions[3 * c + 1] - positions[3 * a + 1];
+		final double acz = positions[3 * c + 2] - positions[3 * a + 2];
+		final double cx = (acx * abx + acy * aby + acz * abz) / ab;
+		final double cy = Math.sqrt(Math.max(0, ac * ac - cx * cx));
+		final double sx = (da * da - db * db + ab * ab) / (2 * ab);
+		final double sy2 = da * da - sx * sx;
+		if (sy2 < 0 || cy == 0) {
+			return fallback;
+		}
+		final double sy = -Math.sqrt(sy2);
+		// the straight line from the source to c should cross ab
+		final double x = sx + (cx - sx) * (-sy / (cy - sy));
+		if (x < 0 || x > ab) {
+			return fallback;
+		}
+		final double d = Math.sqrt((cx - sx) * (cx - sx) + (cy - sy) * (cy - sy));
+		if (d < Math.max(da, db)) {
+			return fallback;
+		}
+		return Math.min(d, fallback);
+	}
+
+	/**
+	 * Fast marching workspace.
+	 */
+	private class March {
+		/**
+		 *
+		 */
+		final WB_IndexedHeap heap;
+		/**
+		 *
+		 */
+		final boolean[] settled;
+
+		/**
+		 *
+		 */
+		March() {
+			heap = new WB_IndexedHeap(numberOfVertices, ARITY);
+			settled = new boolean[numberOfVertices];
+		}
+
+		/**
+		 *
+		 *
+		 * @param sources
+		 * @param maxDistance
+		 * @return
+		 */
+		double[] run(final int[] sources, final double maxDistance) {
+			final double[] distances = new double[numberOfVertices];
+			Arrays.fill(distances, Double.POSITIVE_INFINITY);
+			Arrays.fill(settled, false);
+			heap.clear();
+			for (final int source : sources) {
+				if (source < 0 || source >= numberOfVertices) {
+					throw new IllegalArgumentException("Vertex " + source + " does not exist.");
+				}
+				distances[source] = 0;
+				heap.update(source, 0);
+			}
+			while (!heap.isEmpty() && heap.peekKey() <= maxDistance) {
+				final int u = heap.poll();
+				settled[u] = true;
+				final double du = distances[u];
+				for (int k = triangleOffsets[u]; k < triangleOffsets[u + 1]; k++) {
+					final int t = 3 * vertexTriangles[k];
+					final int i = triangles[t] == u ? 0 : triangles[t + 1] == u ? 1 : 2;
+					final int p = triangles[t + (i + 1) % 3];
+					final int q = triangles[t + (i + 2) % 3];
+					relax(u, q, p, du, distances);
+					relax(u, p, q, du, distances);
+				}
+			}
+			while (!heap.isEmpty()) {
+				distances[heap.poll()] = Double.POSITIVE_INFINITY;
+			}
+			return distances;
+		}
+
+		/**
+		 * Update c from the newly settled vertex u, and from u and b if b is
+		 * settled too.
+		 *
+		 * @param u
+		 * @param b
+		 * @param c
+		 * @param du
+		 * @param distances
+		 */
+		void relax(final int u, final int b, final int c, final double du, final double[] distances) {
+			if (settled[c]) {
+				return;
+			}
+			final double d = settled[b] ? update(u, b, c, du, distances[b]) : du + distance(u, c);
+			if (d < distances[c]) {
+				distances[c] = d;
+				heap.decreaseKey(c, d);
+			}
+		}
+	}
+}
@@ -12,13 +12,10 @@ package wblut.hemesh;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.ListIterator;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 
 import javolution.util.FastTable;
+import wblut.core.WB_Parallel;
+import wblut.core.WB_Parallel.WB_RangeFunction;
 
 
 /**
@@ -58,31 +55,8 @@ public  class HET_MTVisitorFace<E extends Object> {
 	private List<E> visit(final List<HE_Face> faces){
 
 		List<E> result=new FastTable<E>();
-		try {
-			int threadCount = Runtime.getRuntime().availableProcessors();
-			int dfaces = faces.size() / threadCount;
-			final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
-			final List<Future<List<E>>>  list=new ArrayList<Future<List<E>>>();
-			int i = 0;
-			for (i = 0; i < (threadCount - 1); i++) {
-				final Callable<List<E>> runner = new HET_FaceVisitor(dfaces * i, (dfaces * (i + 1)) - 1,i,faces);
-				list.add(executor.submit(runner));
-			}
-			final Callable<List<E>> runner = new HET_FaceVisitor(dfaces * i, faces.size() - 1,i,faces);
-			list.add(executor.submit(runner));
-
-			for (Future<List<E>> future : list) {
-				result.addAll(future.get());
-			}
-
-
-
-			executor.shutdown();
-
-		}catch(final InterruptedException ex) {
-			ex.printStackTrace();
-		} catch(final ExecutionException ex) {
-			ex.printStackTrace();
+		for (List<E> chunk : WB_Parallel.map(0, faces.size(), new HET_FaceVisitor(faces))) {
+			result.addAll(chunk);
 		}
 		return result;
 	}
@@ -90,37 +64,28 @@ public  class HET_MTVisitorFace<E extends Object> {
 
 
 
-	class HET_FaceVisitor implements Callable<List<E>>{
-		int start;
-		int end;
-		int id;
+	class HET_FaceVisitor implements WB_RangeFunction<List<E>>{
 		List<HE_Face> faces;
 
 
 		/**
 		 * 
 		 *
-		 * @param s 
-		 * @param e 
-		 * @param id 
 		 * @param faces 
 		 */
-		public HET_FaceVisitor(final int s, final int e,final int id,final List<HE_Face> faces) {
-			start = s;
-			end = e;
-			this.id=id;
+		public HET_FaceVisitor(final List<HE_Face> faces) {
 			this.faces=faces;
 
 		}
 
 		/* (non-Javadoc)
-		 * @see java.util.concurrent.Callable#call()
+		 * @see wblut.core.WB_Parallel.WB_RangeFunction#apply(int, int)
 		 */
 		@Override
-		public List<E> call() {
-			ArrayList<E> result=new ArrayList<E>();
+		public List<E> apply(final int start, final int end) {
+			ArrayList<E> result=new ArrayList<E>(end-start);
 			ListIterator<HE_Face> itr=faces.listIterator(start);
-			for (int i = start; i <= end; i++) {
+			for (int i = start; i < end; i++) {
 				result.add(faceInfo.retrieve(itr.next()));
 			}
 			return result;
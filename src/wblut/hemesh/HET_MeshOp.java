@@ -11,14 +11,19 @@ package wblut.hemesh;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.set.hash.TIntHashSet;
 import javolution.util.FastTable;
 import wblut.core.WB_ProgressCounter;
 import wblut.core.WB_ProgressTracker;
 import wblut.geom.WB_AABBTree;
 import wblut.geom.WB_AABBTree.WB_AABBNode;
+import wblut.geom.WB_BVH;
 import wblut.geom.WB_Classification;
 import wblut.geom.WB_Coord;
 import wblut.geom.WB_CoordinateSystem;
@@ -26,6 +31,7 @@ import wblut.geom.WB_GeometryFactory;
 import wblut.geom.WB_GeometryOp;
 import wblut.geom.WB_IntersectionResult;
 import wblut.geom.WB_Line;
+import wblut.geom.WB_Linear;
 import wblut.geom.WB_Plane;
 import wblut.geom.WB_Point;
 import wblut.geom.WB_Polygon;
@@ -2053,7 +2059,7 @@ public class HET_MeshOp {
 
 	public static boolean isInside(final HE_Mesh mesh, final WB_Coord p) {
 
-		return isInside(new WB_AABBTree(mesh, 1), p);
+		return isInside(new WB_BVH(mesh), p);
 	}
 
 	public static boolean isInside(final WB_AABBTree tree, final WB_Coord p) {
@@ -2388,6 +2394,337 @@ public class HET_MeshOp {
 		return p;
 	}
 
+	/**
+	 * All face hits of a linear object with parameter in [tmin, tmax], one per
+	 * face, sorted along the direction.
+	 *
+	 * @param bvh
+	 * @param L
+	 * @param tmin
+	 * @param tmax
+	 * @return
+	 */
+	private static List<HE_FaceIntersection> getIntersection(final WB_BVH bvh, final WB_Linear L, final double tmin,
+			final double tmax) {
+		final WB_Coord o = L.getOrigin();
+		final WB_Coord d = L.getDirection();
+		final TIntArrayList triangles = new TIntArrayList();
+		final TDoubleArrayList ts = new TDoubleArrayList();
+		bvh.getHits(o.xd(), o.yd(), o.zd(), d.xd(), d.yd(), d.zd(), tmin, tmax, triangles, ts);
+		final Integer[] order = new Integer[triangles.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(final Integer a, final Integer b) {
+				return Double.compare(ts.get(a), ts.get(b));
+			}
+		});
+		final List<HE_FaceIntersection> p = new FastTable<HE_FaceIntersection>();
+		final TIntHashSet faces = new TIntHashSet();
+		for (final Integer i : order) {
+			final int triangle = triangles.get(i);
+			if (faces.add(bvh.getFaceIndex(triangle))) {
+				p.add(new HE_FaceIntersection(bvh.getFace(triangle), L.getPointOnLine(ts.get(i))));
+			}
+		}
+		return p;
+	}
+
+	/**
+	 * Closest or furthest face hit of a linear object with parameter in [tmin,
+	 * tmax].
+	 *
+	 * @param bvh
+	 * @param L
+	 * @param tmin
+	 * @param tmax
+	 * @param closest
+	 * @return
+	 */
+	private static HE_FaceIntersection getExtremeIntersection(final WB_BVH bvh, final WB_Linear L,
+			final double tmin, final double tmax, final boolean closest) {
+		final WB_Coord o = L.getOrigin();
+		final WB_Coord d = L.getDirection();
+		final double[] tuv = new double[3];
+		final int triangle = closest
+				? bvh.getClosestHit(o.xd(), o.yd(), o.zd(), d.xd(), d.yd(), d.zd(), tmin, tmax, tuv)
+				: bvh.getFurthestHit(o.xd(), o.yd(), o.zd(), d.xd(), d.yd(), d.zd(), tmin, tmax, tuv);
+		if (triangle < 0) {
+			return null;
+		}
+		return new HE_FaceIntersection(bvh.getFace(triangle), L.getPointOnLine(tuv[0]));
+	}
+
+	/**
+	 * Closest or furthest face hit of a line, measured from the line origin.
+	 *
+	 * @param bvh
+	 * @param line
+	 * @param closest
+	 * @return
+	 */
+	private static HE_FaceIntersection getExtremeIntersection(final WB_BVH bvh, final WB_Line line,
+			final boolean closest) {
+		final HE_FaceIntersection forward = getExtremeIntersection(bvh, line, 0, Double.POSITIVE_INFINITY, closest);
+		final WB_Line reverse = new WB_Line(line.getOrigin(), new WB_Vector(line.getDirection()).mulSelf(-1));
+		final HE_FaceIntersection backward = getExtremeIntersection(bvh, reverse, 0, Double.POSITIVE_INFINITY,
+				closest);
+		if (forward == null) {
+			return backward;
+		}
+		if (backward == null) {
+			return forward;
+		}
+		final double df = forward.point.getSqDistance3D(line.getOrigin());
+		final double db = backward.point.getSqDistance3D(line.getOrigin());
+		return closest == df <= db ? forward : backward;
+	}
+
+	/**
+	 *
+	 *
+	 * @param bvh
+	 * @param ray
+	 * @return
+	 */
+	public static List<HE_FaceIntersection> getIntersection(final WB_BVH bvh, final WB_Ray ray) {
+		return getIntersection(bvh, ray, 0, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 *
+	 *
+	 * @param bvh
+	 * @param segment
+	 * @return
+	 */
+	public static List<HE_FaceIntersection> getIntersection(final WB_BVH bvh, final WB_Segment segment) {
+		return getIntersection(bvh, segment, 0, segment.getLength());
+	}
+
+	/**
+	 *
+	 *
+	 * @param bvh
+	 * @param line
+	 * @return
+	 */
+	public static List<HE_FaceIntersection> getIntersection(final WB_BVH bvh, final WB_Line line) {
+		return getIntersection(bvh, line, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 *
+	 *
+	 * @param bvh
+	 * @param P
+	 * @return
+	 */
+	public static List<WB_Segment> getIntersection(final WB_BVH bvh, final WB_Plane P) {
+		final List<WB_Segment> cuts = new FastTable<WB_Segment>();
+		for (final HE_Face face : bvh.getPotentialFaces(P)) {
+			cuts.addAll(WB_GeometryOp.getIntersection3D(face.toPolygon(), P));
+		}
+		return cuts;
+	}
+
+	/**
+	 * Point in mesh test, counts the faces crossed by a ray in a random
+	 * direction.
+	 *
+	 * @param bvh
+	 * @param p
+	 * @return
+	 */
+	public static boolean isInside(final WB_BVH bvh, final WB_Coord p) {
+		final WB_Vector dir = new WB_Vector(Math.random() - 0.5, Math.random() - 0.5, Math.random() - 0.5);
+		return getIntersection(bvh, new WB_Ray(p, dir)).size() % 2 == 1;
+	}
+
+	/**
+	 * Batch inside test, see WB_BVH.getInside.
+	 *
+	 * @param bvh
+	 * @param points
+	 *            3 values per point
+	 * @param inside
+	 *            receives true if the point is inside the mesh
+	 */
+	public static void isInside(final WB_BVH bvh, final double[] points, final boolean[] inside) {
+		bvh.getInside(points, inside);
+	}
+
+	/**
+	 * Batch closest intersection of rays, see WB_BVH.getClosestHits. Rays with
+	 * no intersection get t=POSITIVE_INFINITY and face index -1.
+	 *
+	 * @param bvh
+	 * @param origins
+	 *            3 values per ray
+	 * @param directions
+	 *            3 values per ray
+	 * @param t
+	 *            receives the distance along the ray, in units of the
+	 *            direction length
+	 * @param faceIndices
+	 *            receives the mesh face index
+	 * @param barycentrics
+	 *            receives u and v of the hit triangle, 2 values per ray, can
+	 *            be null
+	 */
+	public static void getClosestIntersections(final WB_BVH bvh, final double[] origins, final double[] directions,
+			final double[] t, final int[] faceIndices, final double[] barycentrics) {
+		bvh.getClosestHits(origins, directions, 0, Double.POSITIVE_INFINITY, t, faceIndices, barycentrics);
+	}
+
+	/**
+	 * Batch occlusion test of rays limited to [0, tmax], see
+	 * WB_BVH.getOcclusion.
+	 *
+	 * @param bvh
+	 * @param origins
+	 *            3 values per ray
+	 * @param directions
+	 *            3 values per ray
+	 * @param tmax
+	 * @param occluded
+	 *            receives true if the ray hits a face
+	 */
+	public static void getOcclusion(final WB_BVH bvh, final double[] origins, final double[] directions,
+			final double tmax, final boolean[] occluded) {
+		bvh.getOcclusion(origins, directions, 0, tmax, occluded);
+	}
+
+	/**
+	 *
+	 *
+	 * @param bvh
+	 * @param P
+	 * @return
+	 */
+	public static List<HE_Face> getPotentialIntersectedFaces(final WB_BVH bvh, final WB_Plane P) {
+		return bvh.getPotentialFaces(P);
+	}
+
+	/**
+	 *
+	 *
+	 * @param bvh
+	 * @param T
+	 * @return
+	 */
+	public static List<HE_Face> getPotentialIntersectedFaces(final WB_BVH bvh, final WB_Triangle T) {
+		return bvh.getPotentialFaces(T);
+	}
+
+	/**
+	 *
+	 *
+	 * @param bvh
+	 * @param R
+	 * @return
+	 */
+	public static List<HE_Face> getPotentialIntersectedFaces(final WB_BVH bvh, final WB_Ray R) {
+		final WB_Coord o = R.getOrigin();
+		final WB_Coord d = R.getDirection();
+		return bvh.getPotentialFaces(o.xd(), o.yd(), o.zd(), d.xd(), d.yd(), d.zd(), 0, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 *
+	 *
+	 * @param bvh
+	 * @param L
+	 * @return
+	 */
+	public static List<HE_Face> getPotentialIntersectedFaces(final WB_BVH bvh, final WB_Line L) {
+		final WB_Coord o = L.getOrigin();
+		final WB_Coord d = L.getDirection();
+		return bvh.getPotentialFaces(o.xd(), o.yd(), o.zd(), d.xd(), d.yd(), d.zd(), Double.NEGATIVE_INFINITY,
+				Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 *
+	 *
+	 * @param bvh
+	 * @param segment
+	 * @return
+	 */
+	public static List<HE_Face> getPotentialIntersectedFaces(final WB_BVH bvh, final WB_Segment segment) {
+		final WB_Coord o = segment.getOrigin();
+		final WB_Coord d = segment.getDirection();
+		return bvh.getPotentialFaces(o.xd(), o.yd(), o.zd(), d.xd(), d.yd(), d.zd(), 0, segment.getLength());
+	}
+
+	/**
+	 *
+	 *
+	 * @param bvh
+	 * @param ray
+	 * @return
+	 */
+	public static HE_FaceIntersection getClosestIntersection(final WB_BVH bvh, final WB_Ray ray) {
+		return getExtremeIntersection(bvh, ray, 0, Double.POSITIVE_INFINITY, true);
+	}
+
+	/**
+	 *
+	 *
+	 * @param bvh
+	 * @param ray
+	 * @return
+	 */
+	public static HE_FaceIntersection getFurthestIntersection(final WB_BVH bvh, final WB_Ray ray) {
+		return getExtremeIntersection(bvh, ray, 0, Double.POSITIVE_INFINITY, false);
+	}
+
+	/**
+	 *
+	 *
+	 * @param bvh
+	 * @param line
+	 * @return
+	 */
+	public static HE_FaceIntersection getClosestIntersection(final WB_BVH bvh, final WB_Line line) {
+		return getExtremeIntersection(bvh, line, true);
+	}
+
+	/**
+	 *
+	 *
+	 * @param bvh
+	 * @param line
+	 * @return
+	 */
+	public static HE_FaceIntersection getFurthestIntersection(final WB_BVH bvh, final WB_Line line) {
+		return getExtremeIntersection(bvh, line, false);
+	}
+
+	/**
+	 *
+	 *
+	 * @param bvh
+	 * @param segment
+	 * @return
+	 */
+	public static HE_FaceIntersection getClosestIntersection(final WB_BVH bvh, final WB_Segment segment) {
+		return getExtremeIntersection(bvh, segment, 0, segment.getLength(), true);
+	}
+
+	/**
+	 *
+	 *
+	 * @param bvh
+	 * @param segment
+	 * @return
+	 */
+	public static HE_FaceIntersection getFurthestIntersection(final WB_BVH bvh, final WB_Segment segment) {
+		return getExtremeIntersection(bvh, segment, 0, segment.getLength(), false);
+	}
+
 	/**
 	 *
 	 *
@@ -2396,7 +2733,7 @@ public class HET_MeshOp {
 	 * @return
 	 */
 	public static List<HE_FaceIntersection> getIntersection(final HE_Mesh mesh, final WB_Ray ray) {
-		return getIntersection(new WB_AABBTree(mesh, 10), ray);
+		return getIntersection(new WB_BVH(mesh), ray);
 	}
 
 	/**
@@ -2407,7 +2744,7 @@ public class HET_MeshOp {
 	 * @return
 	 */
 	public static List<HE_FaceIntersection> getIntersection(final HE_Mesh mesh, final WB_Segment segment) {
-		return getIntersection(new WB_AABBTree(mesh, 10), segment);
+		return getIntersection(new WB_BVH(mesh), segment);
 	}
 
 	/**
@@ -2418,7 +2755,7 @@ public class HET_MeshOp {
 	 * @return
 	 */
 	public static List<HE_FaceIntersection> getIntersection(final HE_Mesh mesh, final WB_Line line) {
-		return getIntersection(new WB_AABBTree(mesh, 10), line);
+		return getIntersection(new WB_BVH(mesh), line);
 	}
 
 	/**
@@ -2429,7 +2766,7 @@ public class HET_MeshOp {
 	 * @return
 	 */
 	public static List<WB_Segment> getIntersection(final HE_Mesh mesh, final WB_Plane P) {
-		return getIntersection(new WB_AABBTree(mesh, 10), P);
+		return getIntersection(new WB_BVH(mesh), P);
 	}
 
 	/**
@@ -2440,7 +2777,7 @@ public class HET_MeshOp {
 	 * @return
 	 */
 	public static List<HE_Face> getPotentialIntersectedFaces(final HE_Mesh mesh, final WB_Plane P) {
-		return getPotentialIntersectedFaces(new WB_AABBTree(mesh, 10), P);
+		return getPotentialIntersectedFaces(new WB_BVH(mesh), P);
 	}
 
 	/**
@@ -2451,7 +2788,7 @@ public class HET_MeshOp {
 	 * @return
 	 */
 	public static List<HE_Face> getPotentialIntersectedFaces(final HE_Mesh mesh, final WB_Ray R) {
-		return getPotentialIntersectedFaces(new WB_AABBTree(mesh, 10), R);
+		return getPotentialIntersectedFaces(new WB_BVH(mesh), R);
 	}
 
 	/**
@@ -2462,7 +2799,7 @@ public class HET_MeshOp {
 	 * @return
 	 */
 	public static List<HE_Face> getPotentialIntersectedFaces(final HE_Mesh mesh, final WB_Line L) {
-		return getPotentialIntersectedFaces(new WB_AABBTree(mesh, 10), L);
+		return getPotentialIntersectedFaces(new WB_BVH(mesh), L);
 	}
 
 	/**
@@ -2473,7 +2810,7 @@ public class HET_MeshOp {
 	 * @return
 	 */
 	public static List<HE_Face> getPotentialIntersectedFaces(final HE_Mesh mesh, final WB_Segment segment) {
-		return getPotentialIntersectedFaces(new WB_AABBTree(mesh, 10), segment);
+		return getPotentialIntersectedFaces(new WB_BVH(mesh), segment);
 	}
 
 	/**
@@ -2484,7 +2821,7 @@ public class HET_MeshOp {
 	 * @return
 	 */
 	public static HE_FaceIntersection getClosestIntersection(final HE_Mesh mesh, final WB_Ray ray) {
-		return getClosestIntersection(new WB_AABBTree(mesh, 10), ray);
+		return getClosestIntersection(new WB_BVH(mesh), ray);
 	}
 
 	/**
@@ -2495,7 +2832,7 @@ public class HET_MeshOp {
 	 * @return
 	 */
 	public static HE_FaceIntersection getFurthestIntersection(final HE_Mesh mesh, final WB_Ray ray) {
-		return getFurthestIntersection(new WB_AABBTree(mesh, 10), ray);
+		return getFurthestIntersection(new WB_BVH(mesh), ray);
 	}
 
 	/**
@@ -2506,7 +2843,7 @@ public class HET_MeshOp {
 	 * @return
 	 */
 	public static HE_FaceIntersection getClosestIntersection(final HE_Mesh mesh, final WB_Line line) {
-		return getClosestIntersection(new WB_AABBTree(mesh, 10), line);
+		return getClosestIntersection(new WB_BVH(mesh), line);
 	}
 
 	/**
@@ -2517,7 +2854,7 @@ public class HET_MeshOp {
 	 * @return
 	 */
 	public static HE_FaceIntersection getFurthestIntersection(final HE_Mesh mesh, final WB_Line line) {
-		return getFurthestIntersection(new WB_AABBTree(mesh, 10), line);
+		return getFurthestIntersection(new WB_BVH(mesh), line);
 	}
 
 	/**
@@ -2528,7 +2865,7 @@ public class HET_MeshOp {
 	 * @return
 	 */
 	public static HE_FaceIntersection getClosestIntersection(final HE_Mesh mesh, final WB_Segment segment) {
-		return getClosestIntersection(new WB_AABBTree(mesh, 10), segment);
+		return getClosestIntersection(new WB_BVH(mesh), segment);
 	}
 
 	/**
@@ -2539,7 +2876,7 @@ public class HET_MeshOp {
 	 * @return
 	 */
 	public static HE_FaceIntersection getFurthestIntersection(final HE_Mesh mesh, final WB_Segment segment) {
-		return getFurthestIntersection(new WB_AABBTree(mesh, 10), segment);
+		return getFurthestIntersection(new WB_BVH(mesh), segment);
 	}
 
 	public static WB_Classification classifyFaceToPlane3D(final HE_Face f, final WB_Plane P) {
@@ -114,6 +114,54 @@ class HET_PlanarPathTriangulator {
 		return trianglekeys;
 	}
 
+	/**
+	 * Triangulate closed planar loops of points. Loops inside other loops are
+	 * holes. The orientation of the triangles is not fixed.
+	 *
+	 * @param loops
+	 * @param P
+	 * @return triangles as indices in the concatenated loops
+	 */
+	static int[] getTriangles(final List<WB_Coord[]> loops, final WB_Plane P) {
+		final WB_Map2D emb = geometryfactory.createEmbeddedPlane(P);
+		final RingTree ringtree = new RingTree();
+		final WB_KDTree<WB_Point, Integer> vertextree = new WB_KDTree<WB_Point, Integer>();
+		int offset = 0;
+		for (final WB_Coord[] loop : loops) {
+			if (loop.length > 2) {
+				final Coordinate[] pts = new Coordinate[loop.length + 1];
+				for (int j = 0; j < loop.length; j++) {
+					final WB_Point proj = geometryfactory.createPoint();
+					emb.mapPoint3D(loop[j], proj);
+					vertextree.add(proj, offset + j);
+					pts[loop.length - j] = new Coordinate(proj.xd(), proj.yd(), 0);
+				}
+				pts[0] = pts[loop.length];
+				ringtree.add(JTSgf.createLinearRing(pts));
+			}
+			offset += loop.length;
+		}
+		final List<WB_Polygon> polygons = ringtree.extractPolygons();
+		final List<int[]> triangles = new ArrayList<int[]>();
+		int n = 0;
+		for (final WB_Polygon poly : polygons) {
+			final int[] tris = poly.getTriangles(true);
+			final int[] indices = new int[tris.length];
+			for (int i = 0; i < tris.length; i++) {
+				indices[i] = vertextree.getNearestNeighbor(poly.getPoint(tris[i])).value;
+			}
+			triangles.add(indices);
+			n += indices.length;
+		}
+		final int[] result = new int[n];
+		n = 0;
+		for (final int[] indices : triangles) {
+			System.arraycopy(indices, 0, result, n, indices.length);
+			n += indices.length;
+		}
+		return result;
+	}
+
 	/**
 	 *
 	 *
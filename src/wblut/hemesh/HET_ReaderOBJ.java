@@ -0,0 +1,677 @@
+/*
+ * This file is part of HE_Mesh, a library for creating and manipulating meshes.
+ * It is dedicated to the public domain. To the extent possible under law,
+ * I , Frederik Vanhoutte, have waived all copyright and related or neighboring
+ * rights.
+ *
+ * This work is published from Belgium. (http://creativecommons.org/publicdomain/zero/1.0/)
+ *
+ */
+package wblut.hemesh;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import wblut.core.WB_Parallel;
+import wblut.core.WB_Parallel.WB_RangeFunction;
+import wblut.core.WB_ProgressTracker;
+
+/**
+ * Reader for the vertices and faces of an OBJ file. The file is memory-mapped
+ * in windows, each window is split in line-aligned chunks that are parsed in
+ * parallel. Results are packed arrays: vertex coordinates x0,y0,z0,x1,... and
+ * face vertex indices with an offset per face. Files ending in .gz are
+ * decompressed on the fly instead of mapped.
+ *
+ * All other OBJ statements are ignored. Negative, relative vertex indices are
+ * resolved. Texture and normal indices in face statements are skipped.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class HET_ReaderOBJ {
+	protected static final WB_ProgressTracker tracker = WB_ProgressTracker.instance();
+	/** Bytes mapped at a time. */
+	private static final int WINDOWSIZE = 1 << 26;
+	/** Minimum number of bytes parsed by one task. */
+	private static final int CHUNKSIZE = 1 << 20;
+	/** Exact powers of ten. */
+	private static final double[] POW10 = new double[23];
+
+	static {
+		POW10[0] = 1.0;
+		for (int i = 1; i < POW10.length; i++) {
+			POW10[i] = POW10[i - 1] * 10.0;
+		}
+	}
+
+	private final File file;
+	private double scale;
+	private double[] vertices;
+	private int[] faceOffsets;
+	private int[] faceIndices;
+
+	/**
+	 *
+	 *
+	 * @param path
+	 */
+	public HET_ReaderOBJ(final String path) {
+		this(new File(path));
+	}
+
+	/**
+	 *
+	 *
+	 * @param file
+	 */
+	public HET_ReaderOBJ(final File file) {
+		if (file == null) {
+			throw new IllegalArgumentException("file can't be null");
+		}
+		this.file = file;
+		scale = 1;
+	}
+
+	/**
+	 *
+	 *
+	 * @param f
+	 * @return
+	 */
+	public HET_ReaderOBJ setScale(final double f) {
+		scale = f;
+		return this;
+	}
+
+	/**
+	 * Read the whole file into packed arrays.
+	 *
+	 * @return self
+	 * @throws IOException
+	 */
+	public HET_ReaderOBJ read() throws IOException {
+		tracker.setStatus(this, "Starting HET_ReaderOBJ.", +1);
+		final TDoubleArrayList rvertices = new TDoubleArrayList();
+		final TIntArrayList roffsets = new TIntArrayList();
+		final TIntArrayList rindices = new TIntArrayList();
+		roffsets.add(0);
+		parse(new ChunkHandler() {
+			@Override
+			public void handle(final Chunk chunk) {
+				rvertices.add(chunk.vertices.toArray());
+				int offset = rindices.size();
+				for (int i = 0; i < chunk.faceSizes.size(); i++) {
+					offset += chunk.faceSizes.get(i);
+					roffsets.add(offset);
+				}
+				rindices.add(chunk.faceIndices.toArray());
+			}
+		});
+		vertices = rvertices.toArray();
+		faceOffsets = roffsets.toArray();
+		faceIndices = rindices.toArray();
+		tracker.setStatus(this, "Exiting HET_ReaderOBJ.", -1);
+		return this;
+	}
+
+	/**
+	 * Pass all vertices and faces to a sink in file order, without storing
+	 * them.
+	 *
+	 * @param sink
+	 * @throws IOException
+	 */
+	public void stream(final HET_OBJSink sink) throws IOException {
+		tracker.setStatus(this, "Starting HET_ReaderOBJ.", +1);
+		final int[] face = new int[16];
+		sink.start();
+		parse(new ChunkHandler() {
+			int[] buffer = face;
+
+			@Override
+			public void handle(final Chunk chunk) {
+				final double[] vs = chunk.vertices.toArray();
+				for (int i = 0; i < vs.length; i += 3) {
+					sink.addVertex(vs[i], vs[i + 1], vs[i + 2]);
+				}
+				int index = 0;
+				for (int i = 0; i < chunk.faceSizes.size(); i++) {
+					final int n = chunk.faceSizes.get(i);
+					if (n > buffer.length) {
+						buffer = new int[Math.max(n, 2 * buffer.length)];
+					}
+					chunk.faceIndices.toArray(buffer, index, 0, n);
+					index += n;
+					sink.addFace(buffer, n);
+				}
+			}
+		});
+		sink.end();
+		tracker.setStatus(this, "Exiting HET_ReaderOBJ.", -1);
+	}
+
+	/**
+	 * Vertex coordinates of the last read(): x0,y0,z0,x1,y1,z1,...
+	 *
+	 * @return
+	 */
+	public double[] getVertices() {
+		return vertices;
+	}
+
+	/**
+	 *
+	 *
+	 * @return
+	 */
+	public int getNumberOfVertices() {
+		return vertices == null ? 0 : vertices.length / 3;
+	}
+
+	/**
+	 *
+	 *
+	 * @return
+	 */
+	public int getNumberOfFaces() {
+		return faceOffsets == null ? 0 : faceOffsets.length - 1;
+	}
+
+	/**
+	 * The vertex indices of face i are stored in getFaceIndices() from
+	 * getFaceOffsets()[i] to getFaceOffsets()[i+1].
+	 *
+	 * @return array of size getNumberOfFaces()+1
+	 */
+	public int[] getFaceOffsets() {
+		return faceOffsets;
+	}
+
+	/**
+	 * Zero-based vertex indices of all faces.
+	 *
+	 * @return
+	 */
+	public int[] getFaceIndices() {
+		return faceIndices;
+	}
+
+	/**
+	 * Faces of the last read() as 2D array, for use with HEC_FromFacelist.
+	 *
+	 * @return
+	 */
+	public int[][] getFaces() {
+		final int[][] faces = new int[getNumberOfFaces()][];
+		for (int i = 0; i < faces.length; i++) {
+			faces[i] = new int[faceOffsets[i + 1] - faceOffsets[i]];
+			System.arraycopy(faceIndices, faceOffsets[i], faces[i], 0, faces[i].length);
+		}
+		return faces;
+	}
+
+	/**
+	 * Split the file in windows ending on a line break and pass the parsed
+	 * chunks of each window to the handler in file order.
+	 *
+	 * @param handler
+	 * @throws IOException
+	 */
+	private void parse(final ChunkHandler handler) throws IOException {
+		final int[] vertexCount = new int[1];
+		if (file.getName().toLowerCase().endsWith(".gz")) {
+			final InputStream stream = new GZIPInputStream(new FileInputStream(file), 65536);
+			try {
+				byte[] buffer = new byte[WINDOWSIZE];
+				int filled = 0;
+				boolean eof = false;
+				while (!eof || filled > 0) {
+					while (!eof && filled < buffer.length) {
+						final int read = stream.read(buffer, filled, buffer.length - filled);
+						if (read < 0) {
+							eof = true;
+						} else {
+							filled += read;
+						}
+					}
+					final ByteBuffer window = ByteBuffer.wrap(buffer, 0, filled);
+					final int end = eof ? filled : lastLineEnd(window, filled);
+					if (end == 0) {
+						// a single line longer than the window
+						final byte[] larger = new byte[2 * buffer.length];
+						System.arraycopy(buffer, 0, larger, 0, filled);
+						buffer = larger;
+						continue;
+					}
+					processWindow(window, end, vertexCount, handler);
+					System.arraycopy(buffer, end, buffer, 0, filled - end);
+					filled -= end;
+				}
+			} finally {
+				stream.close();
+			}
+			return;
+		}
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			final long size = channel.size();
+			long position = 0;
+			long windowSize = WINDOWSIZE;
+			while (position < size) {
+				final long length = Math.min(windowSize, size - position);
+				final ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+				final int end = (position + length == size) ? (int) length : lastLineEnd(window, (int) length);
+				if (end == 0) {
+					windowSize = Math.min(2 * windowSize, Integer.MAX_VALUE);
+					continue;
+				}
+				processWindow(window, end, vertexCount, handler);
+				position += end;
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 *
+	 *
+	 * @param data
+	 * @param length
+	 * @return position after the last line break, 0 if there is none
+	 */
+	private static int lastLineEnd(final ByteBuffer data, final int length) {
+		for (int i = length - 1; i >= 0; i--) {
+			if (data.get(i) == '\n') {
+				return i + 1;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 *
+	 *
+	 * @param data
+	 * @param start
+	 * @param end
+	 * @return position after the next line break at or after start
+	 */
+	private static int nextLineEnd(final ByteBuffer data, final int start, final int end) {
+		for (int i = start; i < end; i++) {
+			if (data.get(i) == '\n') {
+				return i + 1;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 *
+	 *
+	 * @param window
+	 * @param end
+	 * @param vertexCount
+	 * @param handler
+	 * @throws IOException
+	 */
+	private void processWindow(final ByteBuffer window, final int end, final int[] vertexCount,
+			final ChunkHandler handler) throws IOException {
+		final int n = Math.max(1, Math.min(end / CHUNKSIZE, 8 * WB_Parallel.getParallelism()));
+		final int[] bounds = new int[n + 1];
+		for (int c = 1; c < n; c++) {
+			bounds[c] = nextLineEnd(window, Math.max(bounds[c - 1], (int) ((long) c * end / n)), end);
+		}
+		bounds[n] = end;
+		final List<Chunk> chunks = WB_Parallel.map(0, n, new WB_RangeFunction<Chunk>() {
+			@Override
+			public Chunk apply(final int start, final int stop) {
+				final Chunk chunk = new Chunk(window.duplicate(), bounds[start], bounds[stop], scale);
+				chunk.parse();
+				return chunk;
+			}
+		});
+		for (final Chunk chunk : chunks) {
+			if (chunk.error != null) {
+				throw new IOException(chunk.error + " in " + file + ".");
+			}
+			final int vertexOffset = vertexCount[0];
+			for (int i = 0; i < chunk.relative.size(); i++) {
+				final int position = chunk.relative.get(i);
+				final int index = chunk.faceIndices.get(position) + vertexOffset;
+				if (index < 0) {
+					throw new IOException("Relative vertex index refers to a vertex before the start of " + file
+							+ ".");
+				}
+				chunk.faceIndices.set(position, index);
+			}
+			handler.handle(chunk);
+			vertexCount[0] += chunk.vertices.size() / 3;
+		}
+	}
+
+	/**
+	 * Receives the contents of an OBJ file in file order.
+	 */
+	public interface HET_OBJSink {
+		/**
+		 * Called before the first vertex.
+		 */
+		public void start();
+
+		/**
+		 *
+		 *
+		 * @param x
+		 * @param y
+		 * @param z
+		 */
+		public void addVertex(double x, double y, double z);
+
+		/**
+		 * Add a face. The buffer is reused, copy the indices if needed.
+		 *
+		 * @param vertices
+		 *            zero-based vertex indices
+		 * @param n
+		 *            number of vertices in the face
+		 */
+		public void addFace(int[] vertices, int n);
+
+		/**
+		 * Called after the last face.
+		 */
+		public void end();
+	}
+
+	/**
+	 *
+	 */
+	interface ChunkHandler {
+		/**
+		 *
+		 *
+		 * @param chunk
+		 *            parsed chunk, all indices resolved
+		 */
+		void handle(Chunk chunk);
+	}
+
+	/**
+	 * Parser and result for a line-aligned range of bytes.
+	 */
+	static class Chunk {
+		final ByteBuffer data;
+		final int end;
+		final double scale;
+		int position;
+		final TDoubleArrayList vertices;
+		final TIntArrayList faceSizes;
+		/**
+		 * Zero-based indices, relative ones are stored relative to the first
+		 * vertex of the chunk.
+		 */
+		final TIntArrayList faceIndices;
+		/** Positions in faceIndices that are relative to the chunk. */
+		final TIntArrayList relative;
+		String error;
+
+		Chunk(final ByteBuffer data, final int start, final int end, final double scale) {
+			this.data = data;
+			this.end = end;
+			this.scale = scale;
+			position = start;
+			vertices = new TDoubleArrayList(Math.max(16, (end - start) / 16));
+			faceSizes = new TIntArrayList(Math.max(16, (end - start) / 64));
+			faceIndices = new TIntArrayList(Math.max(16, (end - start) / 16));
+			relative = new TIntArrayList(0);
+		}
+
+		/**
+		 *
+		 */
+		void parse() {
+			while (position < end && error == null) {
+				skipBlanks();
+				if (position < end) {
+					final byte c = data.get(position);
+					if ((c == 'v') && isBlank(position + 1)) {
+						position++;
+						final double x = parseDouble();
+						final double y = parseDouble();
+						final double z = parseDouble();
+						vertices.add(scale * x);
+						vertices.add(scale * y);
+						vertices.add(scale * z);
+					} else if ((c == 'f') && isBlank(position + 1)) {
+						position++;
+						parseFace();
+					}
+				}
+				skipLine();
+			}
+		}
+
+		/**
+		 *
+		 */
+		private void parseFace() {
+			final int localVertices = vertices.size() / 3;
+			int n = 0;
+			skipBlanks();
+			while (position < end && error == null && !isLineEnd(position)) {
+				final int index = parseInt();
+				if (index > 0) {
+					faceIndices.add(index - 1);
+				} else if (index < 0) {
+					relative.add(faceIndices.size());
+					faceIndices.add(localVertices + index);
+				} else {
+					error = "Invalid vertex index at byte " + position;
+					return;
+				}
+				n++;
+				// skip texture and normal indices
+				while (position < end && !isBlank(position) && !isLineEnd(position)) {
+					position++;
+				}
+				skipBlanks();
+			}
+			faceSizes.add(n);
+		}
+
+		/**
+		 *
+		 *
+		 * @return
+		 */
+		private int parseInt() {
+			boolean negative = false;
+			byte c = data.get(position);
+			if (c == '-' || c == '+') {
+				negative = c == '-';
+				position++;
+			}
+			int value = 0;
+			int digits = 0;
+			while (position < end) {
+				c = data.get(position);
+				if (c < '0' || c > '9') {
+					break;
+				}
+				value = 10 * value + (c - '0');
+				digits++;
+				position++;
+			}
+			if (digits == 0) {
+				return 0;
+			}
+			return negative ? -value : value;
+		}
+
+		/**
+		 * Parse a decimal number. Mantissas of up to 18 digits with a small
+		 * exponent are converted exactly with a single multiplication or
+		 * division. Anything else falls back to Double.parseDouble.
+		 *
+		 * @return
+		 */
+		private double parseDouble() {
+			skipBlanks();
+			final int start = position;
+			boolean negative = false;
+			if (position < end) {
+				final byte c = data.get(position);
+				if (c == '-' || c == '+') {
+					negative = c == '-';
+					position++;
+				}
+			}
+			long mantissa = 0;
+			int digits = 0;
+			int exponent = 0;
+			boolean any = false;
+			boolean exact = true;
+			byte c = 0;
+			while (position < end && (c = data.get(position)) >= '0' && c <= '9') {
+				if (digits < 18) {
+					mantissa = 10 * mantissa + (c - '0');
+					if (mantissa > 0) {
+						digits++;
+					}
+				} else {
+					exponent++;
+					exact &= c == '0';
+				}
+				any = true;
+				position++;
+			}
+			if (position < end && data.get(position) == '.') {
+				position++;
+				while (position < end && (c = data.get(position)) >= '0' && c <= '9') {
+					if (digits < 18) {
+						mantissa = 10 * mantissa + (c - '0');
+						if (mantissa > 0) {
+							digits++;
+						}
+						exponent--;
+					} else {
+						exact &= c == '0';
+					}
+					any = true;
+					position++;
+				}
+			}
+			if (any && position < end && ((c = data.get(position)) == 'e' || c == 'E')) {
+				position++;
+				boolean negativeExponent = false;
+				if (position < end && ((c = data.get(position)) == '-' || c == '+')) {
+					negativeExponent = c == '-';
+					position++;
+				}
+				int e = 0;
+				boolean anyExponent = false;
+				while (position < end && (c = data.get(position)) >= '0' && c <= '9') {
+					if (e < 100000) {
+						e = 10 * e + (c - '0');
+					}
+					anyExponent = true;
+					position++;
+				}
+				if (!anyExponent) {
+					any = false;
+				}
+				exponent += negativeExponent ? -e : e;
+			}
+			if (!any || (position < end && !isBlank(position) && !isLineEnd(position))) {
+				return parseSlow(start);
+			}
+			if (mantissa == 0) {
+				return negative ? -0.0 : 0.0;
+			}
+			if (!exact || mantissa >= (1L << 53) || exponent < -22 || exponent > 22) {
+				return parseSlow(start);
+			}
+			final double value = exponent < 0 ? mantissa / POW10[-exponent] : mantissa * POW10[exponent];
+			return negative ? -value : value;
+		}
+
+		/**
+		 *
+		 *
+		 * @param start
+		 * @return
+		 */
+		private double parseSlow(final int start) {
+			position = start;
+			while (position < end && !isBlank(position) && !isLineEnd(position)) {
+				position++;
+			}
+			final byte[] token = new byte[position - start];
+			for (int i = 0; i < token.length; i++) {
+				token[i] = data.get(start + i);
+			}
+			final String s = new String(token);
+			try {
+				return Double.parseDouble(s);
+			} catch (final NumberFormatException e) {
+				error = "Invalid number \"" + s + "\" at byte " + start;
+				return 0;
+			}
+		}
+
+		/**
+		 *
+		 */
+		private void skipBlanks() {
+			while (position < end && isBlank(position)) {
+				position++;
+			}
+		}
+
+		/**
+		 *
+		 */
+		private void skipLine() {
+			while (position < end && data.get(position) != '\n') {
+				position++;
+			}
+			position++;
+		}
+
+		/**
+		 *
+		 *
+		 * @param i
+		 * @return
+		 */
+		private boolean isBlank(final int i) {
+			if (i >= end) {
+				return false;
+			}
+			final byte c = data.get(i);
+			return c == ' ' || c == '\t' || c == '\r';
+		}
+
+		/**
+		 *
+		 *
+		 * @param i
+		 * @return
+		 */
+		private boolean isLineEnd(final int i) {
+			return i >= end || data.get(i) == '\n';
+		}
+	}
+}
@@ -0,0 +1,360 @@
+/*
+ * This file is part of HE_Mesh, a library for creating and manipulating meshes.
+ * It is dedicated to the public domain. To the extent possible under law,
+ * I , Frederik Vanhoutte, have waived all copyright and related or neighboring
+ * rights.
+ *
+ * This work is published from Belgium. (http://creativecommons.org/publicdomain/zero/1.0/)
+ *
+ */
+package wblut.hemesh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.zip.Deflater;
+
+import wblut.core.WB_Parallel;
+import wblut.core.WB_ProgressTracker;
+
+/**
+ * Writer for version 2 of the binary hemesh format, read by
+ * HEC_FromBinaryHemeshFile.
+ *
+ * The file starts with a header: magic number, version, number of vertices,
+ * halfedges and faces, and the number of blocks. A directory follows with for
+ * each block its type, compression, offset, stored length and raw length.
+ * Each block is one contiguous little-endian array, starting at a multiple of
+ * 8 bytes. Links are element indices, -1 for a missing link. Blocks are
+ * either stored or deflated, compression is only kept when it makes the block
+ * smaller. Readers skip blocks of unknown type.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class HET_WriterBinaryHemesh2 {
+	protected static final WB_ProgressTracker tracker = WB_ProgressTracker.instance();
+	/** "HEM2" in little-endian byte order. */
+	public static final int MAGIC = 0x324D4548;
+	public static final int VERSION = 2;
+	/** Size of the header in bytes. */
+	public static final int HEADERSIZE = 24;
+	/** Size of a directory entry in bytes. */
+	public static final int ENTRYSIZE = 32;
+	public static final int STORED = 0;
+	public static final int DEFLATED = 1;
+	/** double[3*numberOfVertices] */
+	public static final int VERTEX_POSITIONS = 0;
+	/** int[numberOfVertices] */
+	public static final int VERTEX_HALFEDGE = 1;
+	/** int[numberOfVertices] */
+	public static final int VERTEX_COLOR = 2;
+	/** long[numberOfVertices] */
+	public static final int VERTEX_LABEL = 3;
+	/** double[3*numberOfVertices], NaN for vertices without uvw. */
+	public static final int VERTEX_UVW = 4;
+	/** int[numberOfHalfedges] */
+	public static final int HALFEDGE_NEXT = 5;
+	/** int[numberOfHalfedges] */
+	public static final int HALFEDGE_PAIR = 6;
+	/** int[numberOfHalfedges] */
+	public static final int HALFEDGE_VERTEX = 7;
+	/** int[numberOfHalfedges] */
+	public static final int HALFEDGE_FACE = 8;
+	/** int[numberOfHalfedges] */
+	public static final int HALFEDGE_COLOR = 9;
+	/** long[numberOfHalfedges] */
+	public static final int HALFEDGE_LABEL = 10;
+	/** double[3*numberOfHalfedges], NaN for halfedges without uvw. */
+	public static final int HALFEDGE_UVW = 11;
+	/** int[numberOfFaces] */
+	public static final int FACE_HALFEDGE = 12;
+	/** int[numberOfFaces] */
+	public static final int FACE_COLOR = 13;
+	/** long[numberOfFaces] */
+	public static final int FACE_LABEL = 14;
+	/** int[numberOfFaces] */
+	public static final int FACE_TEXTURE = 15;
+	private boolean compress;
+
+	/**
+	 *
+	 */
+	public HET_WriterBinaryHemesh2() {
+		compress = true;
+	}
+
+	/**
+	 * Deflate the blocks. Default is true.
+	 *
+	 * @param b
+	 * @return
+	 */
+	public HET_WriterBinaryHemesh2 setCompression(final boolean b) {
+		compress = b;
+		return this;
+	}
+
+	/**
+	 *
+	 *
+	 * @param file
+	 */
+	static private void createDirectories(final File file) {
+		try {
+			final String parentName = file.getParent();
+			if (parentName != null) {
+				final File parent = new File(parentName);
+				if (!parent.exists()) {
+					parent.mkdirs();
+				}
+			}
+		} catch (final SecurityException se) {
+			System.err.println("No permissions to create " + file.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Save to path/name.binhemesh.
+	 *
+	 * @param mesh
+	 * @param path
+	 * @param name
+	 */
+	public void save(final HE_Mesh mesh, final String path, final String name) {
+		try {
+			final File file = new File(path, name + ".binhemesh");
+			createDirectories(file);
+			save(mesh, file);
+		} catch (final IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 *
+	 *
+	 * @param mesh
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(final HE_Mesh mesh, final File file) throws IOException {
+		tracker.setStatus(this, "Starting HET_WriterBinaryHemesh2.", +1);
+		final HE_CompactMesh compact = new HE_CompactMesh(mesh);
+		final List<Block> blocks = new ArrayList<Block>();
+		blocks.add(new Block(VERTEX_POSITIONS, compact.positions));
+		blocks.add(new Block(VERTEX_HALFEDGE, compact.vertexHalfedge));
+		blocks.add(new Block(VERTEX_COLOR, compact.vertexColors));
+		blocks.add(new Block(VERTEX_LABEL, compact.vertexLabels));
+		final double[] vertexUVW = getVertexUVW(mesh);
+		if (vertexUVW != null) {
+			blocks.add(new Block(VERTEX_UVW, vertexUVW));
+		}
+		blocks.add(new Block(HALFEDGE_NEXT, compact.halfedgeNext));
+		blocks.add(new Block(HALFEDGE_PAIR, compact.halfedgePair));
+		blocks.add(new Block(HALFEDGE_VERTEX, compact.halfedgeVertex));
+		blocks.add(new Block(HALFEDGE_FACE, compact.halfedgeFace));
+		blocks.add(new Block(HALFEDGE_COLOR, compact.halfedgeColors));
+		blocks.add(new Block(HALFEDGE_LABEL, compact.halfedgeLabels));
+		final double[] halfedgeUVW = getHalfedgeUVW(mesh);
+		if (halfedgeUVW != null) {
+			blocks.add(new Block(HALFEDGE_UVW, halfedgeUVW));
+		}
+		blocks.add(new Block(FACE_HALFEDGE, compact.faceHalfedge));
+		blocks.add(new Block(FACE_COLOR, compact.faceColors));
+		blocks.add(new Block(FACE_LABEL, compact.faceLabels));
+		blocks.add(new Block(FACE_TEXTURE, compact.faceTextureIds));
+		if (compress) {
+			tracker.setStatus(this, "Compressing blocks.", 0);
+			WB_Parallel.invokeAll(blocks);
+		}
+		final ByteBuffer header = ByteBuffer.allocate(HEADERSIZE + ENTRYSIZE * blocks.size())
+				.order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(compact.numberOfVertices);
+		header.putInt(compact.numberOfHalfedges);
+		header.putInt(compact.numberOfFaces);
+		header.putInt(blocks.size());
+		long offset = align(header.capacity());
+		for (final Block block : blocks) {
+			header.putInt(block.type);
+			header.putInt(block.compression);
+			header.putLong(offset);
+			header.putLong(block.data.remaining());
+			header.putLong(block.rawLength);
+			offset = align(offset + block.data.remaining());
+		}
+		header.flip();
+		tracker.setStatus(this, "Writing blocks.", 0);
+		final FileOutputStream stream = new FileOutputStream(file);
+		final FileChannel channel = stream.getChannel();
+		try {
+			write(channel, header, 0);
+			offset = align(HEADERSIZE + ENTRYSIZE * blocks.size());
+			for (final Block block : blocks) {
+				final long length = block.data.remaining();
+				write(channel, block.data, offset);
+				offset = align(offset + length);
+			}
+		} finally {
+			channel.close();
+			stream.close();
+		}
+		tracker.setStatus(this, "Exiting HET_WriterBinaryHemesh2.", -1);
+	}
+
+	/**
+	 *
+	 *
+	 * @param channel
+	 * @param buffer
+	 * @param position
+	 * @throws IOException
+	 */
+	private static void write(final FileChannel channel, final ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	/**
+	 *
+	 *
+	 * @param offset
+	 * @return offset rounded up to a multiple of 8
+	 */
+	static long align(final long offset) {
+		return (offset + 7) & ~7L;
+	}
+
+	/**
+	 *
+	 *
+	 * @param mesh
+	 * @return vertex uvw, null if no vertex has uvw
+	 */
+	private static double[] getVertexUVW(final HE_Mesh mesh) {
+		double[] uvw = null;
+		final Iterator<HE_Vertex> vItr = mesh.vItr();
+		HE_Vertex v;
+		int i = 0;
+		while (vItr.hasNext()) {
+			v = vItr.next();
+			if (v.hasVertexUVW()) {
+				if (uvw == null) {
+					uvw = new double[3 * mesh.getNumberOfVertices()];
+					for (int j = 0; j < i; j++) {
+						uvw[3 * j] = Double.NaN;
+					}
+				}
+				uvw[3 * i] = v.getVertexUVW().ud();
+				uvw[3 * i + 1] = v.getVertexUVW().vd();
+				uvw[3 * i + 2] = v.getVertexUVW().wd();
+			} else if (uvw != null) {
+				uvw[3 * i] = Double.NaN;
+			}
+			i++;
+		}
+		return uvw;
+	}
+
+	/**
+	 *
+	 *
+	 * @param mesh
+	 * @return halfedge uvw, null if no halfedge has uvw
+	 */
+	private static double[] getHalfedgeUVW(final HE_Mesh mesh) {
+		double[] uvw = null;
+		final Iterator<HE_Halfedge> heItr = mesh.heItr();
+		HE_Halfedge he;
+		int i = 0;
+		while (heItr.hasNext()) {
+			he = heItr.next();
+			if (he.hasHalfedgeUVW()) {
+				if (uvw == null) {
+					uvw = new double[3 * mesh.getNumberOfHalfedges()];
+					for (int j = 0; j < i; j++) {
+						uvw[3 * j] = Double.NaN;
+					}
+				}
+				uvw[3 * i] = he.getHalfedgeUVW().ud();
+				uvw[3 * i + 1] = he.getHalfedgeUVW().vd();
+				uvw[3 * i + 2] = he.getHalfedgeUVW().wd();
+			} else if (uvw != null) {
+				uvw[3 * i] = Double.NaN;
+			}
+			i++;
+		}
+		return uvw;
+	}
+
+	/**
+	 * One array of the file, compressed when called.
+	 */
+	static class Block implements Callable<Block> {
+		final int type;
+		final long rawLength;
+		int compression;
+		ByteBuffer data;
+
+		Block(final int type, final int[] values) {
+			this.type = type;
+			data = ByteBuffer.allocate(4 * values.length).order(ByteOrder.LITTLE_ENDIAN);
+			data.asIntBuffer().put(values);
+			rawLength = data.capacity();
+			compression = STORED;
+		}
+
+		Block(final int type, final long[] values) {
+			this.type = type;
+			data = ByteBuffer.allocate(8 * values.length).order(ByteOrder.LITTLE_ENDIAN);
+			data.asLongBuffer().put(values);
+			rawLength = data.capacity();
+			compression = STORED;
+		}
+
+		Block(final int type, final double[] values) {
+			this.type = type;
+			data = ByteBuffer.allocate(8 * values.length).order(ByteOrder.LITTLE_ENDIAN);
+			data.asDoubleBuffer().put(values);
+			rawLength = data.capacity();
+			compression = STORED;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.Callable#call()
+		 */
+		@Override
+		public Block call() {
+			final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+			deflater.setInput(data.array(), 0, data.capacity());
+			deflater.finish();
+			final ByteArrayOutputStream out = new ByteArrayOutputStream(data.capacity() / 2 + 64);
+			final byte[] buffer = new byte[65536];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+				if (out.size() >= rawLength) {
+					// compression does not pay off for this block
+					deflater.end();
+					return this;
+				}
+			}
+			deflater.end();
+			data = ByteBuffer.wrap(out.toByteArray());
+			compression = DEFLATED;
+			return this;
+		}
+	}
+}
@@ -0,0 +1,451 @@
+/*
+ * This file is part of HE_Mesh, a library for creating and manipulating meshes.
+ * It is dedicated to the public domain. To the extent possible under law,
+ * I , Frederik Vanhoutte, have waived all copyright and related or neighboring
+ * rights.
+ *
+ * This work is published from Belgium. (http://creativecommons.org/publicdomain/zero/1.0/)
+ *
+ */
+package wblut.hemesh;
+
+import java.util.Arrays;
+
+import wblut.core.WB_Parallel;
+import wblut.core.WB_Parallel.WB_RangeTask;
+import wblut.geom.WB_Coord;
+import wblut.geom.WB_Point;
+import wblut.geom.WB_Vector;
+import wblut.math.WB_Epsilon;
+
+/**
+ * Cached face normals, face centers, face areas and vertex normals of a mesh,
+ * stored in primitive arrays by element index. Obtain it with
+ * HE_Mesh.getAttributeCache().
+ *
+ * Every vertex counts its position changes. A face is recomputed when the
+ * counts of its vertices changed, a vertex normal when one of its faces was
+ * recomputed. Any change in the topology of the mesh rebuilds the whole
+ * cache. update() brings everything up to date in one parallel pass, the
+ * single element getters only recompute the requested element.
+ *
+ * The values are the same as HE_Face.getFaceNormal(), getFaceCenter(),
+ * getFaceArea() and HE_Vertex.getVertexNormal().
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class HE_AttributeCache {
+	private final HE_Mesh mesh;
+	/** Modification count of the mesh the topology arrays were built for. */
+	private int modCount;
+	private HE_Vertex[] vertices;
+	private HE_Face[] faces;
+	/** Vertex indices of each face. */
+	private int[] faceOffsets;
+	private int[] faceVertices;
+	/** Face index, next and previous vertex index of each face of a vertex. */
+	private int[] vertexOffsets;
+	private int[] vertexFaces;
+	private int[] vertexNext;
+	private int[] vertexPrev;
+	private double[] faceNormals;
+	private double[] faceCenters;
+	private double[] faceAreas;
+	private double[] vertexNormals;
+	/** Sum of the position versions of the vertices of each face. */
+	private int[] faceStamps;
+	/** Sum of the face stamps of each vertex. */
+	private int[] vertexStamps;
+	private boolean[] faceValid;
+	private boolean[] vertexValid;
+
+	/**
+	 *
+	 *
+	 * @param mesh
+	 */
+	HE_AttributeCache(final HE_Mesh mesh) {
+		this.mesh = mesh;
+		modCount = mesh.modCount - 1;
+	}
+
+	/**
+	 * Bring all cached values up to date.
+	 */
+	public void update() {
+		checkTopology();
+		final int nf = faces.length;
+		WB_Parallel.forRange(0, nf, 256, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int f = start; f < end; f++) {
+					validateFace(f);
+				}
+			}
+		});
+		WB_Parallel.forRange(0, vertices.length, 256, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int v = start; v < end; v++) {
+					validateVertex(v);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Face normals, by face index, brought up to date.
+	 *
+	 * @return packed normals x0,y0,z0,x1,...
+	 */
+	public double[] getFaceNormals() {
+		update();
+		return faceNormals;
+	}
+
+	/**
+	 * Face centers, by face index, brought up to date.
+	 *
+	 * @return packed centers x0,y0,z0,x1,...
+	 */
+	public double[] getFaceCenters() {
+		update();
+		return faceCenters;
+	}
+
+	/**
+	 * Face areas, by face index, brought up to date.
+	 *
+	 * @return
+	 */
+	public double[] getFaceAreas() {
+		update();
+		return faceAreas;
+	}
+
+	/**
+	 * Vertex normals, by vertex index, brought up to date. Isolated vertices
+	 * have NaN normals.
+	 *
+	 * @return packed normals x0,y0,z0,x1,...
+	 */
+	public double[] getVertexNormals() {
+		update();
+		return vertexNormals;
+	}
+
+	/**
+	 *
+	 *
+	 * @param f
+	 * @return
+	 */
+	public WB_Coord getFaceNormal(final HE_Face f) {
+		final int i = faceIndex(f);
+		if (i < 0) {
+			return f.getFaceNormal();
+		}
+		return new WB_Vector(faceNormals[3 * i], faceNormals[3 * i + 1], faceNormals[3 * i + 2]);
+	}
+
+	/**
+	 *
+	 *
+	 * @param f
+	 * @return
+	 */
+	public WB_Coord getFaceCenter(final HE_Face f) {
+		final int i = faceIndex(f);
+		if (i < 0) {
+			return f.getFaceCenter();
+		}
+		return new WB_Point(faceCenters[3 * i], faceCenters[3 * i + 1], faceCenters[3 * i + 2]);
+	}
+
+	/**
+	 *
+	 *
+	 * @param f
+	 * @return
+	 */
+	public double getFaceArea(final HE_Face f) {
+		final int i = faceIndex(f);
+		if (i < 0) {
+			return f.getFaceArea();
+		}
+		return faceAreas[i];
+	}
+
+	/**
+	 *
+	 *
+	 * @param v
+	 * @return
+	 */
+	public WB_Coord getVertexNormal(final HE_Vertex v) {
+		checkTopology();
+		final int i = mesh.getIndex(v);
+		if (i < 0) {
+			return v.getVertexNormal();
+		}
+		validateVertex(i);
+		if (Double.isNaN(vertexNormals[3 * i])) {
+			return null;
+		}
+		return new WB_Vector(vertexNormals[3 * i], vertexNormals[3 * i + 1], vertexNormals[3 * i + 2]);
+	}
+
+	/**
+	 *
+	 *
+	 * @param f
+	 * @return index of an up to date face, -1 if the face is not in the mesh
+	 */
+	private int faceIndex(final HE_Face f) {
+		checkTopology();
+		final int i = mesh.getIndex(f);
+		if (i >= 0) {
+			validateFace(i);
+		}
+		return i;
+	}
+
+	/**
+	 * Rebuild the topology arrays if the mesh changed.
+	 */
+	private void checkTopology() {
+		if (modCount == mesh.modCount) {
+			return;
+		}
+		vertices = mesh.getVerticesAsArray();
+		faces = mesh.getFacesAsArray();
+		final int nv = vertices.length;
+		final int nf = faces.length;
+		faceOffsets = new int[nf + 1];
+		for (int f = 0; f < nf; f++) {
+			faceOffsets[f + 1] = faceOffsets[f] + (faces[f].getHalfedge() == null ? 0 : faces[f].getFaceOrder());
+		}
+		faceVertices = new int[faceOffsets[nf]];
+		vertexOffsets = new int[nv + 1];
+		for (int v = 0; v < nv; v++) {
+			int n = 0;
+			final HE_Halfedge start = vertices[v].getHalfedge();
+			if (start != null) {
+				HE_Halfedge he = start;
+				do {
+					if (he.getFace() != null) {
+						n++;
+					}
+					he = he.getNextInVertex();
+				} while (he != start);
+			}
+			vertexOffsets[v + 1] = vertexOffsets[v] + n;
+		}
+		vertexFaces = new int[vertexOffsets[nv]];
+		vertexNext = new int[vertexOffsets[nv]];
+		vertexPrev = new int[vertexOffsets[nv]];
+		WB_Parallel.forRange(0, nf, 256, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int f = start; f < end; f++) {
+					final HE_Halfedge first = faces[f].getHalfedge();
+					if (first == null) {
+						continue;
+					}
+					HE_Halfedge he = first;
+					int k = faceOffsets[f];
+					do {
+						faceVertices[k++] = mesh.getIndex(he.getVertex());
+						he = he.getNextInFace();
+					} while (he != first);
+				}
+			}
+		});
+		WB_Parallel.forRange(0, nv, 256, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int v = start; v < end; v++) {
+					final HE_Halfedge first = vertices[v].getHalfedge();
+					if (first == null) {
+						continue;
+					}
+					HE_Halfedge he = first;
+					int k = vertexOffsets[v];
+					do {
+						if (he.getFace() != null) {
+							vertexFaces[k] = mesh.getIndex(he.getFace());
+							vertexNext[k] = mesh.getIndex(he.getEndVertex());
+							vertexPrev[k] = mesh.getIndex(he.getPrevInFace().getVertex());
+							k++;
+						}
+						he = he.getNextInVertex();
+					} while (he != first);
+				}
+			}
+		});
+		faceNormals = new double[3 * nf];
+		faceCenters = new double[3 * nf];
+		faceAreas = new double[nf];
+		vertexNormals = new double[3 * nv];
+		faceStamps = new int[nf];
+		vertexStamps = new int[nv];
+		faceValid = new boolean[nf];
+		vertexValid = new boolean[nv];
+		Arrays.fill(vertexNormals, Double.NaN);
+		modCount = mesh.modCount;
+	}
+
+	/**
+	 * Recompute a face if any of its vertices moved.
+	 *
+	 * @param f
+	 */
+	private void validateFace(final int f) {
+		int stamp = 0;
+		for (int k = faceOffsets[f]; k < faceOffsets[f + 1]; k++) {
+			stamp += vertices[faceVertices[k]].version;
+		}
+		if (faceValid[f] && stamp == faceStamps[f]) {
+			return;
+		}
+		computeFace(f);
+		faceStamps[f] = stamp;
+		faceValid[f] = true;
+	}
+
+	/**
+	 * Recompute a vertex normal if any of its faces changed.
+	 *
+	 * @param v
+	 */
+	private void validateVertex(final int v) {
+		int stamp = 0;
+		for (int k = vertexOffsets[v]; k < vertexOffsets[v + 1]; k++) {
+			validateFace(vertexFaces[k]);
+			stamp += faceStamps[vertexFaces[k]];
+		}
+		if (vertexValid[v] && stamp == vertexStamps[v]) {
+			return;
+		}
+		computeVertex(v);
+		vertexStamps[v] = stamp;
+		vertexValid[v] = true;
+	}
+
+	/**
+	 *
+	 *
+	 * @param f
+	 */
+	private void computeFace(final int f) {
+		final int start = faceOffsets[f];
+		final int end = faceOffsets[f + 1];
+		final int n = end - start;
+		if (n == 0) {
+			return;
+		}
+		// Newell normal and center
+		double nx = 0, ny = 0, nz = 0, cx = 0, cy = 0, cz = 0;
+		for (int k = start; k < end; k++) {
+			final HE_Vertex p0 = vertices[faceVertices[k]];
+			final HE_Vertex p1 = vertices[faceVertices[k + 1 < end ? k + 1 : start]];
+			nx += (p0.vy - p1.vy) * (p0.vz + p1.vz);
+			ny += (p0.vz - p1.vz) * (p0.vx + p1.vx);
+			nz += (p0.vx - p1.vx) * (p0.vy + p1.vy);
+			cx += p0.vx;
+			cy += p0.vy;
+			cz += p0.vz;
+		}
+		final double d = Math.sqrt(nx * nx + ny * ny + nz * nz);
+		if (WB_Epsilon.isZero(d)) {
+			nx = ny = nz = 0;
+		} else {
+			nx /= d;
+			ny /= d;
+			nz /= d;
+		}
+		faceNormals[3 * f] = nx;
+		faceNormals[3 * f + 1] = ny;
+		faceNormals[3 * f + 2] = nz;
+		faceCenters[3 * f] = cx / n;
+		faceCenters[3 * f + 1] = cy / n;
+		faceCenters[3 * f + 2] = cz / n;
+		// area of the projection on the dominant plane
+		final double x = Math.abs(nx);
+		final double y = Math.abs(ny);
+		final double z = Math.abs(nz);
+		if (Math.sqrt(x * x + y * y + z * z) < 0.5) {
+			faceAreas[f] = 0;
+			return;
+		}
+		final int coord = x >= y && x >= z ? 1 : (y >= x && y >= z ? 2 : 3);
+		double area = 0;
+		for (int k = start; k < end; k++) {
+			final HE_Vertex p = vertices[faceVertices[k]];
+			final HE_Vertex next = vertices[faceVertices[k + 1 < end ? k + 1 : start]];
+			final HE_Vertex prev = vertices[faceVertices[k > start ? k - 1 : end - 1]];
+			if (coord == 1) {
+				area += p.vy * (next.vz - prev.vz);
+			} else if (coord == 2) {
+				area += p.vx * (next.vz - prev.vz);
+			} else {
+				area += p.vx * (next.vy - prev.vy);
+			}
+		}
+		area *= 0.5 / (coord == 1 ? x : coord == 2 ? y : z);
+		faceAreas[f] = Math.abs(area);
+	}
+
+	/**
+	 * Angle weighted normal.
+	 *
+	 * @param v
+	 */
+	private void computeVertex(final int v) {
+		if (vertices[v].getHalfedge() == null) {
+			vertexNormals[3 * v] = vertexNormals[3 * v + 1] = vertexNormals[3 * v + 2] = Double.NaN;
+			return;
+		}
+		final HE_Vertex c = vertices[v];
+		double nx = 0, ny = 0, nz = 0;
+		for (int k = vertexOffsets[v]; k < vertexOffsets[v + 1]; k++) {
+			final HE_Vertex p = vertices[vertexNext[k]];
+			final HE_Vertex q = vertices[vertexPrev[k]];
+			double ux = p.vx - c.vx, uy = p.vy - c.vy, uz = p.vz - c.vz;
+			double wx = q.vx - c.vx, wy = q.vy - c.vy, wz = q.vz - c.vz;
+			final double lu = Math.sqrt(ux * ux + uy * uy + uz * uz);
+			final double lw = Math.sqrt(wx * wx + wy * wy + wz * wz);
+			if (WB_Epsilon.isZero(lu)) {
+				ux = uy = uz = 0;
+			} else {
+				ux /= lu;
+				uy /= lu;
+				uz /= lu;
+			}
+			if (WB_Epsilon.isZero(lw)) {
+				wx = wy = wz = 0;
+			} else {
+				wx /= lw;
+				wy /= lw;
+				wz /= lw;
+			}
+			final double angle = Math.acos(Math.max(-1.0, Math.min(1.0, ux * wx + uy * wy + uz * wz)));
+			final int f = 3 * vertexFaces[k];
+			nx += angle * faceNormals[f];
+			ny += angle * faceNormals[f + 1];
+			nz += angle * faceNormals[f + 2];
+		}
+		final double d = Math.sqrt(nx * nx + ny * ny + nz * nz);
+		if (WB_Epsilon.isZero(d)) {
+			nx = ny = nz = 0;
+		} else {
+			nx /= d;
+			ny /= d;
+			nz /= d;
+		}
+		vertexNormals[3 * v] = nx;
+		vertexNormals[3 * v + 1] = ny;
+		vertexNormals[3 * v + 2] = nz;
+	}
+}
@@ -0,0 +1,835 @@
+/*
+ * This file is part of HE_Mesh, a library for creating and manipulating meshes.
+ * It is dedicated to the public domain. To the extent possible under law,
+ * I , Frederik Vanhoutte, have waived all copyright and related or neighboring
+ * rights.
+ *
+ * This work is published from Belgium. (http://creativecommons.org/publicdomain/zero/1.0/)
+ *
+ */
+package wblut.hemesh;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import wblut.core.WB_Parallel;
+import wblut.core.WB_Parallel.WB_RangeTask;
+import wblut.core.WB_ProgressCounter;
+import wblut.core.WB_ProgressTracker;
+import wblut.geom.WB_AABB;
+import wblut.geom.WB_Point;
+
+/**
+ * Compact, index-based half-edge storage. Vertex positions are kept in a
+ * single double[] and all connectivity in int[] arrays, -1 denotes a missing
+ * link. Halfedges without a face are boundary halfedges. Colors, labels,
+ * texture ids and vertex and halfedge UVW are stored as well, toMesh()
+ * restores all of them.
+ *
+ * Element indices match those of the HE_MeshStructure the compact mesh was
+ * created from (getVertexWithIndex, getHalfedgeWithIndex, getFaceWithIndex)
+ * as long as that structure is not modified. The original HE_Vertex,
+ * HE_Halfedge and HE_Face objects can then be retrieved as views of an index
+ * with getVertex, getHalfedge and getFace.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class HE_CompactMesh {
+	protected static final WB_ProgressTracker tracker = WB_ProgressTracker.instance();
+
+	protected int numberOfVertices;
+	protected int numberOfHalfedges;
+	protected int numberOfFaces;
+	/** Vertex positions, x0,y0,z0,x1,y1,z1,... */
+	protected double[] positions;
+	/** Outgoing halfedge of vertex. */
+	protected int[] vertexHalfedge;
+	/** Next halfedge in face. */
+	protected int[] halfedgeNext;
+	/** Paired halfedge. */
+	protected int[] halfedgePair;
+	/** Start vertex of halfedge. */
+	protected int[] halfedgeVertex;
+	/** Face of halfedge, -1 for boundary halfedges. */
+	protected int[] halfedgeFace;
+	/** Halfedge of face. */
+	protected int[] faceHalfedge;
+	protected int[] vertexColors;
+	protected int[] halfedgeColors;
+	protected int[] faceColors;
+	protected long[] vertexLabels;
+	protected long[] halfedgeLabels;
+	protected long[] faceLabels;
+	protected int[] faceTextureIds;
+	/**
+	 * Vertex UVW, u0,v0,w0,u1,..., NaN for vertices without UVW. Null if no
+	 * vertex has a UVW.
+	 */
+	protected double[] vertexUVW;
+	/** Halfedge UVW, same layout as vertexUVW. */
+	protected double[] halfedgeUVW;
+	/** Optional source structure, used to return element views. */
+	protected HE_MeshStructure source;
+	/** Position array is shared with a copy, clone before writing. */
+	protected boolean sharedPositions;
+
+	/**
+	 * Instantiates a new empty HE_CompactMesh with room for the given number
+	 * of elements. All links are initialized to -1.
+	 *
+	 * @param numberOfVertices
+	 * @param numberOfHalfedges
+	 * @param numberOfFaces
+	 */
+	public HE_CompactMesh(final int numberOfVertices, final int numberOfHalfedges, final int numberOfFaces) {
+		this.numberOfVertices = numberOfVertices;
+		this.numberOfHalfedges = numberOfHalfedges;
+		this.numberOfFaces = numberOfFaces;
+		positions = new double[3 * numberOfVertices];
+		vertexHalfedge = new int[numberOfVertices];
+		halfedgeNext = new int[numberOfHalfedges];
+		halfedgePair = new int[numberOfHalfedges];
+		halfedgeVertex = new int[numberOfHalfedges];
+		halfedgeFace = new int[numberOfHalfedges];
+		faceHalfedge = new int[numberOfFaces];
+		Arrays.fill(vertexHalfedge, -1);
+		Arrays.fill(halfedgeNext, -1);
+		Arrays.fill(halfedgePair, -1);
+		Arrays.fill(halfedgeVertex, -1);
+		Arrays.fill(halfedgeFace, -1);
+		Arrays.fill(faceHalfedge, -1);
+		vertexColors = new int[numberOfVertices];
+		halfedgeColors = new int[numberOfHalfedges];
+		faceColors = new int[numberOfFaces];
+		Arrays.fill(vertexColors, -1);
+		Arrays.fill(halfedgeColors, -1);
+		Arrays.fill(faceColors, -1);
+		vertexLabels = new long[numberOfVertices];
+		halfedgeLabels = new long[numberOfHalfedges];
+		faceLabels = new long[numberOfFaces];
+		Arrays.fill(vertexLabels, -1L);
+		Arrays.fill(halfedgeLabels, -1L);
+		Arrays.fill(faceLabels, -1L);
+		faceTextureIds = new int[numberOfFaces];
+		source = null;
+		sharedPositions = false;
+	}
+
+	/**
+	 * Copy-on-write clone. All arrays are shared with the original, the
+	 * position array is duplicated by whichever side writes to it first.
+	 * Connectivity, colors and labels are never modified after creation and
+	 * remain shared.
+	 *
+	 * @return copy
+	 */
+	public HE_CompactMesh copy() {
+		final HE_CompactMesh result = new HE_CompactMesh();
+		result.numberOfVertices = numberOfVertices;
+		result.numberOfHalfedges = numberOfHalfedges;
+		result.numberOfFaces = numberOfFaces;
+		result.positions = positions;
+		result.vertexHalfedge = vertexHalfedge;
+		result.halfedgeNext = halfedgeNext;
+		result.halfedgePair = halfedgePair;
+		result.halfedgeVertex = halfedgeVertex;
+		result.halfedgeFace = halfedgeFace;
+		result.faceHalfedge = faceHalfedge;
+		result.vertexColors = vertexColors;
+		result.halfedgeColors = halfedgeColors;
+		result.faceColors = faceColors;
+		result.vertexLabels = vertexLabels;
+		result.halfedgeLabels = halfedgeLabels;
+		result.faceLabels = faceLabels;
+		result.faceTextureIds = faceTextureIds;
+		result.vertexUVW = vertexUVW;
+		result.halfedgeUVW = halfedgeUVW;
+		result.source = source;
+		result.sharedPositions = true;
+		sharedPositions = true;
+		return result;
+	}
+
+	/**
+	 *
+	 *
+	 * @param n
+	 * @return UVW array for n elements, without UVW
+	 */
+	private static double[] createUVW(final int n) {
+		final double[] uvw = new double[3 * n];
+		Arrays.fill(uvw, Double.NaN);
+		return uvw;
+	}
+
+	/**
+	 *
+	 *
+	 * @param uvw
+	 * @param i
+	 * @param tc
+	 */
+	private static void setUVW(final double[] uvw, final int i, final HE_TextureCoordinate tc) {
+		uvw[3 * i] = tc.ud();
+		uvw[3 * i + 1] = tc.vd();
+		uvw[3 * i + 2] = tc.wd();
+	}
+
+	/**
+	 *
+	 *
+	 * @param uvw
+	 * @param i
+	 * @return
+	 */
+	private static boolean hasUVW(final double[] uvw, final int i) {
+		return uvw != null && !Double.isNaN(uvw[3 * i]);
+	}
+
+	/**
+	 * Empty shell for copy().
+	 */
+	private HE_CompactMesh() {
+	}
+
+	/**
+	 * Make sure the position array is not shared with a copy.
+	 */
+	private void unsharePositions() {
+		if (sharedPositions) {
+			positions = positions.clone();
+			sharedPositions = false;
+		}
+	}
+
+	/**
+	 * Instantiates a new HE_CompactMesh from a mesh structure. Element indices
+	 * are identical to those in the source.
+	 *
+	 * @param mesh
+	 */
+	public HE_CompactMesh(final HE_MeshStructure mesh) {
+		this(mesh.getNumberOfVertices(), mesh.getNumberOfHalfedges(), mesh.getNumberOfFaces());
+		tracker.setStatus(this, "Starting HE_CompactMesh.", +1);
+		source = mesh;
+		WB_ProgressCounter counter = new WB_ProgressCounter(numberOfVertices, 10);
+		tracker.setStatus(this, "Storing vertices.", counter);
+		final Iterator<HE_Vertex> vItr = mesh.vItr();
+		HE_Vertex v;
+		int i = 0;
+		while (vItr.hasNext()) {
+			v = vItr.next();
+			positions[3 * i] = v.xd();
+			positions[3 * i + 1] = v.yd();
+			positions[3 * i + 2] = v.zd();
+			vertexHalfedge[i] = mesh.getIndex(v.getHalfedge());
+			vertexColors[i] = v.getColor();
+			vertexLabels[i] = v._labels;
+			if (v.hasVertexUVW()) {
+				if (vertexUVW == null) {
+					vertexUVW = createUVW(numberOfVertices);
+				}
+				setUVW(vertexUVW, i, v.getVertexUVW());
+			}
+			i++;
+			counter.increment();
+		}
+		counter = new WB_ProgressCounter(numberOfHalfedges, 10);
+		tracker.setStatus(this, "Storing halfedges.", counter);
+		final Iterator<HE_Halfedge> heItr = mesh.heItr();
+		HE_Halfedge he;
+		i = 0;
+		while (heItr.hasNext()) {
+			he = heItr.next();
+			halfedgeNext[i] = mesh.getIndex(he.getNextInFace());
+			halfedgePair[i] = mesh.getIndex(he.getPair());
+			halfedgeVertex[i] = he.getVertex() == null ? -1 : mesh.getIndex(he.getVertex());
+			halfedgeFace[i] = he.getFace() == null ? -1 : mesh.getIndex(he.getFace());
+			halfedgeColors[i] = he.getColor();
+			halfedgeLabels[i] = he._labels;
+			if (he.hasHalfedgeUVW()) {
+				if (halfedgeUVW == null) {
+					halfedgeUVW = createUVW(numberOfHalfedges);
+				}
+				setUVW(halfedgeUVW, i, he.getHalfedgeUVW());
+			}
+			i++;
+			counter.increment();
+		}
+		counter = new WB_ProgressCounter(numberOfFaces, 10);
+		tracker.setStatus(this, "Storing faces.", counter);
+		final Iterator<HE_Face> fItr = mesh.fItr();
+		HE_Face f;
+		i = 0;
+		while (fItr.hasNext()) {
+			f = fItr.next();
+			faceHalfedge[i] = mesh.getIndex(f.getHalfedge());
+			faceColors[i] = f.getColor();
+			faceLabels[i] = f._labels;
+			faceTextureIds[i] = f.getTextureId();
+			i++;
+			counter.increment();
+		}
+		tracker.setStatus(this, "Exiting HE_CompactMesh.", -1);
+	}
+
+	/**
+	 * Number of vertices.
+	 *
+	 * @return
+	 */
+	public final int getNumberOfVertices() {
+		return numberOfVertices;
+	}
+
+	/**
+	 * Number of halfedges.
+	 *
+	 * @return
+	 */
+	public final int getNumberOfHalfedges() {
+		return numberOfHalfedges;
+	}
+
+	/**
+	 * Number of faces.
+	 *
+	 * @return
+	 */
+	public final int getNumberOfFaces() {
+		return numberOfFaces;
+	}
+
+	/**
+	 * Direct access to the position array, x0,y0,z0,x1,y1,z1,... Changes are
+	 * reflected in the compact mesh. A position array shared with a copy is
+	 * duplicated first.
+	 *
+	 * @return
+	 */
+	public final double[] getPositions() {
+		unsharePositions();
+		return positions;
+	}
+
+	/**
+	 *
+	 *
+	 * @param v
+	 * @return
+	 */
+	public final double xd(final int v) {
+		return positions[3 * v];
+	}
+
+	/**
+	 *
+	 *
+	 * @param v
+	 * @return
+	 */
+	public final double yd(final int v) {
+		return positions[3 * v + 1];
+	}
+
+	/**
+	 *
+	 *
+	 * @param v
+	 * @return
+	 */
+	public final double zd(final int v) {
+		return positions[3 * v + 2];
+	}
+
+	/**
+	 * Get position of vertex as new WB_Point.
+	 *
+	 * @param v
+	 * @return
+	 */
+	public final WB_Point getPosition(final int v) {
+		return new WB_Point(positions[3 * v], positions[3 * v + 1], positions[3 * v + 2]);
+	}
+
+	/**
+	 * Set position of vertex.
+	 *
+	 * @param v
+	 * @param x
+	 * @param y
+	 * @param z
+	 */
+	public final void setPosition(final int v, final double x, final double y, final double z) {
+		unsharePositions();
+		positions[3 * v] = x;
+		positions[3 * v + 1] = y;
+		positions[3 * v + 2] = z;
+	}
+
+	/**
+	 *
+	 *
+	 * @param v
+	 * @return outgoing halfedge of vertex
+	 */
+	public final int getVertexHalfedge(final int v) {
+		return vertexHalfedge[v];
+	}
+
+	/**
+	 *
+	 *
+	 * @param f
+	 * @return halfedge of face
+	 */
+	public final int getFaceHalfedge(final int f) {
+		return faceHalfedge[f];
+	}
+
+	/**
+	 *
+	 *
+	 * @param he
+	 * @return next halfedge in face
+	 */
+	public final int getNextInFace(final int he) {
+		return halfedgeNext[he];
+	}
+
+	/**
+	 * Previous halfedge in face, found by walking the face loop.
+	 *
+	 * @param he
+	 * @return previous halfedge in face
+	 */
+	public final int getPrevInFace(final int he) {
+		int prev = he;
+		int next = halfedgeNext[he];
+		while (next != he) {
+			if (next < 0) {
+				return -1;
+			}
+			prev = next;
+			next = halfedgeNext[next];
+		}
+		return prev;
+	}
+
+	/**
+	 *
+	 *
+	 * @param he
+	 * @return paired halfedge
+	 */
+	public final int getPair(final int he) {
+		return halfedgePair[he];
+	}
+
+	/**
+	 *
+	 *
+	 * @param he
+	 * @return next outgoing halfedge around the start vertex
+	 */
+	public final int getNextInVertex(final int he) {
+		final int pair = halfedgePair[he];
+		return pair < 0 ? -1 : halfedgeNext[pair];
+	}
+
+	/**
+	 *
+	 *
+	 * @param he
+	 * @return start vertex of halfedge
+	 */
+	public final int getStartVertex(final int he) {
+		return halfedgeVertex[he];
+	}
+
+	/**
+	 *
+	 *
+	 * @param he
+	 * @return end vertex of halfedge
+	 */
+	public final int getEndVertex(final int he) {
+		return halfedgeVertex[halfedgeNext[he]];
+	}
+
+	/**
+	 *
+	 *
+	 * @param he
+	 * @return face of halfedge, -1 for a boundary halfedge
+	 */
+	public final int getHalfedgeFace(final int he) {
+		return halfedgeFace[he];
+	}
+
+	/**
+	 *
+	 *
+	 * @param he
+	 * @return
+	 */
+	public final boolean isBoundary(final int he) {
+		return halfedgeFace[he] < 0;
+	}
+
+	/**
+	 * A halfedge is the representative edge if its pair has no face or, when
+	 * both halfedges have a face, if its index is lowest.
+	 *
+	 * @param he
+	 * @return
+	 */
+	public final boolean isEdge(final int he) {
+		final int pair = halfedgePair[he];
+		if (pair < 0) {
+			return false;
+		}
+		if (halfedgeFace[he] < 0) {
+			return halfedgeFace[pair] < 0 && he < pair;
+		}
+		return halfedgeFace[pair] < 0 || he < pair;
+	}
+
+	/**
+	 *
+	 *
+	 * @param v
+	 * @return
+	 */
+	public final boolean isBoundaryVertex(final int v) {
+		final int start = vertexHalfedge[v];
+		if (start < 0) {
+			return false;
+		}
+		int he = start;
+		do {
+			if (halfedgeFace[he] < 0) {
+				return true;
+			}
+			final int pair = halfedgePair[he];
+			if (pair < 0 || halfedgeFace[pair] < 0) {
+				return true;
+			}
+			he = halfedgeNext[pair];
+		} while (he != start && he >= 0);
+		return false;
+	}
+
+	/**
+	 * Number of halfedges in face.
+	 *
+	 * @param f
+	 * @return
+	 */
+	public final int getFaceOrder(final int f) {
+		final int start = faceHalfedge[f];
+		if (start < 0) {
+			return 0;
+		}
+		int he = start;
+		int order = 0;
+		do {
+			order++;
+			he = halfedgeNext[he];
+		} while (he != start && he >= 0);
+		return order;
+	}
+
+	/**
+	 * Number of outgoing halfedges of vertex.
+	 *
+	 * @param v
+	 * @return
+	 */
+	public final int getVertexOrder(final int v) {
+		final int start = vertexHalfedge[v];
+		if (start < 0) {
+			return 0;
+		}
+		int he = start;
+		int order = 0;
+		do {
+			order++;
+			he = getNextInVertex(he);
+		} while (he != start && he >= 0);
+		return order;
+	}
+
+	/**
+	 * Store the vertex indices of a face in a caller supplied buffer.
+	 *
+	 * @param f
+	 * @param result
+	 *            buffer, should be at least getFaceOrder(f) long
+	 * @return number of vertices written
+	 */
+	public final int getFaceVertices(final int f, final int[] result) {
+		final int start = faceHalfedge[f];
+		if (start < 0) {
+			return 0;
+		}
+		int he = start;
+		int i = 0;
+		do {
+			result[i++] = halfedgeVertex[he];
+			he = halfedgeNext[he];
+		} while (he != start && he >= 0);
+		return i;
+	}
+
+	/**
+	 * Store the neighboring vertex indices of a vertex in a caller supplied
+	 * buffer.
+	 *
+	 * @param v
+	 * @param result
+	 *            buffer, should be at least getVertexOrder(v) long
+	 * @return number of vertices written
+	 */
+	public final int getNeighborVertices(final int v, final int[] result) {
+		final int start = vertexHalfedge[v];
+		if (start < 0) {
+			return 0;
+		}
+		int he = start;
+		int i = 0;
+		do {
+			result[i++] = getEndVertex(he);
+			he = getNextInVertex(he);
+		} while (he != start && he >= 0);
+		return i;
+	}
+
+	/**
+	 * Get the AABB of all vertices.
+	 *
+	 * @return
+	 */
+	public WB_AABB getAABB() {
+		final WB_AABB aabb = new WB_AABB();
+		for (int i = 0; i < numberOfVertices; i++) {
+			aabb.expandToInclude(positions[3 * i], positions[3 * i + 1], positions[3 * i + 2]);
+		}
+		return aabb;
+	}
+
+	/**
+	 *
+	 *
+	 * @param v
+	 * @return true if the vertex has a UVW
+	 */
+	public final boolean hasVertexUVW(final int v) {
+		return hasUVW(vertexUVW, v);
+	}
+
+	/**
+	 *
+	 *
+	 * @param v
+	 * @return vertex UVW, zero coordinates if none exists
+	 */
+	public final HE_TextureCoordinate getVertexUVW(final int v) {
+		if (!hasUVW(vertexUVW, v)) {
+			return HE_TextureCoordinate.ZERO;
+		}
+		return new HE_TextureCoordinate(vertexUVW[3 * v], vertexUVW[3 * v + 1], vertexUVW[3 * v + 2]);
+	}
+
+	/**
+	 *
+	 *
+	 * @param he
+	 * @return true if the halfedge has a UVW
+	 */
+	public final boolean hasHalfedgeUVW(final int he) {
+		return hasUVW(halfedgeUVW, he);
+	}
+
+	/**
+	 *
+	 *
+	 * @param he
+	 * @return halfedge UVW, zero coordinates if none exists
+	 */
+	public final HE_TextureCoordinate getHalfedgeUVW(final int he) {
+		if (!hasUVW(halfedgeUVW, he)) {
+			return HE_TextureCoordinate.ZERO;
+		}
+		return new HE_TextureCoordinate(halfedgeUVW[3 * he], halfedgeUVW[3 * he + 1], halfedgeUVW[3 * he + 2]);
+	}
+
+	/**
+	 * Source structure of this compact mesh, null if the compact mesh was
+	 * created directly.
+	 *
+	 * @return
+	 */
+	public HE_MeshStructure getSource() {
+		return source;
+	}
+
+	/**
+	 * View of vertex index in the source structure.
+	 *
+	 * @param v
+	 * @return HE_Vertex, null if there is no source
+	 */
+	public HE_Vertex getVertex(final int v) {
+		return source == null ? null : source.getVertexWithIndex(v);
+	}
+
+	/**
+	 * View of halfedge index in the source structure.
+	 *
+	 * @param he
+	 * @return HE_Halfedge, null if there is no source
+	 */
+	public HE_Halfedge getHalfedge(final int he) {
+		return source == null ? null : source.getHalfedgeWithIndex(he);
+	}
+
+	/**
+	 * View of face index in the source structure.
+	 *
+	 * @param f
+	 * @return HE_Face, null if there is no source
+	 */
+	public HE_Face getFace(final int f) {
+		return source == null ? null : source.getFaceWithIndex(f);
+	}
+
+	/**
+	 * Write the stored positions back into the vertices of a structure with
+	 * the same vertex order, typically the source.
+	 *
+	 * @param mesh
+	 */
+	public void setPositions(final HE_MeshStructure mesh) {
+		final Iterator<HE_Vertex> vItr = mesh.vItr();
+		int i = 0;
+		while (vItr.hasNext() && i < numberOfVertices) {
+			vItr.next().set(positions[3 * i], positions[3 * i + 1], positions[3 * i + 2]);
+			i++;
+		}
+	}
+
+	/**
+	 * Create a new HE_Mesh. All elements are created and linked by index, no
+	 * key lookups are needed. Elements are created in index order, attributes
+	 * and links are set in parallel.
+	 *
+	 * @return
+	 */
+	public HE_Mesh toMesh() {
+		tracker.setStatus(this, "Starting HE_CompactMesh.toMesh().", +1);
+		final HE_Mesh result = new HE_Mesh();
+		final HE_Vertex[] rvertices = new HE_Vertex[numberOfVertices];
+		final HE_Halfedge[] rhalfedges = new HE_Halfedge[numberOfHalfedges];
+		final HE_Face[] rfaces = new HE_Face[numberOfFaces];
+		tracker.setStatus(this, "Creating elements.", 0);
+		for (int i = 0; i < numberOfVertices; i++) {
+			rvertices[i] = new HE_Vertex();
+		}
+		for (int i = 0; i < numberOfFaces; i++) {
+			rfaces[i] = new HE_Face();
+		}
+		for (int i = 0; i < numberOfHalfedges; i++) {
+			rhalfedges[i] = new HE_Halfedge();
+		}
+		tracker.setStatus(this, "Linking elements.", 0);
+		WB_Parallel.forRange(0, numberOfHalfedges, 1024, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				HE_Halfedge he;
+				int index;
+				for (int i = start; i < end; i++) {
+					he = rhalfedges[i];
+					he._labels = halfedgeLabels[i];
+					he.setColor(halfedgeColors[i]);
+					if (hasUVW(halfedgeUVW, i)) {
+						he.setUVW(halfedgeUVW[3 * i], halfedgeUVW[3 * i + 1], halfedgeUVW[3 * i + 2]);
+					}
+					index = halfedgeNext[i];
+					if (index >= 0) {
+						// each halfedge is the next of at most one halfedge
+						he._setNext(rhalfedges[index]);
+						rhalfedges[index]._setPrev(he);
+					}
+					index = halfedgePair[i];
+					if (index >= 0) {
+						he._setPair(rhalfedges[index]);
+					}
+					index = halfedgeVertex[i];
+					if (index >= 0) {
+						he._setVertex(rvertices[index]);
+					}
+					index = halfedgeFace[i];
+					if (index >= 0) {
+						he._setFace(rfaces[index]);
+					}
+				}
+			}
+		});
+		WB_Parallel.forRange(0, numberOfVertices, 1024, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				HE_Vertex v;
+				int index;
+				for (int i = start; i < end; i++) {
+					v = rvertices[i];
+					v.set(positions[3 * i], positions[3 * i + 1], positions[3 * i + 2]);
+					v._labels = vertexLabels[i];
+					v.setColor(vertexColors[i]);
+					if (hasUVW(vertexUVW, i)) {
+						v.setUVW(vertexUVW[3 * i], vertexUVW[3 * i + 1], vertexUVW[3 * i + 2]);
+					}
+					index = vertexHalfedge[i];
+					if (index >= 0) {
+						v._setHalfedge(rhalfedges[index]);
+					}
+				}
+			}
+		});
+		WB_Parallel.forRange(0, numberOfFaces, 1024, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				HE_Face f;
+				int index;
+				for (int i = start; i < end; i++) {
+					f = rfaces[i];
+					f._labels = faceLabels[i];
+					f.setColor(faceColors[i]);
+					f.setTextureId(faceTextureIds[i]);
+					index = faceHalfedge[i];
+					if (index >= 0) {
+						f._setHalfedge(rhalfedges[index]);
+					}
+				}
+			}
+		});
+		final WB_ProgressCounter counter = new WB_ProgressCounter(
+				numberOfVertices + numberOfHalfedges + numberOfFaces, 10);
+		tracker.setStatus(this, "Adding elements.", counter);
+		for (int i = 0; i < numberOfVertices; i++) {
+			result.add(rvertices[i]);
+			counter.increment();
+		}
+		for (int i = 0; i < numberOfFaces; i++) {
+			result.add(rfaces[i]);
+			counter.increment();
+		}
+		for (int i = 0; i < numberOfHalfedges; i++) {
+			result.add(rhalfedges[i]);
+			counter.increment();
+		}
+		tracker.setStatus(this, "Exiting HE_CompactMesh.toMesh().", -1);
+		return result;
+	}
+}
@@ -10,12 +10,27 @@
 package wblut.hemesh;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 
 /**
- * 
+ * Mesh with a stack of modifiers applied to a base mesh.
+ *
+ * The output of a stage is cached when the next stage has been invalidated
+ * before, so changing the parameters of a modifier only reevaluates the stack
+ * from that modifier on. Call invalidate(mod) after changing the parameters
+ * of mod, update() without any invalidate reevaluates the whole stack. Cached
+ * stages are evicted least recently used first when the estimated size
+ * exceeds the memory budget.
  */
 public class HE_DynamicMesh extends HE_Mesh {
     
+    /** Rough memory use of a mesh element in a cached mesh. */
+    private static final long BYTESPERELEMENT = 160;
+
     /**
      * 
      */
@@ -26,6 +41,32 @@ public class HE_DynamicMesh extends HE_Mesh {
      */
     private HE_Mesh bkp;
 
+    /**
+     * Output of stages by stack index, in least recently used order.
+     */
+    private final LinkedHashMap<Integer, HE_Mesh> cache;
+
+    /**
+     * Machines that have been invalidated, the output of the stage before
+     * them is worth caching.
+     */
+    private final Set<HE_Machine> edited;
+
+    /**
+     * First stage to reevaluate, -1 if no stage was invalidated.
+     */
+    private int firstDirty;
+
+    /**
+     * 
+     */
+    private long cacheBudget;
+
+    /**
+     * 
+     */
+    private long cacheSize;
+
     /**
      * 
      *
@@ -35,25 +76,154 @@ public class HE_DynamicMesh extends HE_Mesh {
 	this.set(baseMesh);
 	bkp = get();
 	modifierStack = new ArrayList<HE_Machine>();
+	cache = new LinkedHashMap<Integer, HE_Mesh>(16, 0.75f, true);
+	edited = new HashSet<HE_Machine>();
+	firstDirty = -1;
+	cacheBudget = 256L << 20;
+	cacheSize = 0;
     }
 
     /**
-     * 
+     * Evaluate the stack from the first invalidated stage, starting from the
+     * latest cached stage before it. If no stage was invalidated, the whole
+     * stack is evaluated.
      */
     public void update() {
-	this.set(bkp);
-	applyStack();
+	final int start = firstDirty < 0 ? 0 : Math.min(firstDirty, modifierStack.size());
+	dropCache(start);
+	int resume = start;
+	while (resume > 0 && !cache.containsKey(resume - 1)) {
+	    resume--;
+	}
+	this.set(resume == 0 ? bkp : cache.get(resume - 1));
+	for (int i = resume; i < modifierStack.size(); i++) {
+	    modifierStack.get(i).apply(this);
+	    if (i + 1 < modifierStack.size() && edited.contains(modifierStack.get(i + 1))) {
+		storeCache(i);
+	    }
+	}
+	firstDirty = -1;
+    }
+
+    /**
+     * Mark a machine in the stack as changed. The next update() reevaluates
+     * the stack from the first changed machine.
+     *
+     * @param mod
+     */
+    public void invalidate(final HE_Machine mod) {
+	final int i = modifierStack.indexOf(mod);
+	if (i < 0) {
+	    return;
+	}
+	edited.add(mod);
+	invalidate(i);
+    }
+
+    /**
+     * Mark all machines as changed and drop all cached stages.
+     */
+    public void invalidate() {
+	invalidate(0);
+	dropCache(0);
     }
 
     /**
      * 
+     *
+     * @param i
      */
-    private void applyStack() {
-	for (int i = 0; i < modifierStack.size(); i++) {
-	    modifierStack.get(i).apply(this);
+    private void invalidate(final int i) {
+	firstDirty = firstDirty < 0 ? i : Math.min(firstDirty, i);
+    }
+
+    /**
+     * Set the maximum estimated memory used by cached stages. A budget of 0
+     * turns caching off. Default is 256MB.
+     *
+     * @param bytes
+     * @return
+     */
+    public HE_DynamicMesh setCacheBudget(final long bytes) {
+	cacheBudget = Math.max(0, bytes);
+	evict();
+	return this;
+    }
+
+    /**
+     * 
+     *
+     * @return estimated memory used by cached stages
+     */
+    public long getCacheSize() {
+	return cacheSize;
+    }
+
+    /**
+     * 
+     *
+     * @return number of cached stages
+     */
+    public int getNumberOfCachedStages() {
+	return cache.size();
+    }
+
+    /**
+     * 
+     *
+     * @param i
+     */
+    private void storeCache(final int i) {
+	if (cacheBudget <= 0) {
+	    return;
+	}
+	final HE_Mesh stage = get();
+	final HE_Mesh previous = cache.put(i, stage);
+	if (previous != null) {
+	    cacheSize -= estimateSize(previous);
+	}
+	cacheSize += estimateSize(stage);
+	evict();
+    }
+
+    /**
+     * Remove the output of stage start and all later stages.
+     *
+     * @param start
+     */
+    private void dropCache(final int start) {
+	final Iterator<Map.Entry<Integer, HE_Mesh>> itr = cache.entrySet().iterator();
+	while (itr.hasNext()) {
+	    final Map.Entry<Integer, HE_Mesh> entry = itr.next();
+	    if (entry.getKey() >= start) {
+		cacheSize -= estimateSize(entry.getValue());
+		itr.remove();
+	    }
+	}
+    }
+
+    /**
+     * 
+     */
+    private void evict() {
+	final Iterator<HE_Mesh> itr = cache.values().iterator();
+	while (cacheSize > cacheBudget && itr.hasNext()) {
+	    cacheSize -= estimateSize(itr.next());
+	    itr.remove();
 	}
     }
 
+    /**
+     * 
+     *
+     * @param mesh
+     * @return
+     */
+    private static long estimateSize(final HE_Mesh mesh) {
+	return BYTESPERELEMENT
+		* (mesh.getNumberOfVertices() + mesh.getNumberOfHalfedges() + mesh.getNumberOfFaces());
+    }
+
     /**
      * 
      *
@@ -61,6 +231,7 @@ public class HE_DynamicMesh extends HE_Mesh {
      */
     public void add(final HE_Machine mod) {
 	modifierStack.add(mod);
+	invalidate(modifierStack.size() - 1);
     }
 
     /**
@@ -69,7 +240,14 @@ public class HE_DynamicMesh extends HE_Mesh {
      * @param mod 
      */
     public void remove(final HE_Machine mod) {
-	modifierStack.remove(mod);
+	final int i = modifierStack.indexOf(mod);
+	if (i < 0) {
+	    return;
+	}
+	modifierStack.remove(i);
+	edited.remove(mod);
+	dropCache(i);
+	invalidate(i);
     }
 
     /*
@@ -80,6 +258,9 @@ public class HE_DynamicMesh extends HE_Mesh {
     @Override
     public void clear() {
 	modifierStack.clear();
+	edited.clear();
+	dropCache(0);
+	firstDirty = -1;
 	set(bkp);
     }
 
@@ -92,7 +273,8 @@ public class HE_DynamicMesh extends HE_Mesh {
     public HE_DynamicMesh setBaseMesh(final HE_Mesh baseMesh) {
 	set(baseMesh);
 	bkp = get();
-	applyStack();
+	invalidate();
+	update();
 	return this;
     }
 }
@@ -15,6 +15,8 @@ import java.util.List;
 import gnu.trove.map.TLongIntMap;
 import gnu.trove.map.hash.TLongIntHashMap;
 import javolution.util.FastTable;
+import wblut.core.WB_Parallel;
+import wblut.core.WB_Parallel.WB_RangeTask;
 import wblut.geom.WB_AABB;
 import wblut.geom.WB_Coord;
 import wblut.geom.WB_FacelistMesh;
@@ -45,6 +47,7 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasColor, WB_Mesh {
 	 *
 	 */
 	private int meshcolor;
+	private HE_AttributeCache attributeCache;
 
 	/**
 	 * Instantiates a new HE_Mesh.
@@ -99,7 +102,124 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasColor, WB_Mesh {
 	 * @return copy as new HE_Mesh
 	 */
 	public HE_Mesh get() {
-		return new HE_Mesh(new HEC_Copy(this));
+		return copy();
+	}
+
+	/**
+	 * Deep copy of mesh, equivalent to HEC_Copy. The elements are created in
+	 * index order and linked by index, the links are resolved in parallel. No
+	 * key correlation tables are built.
+	 *
+	 * @return copy as new HE_Mesh
+	 */
+	public HE_Mesh copy() {
+		final int nv = vertices.size();
+		final int nf = faces.size();
+		final int ne = edges.size();
+		final int nh = halfedges.size();
+		final int nu = unpairedHalfedges.size();
+		final HE_Vertex[] rvertices = new HE_Vertex[nv];
+		final HE_Face[] rfaces = new HE_Face[nf];
+		final HE_Halfedge[] rhalfedges = new HE_Halfedge[ne + nh + nu];
+		// keys are assigned in creation order, create sequentially
+		for (int i = 0; i < nv; i++) {
+			rvertices[i] = new HE_Vertex();
+		}
+		for (int i = 0; i < nf; i++) {
+			rfaces[i] = new HE_Face();
+		}
+		for (int i = 0; i < rhalfedges.length; i++) {
+			rhalfedges[i] = new HE_Halfedge();
+		}
+		WB_Parallel.forRange(0, nv, 1024, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int i = start; i < end; i++) {
+					final HE_Vertex v = vertices.get(i);
+					final HE_Vertex rv = rvertices[i];
+					rv.set(v);
+					rv.copyProperties(v);
+					final int index = getIndex(v.getHalfedge());
+					if (index >= 0) {
+						rv._setHalfedge(rhalfedges[index]);
+					}
+				}
+			}
+		});
+		WB_Parallel.forRange(0, nf, 1024, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int i = start; i < end; i++) {
+					final HE_Face f = faces.get(i);
+					final HE_Face rf = rfaces[i];
+					rf.copyProperties(f);
+					final int index = getIndex(f.getHalfedge());
+					if (index >= 0) {
+						rf._setHalfedge(rhalfedges[index]);
+					}
+				}
+			}
+		});
+		WB_Parallel.forRange(0, rhalfedges.length, 1024, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int i = start; i < end; i++) {
+					final HE_Halfedge he = getHalfedgeWithIndex(i);
+					final HE_Halfedge rhe = rhalfedges[i];
+					rhe.copyProperties(he);
+					int index = getIndex(he.getNextInFace());
+					if (index >= 0) {
+						rhe._setNext(rhalfedges[index]);
+					}
+					index = getIndex(he.getPrevInFace());
+					if (index >= 0) {
+						rhe._setPrev(rhalfedges[index]);
+					}
+					index = getIndex(he.getPair());
+					if (index >= 0) {
+						rhe._setPair(rhalfedges[index]);
+					}
+					if (he.getVertex() != null) {
+						index = vertices.indexOf(he.getVertex());
+						if (index >= 0) {
+							rhe._setVertex(rvertices[index]);
+						}
+					}
+					if (he.getFace() != null) {
+						index = faces.indexOf(he.getFace());
+						if (index >= 0) {
+							rhe._setFace(rfaces[index]);
+						}
+					}
+				}
+			}
+		});
+		final HE_Mesh result = new HE_Mesh();
+		result.copyProperties(this);
+		result.vertices = new HE_RASTrove<HE_Vertex>(nv);
+		result.faces = new HE_RASTrove<HE_Face>(nf);
+		result.edges = new HE_RASTrove<HE_Halfedge>(ne);
+		result.halfedges = new HE_RASTrove<HE_Halfedge>(nh);
+		result.unpairedHalfedges = new HE_RASTrove<HE_Halfedge>(nu);
+		for (int i = 0; i < nv; i++) {
+			result.vertices.add(rvertices[i]);
+		}
+		for (int i = 0; i < nf; i++) {
+			result.faces.add(rfaces[i]);
+		}
+		// same partition in edges, halfedges and unpaired halfedges as the
+		// source, the keys of the copies have the same order
+		for (int i = 0; i < ne; i++) {
+			result.edges.add(rhalfedges[i]);
+		}
+		for (int i = ne; i < ne + nh; i++) {
+			result.halfedges.add(rhalfedges[i]);
+		}
+		for (int i = ne + nh; i < rhalfedges.length; i++) {
+			result.unpairedHalfedges.add(rhalfedges[i]);
+		}
+		result.modified();
+		return result;
 	}
 
 	/**
@@ -128,6 +248,83 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasColor, WB_Mesh {
 
 	}
 
+	/**
+	 * Cached face normals, face centers, face areas and vertex normals. The
+	 * cache is created on the first call, from then on getFaceNormals(),
+	 * getFaceCenters() and getVertexNormals() only recompute what changed.
+	 *
+	 * @return attribute cache of this mesh
+	 */
+	public HE_AttributeCache getAttributeCache() {
+		if (attributeCache == null) {
+			attributeCache = new HE_AttributeCache(this);
+		}
+		return attributeCache;
+	}
+
+	/**
+	 * Drop the attribute cache.
+	 */
+	public void clearAttributeCache() {
+		attributeCache = null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see wblut.hemesh.HE_MeshStructure#getFaceNormals()
+	 */
+	@Override
+	public WB_Coord[] getFaceNormals() {
+		if (attributeCache == null) {
+			return super.getFaceNormals();
+		}
+		final double[] normals = attributeCache.getFaceNormals();
+		final WB_Coord[] result = new WB_Coord[normals.length / 3];
+		for (int i = 0, j = 0; i < result.length; i++, j += 3) {
+			result[i] = new WB_Vector(normals[j], normals[j + 1], normals[j + 2]);
+		}
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see wblut.hemesh.HE_MeshStructure#getFaceCenters()
+	 */
+	@Override
+	public WB_Coord[] getFaceCenters() {
+		if (attributeCache == null) {
+			return super.getFaceCenters();
+		}
+		final double[] centers = attributeCache.getFaceCenters();
+		final WB_Coord[] result = new WB_Coord[centers.length / 3];
+		for (int i = 0, j = 0; i < result.length; i++, j += 3) {
+			result[i] = new WB_Point(centers[j], centers[j + 1], centers[j + 2]);
+		}
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see wblut.hemesh.HE_MeshStructure#getVertexNormals()
+	 */
+	@Override
+	public WB_Coord[] getVertexNormals() {
+		if (attributeCache == null) {
+			return super.getVertexNormals();
+		}
+		final double[] normals = attributeCache.getVertexNormals();
+		final WB_Coord[] result = new WB_Coord[normals.length / 3];
+		for (int i = 0, j = 0; i < result.length; i++, j += 3) {
+			if (!Double.isNaN(normals[j])) {
+				result[i] = new WB_Vector(normals[j], normals[j + 1], normals[j + 2]);
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Modify the mesh.
 	 *
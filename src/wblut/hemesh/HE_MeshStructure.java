@@ -48,6 +48,8 @@ public class HE_MeshStructure extends HE_MeshElement {
 	protected HE_RAS<HE_Halfedge> edges;
 	protected HE_RAS<HE_Halfedge> unpairedHalfedges;
 	protected HE_RAS<HE_Face> faces;
+	/** Incremented on every change in topology. */
+	int modCount;
 
 	/**
 	 * Instantiates a new HE_MeshStructure.
@@ -240,6 +242,13 @@ public class HE_MeshStructure extends HE_MeshElement {
 		return vertices.get(i);
 	}
 
+	/**
+	 * Called on every change in topology.
+	 */
+	protected void modified() {
+		modCount++;
+	}
+
 	/**
 	 * Add face.
 	 *
@@ -247,6 +256,7 @@ public class HE_MeshStructure extends HE_MeshElement {
 	 *            face to add
 	 */
 	public final void add(final HE_Face f) {
+		modified();
 		faces.add(f);
 	}
 
@@ -257,6 +267,7 @@ public class HE_MeshStructure extends HE_MeshElement {
 	 *            halfedge to add
 	 */
 	public final void add(final HE_Halfedge he) {
+		modified();
 		if (he.getPair() == null) {
 			unpairedHalfedges.add(he);
 		} else if (he.isEdge()) {
@@ -273,6 +284,7 @@ public class HE_MeshStructure extends HE_MeshElement {
 	 *            vertex to add
 	 */
 	public final void add(final HE_Vertex v) {
+		modified();
 		vertices.add(v);
 	}
 
@@ -318,6 +330,7 @@ public class HE_MeshStructure extends HE_MeshElement {
 	 * @param source
 	 */
 	public final void addFaces(final HE_MeshStructure source) {
+		modified();
 		faces.addAll(source.faces);
 	}
 
@@ -351,6 +364,7 @@ public class HE_MeshStructure extends HE_MeshElement {
 	 * @param source
 	 */
 	public final void addHalfedges(final HE_MeshStructure source) {
+		modified();
 		halfedges.addAll(source.halfedges);
 		edges.addAll(source.edges);
 		unpairedHalfedges.addAll(source.unpairedHalfedges);
@@ -363,6 +377,7 @@ public class HE_MeshStructure extends HE_MeshElement {
 	 * @param source
 	 */
 	protected final void addEdges(final HE_MeshStructure source) {
+		modified();
 		edges.addAll(source.edges);
 	}
 
@@ -384,6 +399,7 @@ public class HE_MeshStructure extends HE_MeshElement {
 	 * @param source
 	 */
 	public final void addVertices(final HE_MeshStructure source) {
+		modified();
 		vertices.addAll(source.vertices);
 	}
 
@@ -406,6 +422,7 @@ public class HE_MeshStructure extends HE_MeshElement {
 	 *            face to remove
 	 */
 	public final void remove(final HE_Face f) {
+		modified();
 		faces.remove(f);
 	}
 
@@ -416,6 +433,7 @@ public class HE_MeshStructure extends HE_MeshElement {
 	 *            halfedge to remove
 	 */
 	public final void remove(final HE_Halfedge he) {
+		modified();
 		edges.remove(he);
 		halfedges.remove(he);
 		unpairedHalfedges.remove(he);
@@ -428,6 +446,7 @@ public class HE_MeshStructure extends HE_MeshElement {
 	 *            vertex to remove
 	 */
 	public final void remove(final HE_Vertex v) {
+		modified();
 		vertices.remove(v);
 	}
 
@@ -517,6 +536,7 @@ public class HE_MeshStructure extends HE_MeshElement {
 	 * Clear faces.
 	 */
 	public final void clearFaces() {
+		modified();
 		faces = new HE_RASTrove<HE_Face>();
 	}
 
@@ -524,6 +544,7 @@ public class HE_MeshStructure extends HE_MeshElement {
 	 * Clear halfedges.
 	 */
 	public final void clearHalfedges() {
+		modified();
 		halfedges = new HE_RASTrove<HE_Halfedge>();
 		edges = new HE_RASTrove<HE_Halfedge>();
 		unpairedHalfedges = new HE_RASTrove<HE_Halfedge>();
@@ -543,6 +564,7 @@ public class HE_MeshStructure extends HE_MeshElement {
 	 * Clear vertices.
 	 */
 	public final void clearVertices() {
+		modified();
 		vertices = new HE_RASTrove<HE_Vertex>();
 	}
 
@@ -803,6 +825,32 @@ public class HE_MeshStructure extends HE_MeshElement {
 		return vertices.indexOf(v);
 	}
 
+	/**
+	 * Get index of halfedge, consistent with getHalfedgeWithIndex and
+	 * heItr().
+	 *
+	 * @param he
+	 * @return index, -1 if halfedge is not part of this structure
+	 */
+	public final int getIndex(final HE_Halfedge he) {
+		if (he == null) {
+			return -1;
+		}
+		int i = edges.indexOf(he);
+		if (i >= 0) {
+			return i;
+		}
+		i = halfedges.indexOf(he);
+		if (i >= 0) {
+			return i + edges.size();
+		}
+		i = unpairedHalfedges.indexOf(he);
+		if (i >= 0) {
+			return i + edges.size() + halfedges.size();
+		}
+		return -1;
+	}
+
 	/**
 	 *
 	 *
@@ -956,6 +1004,7 @@ public class HE_MeshStructure extends HE_MeshElement {
 	 * @param f
 	 */
 	public void setFace(final HE_Halfedge he, final HE_Face f) {
+		modified();
 		he._setFace(f);
 		if (he.getPair() != null) {
 			setPair(he, he.getPair());
@@ -969,6 +1018,7 @@ public class HE_MeshStructure extends HE_MeshElement {
 	 * @param he
 	 */
 	public void clearFace(final HE_Halfedge he) {
+		modified();
 		he._clearFace();
 		if (he.getPair() != null) {
 			setPair(he, he.getPair());
@@ -1017,6 +1067,7 @@ public class HE_MeshStructure extends HE_MeshElement {
 	 * @param hen
 	 */
 	public void setNext(final HE_Halfedge he, final HE_Halfedge hen) {
+		modified();
 		he._setNext(hen);
 		hen._setPrev(he);
 
@@ -1029,6 +1080,7 @@ public class HE_MeshStructure extends HE_MeshElement {
 	 * @param v
 	 */
 	public void setVertex(final HE_Halfedge he, final HE_Vertex v) {
+		modified();
 		he._setVertex(v);
 
 	}
@@ -1040,6 +1092,7 @@ public class HE_MeshStructure extends HE_MeshElement {
 	 * @param he
 	 */
 	public void setHalfedge(final HE_Face f, final HE_Halfedge he) {
+		modified();
 		f._setHalfedge(he);
 
 	}
@@ -1050,6 +1103,7 @@ public class HE_MeshStructure extends HE_MeshElement {
 	 * @param f
 	 */
 	public void clearHalfedge(final HE_Face f) {
+		modified();
 		f._clearHalfedge();
 	}
 
@@ -1060,6 +1114,7 @@ public class HE_MeshStructure extends HE_MeshElement {
 	 * @param he
 	 */
 	public void setHalfedge(final HE_Vertex v, final HE_Halfedge he) {
+		modified();
 		v._setHalfedge(he);
 
 	}
@@ -1070,6 +1125,7 @@ public class HE_MeshStructure extends HE_MeshElement {
 	 * @param v
 	 */
 	public void clearHalfedge(final HE_Vertex v) {
+		modified();
 		v._clearHalfedge();
 	}
 
@@ -1080,6 +1136,7 @@ public class HE_MeshStructure extends HE_MeshElement {
 	 * @param he
 	 */
 	public void clearNext(final HE_Halfedge he) {
+		modified();
 		if (he.getNextInFace() != null) {
 			he.getNextInFace()._clearPrev();
 		}
@@ -1093,6 +1150,7 @@ public class HE_MeshStructure extends HE_MeshElement {
 	 * @param he
 	 */
 	public void clearPrev(final HE_Halfedge he) {
+		modified();
 		if (he.getPrevInFace() != null) {
 			he.getPrevInFace()._clearNext();
 		}
@@ -1105,6 +1163,7 @@ public class HE_MeshStructure extends HE_MeshElement {
 	 * @param he
 	 */
 	public void clearVertex(final HE_Halfedge he) {
+		modified();
 		he._clearVertex();
 	}
 
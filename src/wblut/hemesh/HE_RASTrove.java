@@ -52,9 +52,11 @@ public class HE_RASTrove<E extends HE_Element> extends HE_RAS<E> {
 	 *
 	 *
 	 * @param n
+	 *            expected number of elements
 	 */
 	public HE_RASTrove(final int n) {
-		this();
+		objects = new FastTable<E>();
+		indices = new TLongIntHashMap(Math.max(10, 2 * n), 0.5f, -1L, -1);
 	}
 
 	/**
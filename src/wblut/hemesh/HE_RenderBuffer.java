@@ -0,0 +1,420 @@
+/*
+ * This file is part of HE_Mesh, a library for creating and manipulating meshes.
+ * It is dedicated to the public domain. To the extent possible under law,
+ * I , Frederik Vanhoutte, have waived all copyright and related or neighboring
+ * rights.
+ *
+ * This work is published from Belgium. (http://creativecommons.org/publicdomain/zero/1.0/)
+ *
+ */
+package wblut.hemesh;
+
+import java.lang.ref.WeakReference;
+
+import wblut.core.WB_Parallel;
+import wblut.core.WB_Parallel.WB_RangeTask;
+
+/**
+ * Triangulated faces of a mesh packed in an interleaved float array, ready to
+ * be copied to a vertex buffer. Each triangle corner takes STRIDE floats:
+ * position, normal, texture coordinates and color, the color is an ARGB int
+ * stored with Float.intBitsToFloat. The corners of a face are consecutive.
+ *
+ * update() brings the buffer up to date with the mesh. A change in topology
+ * rebuilds the buffer. Otherwise only the faces with moved vertices are
+ * triangulated again and refilled, for smooth normals also the faces around
+ * them, and the changed corners are reported as ranges. Changes in color or texture coordinates
+ * are not tracked, call invalidate() to refill all corners.
+ *
+ * The buffer doesn't keep the mesh from being garbage collected.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class HE_RenderBuffer {
+	/** Floats per corner. */
+	public static final int STRIDE = 9;
+	/** Offset of the position in a corner. */
+	public static final int POSITION = 0;
+	/** Offset of the normal in a corner. */
+	public static final int NORMAL = 3;
+	/** Offset of the texture coordinates in a corner. */
+	public static final int UV = 6;
+	/** Offset of the color in a corner. */
+	public static final int COLOR = 8;
+	/** Color sources. */
+	public static final int NOCOLOR = 0;
+	public static final int FACECOLOR = 1;
+	public static final int VERTEXCOLOR = 2;
+	public static final int HALFEDGECOLOR = 3;
+	private final WeakReference<HE_Mesh> mesh;
+	private final boolean smooth;
+	private final int colorSource;
+	/** Modification count of the mesh the buffer was built for. */
+	private int modCount;
+	private HE_Vertex[] vertices;
+	private HE_Face[] faces;
+	/** Position version of each vertex when last copied. */
+	private int[] versions;
+	/** Corners of each face. */
+	private int[] faceOffsets;
+	private int[] cornerVertices;
+	private HE_Halfedge[] cornerHalfedges;
+	private float[] data;
+	private boolean[] moved;
+	private boolean[] dirtyFaces;
+	private boolean invalid;
+	private boolean rebuilt;
+	/** Changed corners, as start and end pairs. */
+	private int[] dirtyRanges;
+	private int numberOfDirtyRanges;
+
+	/**
+	 *
+	 *
+	 * @param mesh
+	 * @param smooth
+	 *            use vertex normals instead of face normals
+	 * @param colorSource
+	 *            NOCOLOR, FACECOLOR, VERTEXCOLOR or HALFEDGECOLOR
+	 */
+	public HE_RenderBuffer(final HE_Mesh mesh, final boolean smooth, final int colorSource) {
+		if (colorSource < NOCOLOR || colorSource > HALFEDGECOLOR) {
+			throw new IllegalArgumentException("Unknown color source " + colorSource + ".");
+		}
+		this.mesh = new WeakReference<HE_Mesh>(mesh);
+		this.smooth = smooth;
+		this.colorSource = colorSource;
+		modCount = mesh.modCount - 1;
+		dirtyRanges = new int[16];
+	}
+
+	/**
+	 * Refill all corners on the next update.
+	 */
+	public void invalidate() {
+		invalid = true;
+	}
+
+	/**
+	 * Bring the buffer up to date with the mesh.
+	 *
+	 * @return true if any corner changed
+	 */
+	public boolean update() {
+		rebuilt = false;
+		numberOfDirtyRanges = 0;
+		final HE_Mesh lmesh = mesh.get();
+		if (lmesh == null) {
+			return false;
+		}
+		if (modCount != lmesh.modCount) {
+			rebuild(lmesh);
+			rebuilt = true;
+			addDirtyRange(0, getNumberOfCorners());
+			return true;
+		}
+		final int nv = vertices.length;
+		final int nf = faces.length;
+		boolean any = invalid;
+		for (int v = 0; v < nv; v++) {
+			if (vertices[v].version != versions[v]) {
+				versions[v] = vertices[v].version;
+				moved[v] = true;
+				any = true;
+			}
+		}
+		if (!any) {
+			return false;
+		}
+		final boolean all = invalid;
+		invalid = false;
+		// faces with a moved vertex
+		WB_Parallel.forRange(0, nf, 1024, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int f = start; f < end; f++) {
+					boolean dirty = all;
+					for (int c = faceOffsets[f]; c < faceOffsets[f + 1] && !dirty; c++) {
+						dirty = moved[cornerVertices[c]];
+					}
+					dirtyFaces[f] = dirty;
+				}
+			}
+		});
+		if (smooth && !all) {
+			// the normals of all vertices of these faces changed
+			for (int f = 0; f < nf; f++) {
+				if (dirtyFaces[f]) {
+					for (int c = faceOffsets[f]; c < faceOffsets[f + 1]; c++) {
+						moved[cornerVertices[c]] = true;
+					}
+				}
+			}
+			WB_Parallel.forRange(0, nf, 1024, new WB_RangeTask() {
+				@Override
+				public void run(final int start, final int end) {
+					for (int f = start; f < end; f++) {
+						for (int c = faceOffsets[f]; c < faceOffsets[f + 1] && !dirtyFaces[f]; c++) {
+							dirtyFaces[f] = moved[cornerVertices[c]];
+						}
+					}
+				}
+			});
+		}
+		if (!retriangulate(lmesh)) {
+			rebuild(lmesh);
+			rebuilt = true;
+			addDirtyRange(0, getNumberOfCorners());
+			return true;
+		}
+		fill(lmesh);
+		for (int f = 0; f < nf; f++) {
+			if (dirtyFaces[f]) {
+				int last = f;
+				while (last + 1 < nf && dirtyFaces[last + 1]) {
+					last++;
+				}
+				addDirtyRange(faceOffsets[f], faceOffsets[last + 1]);
+				f = last;
+			}
+		}
+		for (int v = 0; v < nv; v++) {
+			moved[v] = false;
+		}
+		return numberOfDirtyRanges > 0;
+	}
+
+	/**
+	 *
+	 *
+	 * @param lmesh
+	 */
+	private void rebuild(final HE_Mesh lmesh) {
+		vertices = lmesh.getVerticesAsArray();
+		faces = lmesh.getFacesAsArray();
+		final int nv = vertices.length;
+		final int nf = faces.length;
+		versions = new int[nv];
+		for (int v = 0; v < nv; v++) {
+			versions[v] = vertices[v].version;
+		}
+		moved = new boolean[nv];
+		dirtyFaces = new boolean[nf];
+		final int[][] triangles = new int[nf][];
+		WB_Parallel.forRange(0, nf, 256, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int f = start; f < end; f++) {
+					triangles[f] = faces[f].getHalfedge() == null || faces[f].getFaceOrder() < 3 ? new int[0]
+							: faces[f].getTriangles();
+				}
+			}
+		});
+		faceOffsets = new int[nf + 1];
+		for (int f = 0; f < nf; f++) {
+			faceOffsets[f + 1] = faceOffsets[f] + triangles[f].length;
+		}
+		cornerVertices = new int[faceOffsets[nf]];
+		cornerHalfedges = new HE_Halfedge[faceOffsets[nf]];
+		WB_Parallel.forRange(0, nf, 256, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int f = start; f < end; f++) {
+					setCorners(lmesh, f, triangles[f]);
+				}
+			}
+		});
+		data = new float[STRIDE * faceOffsets[nf]];
+		for (int f = 0; f < nf; f++) {
+			dirtyFaces[f] = true;
+		}
+		invalid = false;
+		fill(lmesh);
+		modCount = lmesh.modCount;
+	}
+
+	/**
+	 * Triangulate the dirty faces again, the triangulation can change when
+	 * vertices move.
+	 *
+	 * @param lmesh
+	 * @return false if the number of corners of a face changed
+	 */
+	private boolean retriangulate(final HE_Mesh lmesh) {
+		final boolean[] changed = new boolean[1];
+		WB_Parallel.forRange(0, faces.length, 256, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int f = start; f < end && !changed[0]; f++) {
+					if (!dirtyFaces[f] || faceOffsets[f] == faceOffsets[f + 1]) {
+						continue;
+					}
+					final int[] triangles = faces[f].getTriangles();
+					if (triangles.length != faceOffsets[f + 1] - faceOffsets[f]) {
+						changed[0] = true;
+					} else {
+						setCorners(lmesh, f, triangles);
+					}
+				}
+			}
+		});
+		return !changed[0];
+	}
+
+	/**
+	 *
+	 *
+	 * @param lmesh
+	 * @param f
+	 * @param triangles
+	 *            triangles of the face, as indices of its vertices
+	 */
+	private void setCorners(final HE_Mesh lmesh, final int f, final int[] triangles) {
+		if (triangles.length == 0) {
+			return;
+		}
+		final HE_Halfedge[] halfedges = new HE_Halfedge[faces[f].getFaceOrder()];
+		HE_Halfedge he = faces[f].getHalfedge();
+		for (int i = 0; i < halfedges.length; i++) {
+			halfedges[i] = he;
+			he = he.getNextInFace();
+		}
+		for (int i = 0; i < triangles.length; i++) {
+			final HE_Halfedge corner = halfedges[triangles[i]];
+			cornerHalfedges[faceOffsets[f] + i] = corner;
+			cornerVertices[faceOffsets[f] + i] = lmesh.getIndex(corner.getVertex());
+		}
+	}
+
+	/**
+	 * Fill the corners of all dirty faces.
+	 *
+	 * @param lmesh
+	 */
+	private void fill(final HE_Mesh lmesh) {
+		final HE_AttributeCache cache = lmesh.getAttributeCache();
+		final double[] normals = smooth ? cache.getVertexNormals() : cache.getFaceNormals();
+		WB_Parallel.forRange(0, faces.length, 256, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int f = start; f < end; f++) {
+					if (!dirtyFaces[f]) {
+						continue;
+					}
+					final HE_Face face = faces[f];
+					for (int c = faceOffsets[f]; c < faceOffsets[f + 1]; c++) {
+						final int v = cornerVertices[c];
+						final HE_Vertex vertex = vertices[v];
+						final int n = smooth ? v : f;
+						final int o = STRIDE * c;
+						data[o] = vertex.xf();
+						data[o + 1] = vertex.yf();
+						data[o + 2] = vertex.zf();
+						data[o + 3] = (float) normals[3 * n];
+						data[o + 4] = (float) normals[3 * n + 1];
+						data[o + 5] = (float) normals[3 * n + 2];
+						final HE_TextureCoordinate uvw = vertex.getUVW(face);
+						data[o + 6] = uvw.xf();
+						data[o + 7] = uvw.yf();
+						final int color = colorSource == FACECOLOR ? face.getColor()
+								: colorSource == VERTEXCOLOR ? vertex.getColor()
+										: colorSource == HALFEDGECOLOR ? cornerHalfedges[c].getColor() : 0;
+						data[o + 8] = Float.intBitsToFloat(color);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 *
+	 *
+	 * @param start
+	 * @param end
+	 */
+	private void addDirtyRange(final int start, final int end) {
+		if (2 * numberOfDirtyRanges == dirtyRanges.length) {
+			final int[] tmp = new int[2 * dirtyRanges.length];
+			System.arraycopy(dirtyRanges, 0, tmp, 0, dirtyRanges.length);
+			dirtyRanges = tmp;
+		}
+		dirtyRanges[2 * numberOfDirtyRanges] = start;
+		dirtyRanges[2 * numberOfDirtyRanges + 1] = end;
+		numberOfDirtyRanges++;
+	}
+
+	/**
+	 * Interleaved corner data, STRIDE floats per corner.
+	 *
+	 * @return
+	 */
+	public float[] getData() {
+		return data;
+	}
+
+	/**
+	 *
+	 *
+	 * @return number of triangle corners, 3 per triangle
+	 */
+	public int getNumberOfCorners() {
+		return faceOffsets == null ? 0 : faceOffsets[faceOffsets.length - 1];
+	}
+
+	/**
+	 *
+	 *
+	 * @return true if the last update rebuilt the buffer
+	 */
+	public boolean isRebuilt() {
+		return rebuilt;
+	}
+
+	/**
+	 *
+	 *
+	 * @return number of ranges of corners changed by the last update
+	 */
+	public int getNumberOfDirtyRanges() {
+		return numberOfDirtyRanges;
+	}
+
+	/**
+	 *
+	 *
+	 * @param i
+	 * @return first corner of a changed range
+	 */
+	public int getDirtyRangeStart(final int i) {
+		return dirtyRanges[2 * i];
+	}
+
+	/**
+	 *
+	 *
+	 * @param i
+	 * @return corner after the last corner of a changed range
+	 */
+	public int getDirtyRangeEnd(final int i) {
+		return dirtyRanges[2 * i + 1];
+	}
+
+	/**
+	 *
+	 *
+	 * @return
+	 */
+	public boolean isSmooth() {
+		return smooth;
+	}
+
+	/**
+	 *
+	 *
+	 * @return
+	 */
+	public int getColorSource() {
+		return colorSource;
+	}
+}
@@ -43,6 +43,19 @@ public class HE_Selection extends HE_MeshStructure {
 		this.parent = parent;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see wblut.hemesh.HE_MeshStructure#modified()
+	 */
+	@Override
+	protected void modified() {
+		super.modified();
+		if (parent != null) {
+			parent.modCount++;
+		}
+	}
+
 	/**
 	 * Modify the mesh.
 	 *
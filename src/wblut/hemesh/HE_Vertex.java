@@ -36,6 +36,8 @@ import wblut.math.WB_Math;
  */
 public class HE_Vertex extends HE_MeshElement implements WB_HasColor, WB_MutableCoordinateFull {
 	double vx, vy, vz;
+	/** Incremented on every change of position. */
+	int version;
 
 	/** Halfedge associated with this vertex. */
 	private HE_Halfedge _halfedge;
@@ -173,6 +175,7 @@ public class HE_Vertex extends HE_MeshElement implements WB_HasColor, WB_Mutable
 		vx = v.xd();
 		vy = v.yd();
 		vz = v.zd();
+		version++;
 	}
 
 	/**
@@ -578,6 +581,7 @@ public class HE_Vertex extends HE_MeshElement implements WB_HasColor, WB_Mutable
 	@Override
 	public void setX(final double x) {
 		vx = x;
+		version++;
 	}
 
 	/*
@@ -588,6 +592,7 @@ public class HE_Vertex extends HE_MeshElement implements WB_HasColor, WB_Mutable
 	@Override
 	public void setY(final double y) {
 		vy = y;
+		version++;
 	}
 
 	/*
@@ -598,6 +603,7 @@ public class HE_Vertex extends HE_MeshElement implements WB_HasColor, WB_Mutable
 	@Override
 	public void setZ(final double z) {
 		vz = z;
+		version++;
 	}
 
 	/*
@@ -626,6 +632,7 @@ public class HE_Vertex extends HE_MeshElement implements WB_HasColor, WB_Mutable
 		if (i == 2) {
 			this.vz = v;
 		}
+		version++;
 	}
 
 	/*
@@ -647,6 +654,7 @@ public class HE_Vertex extends HE_MeshElement implements WB_HasColor, WB_Mutable
 	public void set(final double x, final double y) {
 		vx = x;
 		vy = y;
+		version++;
 	}
 
 	/*
@@ -659,6 +667,7 @@ public class HE_Vertex extends HE_MeshElement implements WB_HasColor, WB_Mutable
 		vx = x;
 		vy = y;
 		vz = z;
+		version++;
 	}
 
 	/*
@@ -671,6 +680,7 @@ public class HE_Vertex extends HE_MeshElement implements WB_HasColor, WB_Mutable
 		vx = x;
 		vy = y;
 		vz = z;
+		version++;
 	}
 
 	/*
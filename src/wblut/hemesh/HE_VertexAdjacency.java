@@ -0,0 +1,533 @@
+/*
+ * This file is part of HE_Mesh, a library for creating and manipulating meshes.
+ * It is dedicated to the public domain. To the extent possible under law,
+ * I , Frederik Vanhoutte, have waived all copyright and related or neighboring
+ * rights.
+ *
+ * This work is published from Belgium. (http://creativecommons.org/publicdomain/zero/1.0/)
+ *
+ */
+package wblut.hemesh;
+
+import java.util.Iterator;
+
+import wblut.core.WB_Parallel;
+import wblut.core.WB_Parallel.WB_RangeTask;
+import wblut.math.WB_Epsilon;
+
+/**
+ * Vertex adjacency of a mesh in compressed sparse row form. Entry k in
+ * [offsets[v], offsets[v+1]) corresponds to an outgoing halfedge of vertex v,
+ * in the order of the halfedge star, and stores the neighbor vertex, the
+ * face and the corners needed for cotangent weights.
+ *
+ * The smoothing kernels read positions from one packed array x0,y0,z0,x1,...
+ * and write to another, each vertex independently and in parallel. The
+ * adjacency does not change during smoothing, so it is extracted once and the
+ * mesh is only updated with setPositions() after the last iteration.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class HE_VertexAdjacency {
+	private final int numberOfVertices;
+	private final int numberOfFaces;
+	private final double[] positions;
+	private final int[] offsets;
+	private final int[] neighbors;
+	/** Face of the outgoing halfedge, -1 on the boundary. */
+	private final int[] faces;
+	/**
+	 * First vertex of the previous halfedge in the face, and the vertex before
+	 * that, -1 on the boundary.
+	 */
+	private final int[] cornersA;
+	private final int[] farA;
+	/** Same for the paired halfedge. */
+	private final int[] cornersB;
+	private final int[] farB;
+	/** False for self-loops and repeated neighbors. */
+	private final boolean[] unique;
+	private final int[] numberOfNeighbors;
+	private final boolean[] boundary;
+	private final int[] faceOffsets;
+	private final int[] faceVertices;
+	private double[] faceNormals;
+
+	/**
+	 *
+	 *
+	 * @param mesh
+	 */
+	public HE_VertexAdjacency(final HE_MeshStructure mesh) {
+		this(new HE_CompactMesh(mesh));
+	}
+
+	/**
+	 *
+	 *
+	 * @param mesh
+	 */
+	public HE_VertexAdjacency(final HE_CompactMesh mesh) {
+		numberOfVertices = mesh.numberOfVertices;
+		numberOfFaces = mesh.numberOfFaces;
+		positions = mesh.positions.clone();
+		final int[] next = mesh.halfedgeNext;
+		final int[] pair = mesh.halfedgePair;
+		final int[] halfedgeVertex = mesh.halfedgeVertex;
+		final int[] halfedgeFace = mesh.halfedgeFace;
+		offsets = new int[numberOfVertices + 1];
+		for (int v = 0; v < numberOfVertices; v++) {
+			offsets[v + 1] = offsets[v] + mesh.getVertexOrder(v);
+		}
+		final int n = offsets[numberOfVertices];
+		neighbors = new int[n];
+		faces = new int[n];
+		cornersA = new int[n];
+		farA = new int[n];
+		cornersB = new int[n];
+		farB = new int[n];
+		unique = new boolean[n];
+		numberOfNeighbors = new int[numberOfVertices];
+		boundary = new boolean[numberOfVertices];
+		WB_Parallel.forRange(0, numberOfVertices, 1024, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int v = start; v < end; v++) {
+					final int first = mesh.vertexHalfedge[v];
+					if (first < 0) {
+						continue;
+					}
+					int he = first;
+					int k = offsets[v];
+					do {
+						final int p = pair[he];
+						final int neighbor = halfedgeVertex[next[he]];
+						neighbors[k] = neighbor;
+						faces[k] = halfedgeFace[he];
+						if (halfedgeFace[he] < 0) {
+							boundary[v] = true;
+							cornersA[k] = farA[k] = -1;
+						} else {
+							final int prev = mesh.getPrevInFace(he);
+							cornersA[k] = halfedgeVertex[prev];
+							farA[k] = halfedgeVertex[mesh.getPrevInFace(prev)];
+						}
+						if (p < 0 || halfedgeFace[p] < 0) {
+							cornersB[k] = farB[k] = -1;
+						} else {
+							final int prev = mesh.getPrevInFace(p);
+							cornersB[k] = halfedgeVertex[prev];
+							farB[k] = halfedgeVertex[mesh.getPrevInFace(prev)];
+						}
+						boolean u = neighbor != v;
+						for (int j = offsets[v]; j < k && u; j++) {
+							u = neighbors[j] != neighbor;
+						}
+						unique[k] = u;
+						if (u) {
+							numberOfNeighbors[v]++;
+						}
+						k++;
+						he = p < 0 ? -1 : next[p];
+					} while (he != first && he >= 0 && k < offsets[v + 1]);
+				}
+			}
+		});
+		faceOffsets = new int[numberOfFaces + 1];
+		for (int f = 0; f < numberOfFaces; f++) {
+			faceOffsets[f + 1] = faceOffsets[f] + mesh.getFaceOrder(f);
+		}
+		faceVertices = new int[faceOffsets[numberOfFaces]];
+		for (int f = 0; f < numberOfFaces; f++) {
+			final int first = mesh.faceHalfedge[f];
+			if (first < 0) {
+				continue;
+			}
+			int he = first;
+			int k = faceOffsets[f];
+			do {
+				faceVertices[k++] = halfedgeVertex[he];
+				he = next[he];
+			} while (he != first && he >= 0);
+		}
+	}
+
+	/**
+	 *
+	 *
+	 * @return
+	 */
+	public int getNumberOfVertices() {
+		return numberOfVertices;
+	}
+
+	/**
+	 * Copy of the vertex positions at the time of extraction.
+	 *
+	 * @return packed positions x0,y0,z0,x1,...
+	 */
+	public double[] getPositions() {
+		return positions.clone();
+	}
+
+	/**
+	 * Write positions back into the vertices of a structure with the same
+	 * vertex order, typically the source.
+	 *
+	 * @param mesh
+	 * @param positions
+	 *            packed positions x0,y0,z0,x1,...
+	 */
+	public void setPositions(final HE_MeshStructure mesh, final double[] positions) {
+		final Iterator<HE_Vertex> vItr = mesh.vItr();
+		int i = 0;
+		while (vItr.hasNext() && i < numberOfVertices) {
+			vItr.next().set(positions[3 * i], positions[3 * i + 1], positions[3 * i + 2]);
+			i++;
+		}
+	}
+
+	/**
+	 * Does the vertex have an outgoing halfedge without face?
+	 *
+	 * @param v
+	 * @return
+	 */
+	public boolean isBoundary(final int v) {
+		return boundary[v];
+	}
+
+	/**
+	 * Number of distinct neighbors.
+	 *
+	 * @param v
+	 * @return
+	 */
+	public int getNumberOfNeighbors(final int v) {
+		return numberOfNeighbors[v];
+	}
+
+	/**
+	 * Uniform Laplacian step, p'=(1-lambda)p+lambda*average(neighbors).
+	 *
+	 * @param src
+	 *            packed positions
+	 * @param dst
+	 *            packed new positions
+	 * @param lambda
+	 * @param keepBoundary
+	 *            copy boundary vertices unchanged
+	 */
+	public void laplacian(final double[] src, final double[] dst, final double lambda, final boolean keepBoundary) {
+		WB_Parallel.forRange(0, numberOfVertices, 1024, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int v = start; v < end; v++) {
+					if (keepBoundary && boundary[v] || numberOfNeighbors[v] == 0) {
+						copy(src, dst, v);
+					} else {
+						uniform(src, dst, v, lambda);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Uniform Laplacian step, projected on the tangent plane of each vertex.
+	 * The tangent plane is defined by the angle weighted vertex normal.
+	 *
+	 * @param src
+	 *            packed positions
+	 * @param dst
+	 *            packed new positions
+	 * @param lambda
+	 * @param keepBoundary
+	 *            copy boundary vertices unchanged
+	 */
+	public void tangentialLaplacian(final double[] src, final double[] dst, final double lambda,
+			final boolean keepBoundary) {
+		computeFaceNormals(src);
+		WB_Parallel.forRange(0, numberOfVertices, 1024, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				final double[] n = new double[3];
+				for (int v = start; v < end; v++) {
+					if (keepBoundary && boundary[v] || numberOfNeighbors[v] == 0) {
+						copy(src, dst, v);
+						continue;
+					}
+					uniform(src, dst, v, lambda);
+					angleNormal(src, v, n);
+					final int i = 3 * v;
+					final double d = n[0] * (dst[i] - src[i]) + n[1] * (dst[i + 1] - src[i + 1])
+							+ n[2] * (dst[i + 2] - src[i + 2]);
+					dst[i] -= d * n[0];
+					dst[i + 1] -= d * n[1];
+					dst[i + 2] -= d * n[2];
+				}
+			}
+		});
+	}
+
+	/**
+	 * Cotangent weighted Laplacian step, p'=p+lambda*sum(w*(q-p))/sum(w).
+	 * Halfedges without face do not contribute.
+	 *
+	 * @param src
+	 *            packed positions
+	 * @param dst
+	 *            packed new positions
+	 * @param lambda
+	 * @param keepBoundary
+	 *            copy boundary vertices unchanged
+	 */
+	public void cotanLaplacian(final double[] src, final double[] dst, final double lambda,
+			final boolean keepBoundary) {
+		WB_Parallel.forRange(0, numberOfVertices, 1024, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int v = start; v < end; v++) {
+					if (keepBoundary && boundary[v]) {
+						copy(src, dst, v);
+						continue;
+					}
+					final int i = 3 * v;
+					double x = 0, y = 0, z = 0, weight = 0;
+					for (int k = offsets[v]; k < offsets[v + 1]; k++) {
+						final double w = cotanWeight(src, v, k);
+						final int j = 3 * neighbors[k];
+						x += w * (src[j] - src[i]);
+						y += w * (src[j + 1] - src[i + 1]);
+						z += w * (src[j + 2] - src[i + 2]);
+						weight += w;
+					}
+					if (WB_Epsilon.isZero(weight)) {
+						copy(src, dst, v);
+					} else {
+						dst[i] = src[i] + lambda * x / weight;
+						dst[i + 1] = src[i + 1] + lambda * y / weight;
+						dst[i + 2] = src[i + 2] + lambda * z / weight;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Move each vertex to the cotangent weighted average of its neighbors,
+	 * the minimum of the Dirichlet energy. Boundary vertices are kept.
+	 *
+	 * @param src
+	 *            packed positions
+	 * @param dst
+	 *            packed new positions
+	 */
+	public void cotanAverage(final double[] src, final double[] dst) {
+		WB_Parallel.forRange(0, numberOfVertices, 1024, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int v = start; v < end; v++) {
+					if (boundary[v] || offsets[v] == offsets[v + 1]) {
+						copy(src, dst, v);
+						continue;
+					}
+					final int i = 3 * v;
+					double x = 0, y = 0, z = 0, weight = 0;
+					for (int k = offsets[v]; k < offsets[v + 1]; k++) {
+						final double w = cotanWeight(src, v, k);
+						final int j = 3 * neighbors[k];
+						x += w * src[j];
+						y += w * src[j + 1];
+						z += w * src[j + 2];
+						weight += w;
+					}
+					if (!WB_Epsilon.isZero(weight)) {
+						x /= weight;
+						y /= weight;
+						z /= weight;
+					}
+					dst[i] = x;
+					dst[i + 1] = y;
+					dst[i + 2] = z;
+				}
+			}
+		});
+	}
+
+	/**
+	 *
+	 *
+	 * @param src
+	 * @param dst
+	 * @param v
+	 */
+	private void copy(final double[] src, final double[] dst, final int v) {
+		dst[3 * v] = src[3 * v];
+		dst[3 * v + 1] = src[3 * v + 1];
+		dst[3 * v + 2] = src[3 * v + 2];
+	}
+
+	/**
+	 *
+	 *
+	 * @param src
+	 * @param dst
+	 * @param v
+	 * @param lambda
+	 */
+	private void uniform(final double[] src, final double[] dst, final int v, final double lambda) {
+		final int i = 3 * v;
+		final double f = lambda / numberOfNeighbors[v];
+		double x = (1.0 - lambda) * src[i];
+		double y = (1.0 - lambda) * src[i + 1];
+		double z = (1.0 - lambda) * src[i + 2];
+		for (int k = offsets[v]; k < offsets[v + 1]; k++) {
+			if (unique[k]) {
+				final int j = 3 * neighbors[k];
+				x += f * src[j];
+				y += f * src[j + 1];
+				z += f * src[j + 2];
+			}
+		}
+		dst[i] = x;
+		dst[i + 1] = y;
+		dst[i + 2] = z;
+	}
+
+	/**
+	 * Sum of the cotangents of the corners opposite entry k, as
+	 * HE_Halfedge.getCotan() of the previous halfedges.
+	 *
+	 * @param src
+	 * @param v
+	 * @param k
+	 * @return
+	 */
+	private double cotanWeight(final double[] src, final int v, final int k) {
+		double w = 0;
+		if (cornersA[k] >= 0) {
+			w += cotan(src, cornersA[k], v, farA[k]);
+		}
+		if (cornersB[k] >= 0) {
+			w += cotan(src, cornersB[k], neighbors[k], farB[k]);
+		}
+		return w;
+	}
+
+	/**
+	 * Cotangent of the angle at c.
+	 *
+	 * @param src
+	 * @param c
+	 * @param p
+	 * @param q
+	 * @return
+	 */
+	private static double cotan(final double[] src, final int c, final int p, final int q) {
+		final double ux = src[3 * p] - src[3 * c];
+		final double uy = src[3 * p + 1] - src[3 * c + 1];
+		final double uz = src[3 * p + 2] - src[3 * c + 2];
+		final double wx = src[3 * q] - src[3 * c];
+		final double wy = src[3 * q + 1] - src[3 * c + 1];
+		final double wz = src[3 * q + 2] - src[3 * c + 2];
+		final double cx = uy * wz - uz * wy;
+		final double cy = uz * wx - ux * wz;
+		final double cz = ux * wy - uy * wx;
+		return (ux * wx + uy * wy + uz * wz) / Math.sqrt(cx * cx + cy * cy + cz * cz);
+	}
+
+	/**
+	 * Newell normals of all faces.
+	 *
+	 * @param src
+	 */
+	private void computeFaceNormals(final double[] src) {
+		if (faceNormals == null) {
+			faceNormals = new double[3 * numberOfFaces];
+		}
+		WB_Parallel.forRange(0, numberOfFaces, 1024, new WB_RangeTask() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int f = start; f < end; f++) {
+					final int s = faceOffsets[f];
+					final int e = faceOffsets[f + 1];
+					double nx = 0, ny = 0, nz = 0;
+					for (int k = s; k < e; k++) {
+						final int p0 = 3 * faceVertices[k];
+						final int p1 = 3 * faceVertices[k + 1 < e ? k + 1 : s];
+						nx += (src[p0 + 1] - src[p1 + 1]) * (src[p0 + 2] + src[p1 + 2]);
+						ny += (src[p0 + 2] - src[p1 + 2]) * (src[p0] + src[p1]);
+						nz += (src[p0] - src[p1]) * (src[p0 + 1] + src[p1 + 1]);
+					}
+					normalize(nx, ny, nz, faceNormals, 3 * f);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Angle weighted vertex normal, as HE_Vertex.getVertexAngleNormal().
+	 *
+	 * @param src
+	 * @param v
+	 * @param n
+	 */
+	private void angleNormal(final double[] src, final int v, final double[] n) {
+		final int i = 3 * v;
+		double nx = 0, ny = 0, nz = 0;
+		for (int k = offsets[v]; k < offsets[v + 1]; k++) {
+			final int f = faces[k];
+			if (f < 0) {
+				continue;
+			}
+			final int p = 3 * neighbors[k];
+			final int q = 3 * cornersA[k];
+			double ux = src[p] - src[i], uy = src[p + 1] - src[i + 1], uz = src[p + 2] - src[i + 2];
+			double wx = src[q] - src[i], wy = src[q + 1] - src[i + 1], wz = src[q + 2] - src[i + 2];
+			final double lu = Math.sqrt(ux * ux + uy * uy + uz * uz);
+			final double lw = Math.sqrt(wx * wx + wy * wy + wz * wz);
+			if (WB_Epsilon.isZero(lu)) {
+				ux = uy = uz = 0;
+			} else {
+				ux /= lu;
+				uy /= lu;
+				uz /= lu;
+			}
+			if (WB_Epsilon.isZero(lw)) {
+				wx = wy = wz = 0;
+			} else {
+				wx /= lw;
+				wy /= lw;
+				wz /= lw;
+			}
+			final double angle = Math.acos(Math.max(-1.0, Math.min(1.0, ux * wx + uy * wy + uz * wz)));
+			nx += angle * faceNormals[3 * f];
+			ny += angle * faceNormals[3 * f + 1];
+			nz += angle * faceNormals[3 * f + 2];
+		}
+		normalize(nx, ny, nz, n, 0);
+	}
+
+	/**
+	 *
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param result
+	 * @param i
+	 */
+	private static void normalize(final double x, final double y, final double z, final double[] result,
+			final int i) {
+		final double d = Math.sqrt(x * x + y * y + z * z);
+		if (WB_Epsilon.isZero(d)) {
+			result[i] = result[i + 1] = result[i + 2] = 0;
+		} else {
+			result[i] = x / d;
+			result[i + 1] = y / d;
+			result[i + 2] = z / d;
+		}
+	}
+}
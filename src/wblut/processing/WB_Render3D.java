@@ -13,6 +13,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import processing.core.PApplet;
 import processing.core.PConstants;
@@ -68,6 +70,7 @@ import wblut.hemesh.HE_MeshCollection;
 import wblut.hemesh.HE_MeshIterator;
 import wblut.hemesh.HE_MeshStructure;
 import wblut.hemesh.HE_Path;
+import wblut.hemesh.HE_RenderBuffer;
 import wblut.hemesh.HE_Selection;
 import wblut.hemesh.HE_TextureCoordinate;
 import wblut.hemesh.HE_Vertex;
@@ -90,6 +93,11 @@ public class WB_Render3D extends WB_Render2D {
 	 */
 	protected final PGraphicsOpenGL home;
 
+	/**
+	 * Retained render data per mesh, indexed by smooth + 2 * color source.
+	 */
+	private final Map<HE_Mesh, Retained[]> retained = new WeakHashMap<HE_Mesh, Retained[]>();
+
 	/*
 	 *
 	 *
@@ -1262,6 +1270,228 @@ public class WB_Render3D extends WB_Render2D {
 		}
 	}
 
+	/**
+	 * Draw the faces of a mesh with a single call. The triangulated faces are
+	 * kept in a PShape, built the first time and updated when the mesh
+	 * changes: a change in topology rebuilds the shape, moved vertices only
+	 * update the affected corners. Color and texture coordinate changes are
+	 * not detected, call invalidateRetained(mesh) after changing them.
+	 *
+	 * @param mesh
+	 */
+	public void drawFacesRetained(final HE_Mesh mesh) {
+		drawRetained(mesh, false, HE_RenderBuffer.NOCOLOR, null);
+	}
+
+	/**
+	 *
+	 *
+	 * @param mesh
+	 * @param texture
+	 */
+	public void drawFacesRetained(final HE_Mesh mesh, final PImage texture) {
+		drawRetained(mesh, false, HE_RenderBuffer.NOCOLOR, texture);
+	}
+
+	/**
+	 *
+	 *
+	 * @param mesh
+	 */
+	public void drawFacesSmoothRetained(final HE_Mesh mesh) {
+		drawRetained(mesh, true, HE_RenderBuffer.NOCOLOR, null);
+	}
+
+	/**
+	 *
+	 *
+	 * @param mesh
+	 * @param texture
+	 */
+	public void drawFacesSmoothRetained(final HE_Mesh mesh, final PImage texture) {
+		drawRetained(mesh, true, HE_RenderBuffer.NOCOLOR, texture);
+	}
+
+	/**
+	 *
+	 *
+	 * @param mesh
+	 */
+	public void drawFacesFCRetained(final HE_Mesh mesh) {
+		drawRetained(mesh, false, HE_RenderBuffer.FACECOLOR, null);
+	}
+
+	/**
+	 *
+	 *
+	 * @param mesh
+	 */
+	public void drawFacesSmoothFCRetained(final HE_Mesh mesh) {
+		drawRetained(mesh, true, HE_RenderBuffer.FACECOLOR, null);
+	}
+
+	/**
+	 *
+	 *
+	 * @param mesh
+	 */
+	public void drawFacesVCRetained(final HE_Mesh mesh) {
+		drawRetained(mesh, false, HE_RenderBuffer.VERTEXCOLOR, null);
+	}
+
+	/**
+	 *
+	 *
+	 * @param mesh
+	 */
+	public void drawFacesSmoothVCRetained(final HE_Mesh mesh) {
+		drawRetained(mesh, true, HE_RenderBuffer.VERTEXCOLOR, null);
+	}
+
+	/**
+	 *
+	 *
+	 * @param mesh
+	 */
+	public void drawFacesHCRetained(final HE_Mesh mesh) {
+		drawRetained(mesh, false, HE_RenderBuffer.HALFEDGECOLOR, null);
+	}
+
+	/**
+	 *
+	 *
+	 * @param mesh
+	 */
+	public void drawFacesSmoothHCRetained(final HE_Mesh mesh) {
+		drawRetained(mesh, true, HE_RenderBuffer.HALFEDGECOLOR, null);
+	}
+
+	/**
+	 * Refill all retained data of a mesh on the next draw, e.g. after changing
+	 * colors or texture coordinates.
+	 *
+	 * @param mesh
+	 */
+	public void invalidateRetained(final HE_Mesh mesh) {
+		final Retained[] slots = retained.get(mesh);
+		if (slots != null) {
+			for (final Retained r : slots) {
+				if (r != null) {
+					r.buffer.invalidate();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Release the retained data of a mesh.
+	 *
+	 * @param mesh
+	 */
+	public void releaseRetained(final HE_Mesh mesh) {
+		retained.remove(mesh);
+	}
+
+	/**
+	 * Release the retained data of all meshes.
+	 */
+	public void releaseRetained() {
+		retained.clear();
+	}
+
+	/**
+	 *
+	 *
+	 * @param mesh
+	 * @param smooth
+	 * @param colorSource
+	 * @param texture
+	 */
+	private void drawRetained(final HE_Mesh mesh, final boolean smooth, final int colorSource,
+			final PImage texture) {
+		Retained[] slots = retained.get(mesh);
+		if (slots == null) {
+			slots = new Retained[8];
+			retained.put(mesh, slots);
+		}
+		final int mode = (smooth ? 1 : 0) + 2 * colorSource;
+		if (slots[mode] == null) {
+			slots[mode] = new Retained(new HE_RenderBuffer(mesh, smooth, colorSource));
+		}
+		final Retained r = slots[mode];
+		final HE_RenderBuffer buffer = r.buffer;
+		if (buffer.update()) {
+			if (buffer.isRebuilt() || r.shape == null) {
+				r.shape = null;
+			} else {
+				final float[] data = buffer.getData();
+				for (int i = 0; i < buffer.getNumberOfDirtyRanges(); i++) {
+					for (int c = buffer.getDirtyRangeStart(i); c < buffer.getDirtyRangeEnd(i); c++) {
+						final int o = HE_RenderBuffer.STRIDE * c;
+						r.shape.setVertex(c, data[o], data[o + 1], data[o + 2]);
+						r.shape.setNormal(c, data[o + 3], data[o + 4], data[o + 5]);
+						r.shape.setTextureUV(c, data[o + 6], data[o + 7]);
+						if (colorSource != HE_RenderBuffer.NOCOLOR) {
+							r.shape.setFill(c, Float.floatToRawIntBits(data[o + 8]));
+						}
+					}
+				}
+			}
+		}
+		if (r.shape == null || r.texture != texture) {
+			r.shape = toPShape(buffer, texture);
+			r.texture = texture;
+		}
+		home.shape(r.shape);
+	}
+
+	/**
+	 *
+	 *
+	 * @param buffer
+	 * @param texture
+	 * @return
+	 */
+	private PShape toPShape(final HE_RenderBuffer buffer, final PImage texture) {
+		final float[] data = buffer.getData();
+		final boolean color = buffer.getColorSource() != HE_RenderBuffer.NOCOLOR;
+		final PShape shape = home.createShape();
+		shape.beginShape(PConstants.TRIANGLES);
+		if (texture != null) {
+			shape.texture(texture);
+		}
+		if (color) {
+			shape.noStroke();
+		}
+		for (int c = 0; c < buffer.getNumberOfCorners(); c++) {
+			final int o = HE_RenderBuffer.STRIDE * c;
+			if (color) {
+				shape.fill(Float.floatToRawIntBits(data[o + 8]));
+			}
+			shape.normal(data[o + 3], data[o + 4], data[o + 5]);
+			shape.vertex(data[o], data[o + 1], data[o + 2], data[o + 6], data[o + 7]);
+		}
+		shape.endShape();
+		if (!color && texture == null) {
+			// use the current fill and stroke, as the immediate mode methods
+			shape.disableStyle();
+		}
+		return shape;
+	}
+
+	/**
+	 *
+	 */
+	private static class Retained {
+		final HE_RenderBuffer buffer;
+		PShape shape;
+		PImage texture;
+
+		Retained(final HE_RenderBuffer buffer) {
+			this.buffer = buffer;
+		}
+	}
+
 	/**
 	 *
 	 *
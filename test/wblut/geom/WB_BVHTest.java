@@ -0,0 +1,127 @@
+/**
+ *
+ */
+package wblut.geom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import wblut.hemesh.HEC_Geodesic;
+import wblut.hemesh.HE_Face;
+import wblut.hemesh.HE_Mesh;
+import wblut.hemesh.HE_Vertex;
+
+/**
+ * Queries of WB_BVH against a linear search over all triangles of random
+ * rays and boxes.
+ *
+ */
+public class WB_BVHTest {
+
+	Random random=new Random(12345);
+	HE_Mesh mesh=new HE_Mesh(new HEC_Geodesic().setRadius(100).setB(8).setC(3));
+	WB_BVH bvh=new WB_BVH(mesh);
+	int rays=500;
+	double[] tuv=new double[3];
+
+	/**
+	 * Ray from a random point towards a random point around the mesh.
+	 */
+	double[] randomRay() {
+		final double[] ray=new double[6];
+		for (int c=0;c<3;c++) {
+			ray[c]=random.nextDouble()*300-150;
+			ray[c+3]=random.nextDouble()*240-120-ray[c];
+		}
+		return ray;
+	}
+
+	/**
+	 * Test method for {@link wblut.geom.WB_BVH#getClosestHit(double, double, double, double, double, double, double, double, double[])}.
+	 */
+	@Test
+	public void testGetClosestHit() {
+		int hits=0;
+		for (int r=0;r<rays;r++) {
+			final double[] ray=randomRay();
+			double closest=Double.POSITIVE_INFINITY;
+			for (int t=0;t<bvh.getNumberOfTriangles();t++) {
+				if (bvh.intersectTriangle(t,ray[0],ray[1],ray[2],ray[3],ray[4],ray[5],0,closest,tuv)) {
+					closest=tuv[0];
+				}
+			}
+			final int found=bvh.getClosestHit(ray[0],ray[1],ray[2],ray[3],ray[4],ray[5],0,Double.POSITIVE_INFINITY,tuv);
+			if (closest==Double.POSITIVE_INFINITY) {
+				assertEquals("getClosestHit finds a hit where there is none.", -1, found);
+			} else {
+				assertTrue("getClosestHit misses a hit.", found>=0);
+				assertEquals("getClosestHit gives unexpected distance.", closest, tuv[0], 1e-9);
+				hits++;
+			}
+		}
+		assertTrue("Too few rays hit the mesh to test getClosestHit.", hits>rays/4);
+	}
+
+	/**
+	 * Test method for {@link wblut.geom.WB_BVH#getHits(double, double, double, double, double, double, double, double, TIntArrayList, TDoubleArrayList)}.
+	 */
+	@Test
+	public void testGetHits() {
+		final TIntArrayList triangles=new TIntArrayList();
+		final TDoubleArrayList ts=new TDoubleArrayList();
+		for (int r=0;r<rays;r++) {
+			final double[] ray=randomRay();
+			final Set<Integer> expected=new HashSet<Integer>();
+			for (int t=0;t<bvh.getNumberOfTriangles();t++) {
+				if (bvh.intersectTriangle(t,ray[0],ray[1],ray[2],ray[3],ray[4],ray[5],0,Double.POSITIVE_INFINITY,tuv)) {
+					expected.add(t);
+				}
+			}
+			triangles.resetQuick();
+			ts.resetQuick();
+			final int found=bvh.getHits(ray[0],ray[1],ray[2],ray[3],ray[4],ray[5],0,Double.POSITIVE_INFINITY,triangles,ts);
+			assertEquals("getHits gives unexpected number of hits.", expected.size(), found);
+			for (int i=0;i<found;i++) {
+				assertTrue("getHits gives a triangle that isn't hit.", expected.contains(triangles.get(i)));
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link wblut.geom.WB_BVH#getPotentialFaces(WB_AABB)}.
+	 */
+	@Test
+	public void testGetPotentialFacesAABB() {
+		final HE_Face[] faces=mesh.getFacesAsArray();
+		for (int b=0;b<100;b++) {
+			final double[] min=new double[]{random.nextDouble()*240-120,random.nextDouble()*240-120,random.nextDouble()*240-120};
+			final double[] max=new double[]{min[0]+random.nextDouble()*40,min[1]+random.nextDouble()*40,min[2]+random.nextDouble()*40};
+			final List<HE_Face> found=bvh.getPotentialFaces(new WB_AABB(min,max));
+			final Set<HE_Face> foundSet=new HashSet<HE_Face>(found);
+			for (final HE_Face f:faces) {
+				boolean overlap=true;
+				for (int c=0;c<3;c++) {
+					double fmin=Double.POSITIVE_INFINITY;
+					double fmax=Double.NEGATIVE_INFINITY;
+					for (final HE_Vertex v:f.getFaceVertices()) {
+						fmin=Math.min(fmin,v.getd(c));
+						fmax=Math.max(fmax,v.getd(c));
+					}
+					overlap&=fmin<=max[c]&&fmax>=min[c];
+				}
+				if (overlap) {
+					assertTrue("getPotentialFaces misses a face overlapping the box.", foundSet.contains(f));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ *
+ */
+package wblut.geom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import wblut.geom.WB_CSRGraph.WB_ShortestPathTree;
+import wblut.hemesh.HEC_Geodesic;
+import wblut.hemesh.HE_Mesh;
+
+/**
+ * Shortest paths of WB_CSRGraph against WB_MeshGraph and a plain quadratic
+ * Dijkstra.
+ */
+public class WB_CSRGraphTest {
+
+	Random random=new Random(12345);
+	HE_Mesh mesh=new HE_Mesh(new HEC_Geodesic().setRadius(100).setB(6).setC(2));
+	int[][] edges=mesh.getEdgesAsInt();
+
+	double[] getEdgeLengths() {
+		final double[] lengths=new double[edges.length];
+		for (int i=0;i<edges.length;i++) {
+			lengths[i]=WB_GeometryOp.getDistance3D(mesh.getVertex(edges[i][0]),mesh.getVertex(edges[i][1]));
+		}
+		return lengths;
+	}
+
+	/**
+	 * Dijkstra without heap, O(V^2).
+	 */
+	double[] getReferenceDistances(final int numberOfVertices, final int[][] graphEdges, final double[] weights, final int source) {
+		final double[][] matrix=new double[numberOfVertices][numberOfVertices];
+		for (final double[] row:matrix) {
+			Arrays.fill(row,Double.POSITIVE_INFINITY);
+		}
+		for (int i=0;i<graphEdges.length;i++) {
+			final int a=graphEdges[i][0];
+			final int b=graphEdges[i][1];
+			matrix[a][b]=Math.min(matrix[a][b],weights[i]);
+			matrix[b][a]=matrix[a][b];
+		}
+		final double[] distances=new double[numberOfVertices];
+		Arrays.fill(distances,Double.POSITIVE_INFINITY);
+		distances[source]=0;
+		final boolean[] settled=new boolean[numberOfVertices];
+		for (int k=0;k<numberOfVertices;k++) {
+			int u=-1;
+			for (int v=0;v<numberOfVertices;v++) {
+				if (!settled[v]&&(u==-1||distances[v]<distances[u])) {
+					u=v;
+				}
+			}
+			if (distances[u]==Double.POSITIVE_INFINITY) {
+				break;
+			}
+			settled[u]=true;
+			for (int v=0;v<numberOfVertices;v++) {
+				distances[v]=Math.min(distances[v],distances[u]+matrix[u][v]);
+			}
+		}
+		return distances;
+	}
+
+	double getPathLength(final int[] path) {
+		double length=0;
+		for (int i=1;i<path.length;i++) {
+			length+=WB_GeometryOp.getDistance3D(mesh.getVertex(path[i-1]),mesh.getVertex(path[i]));
+		}
+		return length;
+	}
+
+	/**
+	 * Test method for {@link wblut.geom.WB_CSRGraph#getDistances(int[])}.
+	 */
+	@Test
+	public void testGetDistancesMatchesMeshGraph() {
+		final WB_CSRGraph graph=new WB_CSRGraph(mesh);
+		final WB_MeshGraph meshGraph=new WB_MeshGraph(mesh);
+		final int n=mesh.getNumberOfVertices();
+		for (int s=0;s<10;s++) {
+			final int source=random.nextInt(n);
+			final double[] distances=graph.getDistances(source);
+			final double[] expected=getReferenceDistances(n,edges,getEdgeLengths(),source);
+			for (int v=0;v<n;v++) {
+				assertEquals("getDistances gives unexpected result.", expected[v], distances[v], 1e-9);
+				assertEquals("WB_MeshGraph gives another distance.", distances[v], meshGraph.getDistanceBetweenVertices(source,v), 1e-9);
+			}
+			for (int t=0;t<10;t++) {
+				final int target=random.nextInt(n);
+				final int[] path=meshGraph.getShortestPathBetweenVertices(source,target);
+				assertEquals("Path doesn't start at the source.", source, path[0]);
+				assertEquals("Path doesn't end at the target.", target, path[path.length-1]);
+				assertEquals("Path has unexpected length.", distances[target], getPathLength(path), 1e-9);
+				assertEquals("getShortestPath gives unexpected length.", distances[target], getPathLength(graph.getShortestPath(source,target)), 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void testGetDistancesRandomGraph() {
+		final int n=300;
+		final int[][] graphEdges=new int[900][];
+		final double[] weights=new double[graphEdges.length];
+		for (int i=0;i<graphEdges.length;i++) {
+			// vertices 250 and up are not connected to the rest
+			graphEdges[i]=i<800?new int[]{random.nextInt(250),random.nextInt(250)}:new int[]{250+random.nextInt(50),250+random.nextInt(50)};
+			weights[i]=random.nextInt(4)==0?0:random.nextDouble()*10;
+		}
+		final WB_CSRGraph graph=new WB_CSRGraph(n,graphEdges,weights);
+		for (int source=0;source<n;source+=37) {
+			final double[] expected=getReferenceDistances(n,graphEdges,weights,source);
+			final WB_ShortestPathTree tree=graph.getShortestPathTree(source);
+			for (int v=0;v<n;v++) {
+				assertEquals("getShortestPathTree gives unexpected distance.", expected[v], tree.getDistance(v), 1e-9);
+				assertEquals("isReached gives unexpected result.", expected[v]<Double.POSITIVE_INFINITY, tree.isReached(v));
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link wblut.geom.WB_CSRGraph#getDistanceMatrix(int[])}.
+	 */
+	@Test
+	public void testGetDistanceMatrix() {
+		final WB_CSRGraph graph=new WB_CSRGraph(mesh);
+		final int[] subset=new int[]{0,5,17,40,99,150};
+		final double[][] matrix=graph.getDistanceMatrix(subset);
+		for (int i=0;i<subset.length;i++) {
+			final double[] expected=getReferenceDistances(mesh.getNumberOfVertices(),edges,getEdgeLengths(),subset[i]);
+			for (int j=0;j<subset.length;j++) {
+				assertEquals("getDistanceMatrix gives unexpected result.", expected[subset[j]], matrix[i][j], 1e-9);
+				assertTrue("getDistanceMatrix isn't symmetric.", Math.abs(matrix[i][j]-matrix[j][i])<1e-9);
+			}
+		}
+	}
+}
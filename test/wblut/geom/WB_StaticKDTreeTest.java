@@ -0,0 +1,137 @@
+/**
+ *
+ */
+package wblut.geom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Queries of WB_StaticKDTree against a linear search over random points.
+ */
+public class WB_StaticKDTreeTest {
+
+	Random random=new Random(12345);
+	int n=5000;
+	double[] coords=randomPoints(n);
+	double[] queries=randomPoints(200);
+	WB_StaticKDTree tree=new WB_StaticKDTree(coords);
+
+	double[] randomPoints(final int count) {
+		final double[] result=new double[3*count];
+		for (int i=0;i<result.length;i++) {
+			result[i]=random.nextDouble()*200-100;
+		}
+		return result;
+	}
+
+	double d2(final int i, final double[] q, final int j) {
+		final double dx=coords[3*i]-q[3*j];
+		final double dy=coords[3*i+1]-q[3*j+1];
+		final double dz=coords[3*i+2]-q[3*j+2];
+		return dx*dx+dy*dy+dz*dz;
+	}
+
+	double[] sortedD2(final int q) {
+		final double[] result=new double[n];
+		for (int i=0;i<n;i++) {
+			result[i]=d2(i,queries,q);
+		}
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * Test method for {@link wblut.geom.WB_StaticKDTree#getNearestNeighbor(double, double, double)}.
+	 */
+	@Test
+	public void testGetNearestNeighbor() {
+		for (int q=0;q<queries.length/3;q++) {
+			final int found=tree.getNearestNeighbor(queries[3*q],queries[3*q+1],queries[3*q+2]);
+			assertEquals("getNearestNeighbor gives unexpected result.", sortedD2(q)[0], d2(found,queries,q), 0.0);
+		}
+	}
+
+	@Test
+	public void testGetNearestNeighborOfPoint() {
+		for (int i=0;i<n;i+=97) {
+			assertEquals("getNearestNeighbor doesn't find a point of the tree.", i, tree.getNearestNeighbor(coords[3*i],coords[3*i+1],coords[3*i+2]));
+		}
+	}
+
+	/**
+	 * Test method for {@link wblut.geom.WB_StaticKDTree#getNearestNeighbors(double, double, double, int, int[], double[], int)}.
+	 */
+	@Test
+	public void testGetNearestNeighborsK() {
+		final int k=16;
+		final int[] indices=new int[k];
+		final double[] d2=new double[k];
+		for (int q=0;q<queries.length/3;q++) {
+			final int found=tree.getNearestNeighbors(queries[3*q],queries[3*q+1],queries[3*q+2],k,indices,d2,0);
+			assertEquals("getNearestNeighbors gives unexpected number of points.", k, found);
+			final double[] expected=sortedD2(q);
+			for (int i=0;i<k;i++) {
+				assertEquals("getNearestNeighbors gives unexpected distance.", expected[i], d2[i], 0.0);
+				assertEquals("getNearestNeighbors gives distance of another point.", d2(indices[i],queries,q), d2[i], 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void testGetNearestNeighborsMoreThanSize() {
+		final WB_StaticKDTree small=new WB_StaticKDTree(coords,10,8);
+		final int[] indices=new int[20];
+		final double[] d2=new double[20];
+		assertEquals("getNearestNeighbors should stop at size().", 10, small.getNearestNeighbors(0,0,0,20,indices,d2,0));
+	}
+
+	/**
+	 * Test method for {@link wblut.geom.WB_StaticKDTree#getNearestNeighbors(double[], int, int[], double[])}.
+	 */
+	@Test
+	public void testGetNearestNeighborsBatch() {
+		final int k=5;
+		final int nq=queries.length/3;
+		final int[] indices=new int[k*nq];
+		final double[] d2=new double[k*nq];
+		tree.getNearestNeighbors(queries,k,indices,d2);
+		for (int q=0;q<nq;q++) {
+			final double[] expected=sortedD2(q);
+			for (int i=0;i<k;i++) {
+				assertEquals("Batch getNearestNeighbors gives unexpected distance.", expected[i], d2[k*q+i], 0.0);
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link wblut.geom.WB_StaticKDTree#getRange(double, double, double, double, int[], double[])}.
+	 */
+	@Test
+	public void testGetRange() {
+		final double r=15;
+		final int[] indices=new int[n];
+		final double[] d2=new double[n];
+		for (int q=0;q<queries.length/3;q++) {
+			final int found=tree.getRange(queries[3*q],queries[3*q+1],queries[3*q+2],r,indices,d2);
+			final boolean[] inRange=new boolean[n];
+			int expected=0;
+			for (int i=0;i<n;i++) {
+				if (d2(i,queries,q)<=r*r) {
+					inRange[i]=true;
+					expected++;
+				}
+			}
+			assertEquals("getRange gives unexpected number of points.", expected, found);
+			for (int i=0;i<found;i++) {
+				assertTrue("getRange gives point out of range.", inRange[indices[i]]);
+				inRange[indices[i]]=false;
+			}
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ *
+ */
+package wblut.geom;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Cells of WB_Voronoi3D should fill the container and agree on their
+ * neighbors.
+ */
+public class WB_Voronoi3DTest {
+
+	Random random=new Random(12345);
+	WB_AABB container=new WB_AABB(-100,-50,-80,100,50,80);
+	double containerVolume=200*100*160;
+
+	List<WB_Point> randomPoints(final int count) {
+		final List<WB_Point> result=new ArrayList<WB_Point>();
+		for (int i=0;i<count;i++) {
+			result.add(new WB_Point(random.nextDouble()*200-100,random.nextDouble()*100-50,random.nextDouble()*160-80));
+		}
+		return result;
+	}
+
+	double getTotalVolume(final WB_Voronoi3D voronoi) {
+		double volume=0;
+		for (int i=0;i<voronoi.getNumberOfCells();i++) {
+			if (!voronoi.isEmpty(i)) {
+				volume+=voronoi.getVolume(i);
+			}
+		}
+		return volume;
+	}
+
+	/**
+	 * Test method for {@link wblut.geom.WB_Voronoi3D#getVolume(int)}.
+	 */
+	@Test
+	public void testVolumesSumToContainer() {
+		final WB_Voronoi3D voronoi=new WB_Voronoi3D(randomPoints(500)).setContainer(container).compute();
+		assertEquals("compute gives unexpected number of cells.", 500, voronoi.getNumberOfCells());
+		for (int i=0;i<500;i++) {
+			assertTrue("Cell of a generator inside the container is empty.", !voronoi.isEmpty(i));
+			assertTrue("Cell has no volume.", voronoi.getVolume(i)>0);
+		}
+		assertEquals("Cell volumes don't sum to the container volume.", containerVolume, getTotalVolume(voronoi), 1e-6*containerVolume);
+	}
+
+	@Test
+	public void testVolumesSumToContainerWithDuplicates() {
+		final List<WB_Point> points=randomPoints(200);
+		points.add(new WB_Point(points.get(7)));
+		points.add(new WB_Point(points.get(42)));
+		final WB_Voronoi3D voronoi=new WB_Voronoi3D(points).setContainer(container).compute();
+		assertTrue("Coinciding generator isn't a duplicate.", voronoi.isDuplicate(200));
+		assertEquals("Duplicate has unexpected owner.", 42, voronoi.getOwner(201));
+		assertTrue("Cell of a duplicate isn't empty.", voronoi.isEmpty(200));
+		assertEquals("Cell volumes don't sum to the container volume.", containerVolume, getTotalVolume(voronoi), 1e-6*containerVolume);
+	}
+
+	/**
+	 * Test method for {@link wblut.geom.WB_Voronoi3D#getNeighbors(int)}.
+	 */
+	@Test
+	public void testNeighborsAreSymmetric() {
+		final WB_Voronoi3D voronoi=new WB_Voronoi3D(randomPoints(500)).setContainer(container).compute();
+		for (int i=0;i<500;i++) {
+			final int[] neighbors=voronoi.getNeighbors(i);
+			assertTrue("Cell has no neighbors.", neighbors.length>0);
+			for (final int j:neighbors) {
+				assertTrue("Cell is its own neighbor.", i!=j);
+				assertTrue("Neighbors aren't symmetric.", Arrays.binarySearch(voronoi.getNeighbors(j),i)>=0);
+			}
+		}
+	}
+
+	@Test
+	public void testNeighborsOfGrid() {
+		final List<WB_Point> points=new ArrayList<WB_Point>();
+		for (int i=0;i<3;i++) {
+			points.add(new WB_Point(-50+50*i,0,0));
+		}
+		final WB_Voronoi3D voronoi=new WB_Voronoi3D(points).setContainer(container).compute();
+		assertArrayEquals("getNeighbors gives unexpected result.", new int[]{1}, voronoi.getNeighbors(0));
+		assertArrayEquals("getNeighbors gives unexpected result.", new int[]{0,2}, voronoi.getNeighbors(1));
+		assertArrayEquals("getNeighbors gives unexpected result.", new int[]{1}, voronoi.getNeighbors(2));
+		assertEquals("getVolume gives unexpected result.", 75*100*160, voronoi.getVolume(0), 1e-6);
+		assertEquals("getVolume gives unexpected result.", 50*100*160, voronoi.getVolume(1), 1e-6);
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ *
+ */
+package wblut.hemesh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import wblut.geom.WB_Point;
+
+/**
+ * Welding of HEC_FromFacelist against a linear search: each vertex is welded
+ * to the lowest indexed kept vertex within tolerance.
+ *
+ */
+public class HEC_FromFacelistTest {
+
+	Random random=new Random(12345);
+
+	/**
+	 * Index of the vertex each vertex is welded to, by comparing each vertex
+	 * to all kept vertices before it. Identical vertices are welded at
+	 * tolerance 0.
+	 */
+	int[] getReferenceWeld(final WB_Point[] points, final double tol) {
+		final int[] weld=new int[points.length];
+		for (int i=0;i<points.length;i++) {
+			weld[i]=i;
+			for (int j=0;j<i;j++) {
+				final double d2=points[i].getSqDistance3D(points[j]);
+				if (weld[j]==j&&(d2<tol*tol||d2==0)) {
+					weld[i]=j;
+					break;
+				}
+			}
+		}
+		return weld;
+	}
+
+	/**
+	 * Triangle soup of a sphere, each corner moved by up to jitter.
+	 */
+	WB_Point[] getSoup(final HE_Mesh mesh, final int[][] soupFaces, final double jitter) {
+		final int[][] faces=mesh.getFacesAsInt();
+		final WB_Point[] points=new WB_Point[3*faces.length];
+		for (int f=0;f<faces.length;f++) {
+			soupFaces[f]=new int[3];
+			for (int j=0;j<3;j++) {
+				final HE_Vertex v=mesh.getVertexWithIndex(faces[f][j]);
+				points[3*f+j]=new WB_Point(v.xd()+(random.nextDouble()-0.5)*jitter,v.yd()+(random.nextDouble()-0.5)*jitter,v.zd()+(random.nextDouble()-0.5)*jitter);
+				soupFaces[f][j]=3*f+j;
+			}
+		}
+		return points;
+	}
+
+	void assertWeld(final WB_Point[] points, final int[][] faces, final double tol) {
+		final HEC_FromFacelist creator=new HEC_FromFacelist().setVertices(points).setFaces(faces).setTolerance(tol);
+		final HE_Mesh mesh=new HE_Mesh(creator);
+		final int[] weld=getReferenceWeld(points,tol);
+		final Set<WB_Point> positions=new HashSet<WB_Point>();
+		for (final HE_Vertex v:mesh.getVerticesAsArray()) {
+			positions.add(new WB_Point(v));
+		}
+		int kept=0;
+		for (int i=0;i<points.length;i++) {
+			if (weld[i]==i) {
+				assertTrue("Vertex that should be kept is welded.", positions.contains(points[i]));
+				kept++;
+			}
+		}
+		assertEquals("getNumberOfWeldedVertices gives unexpected result.", points.length-kept, creator.getNumberOfWeldedVertices());
+		assertEquals("Welded mesh has unexpected number of vertices.", kept, mesh.getNumberOfVertices());
+	}
+
+	/**
+	 * Test method for {@link wblut.hemesh.HEC_FromFacelist#setTolerance(double)}.
+	 */
+	@Test
+	public void testWeldIsNotTransitive() {
+		// 1 is within tolerance of 0 and 2, 2 isn't within tolerance of 0
+		final WB_Point[] points=new WB_Point[]{new WB_Point(0,0,0),new WB_Point(0.6,0,0),new WB_Point(1.2,0,0),
+				new WB_Point(0,10,0),new WB_Point(0,0,10),new WB_Point(0.6,-10,0),new WB_Point(0.6,0,-10),
+				new WB_Point(1.2,10,10),new WB_Point(1.2,-10,10)};
+		final int[][] faces=new int[][]{{0,3,4},{1,5,6},{2,7,8}};
+		final HEC_FromFacelist creator=new HEC_FromFacelist().setVertices(points).setFaces(faces).setTolerance(1);
+		final HE_Mesh mesh=new HE_Mesh(creator);
+		assertEquals("getNumberOfWeldedVertices gives unexpected result.", 1, creator.getNumberOfWeldedVertices());
+		assertEquals("Welded mesh has unexpected number of vertices.", 8, mesh.getNumberOfVertices());
+		assertWeld(points,faces,1);
+	}
+
+	@Test
+	public void testWeldSoupMatchesReference() {
+		final HE_Mesh sphere=new HE_Mesh(new HEC_Geodesic().setRadius(100).setB(6).setC(0));
+		final int[][] faces=new int[sphere.getNumberOfFaces()][];
+		// corners of a vertex within tolerance of each other
+		WB_Point[] points=getSoup(sphere,faces,0.05);
+		assertWeld(points,faces,0.1);
+		assertTrue("Welded sphere isn't closed.", new HE_Mesh(new HEC_FromFacelist().setVertices(points).setFaces(faces).setTolerance(0.1)).getBoundaryHalfedges().isEmpty());
+		// corners spread over more than the tolerance, chains of close
+		// vertices
+		points=getSoup(sphere,faces,0.3);
+		assertWeld(points,faces,0.2);
+	}
+
+	@Test
+	public void testWeldIdenticalVertices() {
+		final HE_Mesh sphere=new HE_Mesh(new HEC_Geodesic().setRadius(100).setB(6).setC(0));
+		final int[][] faces=new int[sphere.getNumberOfFaces()][];
+		final WB_Point[] points=getSoup(sphere,faces,0);
+		assertWeld(points,faces,0);
+		assertEquals("Welded sphere has unexpected number of vertices.", sphere.getNumberOfVertices(), new HE_Mesh(new HEC_FromFacelist().setVertices(points).setFaces(faces).setTolerance(0)).getNumberOfVertices());
+	}
+}
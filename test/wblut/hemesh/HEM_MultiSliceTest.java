@@ -0,0 +1,76 @@
+/**
+ *
+ */
+package wblut.hemesh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import wblut.geom.WB_Plane;
+import wblut.geom.WB_Point;
+import wblut.geom.WB_Vector;
+
+/**
+ * A torus sliced by random planes should stay closed, with or without
+ * triangulation, and triangulation shouldn't change its surface.
+ *
+ */
+public class HEM_MultiSliceTest {
+
+	/**
+	 * Random planes with the normal pointing to the origin, the second plane
+	 * repeated at the end.
+	 */
+	List<WB_Plane> randomPlanes(final Random random, final int count) {
+		final List<WB_Plane> planes=new ArrayList<WB_Plane>();
+		for (int i=0;i<count;i++) {
+			final WB_Vector n=new WB_Vector(random.nextGaussian(),random.nextGaussian(),random.nextGaussian());
+			n.normalizeSelf();
+			planes.add(new WB_Plane(new WB_Point(n.mul(20+120*random.nextDouble())),n.mul(-1)));
+		}
+		planes.add(planes.get(1));
+		return planes;
+	}
+
+	HE_Mesh slice(final List<WB_Plane> planes, final boolean triangulate, final boolean simpleCap) {
+		final HE_Mesh mesh=new HE_Mesh(new HEC_Torus(40,100,12,24));
+		mesh.modify(new HEM_MultiSlice().setPlanes(planes).setCap(true).setTriangulate(triangulate).setSimpleCap(simpleCap));
+		return mesh;
+	}
+
+	void assertClosed(final List<WB_Plane> planes) {
+		for (int simple=0;simple<2;simple++) {
+			final HE_Mesh mesh=slice(planes,false,simple==0);
+			assertTrue("Sliced mesh isn't a valid surface.", HET_Diagnosis.isValidSurface(mesh));
+			assertEquals("Sliced mesh isn't closed.", 0, mesh.getBoundaryHalfedges().size());
+			final HE_Mesh triangles=slice(planes,true,simple==0);
+			assertTrue("Triangulated mesh isn't a valid surface.", HET_Diagnosis.isValidSurface(triangles));
+			assertEquals("Triangulated mesh isn't closed.", 0, triangles.getBoundaryHalfedges().size());
+			assertEquals("Triangulation changes the area.", mesh.getArea(), triangles.getArea(), 1e-6*mesh.getArea());
+		}
+	}
+
+	/**
+	 * Test method for {@link wblut.hemesh.HEM_MultiSlice#setTriangulate(boolean)}.
+	 */
+	@Test
+	public void testTriangulatedCapsAreClosed() {
+		assertClosed(randomPlanes(new Random(18),10));
+	}
+
+	@Test
+	public void testRandomPlanesAreClosed() {
+		// cases with faces without area, faces touching themselves and
+		// coinciding split points
+		for (final int seed:new int[]{6,33,35,46,65,76,93,102}) {
+			final Random random=new Random(seed);
+			assertClosed(randomPlanes(random,2+random.nextInt(12)));
+		}
+	}
+}
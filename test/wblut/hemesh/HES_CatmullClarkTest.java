@@ -0,0 +1,91 @@
+/**
+ *
+ */
+package wblut.hemesh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.junit.Test;
+
+import wblut.geom.WB_Point;
+
+/**
+ * Catmull-Clark subdivision of a whole mesh against the subdivision of a
+ * selection of all its faces, which still uses the element based algorithm.
+ *
+ */
+public class HES_CatmullClarkTest {
+
+	WB_Point[] getSortedPositions(final HE_Mesh mesh) {
+		final WB_Point[] points=new WB_Point[mesh.getNumberOfVertices()];
+		for (int i=0;i<points.length;i++) {
+			points[i]=new WB_Point(mesh.getVertexWithIndex(i));
+		}
+		Arrays.sort(points,new Comparator<WB_Point>() {
+			@Override
+			public int compare(final WB_Point p, final WB_Point q) {
+				int result=Double.compare(p.xd(),q.xd());
+				if (result==0) {
+					result=Double.compare(p.yd(),q.yd());
+				}
+				return result==0?Double.compare(p.zd(),q.zd()):result;
+			}
+		});
+		return points;
+	}
+
+	void assertSameSubdivision(final HE_Mesh source) {
+		final HE_Mesh mesh=source.get();
+		mesh.subdivide(new HES_CatmullClark());
+		final HE_Mesh reference=source.get();
+		new HES_CatmullClark().apply(HE_Selection.selectAllFaces(reference));
+		assertTrue("Subdivided mesh isn't a valid surface.", HET_Diagnosis.isValidSurface(mesh));
+		assertEquals("Subdivided mesh has unexpected number of vertices.", reference.getNumberOfVertices(), mesh.getNumberOfVertices());
+		assertEquals("Subdivided mesh has unexpected number of edges.", reference.getNumberOfEdges(), mesh.getNumberOfEdges());
+		assertEquals("Subdivided mesh has unexpected number of faces.", reference.getNumberOfFaces(), mesh.getNumberOfFaces());
+		for (final HE_Face f:mesh.getFacesAsArray()) {
+			assertEquals("Subdivided mesh has a face that isn't a quad.", 4, f.getFaceOrder());
+		}
+		// sorting isn't stable under rounding, compare nearest positions
+		final WB_Point[] expected=getSortedPositions(reference);
+		final WB_Point[] actual=getSortedPositions(mesh);
+		for (int i=0;i<expected.length;i++) {
+			double best=Double.POSITIVE_INFINITY;
+			for (int j=Math.max(0,i-8);j<Math.min(actual.length,i+9);j++) {
+				best=Math.min(best,expected[i].getSqDistance3D(actual[j]));
+			}
+			assertEquals("Subdivided mesh has unexpected vertex position.", 0, best, 1e-18);
+		}
+	}
+
+	/**
+	 * Test method for {@link wblut.hemesh.HES_CatmullClark#apply(HE_Mesh)}.
+	 */
+	@Test
+	public void testBox() {
+		assertSameSubdivision(new HE_Mesh(new HEC_Box(100,60,40,2,2,1)));
+	}
+
+	@Test
+	public void testTorus() {
+		assertSameSubdivision(new HE_Mesh(new HEC_Torus(40,100,8,12)));
+	}
+
+	@Test
+	public void testTriangles() {
+		assertSameSubdivision(new HE_Mesh(new HEC_Geodesic().setRadius(100).setB(3).setC(1)));
+	}
+
+	@Test
+	public void testTwoLevels() {
+		final HE_Mesh mesh=new HE_Mesh(new HEC_Box(100,60,40,1,1,1));
+		final int faces=mesh.getNumberOfFaces();
+		mesh.subdivide(new HES_CatmullClark(),2);
+		assertTrue("Subdivided mesh isn't a valid surface.", HET_Diagnosis.isValidSurface(mesh));
+		assertEquals("Subdivided mesh has unexpected number of faces.", 16*faces, mesh.getNumberOfFaces());
+	}
+}
@@ -0,0 +1,57 @@
+/**
+ *
+ */
+package wblut.hemesh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * HES_QEM should reach its goal and leave a valid surface.
+ */
+public class HES_QEMTest {
+
+	HE_Mesh mesh;
+
+	/**
+	 * Test method for {@link wblut.hemesh.HES_QEM#setGoal(int)}.
+	 */
+	@Test
+	public void testSimplifySphereToGoal() {
+		mesh=new HE_Mesh(new HEC_Geodesic().setRadius(100).setB(10).setC(0));
+		mesh.simplify(new HES_QEM().setGoal(200));
+		assertTrue("Simplified mesh isn't a valid surface.", HET_Diagnosis.isValidSurface(mesh));
+		assertEquals("Simplified mesh has unexpected number of vertices.", 200, mesh.getNumberOfVertices());
+		// closed triangle mesh of genus 0
+		assertEquals("Simplified mesh has unexpected number of faces.", 2*200-4, mesh.getNumberOfFaces());
+	}
+
+	/**
+	 * Test method for {@link wblut.hemesh.HES_QEM#setGoal(double)}.
+	 */
+	@Test
+	public void testSimplifyTorusToFraction() {
+		mesh=new HE_Mesh(new HEC_Torus(40,100,24,48));
+		final int vertices=mesh.getNumberOfVertices();
+		mesh.simplify(new HES_QEM().setGoal(0.25));
+		assertTrue("Simplified mesh isn't a valid surface.", HET_Diagnosis.isValidSurface(mesh));
+		assertEquals("Simplified mesh has unexpected number of vertices.", vertices/4, mesh.getNumberOfVertices());
+		// closed triangle mesh of genus 1
+		assertEquals("Simplified mesh has unexpected number of faces.", 2*(vertices/4), mesh.getNumberOfFaces());
+	}
+
+	/**
+	 * Test method for {@link wblut.hemesh.HES_QEM#setPreserveBoundary(boolean)}.
+	 */
+	@Test
+	public void testSimplifyGridPreservesBoundary() {
+		mesh=new HE_Mesh(new HEC_Grid(20,20,100,100));
+		final int boundary=mesh.getBoundaryHalfedges().size();
+		mesh.simplify(new HES_QEM().setGoal(150).setPreserveBoundary(true));
+		assertTrue("Simplified mesh isn't a valid surface.", HET_Diagnosis.isValidSurface(mesh));
+		assertEquals("Simplified mesh has unexpected number of vertices.", 150, mesh.getNumberOfVertices());
+		assertEquals("Simplification changes the boundary.", boundary, mesh.getBoundaryHalfedges().size());
+	}
+}
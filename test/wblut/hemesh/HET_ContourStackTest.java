@@ -0,0 +1,68 @@
+/**
+ *
+ */
+package wblut.hemesh;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import wblut.geom.WB_Point;
+import wblut.geom.WB_PolyLine;
+import wblut.geom.WB_Polygon;
+import wblut.geom.WB_Vector;
+import wblut.hemesh.HET_ContourStack.HET_Layer;
+
+/**
+ * Contours of simple meshes, and of a face that HE_Face.getTriangles() splits
+ * in less than order-2 triangles.
+ *
+ */
+public class HET_ContourStackTest {
+
+	/**
+	 * Test method for {@link wblut.hemesh.HET_ContourStack#getLayers()}.
+	 */
+	@Test
+	public void testBoxLayers() {
+		final HE_Mesh mesh=new HE_Mesh(new HEC_Box(100,60,40,3,2,2));
+		final HET_ContourStack stack=new HET_ContourStack(mesh).setLayers(-15,10,4);
+		assertEquals("getNumberOfLayers gives unexpected result.", 4, stack.getNumberOfLayers());
+		for (final HET_Layer layer:stack.getLayers()) {
+			assertEquals("Layer of a box has unexpected number of polygons.", 1, layer.getPolygons().size());
+			assertEquals("Layer of a box has open contours.", 0, layer.getPolyLines().size());
+			final WB_Polygon polygon=layer.getPolygons().get(0);
+			assertEquals("Layer of a box has holes.", 0, polygon.getNumberOfHoles());
+			assertEquals("Layer of a box has unexpected area.", 6000, Math.abs(polygon.getSignedArea()), 1e-6);
+		}
+	}
+
+	@Test
+	public void testTorusLayerHasHole() {
+		final HE_Mesh mesh=new HE_Mesh(new HEC_Torus(40,100,12,24));
+		final HET_Layer layer=new HET_ContourStack(mesh).setDirection(new WB_Vector(0,0,1)).setLayers(0.5,1,1).getLayer(0);
+		assertEquals("Layer of a torus has unexpected number of polygons.", 1, layer.getPolygons().size());
+		assertEquals("Layer of a torus has unexpected number of holes.", 1, layer.getPolygons().get(0).getNumberOfHoles());
+	}
+
+	/**
+	 * Test method for {@link wblut.hemesh.HET_ContourStack#HET_ContourStack(HE_Mesh)}.
+	 */
+	@Test
+	public void testFaceWithCoincidingVertices() {
+		// two vertices of the face at (10,0,0), getTriangles() gives 3
+		// triangles instead of 4
+		final double[][] vertices=new double[][]{{0,0,0},{10,0,0},{10,0,0},{10,10,0},{5,15,0},{0,10,0}};
+		final int[][] faces=new int[][]{{0,1,2,3,4,5}};
+		final HE_Mesh mesh=new HE_Mesh(new HEC_FromFacelist().setVertices(vertices).setFaces(faces).setDuplicate(false));
+		final HET_ContourStack stack=new HET_ContourStack(mesh).setDirection(new WB_Vector(0,1,0)).setLayers(2.5,2.5,3);
+		for (final HET_Layer layer:stack.getLayers()) {
+			assertEquals("Layer of a single face has closed contours.", 0, layer.getPolygons().size());
+			assertEquals("Layer of a single face has unexpected number of open contours.", 1, layer.getPolyLines().size());
+			final WB_PolyLine line=layer.getPolyLines().get(0);
+			final WB_Point first=line.getPoint(0);
+			final WB_Point last=line.getPoint(line.getNumberOfPoints()-1);
+			assertEquals("Open contour has unexpected length.", 10, Math.abs(last.xd()-first.xd()), 1e-9);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ *
+ */
+package wblut.hemesh;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.junit.Test;
+
+/**
+ * Numbers read by HET_ReaderOBJ should be the same doubles as those of
+ * Double.parseDouble, on both sides of the limits of the fast path: 18
+ * significant digits and a decimal exponent up to 22.
+ */
+public class HET_ReaderOBJTest {
+
+	double[] read(final String... numbers) throws IOException {
+		final File file=File.createTempFile("HET_ReaderOBJTest",".obj");
+		file.deleteOnExit();
+		final Writer writer=new FileWriter(file);
+		try {
+			for (final String number:numbers) {
+				writer.write("v "+number+" 0 0\n");
+			}
+		} finally {
+			writer.close();
+		}
+		final double[] vertices=new HET_ReaderOBJ(file).read().getVertices();
+		final double[] result=new double[numbers.length];
+		for (int i=0;i<numbers.length;i++) {
+			result[i]=vertices[3*i];
+		}
+		return result;
+	}
+
+	void assertParsed(final String... numbers) throws IOException {
+		final double[] values=read(numbers);
+		assertEquals("read gives unexpected number of vertices.", numbers.length, values.length);
+		for (int i=0;i<numbers.length;i++) {
+			assertEquals("read gives unexpected value for "+numbers[i]+".", Double.doubleToLongBits(Double.parseDouble(numbers[i])), Double.doubleToLongBits(values[i]));
+		}
+	}
+
+	/**
+	 * Test method for {@link wblut.hemesh.HET_ReaderOBJ#read()}.
+	 */
+	@Test
+	public void testReadSimpleNumbers() throws IOException {
+		assertParsed("0","1","-1","+1.5","0.1","-0.0","3.14159","100.25",".5","5.","-.75");
+	}
+
+	@Test
+	public void testRead18Digits() throws IOException {
+		assertParsed("123456789012345678","1.23456789012345678","0.123456789012345678","-98765432109876543.2",
+				"9007199254740991","9007199254740993","900719925474099.3","0.000123456789012345678");
+	}
+
+	@Test
+	public void testReadPast18Digits() throws IOException {
+		assertParsed("1234567890123456789","1.234567890123456789","1234567890123456780","12345678901234567800",
+				"0.1234567890123456789","9.999999999999999999","1.00000000000000000001");
+	}
+
+	@Test
+	public void testReadExponent22() throws IOException {
+		assertParsed("1e22","1E22","1e-22","-1e+22","4.5e22","123e20","8e-22","3.0e21","0.0000000000000000000001",
+				"10000000000000000000000","123456789e13","123456789e-22");
+	}
+
+	@Test
+	public void testReadPastExponent22() throws IOException {
+		assertParsed("1e23","1e-23","4.5e-22","123e-24","30e22","0.00000000000000000000001","100000000000000000000000",
+				"1.7976931348623157e308","4.9e-324","2.2250738585072014E-308","1e400","1e-400");
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ *
+ */
+package wblut.hemesh;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+/**
+ * Meshes written in version 2 of the binary hemesh format should read back
+ * unchanged, compressed or not. Version 1 files should still load.
+ *
+ */
+public class HET_WriterBinaryHemesh2Test {
+
+	/**
+	 * Torus with labels, colors and texture coordinates on all elements.
+	 */
+	HE_Mesh getDecoratedMesh() {
+		final HE_Mesh mesh=new HE_Mesh(new HEC_Torus(40,100,8,12));
+		for (int i=0;i<mesh.getNumberOfVertices();i++) {
+			final HE_Vertex v=mesh.getVertexWithIndex(i);
+			v.setInternalLabel(i%7);
+			v.setColor(0xff000000|i);
+			v.setUVW(i,2*i,0.5);
+		}
+		for (int i=0;i<mesh.getNumberOfHalfedges();i++) {
+			final HE_Halfedge he=mesh.getHalfedgeWithIndex(i);
+			he.setColor(0xff000000|3*i);
+			if (i%3==0) {
+				he.setUVW(0.25*i,i,1);
+			}
+		}
+		for (int i=0;i<mesh.getNumberOfFaces();i++) {
+			final HE_Face f=mesh.getFaceWithIndex(i);
+			f.setInternalLabel(i%5);
+			f.setColor(0xff000000|5*i);
+			f.setTextureId(i%4);
+		}
+		return mesh;
+	}
+
+	HE_Mesh roundTrip(final HE_Mesh mesh, final boolean compress) throws IOException {
+		final File dir=Files.createTempDirectory("HET_WriterBinaryHemesh2Test").toFile();
+		final File file=new File(dir,"mesh.binhemesh");
+		try {
+			HET_Export.saveToBinaryHemesh2(mesh,dir.getPath(),"mesh",compress);
+			return HET_Import.readFromBinaryHemeshFile(file.getPath());
+		} finally {
+			file.delete();
+			dir.delete();
+		}
+	}
+
+	void assertSameMesh(final HE_Mesh expected, final HE_Mesh actual) {
+		assertEquals("Unexpected number of vertices.", expected.getNumberOfVertices(), actual.getNumberOfVertices());
+		assertEquals("Unexpected number of halfedges.", expected.getNumberOfHalfedges(), actual.getNumberOfHalfedges());
+		assertEquals("Unexpected number of faces.", expected.getNumberOfFaces(), actual.getNumberOfFaces());
+		assertTrue("Mesh isn't a valid surface.", HET_Diagnosis.isValidSurface(actual));
+		for (int i=0;i<expected.getNumberOfVertices();i++) {
+			final HE_Vertex v=expected.getVertexWithIndex(i);
+			final HE_Vertex w=actual.getVertexWithIndex(i);
+			assertEquals("Vertex has unexpected position.", 0, v.getSqDistance3D(w), 0);
+			assertEquals("Vertex has unexpected label.", v.getInternalLabel(), w.getInternalLabel());
+			assertEquals("Vertex has unexpected color.", v.getColor(), w.getColor());
+			assertEquals("Vertex has unexpected UVW.", v.hasVertexUVW(), w.hasVertexUVW());
+			if (v.hasVertexUVW()) {
+				assertEquals("Vertex has unexpected U.", v.getVertexUVW().ud(), w.getVertexUVW().ud(), 0);
+				assertEquals("Vertex has unexpected V.", v.getVertexUVW().vd(), w.getVertexUVW().vd(), 0);
+			}
+		}
+		for (int i=0;i<expected.getNumberOfHalfedges();i++) {
+			final HE_Halfedge he=expected.getHalfedgeWithIndex(i);
+			final HE_Halfedge other=actual.getHalfedgeWithIndex(i);
+			assertEquals("Halfedge has unexpected start.", expected.getIndex(he.getVertex()), actual.getIndex(other.getVertex()));
+			assertEquals("Halfedge has unexpected pair.", expected.getIndex(he.getPair()), actual.getIndex(other.getPair()));
+			assertEquals("Halfedge has unexpected color.", he.getColor(), other.getColor());
+			assertEquals("Halfedge has unexpected UVW.", he.hasHalfedgeUVW(), other.hasHalfedgeUVW());
+			if (he.hasHalfedgeUVW()) {
+				assertEquals("Halfedge has unexpected U.", he.getHalfedgeUVW().ud(), other.getHalfedgeUVW().ud(), 0);
+			}
+		}
+		assertArrayEquals("Faces have unexpected vertices.", expected.getFacesAsInt(), actual.getFacesAsInt());
+		for (int i=0;i<expected.getNumberOfFaces();i++) {
+			final HE_Face f=expected.getFaceWithIndex(i);
+			final HE_Face g=actual.getFaceWithIndex(i);
+			assertEquals("Face has unexpected label.", f.getInternalLabel(), g.getInternalLabel());
+			assertEquals("Face has unexpected color.", f.getColor(), g.getColor());
+			assertEquals("Face has unexpected texture id.", f.getTextureId(), g.getTextureId());
+		}
+	}
+
+	/**
+	 * Test method for {@link wblut.hemesh.HET_WriterBinaryHemesh2#save(HE_Mesh, String, String)}.
+	 */
+	@Test
+	public void testRoundTripCompressed() throws IOException {
+		final HE_Mesh mesh=getDecoratedMesh();
+		assertSameMesh(mesh,roundTrip(mesh,true));
+	}
+
+	@Test
+	public void testRoundTripUncompressed() throws IOException {
+		final HE_Mesh mesh=getDecoratedMesh();
+		assertSameMesh(mesh,roundTrip(mesh,false));
+	}
+
+	@Test
+	public void testRoundTripOpenMesh() throws IOException {
+		final HE_Mesh mesh=new HE_Mesh(new HEC_Grid(6,4,100,100));
+		final HE_Mesh result=roundTrip(mesh,true);
+		assertSameMesh(mesh,result);
+		assertEquals("Round trip changes the boundary.", mesh.getBoundaryHalfedges().size(), result.getBoundaryHalfedges().size());
+	}
+
+	/**
+	 * Test method for {@link wblut.hemesh.HEC_FromBinaryHemeshFile}.
+	 */
+	@Test
+	public void testReadVersion1() throws IOException {
+		final HE_Mesh mesh=new HE_Mesh(new HEC_Torus(40,100,8,12));
+		final File dir=Files.createTempDirectory("HET_WriterBinaryHemesh2Test").toFile();
+		final File file=new File(dir,"mesh.binhemesh");
+		try {
+			HET_Export.saveToBinaryHemesh(mesh,dir.getPath(),"mesh");
+			final HE_Mesh result=HET_Import.readFromBinaryHemeshFile(file.getPath());
+			assertEquals("Unexpected number of vertices.", mesh.getNumberOfVertices(), result.getNumberOfVertices());
+			assertArrayEquals("Faces have unexpected vertices.", mesh.getFacesAsInt(), result.getFacesAsInt());
+			for (int i=0;i<mesh.getNumberOfVertices();i++) {
+				assertEquals("Vertex has unexpected position.", 0, mesh.getVertexWithIndex(i).getSqDistance3D(result.getVertexWithIndex(i)), 1e-12);
+			}
+		} finally {
+			file.delete();
+			dir.delete();
+		}
+	}
+}
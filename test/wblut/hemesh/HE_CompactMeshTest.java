@@ -0,0 +1,160 @@
+/**
+ *
+ */
+package wblut.hemesh;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Round trips through HE_CompactMesh and HE_Mesh.copy() should keep
+ * positions, connectivity, labels, colors and texture coordinates.
+ *
+ */
+public class HE_CompactMeshTest {
+
+	/**
+	 * Torus with labels, colors and texture coordinates on all elements.
+	 */
+	HE_Mesh getDecoratedMesh() {
+		final HE_Mesh mesh=new HE_Mesh(new HEC_Torus(40,100,8,12));
+		for (int i=0;i<mesh.getNumberOfVertices();i++) {
+			final HE_Vertex v=mesh.getVertexWithIndex(i);
+			v.setInternalLabel(i%7);
+			v.setColor(0xff000000|i);
+			v.setUVW(i,2*i,0.5);
+		}
+		for (int i=0;i<mesh.getNumberOfHalfedges();i++) {
+			final HE_Halfedge he=mesh.getHalfedgeWithIndex(i);
+			he.setColor(0xff000000|3*i);
+			if (i%3==0) {
+				he.setUVW(0.25*i,i,1);
+			}
+		}
+		for (int i=0;i<mesh.getNumberOfFaces();i++) {
+			final HE_Face f=mesh.getFaceWithIndex(i);
+			f.setInternalLabel(i%5);
+			f.setColor(0xff000000|5*i);
+			f.setTextureId(i%4);
+		}
+		return mesh;
+	}
+
+	void assertSameMesh(final HE_Mesh expected, final HE_Mesh actual) {
+		assertEquals("Unexpected number of vertices.", expected.getNumberOfVertices(), actual.getNumberOfVertices());
+		assertEquals("Unexpected number of halfedges.", expected.getNumberOfHalfedges(), actual.getNumberOfHalfedges());
+		assertEquals("Unexpected number of edges.", expected.getNumberOfEdges(), actual.getNumberOfEdges());
+		assertEquals("Unexpected number of faces.", expected.getNumberOfFaces(), actual.getNumberOfFaces());
+		assertTrue("Mesh isn't a valid surface.", HET_Diagnosis.isValidSurface(actual));
+		for (int i=0;i<expected.getNumberOfVertices();i++) {
+			final HE_Vertex v=expected.getVertexWithIndex(i);
+			final HE_Vertex w=actual.getVertexWithIndex(i);
+			assertEquals("Vertex has unexpected position.", 0, v.getSqDistance3D(w), 0);
+			assertEquals("Vertex has unexpected label.", v.getInternalLabel(), w.getInternalLabel());
+			assertEquals("Vertex has unexpected color.", v.getColor(), w.getColor());
+			assertEquals("Vertex has unexpected UVW.", v.hasVertexUVW(), w.hasVertexUVW());
+			if (v.hasVertexUVW()) {
+				assertEquals("Vertex has unexpected U.", v.getVertexUVW().ud(), w.getVertexUVW().ud(), 0);
+				assertEquals("Vertex has unexpected V.", v.getVertexUVW().vd(), w.getVertexUVW().vd(), 0);
+			}
+		}
+		for (int i=0;i<expected.getNumberOfHalfedges();i++) {
+			final HE_Halfedge he=expected.getHalfedgeWithIndex(i);
+			final HE_Halfedge other=actual.getHalfedgeWithIndex(i);
+			assertEquals("Halfedge has unexpected start.", expected.getIndex(he.getVertex()), actual.getIndex(other.getVertex()));
+			assertEquals("Halfedge has unexpected pair.", expected.getIndex(he.getPair()), actual.getIndex(other.getPair()));
+			assertEquals("Halfedge has unexpected next.", expected.getIndex(he.getNextInFace()), actual.getIndex(other.getNextInFace()));
+			assertEquals("Halfedge has unexpected color.", he.getColor(), other.getColor());
+			// halfedge UVW, or the vertex UVW if there is none
+			assertEquals("Halfedge has unexpected UVW.", he.hasUVW(), other.hasUVW());
+			assertEquals("Halfedge has unexpected U.", he.getUVW().ud(), other.getUVW().ud(), 0);
+			assertEquals("Halfedge has unexpected V.", he.getUVW().vd(), other.getUVW().vd(), 0);
+		}
+		assertArrayEquals("Faces have unexpected vertices.", expected.getFacesAsInt(), actual.getFacesAsInt());
+		for (int i=0;i<expected.getNumberOfFaces();i++) {
+			final HE_Face f=expected.getFaceWithIndex(i);
+			final HE_Face g=actual.getFaceWithIndex(i);
+			assertEquals("Face has unexpected label.", f.getInternalLabel(), g.getInternalLabel());
+			assertEquals("Face has unexpected color.", f.getColor(), g.getColor());
+			assertEquals("Face has unexpected texture id.", f.getTextureId(), g.getTextureId());
+		}
+	}
+
+	/**
+	 * Test method for {@link wblut.hemesh.HE_CompactMesh#toMesh()}.
+	 */
+	@Test
+	public void testToMeshRoundTrip() {
+		final HE_Mesh mesh=getDecoratedMesh();
+		assertSameMesh(mesh,new HE_CompactMesh(mesh).toMesh());
+	}
+
+	@Test
+	public void testToMeshRoundTripOpenMesh() {
+		final HE_Mesh mesh=new HE_Mesh(new HEC_Grid(6,4,100,100));
+		final HE_Mesh result=new HE_CompactMesh(mesh).toMesh();
+		assertSameMesh(mesh,result);
+		assertEquals("Round trip changes the boundary.", mesh.getBoundaryHalfedges().size(), result.getBoundaryHalfedges().size());
+	}
+
+	/**
+	 * Test method for {@link wblut.hemesh.HE_CompactMesh#HE_CompactMesh(HE_MeshStructure)}.
+	 */
+	@Test
+	public void testTraversal() {
+		final HE_Mesh mesh=getDecoratedMesh();
+		final HE_CompactMesh compact=new HE_CompactMesh(mesh);
+		final int[] buffer=new int[16];
+		for (int he=0;he<compact.getNumberOfHalfedges();he++) {
+			assertEquals("Pair of pair isn't the halfedge.", he, compact.getPair(compact.getPair(he)));
+			assertEquals("Next halfedge doesn't start at the end.", compact.getEndVertex(he), compact.getStartVertex(compact.getNextInFace(he)));
+			assertEquals("Previous of next isn't the halfedge.", he, compact.getPrevInFace(compact.getNextInFace(he)));
+		}
+		for (int v=0;v<compact.getNumberOfVertices();v++) {
+			assertEquals("getVertexOrder gives unexpected result.", mesh.getVertexWithIndex(v).getVertexOrder(), compact.getVertexOrder(v));
+			assertEquals("getNeighborVertices gives unexpected number.", compact.getVertexOrder(v), compact.getNeighborVertices(v,buffer));
+		}
+		for (int f=0;f<compact.getNumberOfFaces();f++) {
+			final int n=compact.getFaceVertices(f,buffer);
+			final int[] expected=mesh.getFacesAsInt()[f];
+			assertEquals("getFaceOrder gives unexpected result.", expected.length, compact.getFaceOrder(f));
+			for (int j=0;j<n;j++) {
+				assertEquals("getFaceVertices gives unexpected result.", expected[j], buffer[j]);
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link wblut.hemesh.HE_CompactMesh#copy()}.
+	 */
+	@Test
+	public void testCopyOnWrite() {
+		final HE_CompactMesh compact=new HE_CompactMesh(getDecoratedMesh());
+		final double x=compact.xd(0);
+		final HE_CompactMesh copy=compact.copy();
+		copy.setPosition(0,x+1,0,0);
+		assertEquals("Writing a copy changes the original.", x, compact.xd(0), 0);
+		assertEquals("setPosition doesn't change the copy.", x+1, copy.xd(0), 0);
+		compact.setPosition(1,-1,-1,-1);
+		assertEquals("Writing the original changes the copy.", compact.getSource().getVertexWithIndex(1).xd(), copy.xd(1), 0);
+		assertArrayEquals("Copy has unexpected faces.", compact.toMesh().getFacesAsInt(), copy.toMesh().getFacesAsInt());
+	}
+
+	/**
+	 * Test method for {@link wblut.hemesh.HE_Mesh#copy()}.
+	 */
+	@Test
+	public void testMeshCopy() {
+		final HE_Mesh mesh=getDecoratedMesh();
+		final HE_Mesh copy=mesh.copy();
+		assertSameMesh(mesh,copy);
+		final double x=mesh.getVertexWithIndex(0).xd();
+		copy.getVertexWithIndex(0).set(x+1,0,0);
+		assertEquals("Moving a vertex of the copy moves the original.", x, mesh.getVertexWithIndex(0).xd(), 0);
+		final HE_Mesh grid=new HE_Mesh(new HEC_Grid(6,4,100,100));
+		assertSameMesh(grid,grid.copy());
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ *
+ */
+package wblut.hemesh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * An incrementally updated HE_RenderBuffer should hold the same data as a
+ * buffer built from scratch, and only report corners that changed.
+ *
+ */
+public class HE_RenderBufferTest {
+
+	Random random=new Random(12345);
+
+	HE_Mesh getColoredMesh() {
+		final HE_Mesh mesh=new HE_Mesh(new HEC_Torus(40,100,12,24));
+		for (int i=0;i<mesh.getNumberOfFaces();i++) {
+			mesh.getFaceWithIndex(i).setColor(0xff000000|i);
+		}
+		return mesh;
+	}
+
+	void moveVertices(final HE_Mesh mesh, final int count) {
+		for (int i=0;i<count;i++) {
+			final HE_Vertex v=mesh.getVertexWithIndex(random.nextInt(mesh.getNumberOfVertices()));
+			v.set(v.xd()+random.nextDouble()*5,v.yd()-random.nextDouble()*5,v.zd()+random.nextDouble()*5);
+		}
+	}
+
+	void assertSameData(final float[] expected, final float[] actual) {
+		assertEquals("Buffer has unexpected length.", expected.length, actual.length);
+		for (int i=0;i<expected.length;i++) {
+			assertEquals("Buffer has unexpected value.", Float.floatToIntBits(expected[i]), Float.floatToIntBits(actual[i]));
+		}
+	}
+
+	void assertIncrementalUpdate(final boolean smooth) {
+		final HE_Mesh mesh=getColoredMesh();
+		final HE_RenderBuffer buffer=new HE_RenderBuffer(mesh,smooth,HE_RenderBuffer.FACECOLOR);
+		assertTrue("First update doesn't change the buffer.", buffer.update());
+		assertTrue("First update doesn't rebuild the buffer.", buffer.isRebuilt());
+		assertTrue("Update without changes changes the buffer.", !buffer.update());
+		for (int step=0;step<5;step++) {
+			final float[] before=buffer.getData().clone();
+			moveVertices(mesh,3);
+			assertTrue("Moving vertices doesn't change the buffer.", buffer.update());
+			assertTrue("Moving vertices rebuilds the buffer.", !buffer.isRebuilt());
+			final HE_RenderBuffer fresh=new HE_RenderBuffer(mesh,smooth,HE_RenderBuffer.FACECOLOR);
+			fresh.update();
+			assertSameData(fresh.getData(),buffer.getData());
+			// corners outside the dirty ranges didn't change
+			final boolean[] dirty=new boolean[buffer.getNumberOfCorners()];
+			for (int r=0;r<buffer.getNumberOfDirtyRanges();r++) {
+				for (int c=buffer.getDirtyRangeStart(r);c<buffer.getDirtyRangeEnd(r);c++) {
+					dirty[c]=true;
+				}
+			}
+			for (int c=0;c<dirty.length;c++) {
+				if (!dirty[c]) {
+					for (int k=0;k<HE_RenderBuffer.STRIDE;k++) {
+						assertEquals("Corner outside the dirty ranges changed.", Float.floatToIntBits(before[HE_RenderBuffer.STRIDE*c+k]), Float.floatToIntBits(buffer.getData()[HE_RenderBuffer.STRIDE*c+k]));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link wblut.hemesh.HE_RenderBuffer#update()}.
+	 */
+	@Test
+	public void testIncrementalUpdateFlat() {
+		assertIncrementalUpdate(false);
+	}
+
+	@Test
+	public void testIncrementalUpdateSmooth() {
+		assertIncrementalUpdate(true);
+	}
+
+	@Test
+	public void testTopologyChangeRebuilds() {
+		final HE_Mesh mesh=getColoredMesh();
+		final HE_RenderBuffer buffer=new HE_RenderBuffer(mesh,false,HE_RenderBuffer.FACECOLOR);
+		buffer.update();
+		mesh.triangulate();
+		assertTrue("Triangulating the mesh doesn't change the buffer.", buffer.update());
+		assertTrue("Triangulating the mesh doesn't rebuild the buffer.", buffer.isRebuilt());
+		assertEquals("Buffer has unexpected number of corners.", 3*mesh.getNumberOfFaces(), buffer.getNumberOfCorners());
+	}
+
+	/**
+	 * Test method for {@link wblut.hemesh.HE_RenderBuffer#invalidate()}.
+	 */
+	@Test
+	public void testInvalidateRefillsColors() {
+		final HE_Mesh mesh=getColoredMesh();
+		final HE_RenderBuffer buffer=new HE_RenderBuffer(mesh,false,HE_RenderBuffer.FACECOLOR);
+		buffer.update();
+		mesh.getFaceWithIndex(0).setColor(0xff123456);
+		assertTrue("Color changes are tracked.", !buffer.update());
+		buffer.invalidate();
+		assertTrue("invalidate doesn't change the buffer.", buffer.update());
+		assertEquals("Corner has unexpected color.", 0xff123456, Float.floatToRawIntBits(buffer.getData()[HE_RenderBuffer.COLOR]));
+	}
+}